@@ -0,0 +1,199 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.formats.io;
+
+import org.opencb.commons.io.DataReader;
+import org.opencb.commons.utils.FileUtils;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads the records of a big XML document one by one, without loading the whole document in memory.
+ *
+ * A StAX cursor moves over the document, and every child of the root element with one of the given names is
+ * unmarshalled with JAXB. Any other element is skipped. e.g. the VariationArchive elements of a ClinVar release,
+ * or the entry elements of UniProt.
+ *
+ * DTDs and external entities are not loaded.
+ *
+ * @param <T> Type of the records
+ */
+public class JaxbStreamReader<T> implements DataReader<T>, Iterator<T> {
+
+    private static final Map<String, JAXBContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private final InputStream inputStream;
+    private final XMLStreamReader reader;
+    private final Unmarshaller unmarshaller;
+    private final Class<T> type;
+    private final boolean declaredType;
+    private final Set<String> elementNames;
+    private int depth = 0;
+    private boolean ready = false;
+
+    /**
+     * @param path          XML file. Compressed files (.gz) are supported
+     * @param contextPath   JAXB context path
+     * @param type          Class of the records
+     * @param elementNames  Names of the record elements
+     * @throws IOException   if the file can not be read
+     * @throws JAXBException if the JAXB context is not valid
+     */
+    public JaxbStreamReader(Path path, String contextPath, Class<T> type, String... elementNames)
+            throws IOException, JAXBException {
+        this(FileUtils.newInputStream(path), getContext(contextPath), type, elementNames);
+    }
+
+    /**
+     * @param inputStream   XML document. Closed with the reader
+     * @param context       JAXB context
+     * @param type          Class of the records. Classes without {@link XmlRootElement} are unmarshalled as
+     *                      declared types. Use Object to read elements of different classes
+     * @param elementNames  Names of the record elements
+     * @throws JAXBException if the XML stream can not be created
+     */
+    public JaxbStreamReader(InputStream inputStream, JAXBContext context, Class<T> type, String... elementNames)
+            throws JAXBException {
+        this.inputStream = inputStream;
+        this.type = type;
+        this.declaredType = !type.equals(Object.class) && !type.isAnnotationPresent(XmlRootElement.class);
+        this.elementNames = new HashSet<>(Arrays.asList(elementNames));
+        this.unmarshaller = context.createUnmarshaller();
+
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            this.reader = factory.createXMLStreamReader(inputStream);
+        } catch (XMLStreamException e) {
+            throw new JAXBException(e);
+        }
+    }
+
+    /**
+     * JAXBContext creation is expensive, so contexts are created once and shared. JAXBContext is thread-safe.
+     *
+     * @param contextPath   JAXB context path
+     * @return the JAXBContext
+     * @throws JAXBException if the context can not be created
+     */
+    public static JAXBContext getContext(String contextPath) throws JAXBException {
+        JAXBContext context = CONTEXTS.get(contextPath);
+        if (context == null) {
+            context = JAXBContext.newInstance(contextPath);
+            JAXBContext previous = CONTEXTS.putIfAbsent(contextPath, context);
+            if (previous != null) {
+                context = previous;
+            }
+        }
+        return context;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!ready) {
+            try {
+                ready = seek();
+            } catch (XMLStreamException e) {
+                throw new IllegalStateException("Error reading XML document", e);
+            }
+        }
+        return ready;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        try {
+            // The unmarshaller leaves the cursor right after the end of the element
+            if (declaredType) {
+                return unmarshaller.unmarshal(reader, type).getValue();
+            } else {
+                return type.cast(JAXBIntrospector.getValue(unmarshaller.unmarshal(reader)));
+            }
+        } catch (JAXBException e) {
+            throw new IllegalStateException("Error unmarshalling XML element", e);
+        }
+    }
+
+    @Override
+    public List<T> read(int batchSize) {
+        List<T> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && hasNext()) {
+            batch.add(next());
+        }
+        return batch;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    @Override
+    public boolean close() {
+        try {
+            reader.close();
+            inputStream.close();
+        } catch (XMLStreamException | IOException e) {
+            throw new IllegalStateException("Error closing XML document", e);
+        }
+        return true;
+    }
+
+    /**
+     * Move the cursor to the start of the next record element.
+     */
+    private boolean seek() throws XMLStreamException {
+        while (true) {
+            int event = reader.getEventType();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (depth == 1 && elementNames.contains(reader.getLocalName())) {
+                    return true;
+                }
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            } else if (event == XMLStreamConstants.END_DOCUMENT) {
+                return false;
+            }
+            if (!reader.hasNext()) {
+                return false;
+            }
+            reader.next();
+        }
+    }
+}
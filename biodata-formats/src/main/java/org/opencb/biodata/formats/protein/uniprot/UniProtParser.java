@@ -16,6 +16,9 @@
 
 package org.opencb.biodata.formats.protein.uniprot;
 
+import org.opencb.biodata.formats.io.JaxbStreamReader;
+import org.opencb.biodata.formats.protein.uniprot.v202003jaxb.Entry;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -23,6 +26,8 @@ import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Created by imedina on 25/09/15.
@@ -33,7 +38,7 @@ public class UniProtParser {
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
         JAXBContext jaxbContext;
-        jaxbContext = JAXBContext.newInstance(UNIPROT_CONTEXT);
+        jaxbContext = JaxbStreamReader.getContext(UNIPROT_CONTEXT);
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.marshal(obj, new FileOutputStream(filename));
     }
@@ -46,7 +51,7 @@ public class UniProtParser {
      */
     public static Object loadXMLInfo(String filename) throws JAXBException {
         Object obj = null;
-        JAXBContext jaxbContext = JAXBContext.newInstance(UNIPROT_CONTEXT);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(UNIPROT_CONTEXT);
         Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
         obj = unmarshaller.unmarshal(new File(filename));
         return obj;
@@ -60,9 +65,21 @@ public class UniProtParser {
      */
     public static Object loadXMLInfo(String filename, String uniprotVersion) throws JAXBException {
         Object obj = null;
-        JAXBContext jaxbContext = JAXBContext.newInstance(uniprotVersion);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(uniprotVersion);
         Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
         obj = unmarshaller.unmarshal(new File(filename));
         return obj;
     }
+
+    /**
+     * Reads the UniProt entries one by one, without loading the whole file in memory.
+     *
+     * @param filename UniProt XML file, can be compressed
+     * @return Reader of the entries. Must be closed
+     * @throws JAXBException
+     * @throws IOException
+     */
+    public static JaxbStreamReader<Entry> newEntryReader(String filename) throws JAXBException, IOException {
+        return new JaxbStreamReader<>(Paths.get(filename), UNIPROT_CONTEXT, Entry.class, "entry");
+    }
 }
@@ -1,10 +1,13 @@
 package org.opencb.biodata.formats.pubmed;
 
+import org.opencb.biodata.formats.io.JaxbStreamReader;
+
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.zip.GZIPInputStream;
 
 public class PubMedParser {
@@ -14,7 +17,7 @@ public class PubMedParser {
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
         JAXBContext jaxbContext;
-        jaxbContext = JAXBContext.newInstance(PUBMED_CONTEXT);
+        jaxbContext = JaxbStreamReader.getContext(PUBMED_CONTEXT);
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.marshal(obj, new FileOutputStream(filename));
     }
@@ -29,7 +32,7 @@ public class PubMedParser {
         System.setProperty("javax.xml.accessExternalDTD", "all");
 
         Object obj = null;
-        JAXBContext jaxbContext = JAXBContext.newInstance(PUBMED_CONTEXT);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(PUBMED_CONTEXT);
         Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
 
         if (filename.endsWith("gz")) {
@@ -43,4 +46,17 @@ public class PubMedParser {
 
         return obj;
     }
+
+    /**
+     * Reads the articles one by one, without loading the whole file in memory. The DTD is not loaded.
+     *
+     * @param filename PubMed XML file, can be compressed
+     * @return Reader of the PubmedArticle and PubmedBookArticle elements. Must be closed
+     * @throws JAXBException
+     * @throws IOException
+     */
+    public static JaxbStreamReader<Object> newArticleReader(String filename) throws JAXBException, IOException {
+        return new JaxbStreamReader<>(Paths.get(filename), PUBMED_CONTEXT, Object.class, "PubmedArticle",
+                "PubmedBookArticle");
+    }
 }
@@ -110,8 +110,12 @@ public class FastaQReader extends AbstractFormatReader<FastQ> {
             String idLine = this.readIdLine();
             if (idLine != null) {
                 // Obtain Id and Desc from Id Line
-                String id = idLine.split("\\s")[0].substring(1);
-                String desc = idLine.substring(id.length() + 1);
+                int idEnd = 1;
+                while (idEnd < idLine.length() && !Character.isWhitespace(idLine.charAt(idEnd))) {
+                    idEnd++;
+                }
+                String id = idLine.substring(1, idEnd);
+                String desc = idLine.substring(idEnd);
 
                 // Read Sequence
                 StringBuilder sequenceBuilder = new StringBuilder();
@@ -11,16 +11,35 @@ public class FastQcMetrics {
     private Map<String, String> basicStats;
     private List<String> files;
 
+    private PerBaseSeqQuality perBaseSeqQuality;
+    private PerSeqQualityScore perSeqQualityScore;
+    private PerBaseSeqContent perBaseSeqContent;
+    private PerSeqGcContent perSeqGcContent;
+    private PerBaseNContent perBaseNContent;
+    private SeqLengthDistribution seqLengthDistribution;
+
     public FastQcMetrics() {
         summary = new Summary();
         basicStats = new LinkedHashMap<>();
         files = new ArrayList<>();
+        perBaseSeqQuality = new PerBaseSeqQuality();
+        perSeqQualityScore = new PerSeqQualityScore();
+        perBaseSeqContent = new PerBaseSeqContent();
+        perSeqGcContent = new PerSeqGcContent();
+        perBaseNContent = new PerBaseNContent();
+        seqLengthDistribution = new SeqLengthDistribution();
     }
 
     public FastQcMetrics(Summary summary, Map<String, String> basicStats, List<String> files) {
         this.summary = summary;
         this.basicStats = basicStats;
         this.files = files;
+        this.perBaseSeqQuality = new PerBaseSeqQuality();
+        this.perSeqQualityScore = new PerSeqQualityScore();
+        this.perBaseSeqContent = new PerBaseSeqContent();
+        this.perSeqGcContent = new PerSeqGcContent();
+        this.perBaseNContent = new PerBaseNContent();
+        this.seqLengthDistribution = new SeqLengthDistribution();
     }
 
     @Override
@@ -29,6 +48,12 @@ public class FastQcMetrics {
         sb.append("summary=").append(summary);
         sb.append(", basicStats=").append(basicStats);
         sb.append(", files=").append(files);
+        sb.append(", perBaseSeqQuality=").append(perBaseSeqQuality);
+        sb.append(", perSeqQualityScore=").append(perSeqQualityScore);
+        sb.append(", perBaseSeqContent=").append(perBaseSeqContent);
+        sb.append(", perSeqGcContent=").append(perSeqGcContent);
+        sb.append(", perBaseNContent=").append(perBaseNContent);
+        sb.append(", seqLengthDistribution=").append(seqLengthDistribution);
         sb.append('}');
         return sb.toString();
     }
@@ -59,4 +84,58 @@ public class FastQcMetrics {
         this.files = files;
         return this;
     }
+
+    public PerBaseSeqQuality getPerBaseSeqQuality() {
+        return perBaseSeqQuality;
+    }
+
+    public FastQcMetrics setPerBaseSeqQuality(PerBaseSeqQuality perBaseSeqQuality) {
+        this.perBaseSeqQuality = perBaseSeqQuality;
+        return this;
+    }
+
+    public PerSeqQualityScore getPerSeqQualityScore() {
+        return perSeqQualityScore;
+    }
+
+    public FastQcMetrics setPerSeqQualityScore(PerSeqQualityScore perSeqQualityScore) {
+        this.perSeqQualityScore = perSeqQualityScore;
+        return this;
+    }
+
+    public PerBaseSeqContent getPerBaseSeqContent() {
+        return perBaseSeqContent;
+    }
+
+    public FastQcMetrics setPerBaseSeqContent(PerBaseSeqContent perBaseSeqContent) {
+        this.perBaseSeqContent = perBaseSeqContent;
+        return this;
+    }
+
+    public PerSeqGcContent getPerSeqGcContent() {
+        return perSeqGcContent;
+    }
+
+    public FastQcMetrics setPerSeqGcContent(PerSeqGcContent perSeqGcContent) {
+        this.perSeqGcContent = perSeqGcContent;
+        return this;
+    }
+
+    public PerBaseNContent getPerBaseNContent() {
+        return perBaseNContent;
+    }
+
+    public FastQcMetrics setPerBaseNContent(PerBaseNContent perBaseNContent) {
+        this.perBaseNContent = perBaseNContent;
+        return this;
+    }
+
+    public SeqLengthDistribution getSeqLengthDistribution() {
+        return seqLengthDistribution;
+    }
+
+    public FastQcMetrics setSeqLengthDistribution(SeqLengthDistribution seqLengthDistribution) {
+        this.seqLengthDistribution = seqLengthDistribution;
+        return this;
+    }
 }
@@ -32,25 +32,25 @@ public class FastQcParser {
                     parseBasicStatistics(fastQcMetrics.getBasicStats(), br);
                 } else if (line.startsWith(">>Per base sequence quality")) {
                     fastQcMetrics.getSummary().setPerBaseSeqQuality(status);
-//                    parsePerBaseSeqQuality(fastQc.getPerBaseSeqQuality(), br);
+                    parsePerBaseSeqQuality(fastQcMetrics.getPerBaseSeqQuality(), br);
                 } else if (line.startsWith(">>Per tile sequence quality")) {
                     fastQcMetrics.getSummary().setPerTileSeqQuality(status);
 //                    parsePerTileSeqQuality(fastQc.getPerTileSeqQuality(), br);
                 } else if (line.startsWith(">>Per sequence quality scores")) {
                     fastQcMetrics.getSummary().setPerSeqQualityScores(status);
-//                    parsePerSeqQualityScores(fastQc.getPerSeqQualityScore(), br);
+                    parsePerSeqQualityScores(fastQcMetrics.getPerSeqQualityScore(), br);
                 } else if (line.startsWith(">>Per base sequence content")) {
                     fastQcMetrics.getSummary().setPerBaseSeqContent(status);
-//                    parsePerBaseSeqContent(fastQc.getPerBaseSeqContent(), br);
+                    parsePerBaseSeqContent(fastQcMetrics.getPerBaseSeqContent(), br);
                 } else if (line.startsWith(">>Per sequence GC content")) {
                     fastQcMetrics.getSummary().setPerSeqGcContent(status);
-//                    parsePerSeqGcContent(fastQc.getPerSeqGcContent(), br);
+                    parsePerSeqGcContent(fastQcMetrics.getPerSeqGcContent(), br);
                 } else if (line.startsWith(">>Per base N content")) {
                     fastQcMetrics.getSummary().setPerBaseNContent(status);
-//                    parsePerBaseNContent(fastQc.getPerBaseNContent(), br);
+                    parsePerBaseNContent(fastQcMetrics.getPerBaseNContent(), br);
                 } else if (line.startsWith(">>Sequence Length Distribution")) {
                     fastQcMetrics.getSummary().setSeqLengthDistribution(status);
-//                    parseSeqLengthDistribution(fastQc.getSeqLengthDistribution(), br);
+                    parseSeqLengthDistribution(fastQcMetrics.getSeqLengthDistribution(), br);
                 } else if (line.startsWith(">>Sequence Duplication Levels")) {
                     fastQcMetrics.getSummary().setSeqDuplicationLevels(status);
 //                    parseSeqDuplicationLevels(fastQc.getSeqDuplicationLevel(), br);
@@ -19,6 +19,8 @@
 
 package org.opencb.biodata.formats.variant.clinvar.rcv;
 
+import org.opencb.biodata.formats.io.JaxbStreamReader;
+import org.opencb.biodata.formats.variant.clinvar.rcv.v64jaxb.PublicSetType;
 import org.opencb.commons.utils.FileUtils;
 
 import javax.xml.bind.JAXBContext;
@@ -36,7 +38,7 @@ public class ClinvarParser {
     public final static String CLINVAR_CONTEXT_v64 = "org.opencb.biodata.formats.variant.clinvar.rcv.v64jaxb";
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(CLINVAR_CONTEXT_v64);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(CLINVAR_CONTEXT_v64);
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.marshal(obj, new FileOutputStream(filename));
     }
@@ -59,8 +61,20 @@ public class ClinvarParser {
      */
     public static Object loadXMLInfo(String filename, String clinvarVersion) throws JAXBException, IOException {
         InputStream inputStream = FileUtils.newInputStream(Paths.get(filename));
-        JAXBContext jaxbContext = JAXBContext.newInstance(clinvarVersion);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(clinvarVersion);
         Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
         return unmarshaller.unmarshal(inputStream);
     }
+
+    /**
+     * Reads the ClinVarSet records one by one, without loading the whole release in memory.
+     *
+     * @param filename ClinVar full release, can be compressed
+     * @return Reader of the ClinVarSet records. Must be closed
+     * @throws JAXBException
+     * @throws IOException
+     */
+    public static JaxbStreamReader<PublicSetType> newClinVarSetReader(String filename) throws JAXBException, IOException {
+        return new JaxbStreamReader<>(Paths.get(filename), CLINVAR_CONTEXT_v64, PublicSetType.class, "ClinVarSet");
+    }
 }
@@ -19,6 +19,8 @@
 
 package org.opencb.biodata.formats.variant.clinvar.vcv;
 
+import org.opencb.biodata.formats.io.JaxbStreamReader;
+import org.opencb.biodata.formats.variant.clinvar.vcv.v10jaxb.VariationArchiveType;
 import org.opencb.commons.utils.FileUtils;
 
 import javax.xml.bind.JAXBContext;
@@ -36,7 +38,7 @@ public class ClinvarVariationParser {
     public final static String CLINVAR_VARIATION_CONTEXT_v10 = "org.opencb.biodata.formats.variant.clinvar.vcv.v10jaxb";
 
     public static void saveXMLInfo(Object obj, String filename) throws FileNotFoundException, JAXBException {
-        JAXBContext jaxbContext = JAXBContext.newInstance(CLINVAR_VARIATION_CONTEXT_v10);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(CLINVAR_VARIATION_CONTEXT_v10);
         Marshaller marshaller = jaxbContext.createMarshaller();
         marshaller.marshal(obj, new FileOutputStream(filename));
     }
@@ -59,8 +61,22 @@ public class ClinvarVariationParser {
      */
     public static Object loadXMLInfo(String filename, String clinvarVersion) throws JAXBException, IOException {
         InputStream inputStream = FileUtils.newInputStream(Paths.get(filename));
-        JAXBContext jaxbContext = JAXBContext.newInstance(clinvarVersion);
+        JAXBContext jaxbContext = JaxbStreamReader.getContext(clinvarVersion);
         Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
         return unmarshaller.unmarshal(inputStream);
     }
+
+    /**
+     * Reads the VariationArchive records one by one, without loading the whole release in memory.
+     *
+     * @param filename ClinVar VCV release, can be compressed
+     * @return Reader of the VariationArchive records. Must be closed
+     * @throws JAXBException
+     * @throws IOException
+     */
+    public static JaxbStreamReader<VariationArchiveType> newVariationArchiveReader(String filename)
+            throws JAXBException, IOException {
+        return new JaxbStreamReader<>(Paths.get(filename), CLINVAR_VARIATION_CONTEXT_v10, VariationArchiveType.class,
+                "VariationArchive");
+    }
 }
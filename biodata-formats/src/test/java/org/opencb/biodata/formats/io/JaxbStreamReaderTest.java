@@ -0,0 +1,91 @@
+package org.opencb.biodata.formats.io;
+
+import org.junit.Test;
+import org.opencb.biodata.formats.drug.drugbank.DrugBankParser;
+import org.opencb.biodata.formats.drug.drugbank.v43jaxb.DrugType;
+import org.opencb.biodata.formats.protein.uniprot.UniProtParser;
+import org.opencb.biodata.formats.protein.uniprot.v202003jaxb.Entry;
+import org.opencb.biodata.formats.variant.clinvar.vcv.ClinvarVariationParser;
+import org.opencb.biodata.formats.variant.clinvar.vcv.v10jaxb.VariationArchiveType;
+
+import javax.xml.bind.JAXBException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JaxbStreamReaderTest {
+
+    private static InputStream toInputStream(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadUniProtEntries() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<uniprot xmlns=\"http://uniprot.org/uniprot\">\n"
+                + "  <entry dataset=\"Swiss-Prot\"><accession>P1</accession><name>N1</name></entry>\n"
+                + "  <entry dataset=\"Swiss-Prot\"><accession>P2</accession><accession>P2b</accession><name>N2</name></entry>\n"
+                + "  <copyright>text</copyright>\n"
+                + "  <entry dataset=\"TrEMBL\"><accession>P3</accession><name>N3</name></entry>\n"
+                + "</uniprot>\n";
+        JaxbStreamReader<Entry> reader = new JaxbStreamReader<>(toInputStream(xml),
+                JaxbStreamReader.getContext(UniProtParser.UNIPROT_CONTEXT), Entry.class, "entry");
+        List<Entry> entries = new ArrayList<>();
+        reader.forEach(entries::add);
+        reader.close();
+
+        assertEquals(3, entries.size());
+        assertEquals("P1", entries.get(0).getAccession().get(0));
+        assertEquals(2, entries.get(1).getAccession().size());
+        assertEquals("N3", entries.get(2).getName().get(0));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testReadDrugsInBatches() throws Exception {
+        StringBuilder xml = new StringBuilder("<drugbank xmlns=\"http://www.drugbank.ca\" version=\"4.3\">");
+        for (int i = 0; i < 5; i++) {
+            xml.append("<drug type=\"small molecule\"><drugbank-id primary=\"true\">DB0000").append(i)
+                    .append("</drugbank-id><name>drug").append(i).append("</name></drug>");
+        }
+        xml.append("</drugbank>");
+        JaxbStreamReader<DrugType> reader = new JaxbStreamReader<>(toInputStream(xml.toString()),
+                JaxbStreamReader.getContext(DrugBankParser.DRUGBANK_CONTEXT_v43), DrugType.class, "drug");
+
+        assertEquals(2, reader.read(2).size());
+        List<DrugType> batch = reader.read(10);
+        reader.close();
+        assertEquals(3, batch.size());
+        assertEquals("drug2", batch.get(0).getName());
+        assertEquals("DB00004", batch.get(2).getDrugbankId().get(0).getValue());
+    }
+
+    @Test
+    public void testReadVariationArchives() throws Exception {
+        String xml = "<ClinVarVariationRelease ReleaseDate=\"2020-01-01\">"
+                + "<VariationArchive VariationID=\"12\" VariationName=\"first\" Accession=\"VCV000000012\">"
+                + "<VariationArchive VariationID=\"99\"/></VariationArchive>"
+                + "<VariationArchive VariationID=\"13\" VariationName=\"second\" Accession=\"VCV000000013\"/>"
+                + "</ClinVarVariationRelease>";
+        JaxbStreamReader<VariationArchiveType> reader = new JaxbStreamReader<>(toInputStream(xml),
+                JaxbStreamReader.getContext(ClinvarVariationParser.CLINVAR_VARIATION_CONTEXT_v10),
+                VariationArchiveType.class, "VariationArchive");
+        List<VariationArchiveType> archives = reader.read(10);
+        reader.close();
+
+        // Only the children of the root element are records
+        assertEquals(2, archives.size());
+        assertEquals(12, archives.get(0).getVariationID().intValue());
+        assertEquals("VCV000000013", archives.get(1).getAccession());
+    }
+
+    @Test
+    public void testCachedContext() throws JAXBException {
+        assertSame(JaxbStreamReader.getContext(UniProtParser.UNIPROT_CONTEXT),
+                JaxbStreamReader.getContext(UniProtParser.UNIPROT_CONTEXT));
+    }
+}
@@ -3,6 +3,7 @@ package org.opencb.biodata.formats.pubmed;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Assert;
 import org.junit.Test;
+import org.opencb.biodata.formats.io.JaxbStreamReader;
 import org.opencb.biodata.formats.pubmed.v233jaxb.PubmedArticle;
 import org.opencb.biodata.formats.pubmed.v233jaxb.PubmedArticleSet;
 
@@ -44,4 +45,16 @@ public class PubMedParserTest {
 
         Assert.assertEquals(json, json2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testArticleReader() throws JAXBException, IOException {
+        Path pubmedFile = Paths.get(getClass().getResource("/pubmed.test.xml").getPath());
+
+        JaxbStreamReader<Object> reader = PubMedParser.newArticleReader(pubmedFile.toAbsolutePath().toString());
+        List<Object> articles = reader.read(10);
+        reader.close();
+
+        Assert.assertEquals(2, articles.size());
+        Assert.assertEquals("34878743", ((PubmedArticle) articles.get(0)).getMedlineCitation().getPMID().getContent());
+    }
+}
@@ -0,0 +1,72 @@
+package org.opencb.biodata.formats.sequence.fastqc.io;
+
+import org.junit.Test;
+import org.opencb.biodata.formats.sequence.fastqc.FastQcMetrics;
+import org.opencb.biodata.formats.sequence.fastqc.PerBaseSeqContent;
+import org.opencb.biodata.formats.sequence.fastqc.PerBaseSeqQuality;
+import org.opencb.biodata.formats.sequence.fastqc.Summary;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+import static org.junit.Assert.*;
+
+public class FastQcParserTest {
+
+    @Test
+    public void testParse() throws Exception {
+        File file = new File(getClass().getResource("/fastqc/fastqc_data.txt").toURI());
+        FastQcMetrics fastQcMetrics = FastQcParser.parse(file);
+
+        Summary summary = fastQcMetrics.getSummary();
+        assertEquals("PASS", summary.getBasicStatistics());
+        assertEquals("PASS", summary.getPerBaseSeqQuality());
+        assertEquals("PASS", summary.getPerTileSeqQuality());
+        assertEquals("WARN", summary.getPerBaseSeqContent());
+        assertEquals("FAIL", summary.getPerSeqGcContent());
+        assertEquals("WARN", summary.getSeqLengthDistribution());
+        assertEquals("PASS", summary.getKmerContent());
+
+        assertEquals("1000", fastQcMetrics.getBasicStats().get("Total Sequences"));
+        assertEquals("48", fastQcMetrics.getBasicStats().get("%GC"));
+
+        assertEquals(5, fastQcMetrics.getPerBaseSeqQuality().getValues().size());
+        PerBaseSeqQuality.Value quality = fastQcMetrics.getPerBaseSeqQuality().getValues().get(2);
+        assertEquals("3", quality.getBase());
+        assertEquals(35.8, quality.getMean(), 0.0001);
+        assertEquals(33.0, quality.getPercentile10th(), 0.0001);
+
+        assertEquals(3, fastQcMetrics.getPerSeqQualityScore().getValues().size());
+        assertEquals(800.0, fastQcMetrics.getPerSeqQualityScore().getValues().get(36), 0.0001);
+
+        assertEquals(5, fastQcMetrics.getPerBaseSeqContent().getValues().size());
+        PerBaseSeqContent.Value content = fastQcMetrics.getPerBaseSeqContent().getValues().get(0);
+        assertEquals("1", content.getBase());
+        assertEquals(22.5, content.getG(), 0.0001);
+        assertEquals(22.0, content.getC(), 0.0001);
+
+        double[] gc = fastQcMetrics.getPerSeqGcContent().getValues();
+        assertEquals(101, gc.length);
+        assertEquals(0.0, gc[0], 0.0001);
+        assertEquals(200.0, gc[100], 0.0001);
+
+        assertEquals(5, fastQcMetrics.getPerBaseNContent().getValues().size());
+        assertEquals(0.1, fastQcMetrics.getPerBaseNContent().getValues().get("1"), 0.0001);
+
+        assertEquals(2, fastQcMetrics.getSeqLengthDistribution().getValues().size());
+        assertEquals(750.0, fastQcMetrics.getSeqLengthDistribution().getValues().get("5"), 0.0001);
+    }
+
+    @Test
+    public void testConstructorInitialisesModules() {
+        FastQcMetrics fastQcMetrics = new FastQcMetrics(new Summary(), new LinkedHashMap<>(), new ArrayList<>());
+
+        assertNotNull(fastQcMetrics.getPerBaseSeqQuality());
+        assertNotNull(fastQcMetrics.getPerSeqQualityScore());
+        assertNotNull(fastQcMetrics.getPerBaseSeqContent());
+        assertNotNull(fastQcMetrics.getPerSeqGcContent());
+        assertNotNull(fastQcMetrics.getPerBaseNContent());
+        assertNotNull(fastQcMetrics.getSeqLengthDistribution());
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.models.variant;
+
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+
+import java.util.*;
+
+/**
+ * List of {@link SampleEntry} storing the sample data by columns, one array per sample data key (FORMAT field),
+ * instead of one list of values per sample.
+ *
+ * The genotypes (GT) are stored as {@link GenotypeCodec} codes, and the DP and GQ values as ints. Columns of ints
+ * are converted to String columns if any value can not be stored as an int without changing its String
+ * representation.
+ *
+ * The SampleEntry objects are only created when accessing the elements of this list. Their data lists are views of
+ * the columns, so setting or appending values modifies this list. Any other change in the returned SampleEntry, like
+ * {@link SampleEntry#setData}, is not written back: use {@link #set(int, SampleEntry)} to replace a sample.
+ *
+ * Use {@link #getData(int, int)} and {@link #getGenotypeCode(int)} to read the values without creating any view.
+ *
+ * This class is not thread-safe.
+ */
+public class ColumnarSampleEntries extends AbstractList<SampleEntry> implements RandomAccess {
+
+    public static final String GENOTYPE_KEY = "GT";
+    public static final String DEPTH_KEY = "DP";
+    public static final String GENOTYPE_QUALITY_KEY = "GQ";
+
+    // Missing GT values. Null values in int columns and missing ("." values) in DP and GQ columns
+    private static final int NULL_GT = -1;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+    private static final int MISSING_INT = Integer.MIN_VALUE + 1;
+    // Missing SampleEntry
+    private static final int NULL_SAMPLE = -1;
+
+    private final List<String> sampleDataKeys;
+    private int size;
+    // Number of values of each sample, or NULL_SAMPLE
+    private int[] lengths;
+    private String[] sampleIds;
+    private Integer[] fileIndexes;
+    // One column per position in the sample data. Only one of them is not null for each position
+    private String[][] stringColumns;
+    private int[][] intColumns;
+    private int gtPosition;
+
+    /**
+     * @param sampleDataKeys Sample data keys (FORMAT fields) of the samples
+     * @param capacity       Expected number of samples
+     */
+    public ColumnarSampleEntries(List<String> sampleDataKeys, int capacity) {
+        this.sampleDataKeys = sampleDataKeys == null ? Collections.emptyList() : new ArrayList<>(sampleDataKeys);
+        int numColumns = this.sampleDataKeys.size();
+        capacity = Math.max(capacity, 1);
+        this.lengths = new int[capacity];
+        this.stringColumns = new String[numColumns][];
+        this.intColumns = new int[numColumns][];
+        this.gtPosition = -1;
+        for (int i = 0; i < numColumns; i++) {
+            String key = this.sampleDataKeys.get(i);
+            if (GENOTYPE_KEY.equals(key) && gtPosition < 0) {
+                gtPosition = i;
+                intColumns[i] = newIntColumn(capacity, NULL_GT);
+            } else if (DEPTH_KEY.equals(key) || GENOTYPE_QUALITY_KEY.equals(key)) {
+                intColumns[i] = newIntColumn(capacity, NULL_INT);
+            } else {
+                stringColumns[i] = new String[capacity];
+            }
+        }
+    }
+
+    /**
+     * Copy a list of samples in a new columnar list.
+     *
+     * @param sampleDataKeys Sample data keys (FORMAT fields) of the samples
+     * @param samples        Samples to copy
+     * @return the new list
+     */
+    public static ColumnarSampleEntries copyOf(List<String> sampleDataKeys, List<SampleEntry> samples) {
+        if (samples instanceof ColumnarSampleEntries) {
+            return ((ColumnarSampleEntries) samples);
+        }
+        ColumnarSampleEntries columnarSamples = new ColumnarSampleEntries(sampleDataKeys, samples.size());
+        columnarSamples.addAll(samples);
+        return columnarSamples;
+    }
+
+    /**
+     * Add a new sample with all its values set to null.
+     *
+     * @return position of the new sample
+     */
+    public int addSample() {
+        ensureCapacity(size + 1);
+        lengths[size] = sampleDataKeys.size();
+        modCount++;
+        return size++;
+    }
+
+    @Override
+    public SampleEntry get(int samplePosition) {
+        checkIndex(samplePosition, size);
+        if (lengths[samplePosition] == NULL_SAMPLE) {
+            return null;
+        }
+        return new SampleEntry(sampleIds == null ? null : sampleIds[samplePosition],
+                fileIndexes == null ? null : fileIndexes[samplePosition],
+                new SampleDataView(samplePosition));
+    }
+
+    @Override
+    public SampleEntry set(int samplePosition, SampleEntry sampleEntry) {
+        SampleEntry previous = get(samplePosition);
+        if (previous != null) {
+            // Detach the previous value from the columns
+            previous = new SampleEntry(previous.getSampleId(), previous.getFileIndex(),
+                    new ArrayList<>(previous.getData()));
+        }
+        write(samplePosition, sampleEntry);
+        return previous;
+    }
+
+    @Override
+    public void add(int samplePosition, SampleEntry sampleEntry) {
+        checkIndex(samplePosition, size + 1);
+        if (samplePosition != size) {
+            throw new UnsupportedOperationException("Samples can only be added at the end of the list");
+        }
+        ensureCapacity(size + 1);
+        size++;
+        modCount++;
+        write(samplePosition, sampleEntry);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public List<String> getSampleDataKeys() {
+        return Collections.unmodifiableList(sampleDataKeys);
+    }
+
+    /**
+     * Get a sample data value without creating any view.
+     *
+     * @param samplePosition Sample position
+     * @param dataPosition   Position of the value in the sample data
+     * @return the value, or null if the sample or the value are missing
+     */
+    public String getData(int samplePosition, int dataPosition) {
+        checkIndex(samplePosition, size);
+        if (dataPosition < 0 || dataPosition >= lengths[samplePosition]) {
+            return null;
+        }
+        int[] intColumn = intColumns[dataPosition];
+        if (intColumn == null) {
+            return stringColumns[dataPosition][samplePosition];
+        } else if (dataPosition == gtPosition) {
+            int code = intColumn[samplePosition];
+            return code == NULL_GT ? null : GenotypeCodec.toString(code);
+        } else {
+            return intToString(intColumn[samplePosition]);
+        }
+    }
+
+    /**
+     * Set a sample data value. Sample data shorter than the data position is filled with nulls.
+     *
+     * @param samplePosition Sample position
+     * @param dataPosition   Position of the value in the sample data
+     * @param value          New value
+     */
+    public void setData(int samplePosition, int dataPosition, String value) {
+        checkIndex(samplePosition, size);
+        if (dataPosition < 0) {
+            throw new IndexOutOfBoundsException("Data position: " + dataPosition);
+        }
+        if (dataPosition >= stringColumns.length) {
+            ensureColumns(dataPosition + 1);
+        }
+        int length = lengths[samplePosition];
+        if (length == NULL_SAMPLE) {
+            length = 0;
+        }
+        for (; length < dataPosition; length++) {
+            writeValue(samplePosition, length, null);
+        }
+        lengths[samplePosition] = Math.max(lengths[samplePosition], dataPosition + 1);
+        writeValue(samplePosition, dataPosition, value);
+    }
+
+    /**
+     * @param samplePosition Sample position
+     * @return the {@link GenotypeCodec} code of the genotype of the sample, or -1 if missing
+     */
+    public int getGenotypeCode(int samplePosition) {
+        checkIndex(samplePosition, size);
+        if (gtPosition < 0 || gtPosition >= lengths[samplePosition]) {
+            return NULL_GT;
+        } else if (intColumns[gtPosition] == null) {
+            String gt = stringColumns[gtPosition][samplePosition];
+            return gt == null ? NULL_GT : GenotypeCodec.encode(gt);
+        } else {
+            return intColumns[gtPosition][samplePosition];
+        }
+    }
+
+    /**
+     * @param samplePosition Sample position
+     * @return Number of values of the sample data, or -1 if the sample is null
+     */
+    public int getDataSize(int samplePosition) {
+        checkIndex(samplePosition, size);
+        return lengths[samplePosition];
+    }
+
+    private void write(int samplePosition, SampleEntry sampleEntry) {
+        if (sampleEntry == null) {
+            lengths[samplePosition] = NULL_SAMPLE;
+            setSampleId(samplePosition, null);
+            setFileIndex(samplePosition, null);
+            return;
+        }
+        // Read the values before writing, as the entry may be a view of this same sample
+        String sampleId = sampleEntry.getSampleId();
+        Integer fileIndex = sampleEntry.getFileIndex();
+        List<String> data = sampleEntry.getData();
+        if (data instanceof SampleDataView) {
+            data = new ArrayList<>(data);
+        }
+        setSampleId(samplePosition, sampleId);
+        setFileIndex(samplePosition, fileIndex);
+        writeData(samplePosition, data);
+    }
+
+    private void writeData(int samplePosition, List<String> data) {
+        int length = data == null ? 0 : data.size();
+        ensureColumns(length);
+        for (int i = 0; i < length; i++) {
+            writeValue(samplePosition, i, data.get(i));
+        }
+        lengths[samplePosition] = length;
+    }
+
+    private void writeValue(int samplePosition, int dataPosition, String value) {
+        int[] intColumn = intColumns[dataPosition];
+        if (intColumn != null) {
+            if (dataPosition == gtPosition) {
+                int code = value == null ? NULL_GT : encodeGenotype(value);
+                if (code != NULL_GT || value == null) {
+                    intColumn[samplePosition] = code;
+                    return;
+                }
+            } else {
+                int intValue = parseInt(value);
+                if (intValue != NULL_INT || value == null) {
+                    intColumn[samplePosition] = intValue;
+                    return;
+                }
+            }
+            toStringColumn(dataPosition);
+        }
+        stringColumns[dataPosition][samplePosition] = value;
+    }
+
+    private void toStringColumn(int dataPosition) {
+        String[] stringColumn = new String[lengths.length];
+        for (int i = 0; i < size; i++) {
+            if (dataPosition < lengths[i]) {
+                stringColumn[i] = getData(i, dataPosition);
+            }
+        }
+        intColumns[dataPosition] = null;
+        stringColumns[dataPosition] = stringColumn;
+    }
+
+    private void setSampleId(int samplePosition, String sampleId) {
+        if (sampleId != null && sampleIds == null) {
+            sampleIds = new String[lengths.length];
+        }
+        if (sampleIds != null) {
+            sampleIds[samplePosition] = sampleId;
+        }
+    }
+
+    private void setFileIndex(int samplePosition, Integer fileIndex) {
+        if (fileIndex != null && fileIndexes == null) {
+            fileIndexes = new Integer[lengths.length];
+        }
+        if (fileIndexes != null) {
+            fileIndexes[samplePosition] = fileIndex;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= lengths.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, lengths.length + (lengths.length >> 1));
+        lengths = Arrays.copyOf(lengths, newCapacity);
+        if (sampleIds != null) {
+            sampleIds = Arrays.copyOf(sampleIds, newCapacity);
+        }
+        if (fileIndexes != null) {
+            fileIndexes = Arrays.copyOf(fileIndexes, newCapacity);
+        }
+        for (int i = 0; i < stringColumns.length; i++) {
+            if (intColumns[i] != null) {
+                int nullValue = i == gtPosition ? NULL_GT : NULL_INT;
+                int oldCapacity = intColumns[i].length;
+                intColumns[i] = Arrays.copyOf(intColumns[i], newCapacity);
+                Arrays.fill(intColumns[i], oldCapacity, newCapacity, nullValue);
+            } else {
+                stringColumns[i] = Arrays.copyOf(stringColumns[i], newCapacity);
+            }
+        }
+    }
+
+    private void ensureColumns(int numColumns) {
+        if (numColumns <= stringColumns.length) {
+            return;
+        }
+        // Values out of the sample data keys are stored as Strings
+        int oldNumColumns = stringColumns.length;
+        stringColumns = Arrays.copyOf(stringColumns, numColumns);
+        intColumns = Arrays.copyOf(intColumns, numColumns);
+        for (int i = oldNumColumns; i < numColumns; i++) {
+            stringColumns[i] = new String[lengths.length];
+        }
+    }
+
+    private static int[] newIntColumn(int capacity, int nullValue) {
+        int[] column = new int[capacity];
+        Arrays.fill(column, nullValue);
+        return column;
+    }
+
+    /**
+     * @param gt genotype to encode
+     * @return the genotype code, or NULL_GT if the genotype can not be parsed or is not written in its canonical
+     *         form (e.g. "-1/-1"), so it would be modified
+     */
+    private static int encodeGenotype(String gt) {
+        int code;
+        try {
+            code = GenotypeCodec.encode(gt);
+        } catch (IllegalArgumentException e) {
+            return NULL_GT;
+        }
+        return GenotypeCodec.toString(code).equals(gt) ? code : NULL_GT;
+    }
+
+    /**
+     * Parse non negative ints written without leading zeros, so the String representation is not modified.
+     *
+     * @param value value to parse
+     * @return the int value, MISSING_INT for ".", or NULL_INT if the value is null or can not be parsed
+     */
+    private static int parseInt(String value) {
+        if (value == null || value.isEmpty() || value.length() > 9) {
+            return NULL_INT;
+        }
+        if (value.equals(".")) {
+            return MISSING_INT;
+        }
+        if (value.length() > 1 && value.charAt(0) == '0') {
+            return NULL_INT;
+        }
+        int intValue = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return NULL_INT;
+            }
+            intValue = intValue * 10 + (c - '0');
+        }
+        return intValue;
+    }
+
+    private static String intToString(int value) {
+        if (value == NULL_INT) {
+            return null;
+        } else if (value == MISSING_INT) {
+            return ".";
+        } else {
+            return String.valueOf(value);
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Sample data backed by the columns. Values can be modified and appended.
+     */
+    private final class SampleDataView extends AbstractList<String> implements RandomAccess {
+        private final int samplePosition;
+
+        private SampleDataView(int samplePosition) {
+            this.samplePosition = samplePosition;
+        }
+
+        @Override
+        public String get(int dataPosition) {
+            checkIndex(dataPosition, size());
+            return getData(samplePosition, dataPosition);
+        }
+
+        @Override
+        public String set(int dataPosition, String value) {
+            String previous = get(dataPosition);
+            setData(samplePosition, dataPosition, value);
+            return previous;
+        }
+
+        @Override
+        public void add(int dataPosition, String value) {
+            if (dataPosition != size()) {
+                throw new UnsupportedOperationException("Sample data values can only be added at the end of the list");
+            }
+            setData(samplePosition, dataPosition, value);
+        }
+
+        @Override
+        public int size() {
+            return Math.max(lengths[samplePosition], 0);
+        }
+    }
+}
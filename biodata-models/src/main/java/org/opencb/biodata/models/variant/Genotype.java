@@ -379,13 +379,14 @@ public class Genotype {
      * 
      * For instance, genotype 1/0 would be -10, 1|0 would be 10 and 2/1 would be -21.
      * 
+     * Missing alleles are not supported. See {@link GenotypeCodec} for a compact encoding of any genotype.
+     *
      * @return A numerical encoding of the genotype
      */
     public int encode() {
-        // TODO Support missing genotypes
         int encoding = 0;
-        for (int i = 0; i < allelesIdx.length; i++) {
-            encoding += Math.pow(10, allelesIdx.length - i - 1) * allelesIdx[i]; 
+        for (int allele : allelesIdx) {
+            encoding = encoding * 10 + allele;
         }
         
         return isPhased() ? encoding : encoding * (-1);
@@ -0,0 +1,286 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.models.variant;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned genotypes encoded as small non-negative integers.
+ *
+ * Every distinct genotype (alleles and phase) gets a code, which is an index in a lookup table with the already
+ * parsed genotype, so the genotypes can be counted, compared and classified as ints without creating
+ * {@link Genotype} objects. Different strings representing the same genotype, e.g. "./." and "-1/-1", have the same
+ * code.
+ *
+ * Diploid and haploid genotypes with alleles from 0 to 9 or missing are precomputed, and their codes do not depend
+ * on the order of the calls. Any other genotype (multi-allelic with alleles over 9, polyploid, ...) is parsed with
+ * {@link Genotype} and interned the first time it is seen, so codes are only valid within the same JVM.
+ *
+ * This class is thread-safe.
+ */
+public final class GenotypeCodec {
+
+    // Alleles "." (missing) and 0 to 9
+    private static final int NUM_SIMPLE_ALLELES = 11;
+    private static final int NUM_SIMPLE_DIPLOIDS = NUM_SIMPLE_ALLELES * NUM_SIMPLE_ALLELES * 2;
+
+    private static final Map<String, Integer> CODES = new ConcurrentHashMap<>();
+    private static volatile Entry[] entries = new Entry[NUM_SIMPLE_DIPLOIDS + NUM_SIMPLE_ALLELES + 64];
+    private static int size = 0;
+
+    static {
+        for (int first = -1; first <= 9; first++) {
+            for (int second = -1; second <= 9; second++) {
+                intern(new Genotype(alleleToString(first) + "/" + alleleToString(second)));
+                intern(new Genotype(alleleToString(first) + "|" + alleleToString(second)));
+            }
+        }
+        for (int allele = -1; allele <= 9; allele++) {
+            intern(new Genotype(alleleToString(allele)));
+        }
+    }
+
+    public static final int MISSING = encode("./.");
+    public static final int HOM_REF = encode(Genotype.HOM_REF);
+    public static final int HET_REF = encode(Genotype.HET_REF);
+    public static final int HOM_VAR = encode(Genotype.HOM_VAR);
+
+    private GenotypeCodec() {
+    }
+
+    /**
+     * Get the code of a genotype.
+     *
+     * @param gt Genotype, e.g. 0/1, 1|0, ./., 1, 2/12, ...
+     * @return Code of the genotype
+     * @throws IllegalArgumentException if the genotype can not be parsed
+     */
+    public static int encode(String gt) {
+        int length = gt.length();
+        if (length == 3) {
+            int first = simpleAlleleIdx(gt.charAt(0));
+            int second = simpleAlleleIdx(gt.charAt(2));
+            char separator = gt.charAt(1);
+            if (first >= 0 && second >= 0 && (separator == '/' || separator == '|')) {
+                return (first * NUM_SIMPLE_ALLELES + second) * 2 + (separator == '|' ? 1 : 0);
+            }
+        } else if (length == 1) {
+            int allele = simpleAlleleIdx(gt.charAt(0));
+            if (allele >= 0) {
+                return NUM_SIMPLE_DIPLOIDS + allele;
+            }
+        }
+        Integer code = CODES.get(gt);
+        if (code == null) {
+            code = intern(new Genotype(gt));
+            CODES.put(gt, code);
+        }
+        return code;
+    }
+
+    /**
+     * Get the code of a genotype. Reference and alternates are ignored.
+     *
+     * @param genotype Genotype
+     * @return Code of the genotype
+     */
+    public static int encode(Genotype genotype) {
+        return encode(genotype.toString());
+    }
+
+    /**
+     * @param code Genotype code
+     * @return A new Genotype object
+     */
+    public static Genotype toGenotype(int code) {
+        return new Genotype(get(code).genotype);
+    }
+
+    public static String toString(int code) {
+        return get(code).string;
+    }
+
+    public static int getPloidy(int code) {
+        return get(code).alleles.length;
+    }
+
+    public static int getAllele(int code, int i) {
+        return get(code).alleles[i];
+    }
+
+    /**
+     * @param code Genotype code
+     * @return Copy of the alleles of the genotype. Missing alleles are -1
+     */
+    public static int[] getAllelesIdx(int code) {
+        int[] alleles = get(code).alleles;
+        return Arrays.copyOf(alleles, alleles.length);
+    }
+
+    public static boolean isPhased(int code) {
+        return get(code).genotype.isPhased();
+    }
+
+    public static AllelesCode getAllelesCode(int code) {
+        return get(code).genotype.getCode();
+    }
+
+    /**
+     * Same as {@link Genotype#isHet(String)}.
+     *
+     * @param code Genotype code
+     * @return if the genotype is heterozygous
+     */
+    public static boolean isHet(int code) {
+        return get(code).het;
+    }
+
+    /**
+     * Same as {@link Genotype#isHom(String)}.
+     *
+     * @param code Genotype code
+     * @return if the genotype is homozygous, reference or alternate
+     */
+    public static boolean isHom(int code) {
+        return get(code).hom;
+    }
+
+    /**
+     * Same as {@link Genotype#hasMainAlternate(String)}.
+     *
+     * @param code Genotype code
+     * @return if the genotype has the main alternate allele
+     */
+    public static boolean hasMainAlternate(int code) {
+        return get(code).mainAlternate;
+    }
+
+    /**
+     * @param code Genotype code
+     * @return Number of non reference and non missing alleles
+     */
+    public static int getNumAlternateAlleles(int code) {
+        return get(code).numAlternates;
+    }
+
+    /**
+     * @param code   Genotype code
+     * @param allele Allele index, -1 for missing alleles
+     * @return Number of copies of the allele in the genotype
+     */
+    public static int countAllele(int code, int allele) {
+        int count = 0;
+        for (int i : get(code).alleles) {
+            if (i == allele) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Number of genotypes interned so far. All the codes are lower than this number
+     */
+    public static synchronized int size() {
+        return size;
+    }
+
+    private static Entry get(int code) {
+        Entry[] entries = GenotypeCodec.entries;
+        Entry entry = code >= 0 && code < entries.length ? entries[code] : null;
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown genotype code " + code);
+        }
+        return entry;
+    }
+
+    private static synchronized int intern(Genotype genotype) {
+        String string = genotype.toString();
+        Integer code = CODES.get(string);
+        if (code != null) {
+            return code;
+        }
+        Entry[] newEntries = entries;
+        if (size == newEntries.length) {
+            newEntries = Arrays.copyOf(newEntries, newEntries.length * 2);
+        }
+        newEntries[size] = new Entry(genotype, string);
+        // Publish the entry before the code
+        entries = newEntries;
+        code = size++;
+        CODES.put(string, code);
+        return code;
+    }
+
+    private static int simpleAlleleIdx(char c) {
+        if (c == '.') {
+            return 0;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 1;
+        } else {
+            return -1;
+        }
+    }
+
+    private static String alleleToString(int allele) {
+        return allele < 0 ? Genotype.NOCALL : String.valueOf(allele);
+    }
+
+    private static final class Entry {
+        private final Genotype genotype;
+        private final String string;
+        private final int[] alleles;
+        private final boolean het;
+        private final boolean hom;
+        private final boolean mainAlternate;
+        private final int numAlternates;
+
+        private Entry(Genotype genotype, String string) {
+            this.genotype = genotype;
+            this.string = string;
+            this.alleles = genotype.getAllelesIdx();
+
+            int first = alleles[0];
+            boolean het = first >= 0 && alleles.length > 1;
+            boolean hom = first >= 0;
+            boolean mainAlternate = false;
+            int numAlternates = 0;
+            for (int i = 0; i < alleles.length; i++) {
+                int allele = alleles[i];
+                if (i > 0) {
+                    het &= allele != first && allele >= 0;
+                    hom &= allele == first;
+                }
+                if (allele == 1) {
+                    mainAlternate = true;
+                }
+                if (allele > 0) {
+                    numAlternates++;
+                }
+            }
+            this.het = het;
+            this.hom = hom;
+            this.mainAlternate = mainAlternate;
+            this.numAlternates = numAlternates;
+        }
+    }
+}
@@ -209,6 +209,19 @@ public class StudyEntry implements Serializable {
         return this;
     }
 
+    /**
+     * Store the samples data by columns, using a {@link ColumnarSampleEntries}. Reduces the memory usage of studies
+     * with many samples. The SampleEntry objects returned afterwards are views of the columns.
+     *
+     * @return this
+     */
+    public StudyEntry compactSamples() {
+        if (impl.getSamples() != null && !(impl.getSamples() instanceof ColumnarSampleEntries)) {
+            impl.setSamples(ColumnarSampleEntries.copyOf(impl.getSampleDataKeys(), impl.getSamples()));
+        }
+        return this;
+    }
+
     public SampleEntry getSample(String sample) {
         requireSamplesPosition();
         if (samplesPosition.containsKey(sample)) {
@@ -236,6 +249,16 @@ public class StudyEntry implements Serializable {
     }
 
     public String getSampleData(String sample, String field) {
+        if (impl.getSamples() instanceof ColumnarSampleEntries) {
+            // Read the value without creating the SampleEntry
+            requireSamplesPosition();
+            Integer samplePosition = samplesPosition.get(sample);
+            Integer formatIdx = getSampleDataKeyPositions().get(field);
+            if (samplePosition == null || formatIdx == null) {
+                return null;
+            }
+            return ((ColumnarSampleEntries) impl.getSamples()).getData(samplePosition, formatIdx);
+        }
         SampleEntry sampleEntry = getSample(sample);
         if (sampleEntry != null) {
             Map<String, Integer> formatPositions = getSampleDataKeyPositions();
@@ -338,8 +361,9 @@ public class StudyEntry implements Serializable {
         if (formatIdx != null && samplePosition != null) {
             SampleEntry sampleEntry = getSample(samplePosition);
             if (sampleEntry == null) {
-                sampleEntry = new SampleEntry(null, null, new ArrayList<>(getSampleDataKeys().size()));
-                addSampleData(samplePosition, sampleEntry);
+                addSampleData(samplePosition, new SampleEntry(null, null, new ArrayList<>(getSampleDataKeys().size())));
+                // Samples list may not store the given object, e.g. ColumnarSampleEntries
+                sampleEntry = getSample(samplePosition);
             }
             if (formatIdx < sampleEntry.getData().size()) {
                 actOnList(sampleEntry.getData(), l -> l.set(formatIdx, value), sampleEntry::setData);
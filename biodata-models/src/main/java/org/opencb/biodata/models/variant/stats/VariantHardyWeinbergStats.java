@@ -19,7 +19,12 @@
 
 package org.opencb.biodata.models.variant.stats;
 
+import java.util.Arrays;
+
 /**
+ * Hardy-Weinberg equilibrium test of the diploid genotypes of a variant: homozygous for the first allele (AA),
+ * heterozygous (Aa) and homozygous for the second allele (aa).
+ *
  * @author Alejandro Aleman Ramos &lt;aaleman@cipf.es&gt;
  * @author Cristina Yenyxe Gonzalez Garcia &lt;cyenyxe@ebi.ac.uk&gt;
  */
@@ -122,11 +127,6 @@ public class VariantHardyWeinbergStats {
     public void calculate() {
         this.n = this.n_AA + this.n_Aa + this.n_aa;
 
-        int n = this.n;
-        int n_AA = this.n_AA;
-        int n_Aa = this.n_Aa;
-        int n_aa = this.n_aa;
-
         if (n > 0) {
             float p = (float) ((2.0 * n_AA + n_Aa) / (2 * n));
             float q = 1 - p;
@@ -138,30 +138,126 @@ public class VariantHardyWeinbergStats {
             this.setE_Aa(2 * p * q * n);
             this.setE_aa(q * q * n);
 
-            if (this.e_AA == n_AA) {
-                n_AA = 1;
-                this.setE_AA(n_AA);
-            }
+            double chi2 = chi2(n_AA, n_Aa, n_aa);
+            this.chi2 = (float) chi2;
+            this.pValue = (float) chi2PValue(chi2);
+        }
+    }
 
-            if (this.e_Aa == n_Aa) {
-                n_Aa = 1;
-                this.setE_Aa(n_Aa);
-            }
+    /**
+     * Chi-square statistic of the observed genotypes against the ones expected under Hardy-Weinberg equilibrium.
+     *
+     * @param n_AA  Number of homozygous genotypes of the first allele
+     * @param n_Aa  Number of heterozygous genotypes
+     * @param n_aa  Number of homozygous genotypes of the second allele
+     * @return      Chi-square statistic, 0 if there are no genotypes or only one allele is observed
+     */
+    public static double chi2(int n_AA, int n_Aa, int n_aa) {
+        double n = (double) n_AA + n_Aa + n_aa;
+        double p = (2.0 * n_AA + n_Aa) / (2 * n);
+        double q = 1 - p;
+        if (n == 0 || p == 0 || q == 0) {
+            return 0;
+        }
+        double e_AA = n * p * p;
+        double e_Aa = 2 * n * p * q;
+        double e_aa = n * q * q;
+        return (n_AA - e_AA) * (n_AA - e_AA) / e_AA
+                + (n_Aa - e_Aa) * (n_Aa - e_Aa) / e_Aa
+                + (n_aa - e_aa) * (n_aa - e_aa) / e_aa;
+    }
 
-            if (this.e_aa == n_aa) {
-                n_aa = 1;
-                this.setE_aa(n_aa);
-            }
+    /**
+     * @param chi2  Chi-square statistic, with 1 degree of freedom
+     * @return      P-value of the statistic
+     */
+    public static double chi2PValue(double chi2) {
+        return erfc(Math.sqrt(chi2 / 2));
+    }
 
-            chi2 = (n_AA - this.e_AA) * (n_AA - this.e_AA) / this.e_AA
-                    + (n_Aa - this.e_Aa) * (n_Aa - this.e_Aa) / this.e_Aa
-                    + (n_aa - this.e_aa) * (n_aa - this.e_aa) / this.e_aa;
+    /**
+     * Exact test, as described by Wigginton et al. (2005). The p-value is the probability of the numbers of
+     * heterozygous genotypes as or less likely than the observed one, given the allele counts.
+     *
+     * @param n_AA  Number of homozygous genotypes of the first allele
+     * @param n_Aa  Number of heterozygous genotypes
+     * @param n_aa  Number of homozygous genotypes of the second allele
+     * @return      P-value of the test, 1 if there are no genotypes
+     */
+    public static double exactPValue(int n_AA, int n_Aa, int n_aa) {
+        return exactPValue(n_AA, n_Aa, n_aa, null);
+    }
+
+    /**
+     * Exact test, reusing a buffer for the probabilities of the numbers of heterozygous genotypes.
+     *
+     * @param n_AA          Number of homozygous genotypes of the first allele
+     * @param n_Aa          Number of heterozygous genotypes
+     * @param n_aa          Number of homozygous genotypes of the second allele
+     * @param probabilities Buffer, a new one is used if it is null or shorter than 2 * min(n_AA, n_aa) + n_Aa + 1
+     * @return              P-value of the test, 1 if there are no genotypes
+     */
+    public static double exactPValue(int n_AA, int n_Aa, int n_aa, double[] probabilities) {
+        int homRare = Math.min(n_AA, n_aa);
+        int homCommon = Math.max(n_AA, n_aa);
+        int genotypes = homRare + n_Aa + homCommon;
+        if (genotypes == 0) {
+            return 1;
+        }
+        int rare = 2 * homRare + n_Aa;
+        double[] probs = probabilities == null || probabilities.length <= rare ? new double[rare + 1] : probabilities;
+        Arrays.fill(probs, 0, rare + 1, 0);
+
+        // start from the most likely number of heterozygotes, with the parity of the rare allele count
+        int mid = (int) ((long) rare * (2L * genotypes - rare) / (2L * genotypes));
+        if (((rare ^ mid) & 1) != 0) {
+            mid++;
+        }
+        probs[mid] = 1;
+        double sum = 1;
+
+        double hets = mid;
+        double homsRare = (rare - mid) / 2;
+        double homsCommon = genotypes - mid - homsRare;
+        for (int h = mid; h > 1; h -= 2) {
+            probs[h - 2] = probs[h] * hets * (hets - 1) / (4 * (homsRare + 1) * (homsCommon + 1));
+            sum += probs[h - 2];
+            hets -= 2;
+            homsRare++;
+            homsCommon++;
+        }
 
-            // TODO Calculate p-value
-            // GSL call: hw->p_value = 1-gsl_cdf_chisq_P(hw->chi2,1);
-//            pValue = chiSquareTest.chiSquare(chi, 1);
-            pValue = -1;
+        hets = mid;
+        homsRare = (rare - mid) / 2;
+        homsCommon = genotypes - mid - homsRare;
+        for (int h = mid; h <= rare - 2; h += 2) {
+            probs[h + 2] = probs[h] * 4 * homsRare * homsCommon / ((hets + 2) * (hets + 1));
+            sum += probs[h + 2];
+            hets += 2;
+            homsRare--;
+            homsCommon--;
         }
+
+        double observed = probs[n_Aa];
+        double pValue = 0;
+        for (int h = rare & 1; h <= rare; h += 2) {
+            if (probs[h] <= observed) {
+                pValue += probs[h];
+            }
+        }
+        return Math.min(1, pValue / sum);
+    }
+
+    /**
+     * Complementary error function, with a fractional error lower than 1.2e-7 (Numerical Recipes, erfcc).
+     */
+    private static double erfc(double x) {
+        double z = Math.abs(x);
+        double t = 1 / (1 + 0.5 * z);
+        double ans = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+                + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223
+                + t * 0.17087277)))))))));
+        return x >= 0 ? ans : 2 - ans;
     }
 
 }
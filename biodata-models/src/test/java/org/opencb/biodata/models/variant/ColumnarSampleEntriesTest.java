@@ -0,0 +1,168 @@
+package org.opencb.biodata.models.variant;
+
+import org.apache.avro.io.*;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ColumnarSampleEntriesTest {
+
+    private static final List<String> KEYS = Arrays.asList("GT", "DP", "AD", "GQ");
+
+    private List<SampleEntry> createSamples() {
+        List<SampleEntry> samples = new ArrayList<>();
+        samples.add(new SampleEntry(null, null, Arrays.asList("0/1", "10", "5,5", "99")));
+        samples.add(new SampleEntry(null, null, Arrays.asList("1|1", ".", ".", "0")));
+        samples.add(null);
+        samples.add(new SampleEntry("s4", 1, Arrays.asList("./.", "0", null, "12")));
+        samples.add(new SampleEntry(null, null, Arrays.asList("1/2")));
+        samples.add(new SampleEntry(null, null, Arrays.asList("0/0", "20", "20,0", "50", "extra")));
+        return samples;
+    }
+
+    @Test
+    public void testCopy() {
+        List<SampleEntry> expected = createSamples();
+        ColumnarSampleEntries samples = ColumnarSampleEntries.copyOf(KEYS, expected);
+
+        assertEquals(expected, samples);
+        assertEquals(expected.hashCode(), samples.hashCode());
+        assertEquals(expected.toString(), samples.toString());
+        assertNull(samples.get(2));
+        assertEquals("s4", samples.get(3).getSampleId());
+        assertEquals(1, samples.get(3).getFileIndex().intValue());
+        assertEquals(1, samples.get(4).getData().size());
+        assertEquals(5, samples.get(5).getData().size());
+        assertEquals("10", samples.getData(0, 1));
+        assertEquals(".", samples.getData(1, 1));
+        assertNull(samples.getData(3, 2));
+        assertNull(samples.getData(4, 3));
+        assertNull(samples.getData(2, 0));
+        assertEquals(GenotypeCodec.HET_REF, samples.getGenotypeCode(0));
+        assertEquals(GenotypeCodec.MISSING, samples.getGenotypeCode(3));
+        assertEquals(-1, samples.getGenotypeCode(2));
+    }
+
+    @Test
+    public void testKeepOriginalValues() {
+        List<SampleEntry> expected = new ArrayList<>();
+        expected.add(new SampleEntry(null, null, Arrays.asList("0/1", "10", "1", "99")));
+        // Values that can not be stored in the int columns without modifications
+        expected.add(new SampleEntry(null, null, Arrays.asList("-1/-1", "010", "2", "3.5")));
+        expected.add(new SampleEntry(null, null, Arrays.asList("A/T", "-3", "3", "")));
+        expected.add(new SampleEntry(null, null, Arrays.asList("0/*", "12345678901", "4", "+5")));
+        expected.add(new SampleEntry(null, null, Arrays.asList("00/01", "1", "5", "1")));
+
+        ColumnarSampleEntries samples = ColumnarSampleEntries.copyOf(KEYS, expected);
+        assertEquals(expected, samples);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getData(), samples.get(i).getData());
+        }
+    }
+
+    @Test
+    public void testModifyViews() {
+        ColumnarSampleEntries samples = ColumnarSampleEntries.copyOf(KEYS, createSamples());
+
+        samples.get(0).getData().set(0, "1/1");
+        samples.get(1).getData().set(1, "30");
+        samples.get(4).getData().add("7");
+        samples.set(3, new SampleEntry("other", null, samples.get(3).getData()));
+        samples.set(5, new SampleEntry(null, null, Arrays.asList("0|1", "3")));
+        SampleEntry previous = samples.set(1, new SampleEntry(null, null, Arrays.asList("0/0", "1", "1,0", "2")));
+
+        assertEquals(Arrays.asList("1/1", "10", "5,5", "99"), samples.get(0).getData());
+        assertEquals(Arrays.asList("1|1", "30", ".", "0"), previous.getData());
+        assertEquals(Arrays.asList("0/0", "1", "1,0", "2"), samples.get(1).getData());
+        assertEquals("other", samples.get(3).getSampleId());
+        assertEquals(Arrays.asList("1/2", "7"), samples.get(4).getData());
+        assertEquals(Arrays.asList("0|1", "3"), samples.get(5).getData());
+        assertEquals(GenotypeCodec.HOM_VAR, samples.getGenotypeCode(0));
+
+        samples.set(2, new SampleEntry(null, null, Arrays.asList("0/1")));
+        samples.add(new SampleEntry(null, null, Arrays.asList("1/1", "8")));
+        samples.setData(6, 3, "40");
+        assertEquals(Arrays.asList("0/1"), samples.get(2).getData());
+        assertEquals(Arrays.asList("1/1", "8", null, "40"), samples.get(6).getData());
+    }
+
+    @Test
+    public void testGrow() {
+        ColumnarSampleEntries samples = new ColumnarSampleEntries(KEYS, 1);
+        List<SampleEntry> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            SampleEntry sampleEntry = new SampleEntry(null, null, Arrays.asList(i % 2 == 0 ? "0/1" : "1|1",
+                    String.valueOf(i), i + "," + i, i % 10 == 0 ? "." : String.valueOf(i * 2)));
+            expected.add(sampleEntry);
+            samples.add(sampleEntry);
+        }
+        assertEquals(expected, samples);
+    }
+
+    @Test
+    public void testStudyEntry() throws Exception {
+        Variant variant = Variant.newBuilder("1", 1000, 1000, "A", "C")
+                .setStudyId("s")
+                .setSampleDataKeys(KEYS)
+                .setSampleNames(Arrays.asList("s1", "s2", "s3", "s4", "s5", "s6"))
+                .setSamples(createSamples())
+                .build();
+        Variant expected = Variant.newBuilder("1", 1000, 1000, "A", "C")
+                .setStudyId("s")
+                .setSampleDataKeys(KEYS)
+                .setSampleNames(Arrays.asList("s1", "s2", "s3", "s4", "s5", "s6"))
+                .setSamples(createSamples())
+                .build();
+        StudyEntry study = variant.getStudies().get(0).compactSamples();
+        StudyEntry expectedStudy = expected.getStudies().get(0);
+        assertTrue(study.getSamples() instanceof ColumnarSampleEntries);
+        assertEquals(expected, variant);
+        assertEquals(expected.toJson(), variant.toJson());
+
+        for (String sample : expectedStudy.getOrderedSamplesName()) {
+            for (String key : KEYS) {
+                assertEquals(expectedStudy.getSampleData(sample, key), study.getSampleData(sample, key));
+            }
+            assertEquals(expectedStudy.getSampleData(sample), study.getSampleData(sample));
+        }
+        assertNull(study.getSampleData("unknown", "GT"));
+        assertNull(study.getSampleData("s1", "unknown"));
+
+        expectedStudy.addSampleData("s3", "GT", "1/1");
+        study.addSampleData("s3", "GT", "1/1");
+        expectedStudy.addSampleData("s5", "GQ", "30", ".");
+        study.addSampleData("s5", "GQ", "30", ".");
+        expectedStudy.addSampleData("s7", Arrays.asList("0/1", "5"));
+        study.addSampleData("s7", Arrays.asList("0/1", "5"));
+        assertEquals(expected.toJson(), variant.toJson());
+
+    }
+
+    @Test
+    public void testAvroSerialization() throws Exception {
+        List<SampleEntry> samples = Arrays.asList(
+                new SampleEntry(null, null, Arrays.asList("0/1", "10", "5,5", "99")),
+                new SampleEntry("s2", 0, Arrays.asList("1|1", ".", ".", "0")),
+                new SampleEntry(null, null, Arrays.asList("-1/-1", "3.5", "0,0", ".")));
+        StudyEntry expectedStudy = new StudyEntry("s", Collections.emptyList(), KEYS)
+                .setSamples(new ArrayList<>(samples));
+        StudyEntry study = new StudyEntry("s", Collections.emptyList(), KEYS)
+                .setSamples(new ArrayList<>(samples))
+                .compactSamples();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        new SpecificDatumWriter<>(org.opencb.biodata.models.variant.avro.StudyEntry.class).write(study.getImpl(), encoder);
+        encoder.flush();
+        BinaryDecoder decoder = DecoderFactory.get().binaryDecoder(out.toByteArray(), null);
+        org.opencb.biodata.models.variant.avro.StudyEntry read =
+                new SpecificDatumReader<>(org.opencb.biodata.models.variant.avro.StudyEntry.class).read(null, decoder);
+        assertEquals(expectedStudy.getImpl(), read);
+    }
+}
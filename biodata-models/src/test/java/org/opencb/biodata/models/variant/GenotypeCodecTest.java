@@ -0,0 +1,117 @@
+package org.opencb.biodata.models.variant;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class GenotypeCodecTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final List<String> GENOTYPES = Arrays.asList(
+            "0/0", "0/1", "1/0", "1/1", "0|0", "0|1", "1|0", "1|1", "./.", ".|.", "./1", "1/.", "0/.",
+            "1/2", "2/2", "2|1", "0/9", "9/9", "0", "1", "2", ".",
+            "0/10", "10/12", "12|3", "0/1/2", "1/1/1", "./././.", "-1/-1", "-1/1", "00/01", "0/1|2");
+
+    @Test
+    public void testEncode() {
+        for (String gt : GENOTYPES) {
+            Genotype expected = new Genotype(gt);
+            int code = GenotypeCodec.encode(gt);
+
+            assertTrue(gt, code >= 0 && code < GenotypeCodec.size());
+            assertEquals(gt, code, GenotypeCodec.encode(gt));
+            assertEquals(gt, code, GenotypeCodec.encode(expected));
+            assertEquals(gt, code, GenotypeCodec.encode(expected.toString()));
+            assertEquals(gt, expected, GenotypeCodec.toGenotype(code));
+            assertEquals(gt, expected.toString(), GenotypeCodec.toString(code));
+            assertArrayEquals(gt, expected.getAllelesIdx(), GenotypeCodec.getAllelesIdx(code));
+            assertEquals(gt, expected.getPloidy(), GenotypeCodec.getPloidy(code));
+            assertEquals(gt, expected.isPhased(), GenotypeCodec.isPhased(code));
+            assertEquals(gt, expected.getCode(), GenotypeCodec.getAllelesCode(code));
+            assertEquals(gt, Genotype.isHet(gt), GenotypeCodec.isHet(code));
+            assertEquals(gt, Genotype.isHom(gt), GenotypeCodec.isHom(code));
+            assertEquals(gt, Genotype.hasMainAlternate(gt), GenotypeCodec.hasMainAlternate(code));
+
+            int numAlternates = 0;
+            for (int allele : expected.getAllelesIdx()) {
+                if (allele > 0) {
+                    numAlternates++;
+                }
+            }
+            assertEquals(gt, numAlternates, GenotypeCodec.getNumAlternateAlleles(code));
+        }
+    }
+
+    @Test
+    public void testDistinctGenotypes() {
+        Map<Genotype, Integer> codes = new HashMap<>();
+        for (String gt : GENOTYPES) {
+            int code = GenotypeCodec.encode(gt);
+            Integer other = codes.putIfAbsent(new Genotype(gt), code);
+            if (other != null) {
+                assertEquals(gt, other.intValue(), code);
+            }
+        }
+        // Equivalent genotypes share the code, different genotypes do not
+        assertEquals(GenotypeCodec.encode("./."), GenotypeCodec.encode("-1/-1"));
+        assertEquals(GenotypeCodec.encode("0/1"), GenotypeCodec.encode("00/01"));
+        assertEquals(codes.size(), new HashSet<>(codes.values()).size());
+    }
+
+    @Test
+    public void testConstants() {
+        assertEquals("./.", GenotypeCodec.toString(GenotypeCodec.MISSING));
+        assertEquals(Genotype.HOM_REF, GenotypeCodec.toString(GenotypeCodec.HOM_REF));
+        assertEquals(Genotype.HET_REF, GenotypeCodec.toString(GenotypeCodec.HET_REF));
+        assertEquals(Genotype.HOM_VAR, GenotypeCodec.toString(GenotypeCodec.HOM_VAR));
+        assertEquals(2, GenotypeCodec.countAllele(GenotypeCodec.MISSING, -1));
+        assertEquals(1, GenotypeCodec.countAllele(GenotypeCodec.HET_REF, 0));
+    }
+
+    @Test
+    public void testConcurrentIntern() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    int[] codes = new int[200];
+                    for (int i = 0; i < codes.length; i++) {
+                        codes[i] = GenotypeCodec.encode((100 + i) + "|" + (300 + i));
+                    }
+                    return codes;
+                }));
+            }
+            int[] expected = futures.get(0).get();
+            for (Future<int[]> future : futures) {
+                assertArrayEquals(expected, future.get());
+            }
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals((100 + i) + "|" + (300 + i), GenotypeCodec.toString(expected[i]));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidGenotype() {
+        thrown.expect(IllegalArgumentException.class);
+        GenotypeCodec.encode("A/T");
+    }
+
+    @Test
+    public void testInvalidCode() {
+        thrown.expect(IllegalArgumentException.class);
+        GenotypeCodec.toGenotype(-1);
+    }
+}
@@ -0,0 +1,35 @@
+package org.opencb.biodata.models.variant.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VariantHardyWeinbergStatsTest {
+
+    @Test
+    public void testCalculate() {
+        // Expected counts 48, 24 and 3
+        VariantHardyWeinbergStats stats = new VariantHardyWeinbergStats(50, 20, 5);
+        stats.calculate();
+        assertEquals(0.8, stats.getP(), 0.0001);
+        assertEquals(2.0833, stats.getChi2(), 0.0001);
+        assertEquals(0.1489, stats.getpValue(), 0.0001);
+
+        stats = new VariantHardyWeinbergStats(50, 0, 0);
+        stats.calculate();
+        assertEquals(0, stats.getChi2(), 0);
+        assertEquals(1, stats.getpValue(), 0.000001);
+    }
+
+    @Test
+    public void testExactPValue() {
+        assertEquals(0.1522, VariantHardyWeinbergStats.exactPValue(50, 20, 5), 0.0001);
+        assertEquals(0.1522, VariantHardyWeinbergStats.exactPValue(5, 20, 50), 0.0001);
+        assertEquals(0.1522, VariantHardyWeinbergStats.exactPValue(50, 20, 5, new double[4]), 0.0001);
+        assertEquals(0.1522, VariantHardyWeinbergStats.exactPValue(50, 20, 5, new double[100]), 0.0001);
+        assertEquals(1, VariantHardyWeinbergStats.exactPValue(0, 0, 0), 0);
+        assertEquals(1, VariantHardyWeinbergStats.exactPValue(25, 50, 25), 0.000001);
+        assertTrue(VariantHardyWeinbergStats.exactPValue(50, 0, 50) < 1e-20);
+    }
+}
@@ -29,17 +29,28 @@ import htsjdk.samtools.util.BlockCompressedInputStream;
 import htsjdk.samtools.util.Log;
 import org.apache.commons.collections4.CollectionUtils;
 import org.ga4gh.models.ReadAlignment;
+import org.opencb.biodata.models.alignment.GeneCoverageStats;
 import org.opencb.biodata.models.alignment.RegionCoverage;
+import org.opencb.biodata.models.alignment.TranscriptCoverageStats;
+import org.opencb.biodata.models.core.Gene;
 import org.opencb.biodata.models.core.Region;
-import org.opencb.biodata.tools.alignment.coverage.SamRecordRegionCoverageCalculator;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.tools.alignment.coverage.BigWigCoverageCalculator;
+import org.opencb.biodata.tools.alignment.coverage.CoverageListener;
+import org.opencb.biodata.tools.alignment.coverage.StreamingCoverageCalculator;
+import org.opencb.biodata.tools.alignment.coverage.TranscriptCoverageStatsCalculator;
+import org.opencb.biodata.tools.alignment.coverage.WindowCoverageAggregator;
 import org.opencb.biodata.tools.alignment.exceptions.AlignmentCoverageException;
 import org.opencb.biodata.tools.alignment.filters.AlignmentFilters;
+import org.opencb.biodata.tools.alignment.filters.SamRecordFilters;
 import org.opencb.biodata.tools.alignment.iterators.BamIterator;
 import org.opencb.biodata.tools.alignment.iterators.SAMRecordToAvroReadAlignmentBamIterator;
 import org.opencb.biodata.tools.alignment.iterators.SAMRecordToProtoReadAlignmentBamIterator;
 import org.opencb.biodata.tools.alignment.iterators.SamRecordBamIterator;
 import org.opencb.biodata.tools.alignment.stats.AlignmentGlobalStats;
 import org.opencb.biodata.tools.alignment.stats.SamRecordAlignmentGlobalStatsCalculator;
+import org.opencb.biodata.tools.commons.ReaderPool;
+import org.opencb.biodata.tools.commons.ShardedIterator;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,9 +59,10 @@ import java.io.*;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
  * Created by imedina on 14/09/15.
@@ -60,10 +72,16 @@ public class BamManager implements AutoCloseable {
     private Path bamFile;
     private Path refFile;
     private SamReader samReader;
+    private ReaderPool<SamReader> readerPool;
+    private ReaderPool.Lease<SamReader> lease;
+    // iterators of the reader not closed yet, and whether reading from the reader failed
+    private int openIterators;
+    private boolean readFailed;
 
     public static final int DEFAULT_WINDOW_SIZE = 1;
     public static final int MAX_NUM_RECORDS = 50000;
     public static final int MAX_REGION_COVERAGE = 500000;
+    public static final int DEFAULT_NUM_THREADS = Runtime.getRuntime().availableProcessors();
     public static final String COVERAGE_BIGWIG_EXTENSION = ".bw";
 
     private Logger logger;
@@ -73,33 +91,94 @@ public class BamManager implements AutoCloseable {
     }
 
     public BamManager(Path bamFilePath, Path refFilePath) throws IOException {
+        this(bamFilePath, refFilePath, null);
+    }
+
+    /**
+     * Creates a BamManager reading with a reader leased from the pool. The reader is returned to the pool when the
+     * manager is closed, so managers can be created per request without parsing the header and loading the index.
+     * Iterators must be closed before closing the manager, otherwise the reader is closed instead of returned.
+     *
+     * @param bamFilePath The BAM or CRAM file
+     * @param refFilePath The reference file, mandatory for CRAM files. It must be the reference of the pool
+     * @param readerPool  Pool of readers created with {@link #newReaderPool(Path)}, or null to open a new reader
+     * @throws IOException If the file can not be read
+     * @throws IllegalArgumentException If the reference file is not the reference of the pool
+     */
+    public BamManager(Path bamFilePath, Path refFilePath, ReaderPool<SamReader> readerPool) throws IOException {
+        if (readerPool instanceof SamReaderPool
+                && !Objects.equals(normalize(refFilePath), normalize(((SamReaderPool) readerPool).getRefFile()))) {
+            throw new IllegalArgumentException("Reference file " + refFilePath + " does not match the reference file "
+                    + ((SamReaderPool) readerPool).getRefFile() + " of the reader pool");
+        }
         this.bamFile = bamFilePath;
         this.refFile = refFilePath;
+        this.readerPool = readerPool;
 
         this.init();
     }
 
+    /**
+     * Creates a pool of readers to be shared by the BamManagers of different files and threads. All the readers of
+     * the pool use the same reference, so only BamManagers with the same reference file can use the pool.
+     *
+     * @param refFilePath The reference file, mandatory for CRAM files
+     * @return A pool of readers
+     */
+    public static SamReaderPool newReaderPool(Path refFilePath) {
+        return new SamReaderPool(refFilePath);
+    }
+
+    /**
+     * Pool of readers of BAM and CRAM files decoded with the same reference file.
+     */
+    public static class SamReaderPool extends ReaderPool<SamReader> {
+
+        private final Path refFile;
+
+        public SamReaderPool(Path refFile) {
+            super(path -> openReader(path, refFile));
+            this.refFile = refFile;
+        }
+
+        public Path getRefFile() {
+            return refFile;
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path == null ? null : path.toAbsolutePath().normalize();
+    }
+
     private void init() throws IOException {
         FileUtils.checkFile(bamFile);
 
         if (this.samReader == null) {
-            SamReaderFactory srf = SamReaderFactory.make();
-            srf.validationStringency(ValidationStringency.LENIENT);
-            if (bamFile.toString().endsWith("cram")) {
-                if (refFile == null) {
-                    throw new IOException("Missing reference file for CRAM file " + bamFile);
-                } else {
-                    FileUtils.checkFile(refFile);
-                    srf.referenceSequence(refFile);
-                }
+            if (readerPool != null) {
+                this.lease = readerPool.lease(bamFile);
+                this.samReader = lease.get();
+            } else {
+                this.samReader = openReader(bamFile, refFile);
             }
-            this.samReader = srf.open(SamInputResource.of(bamFile.toFile()));
-
         }
 
         logger = LoggerFactory.getLogger(BamManager.class);
     }
 
+    private static SamReader openReader(Path bamFile, Path refFile) throws IOException {
+        SamReaderFactory srf = SamReaderFactory.make();
+        srf.validationStringency(ValidationStringency.LENIENT);
+        if (bamFile.toString().endsWith("cram")) {
+            if (refFile == null) {
+                throw new IOException("Missing reference file for CRAM file " + bamFile);
+            } else {
+                FileUtils.checkFile(refFile);
+                srf.referenceSequence(refFile);
+            }
+        }
+        return srf.open(SamInputResource.of(bamFile.toFile()));
+    }
+
     /**
      * Creates a index file for the BAM or CRAM input file.
      * @return The path of the index file.
@@ -169,6 +248,21 @@ public class BamManager implements AutoCloseable {
     }
 
     public Path calculateBigWigCoverage(Path bigWigPath, int windowSize) throws IOException {
+        return calculateBigWigCoverage(bigWigPath, windowSize, null, new AlignmentOptions(), DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * Computes the coverage of the BAM/CRAM file and writes it in a BigWig file, chromosomes are processed in parallel.
+     * @param bigWigPath The BigWig file to be created
+     * @param windowSize Window size to average the coverage, it must be greater or equal than 1
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options, e.g.: minimum base quality
+     * @param numThreads Number of threads, each thread computes the coverage of a different chromosome
+     * @return The path of the BigWig file
+     * @throws IOException If any error happens reading the BAM file or writing the BigWig file
+     */
+    public Path calculateBigWigCoverage(Path bigWigPath, int windowSize, AlignmentFilters<SAMRecord> filters,
+                                        AlignmentOptions options, int numThreads) throws IOException {
         checkBaiFileExists();
         FileUtils.checkDirectory(bigWigPath.toAbsolutePath().getParent(), true);
 
@@ -176,20 +270,50 @@ public class BamManager implements AutoCloseable {
         if (windowSize < 1) {
             windowSize = DEFAULT_WINDOW_SIZE;
         }
-        String windowSizeStr = String.valueOf(windowSize);
 
-        // Execute the bamCoverage utility from deepTools package, assuming it is installed in the system
-        // deepTools installation: pip install deepTools
-        ProcessBuilder processBuilder = new ProcessBuilder(
-                Arrays.asList("bamCoverage", "-b", bamFile.toString(), "-o", bigWigPath.toString(), "-of", "bigwig", "-bs", windowSizeStr));
-        Process p = processBuilder.start();
-        BufferedReader processBufferedReader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line;
-        while ((line = processBufferedReader.readLine()) != null) {
-            logger.info(line);
-        }
+        logger.info("Computing BigWig coverage for {} with window size {} and {} threads", bamFile, windowSize, numThreads);
+        return new BigWigCoverageCalculator(bamFile, refFile, filters, options).calculate(bigWigPath, windowSize, numThreads);
+    }
 
-        return bigWigPath;
+    /**
+     * Computes the coverage QC stats of a panel of transcripts: the percentage of the exonic positions covered at
+     * several depths, the low coverage regions and the stats of every exon. Reads are read once for all the exons,
+     * chromosomes are processed in parallel.
+     * @param transcripts Transcripts, with their exons
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options, e.g.: minimum base quality
+     * @param lowCoverageThreshold Positions with a lower depth have low coverage
+     * @param numThreads Number of threads, each thread computes the stats of a different chromosome
+     * @return The coverage stats of each transcript, in the same order
+     * @throws IOException If any error happens reading the BAM file
+     */
+    public List<TranscriptCoverageStats> transcriptCoverageStats(List<Transcript> transcripts,
+                                                                 AlignmentFilters<SAMRecord> filters,
+                                                                 AlignmentOptions options, int lowCoverageThreshold,
+                                                                 int numThreads) throws IOException {
+        checkBaiFileExists();
+        return new TranscriptCoverageStatsCalculator(bamFile, refFile, filters, options)
+                .setLowCoverageThreshold(lowCoverageThreshold)
+                .calculate(transcripts, numThreads);
+    }
+
+    /**
+     * Computes the coverage QC stats of all the transcripts of a panel of genes.
+     * @param genes Genes, with their transcripts and exons
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options, e.g.: minimum base quality
+     * @param lowCoverageThreshold Positions with a lower depth have low coverage
+     * @param numThreads Number of threads, each thread computes the stats of a different chromosome
+     * @return The coverage stats of each gene, in the same order
+     * @throws IOException If any error happens reading the BAM file
+     */
+    public List<GeneCoverageStats> geneCoverageStats(List<Gene> genes, AlignmentFilters<SAMRecord> filters,
+                                                     AlignmentOptions options, int lowCoverageThreshold,
+                                                     int numThreads) throws IOException {
+        checkBaiFileExists();
+        return new TranscriptCoverageStatsCalculator(bamFile, refFile, filters, options)
+                .setLowCoverageThreshold(lowCoverageThreshold)
+                .calculateGenes(genes, numThreads);
     }
 
     /**
@@ -248,18 +372,41 @@ public class BamManager implements AutoCloseable {
         }
 
         List<T> results = new ArrayList<>(maxNumberRecords);
-        BamIterator<T> bamIterator = (region != null)
+        try (BamIterator<T> bamIterator = (region != null)
                 ? iterator(region, filters, options, clazz)
-                : iterator(filters, options, clazz);
-
-        while (bamIterator.hasNext() && results.size() < maxNumberRecords) {
-            results.add(bamIterator.next());
+                : iterator(filters, options, clazz)) {
+            while (bamIterator.hasNext() && results.size() < maxNumberRecords) {
+                results.add(bamIterator.next());
+            }
         }
-        bamIterator.close();
         return results;
     }
 
 
+    /**
+     * Query a list of regions with several threads. Unlike the single region queries, the number of records is only
+     * limited by the option limit, so this can be used to scan big regions or whole chromosomes.
+     *
+     * @param regions Regions to query, the records are returned in the same order
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options, e.g.: limit or contained
+     * @param clazz Class of the returned records
+     * @param numThreads Number of threads, each thread reads a different shard of the regions with its own reader
+     * @param <T> Class of the returned records
+     * @return The records of all the regions
+     * @throws IOException If any error happens reading the BAM file
+     */
+    public <T> List<T> query(List<Region> regions, AlignmentFilters<SAMRecord> filters, AlignmentOptions options,
+                             Class<T> clazz, int numThreads) throws IOException {
+        List<T> results = new ArrayList<>();
+        try (ShardedIterator<SamReader, T> iterator = iterator(regions, filters, options, clazz, numThreads)) {
+            iterator.forEachRemaining(results::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return results;
+    }
+
     /*
      * These methods aim to provide a very simple, safe and quick way of iterating BAM/CRAM files.
      */
@@ -278,7 +425,7 @@ public class BamManager implements AutoCloseable {
     public <T> BamIterator<T> iterator(AlignmentFilters<SAMRecord> filters, AlignmentOptions options, Class<T> clazz) throws IOException {
         checkBaiFileExists();
 
-        SAMRecordIterator samRecordIterator = samReader.iterator();
+        SAMRecordIterator samRecordIterator = trackedIterator(samReader::iterator);
         return getAlignmentIterator(filters, options, clazz, samRecordIterator);
     }
 
@@ -304,11 +451,68 @@ public class BamManager implements AutoCloseable {
         // Sanity check
         BamUtils.validateRegion(region, samReader);
 
-        SAMRecordIterator samRecordIterator =
-                samReader.query(region.getChromosome(), region.getStart(), region.getEnd(), options.isContained());
+        boolean contained = options.isContained();
+        SAMRecordIterator samRecordIterator = trackedIterator(() ->
+                samReader.query(region.getChromosome(), region.getStart(), region.getEnd(), contained));
         return getAlignmentIterator(filters, options, clazz, samRecordIterator);
     }
 
+    public <T> ShardedIterator<SamReader, T> iterator(List<Region> regions, AlignmentFilters<SAMRecord> filters,
+                                                      AlignmentOptions options, Class<T> clazz, int numThreads)
+            throws IOException {
+        return iterator(regions, filters, options, clazz, numThreads, ShardedIterator.DEFAULT_SHARD_SIZE);
+    }
+
+    /**
+     * Iterate a list of regions with several threads. Each region is split in shards of about shardSize positions,
+     * and each shard is read with a different reader, opened with the same configuration of this manager or leased
+     * from its reader pool. The iterator must be closed to release the threads and readers.
+     *
+     * @param regions Regions to iterate, the records are returned in the same order
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options, e.g.: limit or contained
+     * @param clazz Class of the returned records
+     * @param numThreads Number of threads
+     * @param shardSize Size of each shard
+     * @param <T> Class of the returned records
+     * @return An iterator over the records of all the regions
+     * @throws IOException If any region is not valid or the BAM index is missing
+     */
+    public <T> ShardedIterator<SamReader, T> iterator(List<Region> regions, AlignmentFilters<SAMRecord> filters,
+                                                      AlignmentOptions options, Class<T> clazz, int numThreads,
+                                                      int shardSize) throws IOException {
+        checkBaiFileExists();
+
+        AlignmentOptions alignmentOptions = options == null ? new AlignmentOptions() : options;
+        // Sanity check
+        for (Region region : regions) {
+            BamUtils.validateRegion(region, samReader);
+        }
+
+        ShardedIterator.ReaderFactory<SamReader> readerFactory = readerPool == null
+                ? () -> openReader(bamFile, refFile)
+                : ShardedIterator.leaseFrom(readerPool, bamFile);
+        return new ShardedIterator<>(regions, shardSize, readerFactory,
+                (reader, region, shard, limit) -> readShard(reader, region, shard, limit, filters, alignmentOptions, clazz),
+                numThreads, alignmentOptions.getLimit());
+    }
+
+    private <T> BamIterator<T> readShard(SamReader reader, Region region, Region shard, int limit,
+                                         AlignmentFilters<SAMRecord> filters, AlignmentOptions options, Class<T> clazz) {
+        boolean contained = options.isContained();
+        AlignmentFilters<SAMRecord> shardFilters = new SamRecordFilters()
+                .addFilter(record -> ShardedIterator.isFirstShard(region, shard, record.getAlignmentStart())
+                        && (!contained || record.getAlignmentStart() >= region.getStart()
+                        && record.getAlignmentEnd() <= region.getEnd()));
+        if (filters != null) {
+            shardFilters.addFilter(filters);
+        }
+
+        SAMRecordIterator samRecordIterator =
+                reader.query(shard.getChromosome(), shard.getStart(), shard.getEnd(), false);
+        return getAlignmentIterator(shardFilters, options.isBinQualities(), clazz, samRecordIterator, limit);
+    }
+
     private <T> BamIterator<T> getAlignmentIterator(AlignmentFilters<SAMRecord> filters, AlignmentOptions alignmentOptions, Class<T> clazz,
                                                     SAMRecordIterator samRecordIterator) {
         if (alignmentOptions == null) {
@@ -320,12 +524,17 @@ public class BamManager implements AutoCloseable {
             limit = alignmentOptions.getLimit();
         }
 
+        return getAlignmentIterator(filters, alignmentOptions.isBinQualities(), clazz, samRecordIterator, limit);
+    }
+
+    private <T> BamIterator<T> getAlignmentIterator(AlignmentFilters<SAMRecord> filters, boolean binQualities, Class<T> clazz,
+                                                    SAMRecordIterator samRecordIterator, int limit) {
         if (ReadAlignment.class == clazz) {
             // AVRO
-            return (BamIterator<T>) new SAMRecordToAvroReadAlignmentBamIterator(samRecordIterator, filters, alignmentOptions.isBinQualities(), limit);
+            return (BamIterator<T>) new SAMRecordToAvroReadAlignmentBamIterator(samRecordIterator, filters, binQualities, limit);
         } else if (Reads.ReadAlignment.class == clazz) {
             // PROTOCOL BUFFER
-            return (BamIterator<T>) new SAMRecordToProtoReadAlignmentBamIterator(samRecordIterator, filters, alignmentOptions.isBinQualities(), limit);
+            return (BamIterator<T>) new SAMRecordToProtoReadAlignmentBamIterator(samRecordIterator, filters, binQualities, limit);
         } else if (SAMRecord.class == clazz) {
             return (BamIterator<T>) new SamRecordBamIterator(samRecordIterator, filters, limit);
         } else {
@@ -388,7 +597,7 @@ public class BamManager implements AutoCloseable {
     /**
      * Return the coverage average given a window size from a BigWig file. This is expected to have the same name
      * that the BAM file with .bw suffix.
-     * If no BigWig file is found and windowSize is 1 then we calculate te coverage from the BAM file.
+     * If no BigWig file is found then we calculate the coverage from the BAM file.
      * @param region Region from which return the coverage
      * @param windowSize Window size to average
      * @return One average score per window size spanning the region
@@ -398,12 +607,8 @@ public class BamManager implements AutoCloseable {
         if (Paths.get(bamFile.toString() + COVERAGE_BIGWIG_EXTENSION).toFile().exists()) {
             return BamUtils.getCoverageFromBigWig(region, windowSize, Paths.get(this.bamFile.toString() + COVERAGE_BIGWIG_EXTENSION));
         } else {
-            // If BigWig file is not found and windowSize is 1 then we calculate it from the BAM file
-            if (windowSize == 1) {
-                return coverage(region, null, new AlignmentOptions());
-            } else {
-                throw new AlignmentCoverageException("No bigwig file has been found and windowSize is > 1");
-            }
+            // If BigWig file is not found then we calculate it from the BAM file
+            return coverage(region, null, new AlignmentOptions(), windowSize);
         }
     }
 
@@ -416,31 +621,77 @@ public class BamManager implements AutoCloseable {
      */
     public RegionCoverage coverage(Region region, AlignmentFilters<SAMRecord> filters, AlignmentOptions options)
             throws AlignmentCoverageException {
-        // Check region size is smaller than MAX_REGION_COVERAGE
-        if (region.size() > MAX_REGION_COVERAGE) {
-            throw new AlignmentCoverageException("Region size is bigger than MAX_REGION_COVERAGE [" + MAX_REGION_COVERAGE +"]");
+        return coverage(region, filters, options, 1);
+    }
+
+    /**
+     * Calculate the mean coverage of each window of the region from the BAM file with the reads filtered. The number
+     * of windows, and not the size of the region, is limited by MAX_REGION_COVERAGE, so whole chromosomes can be
+     * queried with a large enough window size.
+     * @param region Region to calculate coverage from, a region without start and end is the whole chromosome
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options
+     * @param windowSize Window size to average, the last window is truncated at the end of the region
+     * @return One average score per window spanning the region
+     */
+    public RegionCoverage coverage(Region region, AlignmentFilters<SAMRecord> filters, AlignmentOptions options,
+                                   int windowSize) throws AlignmentCoverageException {
+        int size = Math.max(1, windowSize);
+        Region target = getCoverageRegion(region);
+        // Check number of windows is smaller than MAX_REGION_COVERAGE
+        if ((target.size() + size - 1) / size > MAX_REGION_COVERAGE) {
+            throw new AlignmentCoverageException("Number of windows is bigger than MAX_REGION_COVERAGE [" + MAX_REGION_COVERAGE
+                    + "], use a larger window size");
         }
 
+        double[] values = new double[(target.size() + size - 1) / size];
+        coverage(target, filters, options, new WindowCoverageAggregator(size,
+                (chromosome, start, end, windowValues) -> values[(start - target.getStart()) / size] = windowValues[0]));
+        return new RegionCoverage(target, size, values);
+    }
+
+    /**
+     * Stream the coverage of a region of any size to the listeners, e.g. window aggregates, low coverage regions and
+     * target stats, in a single pass over the reads and in constant memory.
+     * @param region Region to calculate coverage from, a region without start and end is the whole chromosome
+     * @param filters Filters to be applied to reads
+     * @param options Other possible options
+     * @param listeners Listeners receiving the coverage
+     */
+    public void coverage(Region region, AlignmentFilters<SAMRecord> filters, AlignmentOptions options,
+                         CoverageListener... listeners) throws AlignmentCoverageException {
         if (options == null) {
             options = new AlignmentOptions();
         }
 
-        SamRecordRegionCoverageCalculator calculator = new SamRecordRegionCoverageCalculator(options.getMinBaseQuality());
-        try (BamIterator<SAMRecord> iterator = iterator(region, filters, options)) {
-            RegionCoverage regionCoverage = new RegionCoverage(region);
-            while (iterator.hasNext()) {
-                SAMRecord next = iterator.next();
-                if (!next.getReadUnmappedFlag()) {
-                    calculator.update(next, regionCoverage);
-                }
-            }
-            regionCoverage.updateStats();
-            return regionCoverage;
+        Region target = getCoverageRegion(region);
+        StreamingCoverageCalculator calculator = new StreamingCoverageCalculator(options.getMinBaseQuality());
+        for (CoverageListener listener : listeners) {
+            calculator.addListener(listener);
+        }
+        try (BamIterator<SAMRecord> iterator = iterator(target, filters, options)) {
+            calculator.calculate(target, iterator);
         } catch (Exception e) {
             throw new AlignmentCoverageException(e.getMessage(), e);
         }
     }
 
+    /**
+     * Validate the region and clip it to the length of the chromosome.
+     */
+    private Region getCoverageRegion(Region region) throws AlignmentCoverageException {
+        try {
+            BamUtils.validateRegion(region, samReader);
+        } catch (IllegalArgumentException e) {
+            throw new AlignmentCoverageException(e.getMessage(), e);
+        }
+        SAMSequenceRecord sequence = samReader.getFileHeader().getSequence(region.getChromosome());
+        int end = sequence.getSequenceLength() > 0
+                ? Math.min(region.getEnd(), sequence.getSequenceLength())
+                : region.getEnd();
+        return new Region(region.getChromosome(), Math.max(1, region.getStart()), end);
+    }
+
     public AlignmentGlobalStats stats() throws IOException {
         return calculateGlobalStats(iterator());
     }
@@ -452,17 +703,28 @@ public class BamManager implements AutoCloseable {
     private AlignmentGlobalStats calculateGlobalStats(BamIterator<SAMRecord> iterator) {
         AlignmentGlobalStats alignmentGlobalStats = new AlignmentGlobalStats();
         SamRecordAlignmentGlobalStatsCalculator calculator = new SamRecordAlignmentGlobalStatsCalculator();
-        while (iterator.hasNext()) {
-            AlignmentGlobalStats computed = calculator.compute(iterator.next());
-            calculator.update(computed, alignmentGlobalStats);
+        try (BamIterator<SAMRecord> bamIterator = iterator) {
+            while (bamIterator.hasNext()) {
+                AlignmentGlobalStats computed = calculator.compute(bamIterator.next());
+                calculator.update(computed, alignmentGlobalStats);
+            }
         }
-        iterator.close();
         return alignmentGlobalStats;
     }
 
     @Override
     public void close() throws IOException {
-        if (samReader != null) {
+        if (lease != null) {
+            if (openIterators > 0 || readFailed) {
+                // the reader may be in the middle of an iteration, do not reuse it
+                logger.debug("Closing reader of {}, {} open iterators, read failed: {}", bamFile, openIterators,
+                        readFailed);
+                lease.invalidate();
+            }
+            lease.close();
+            lease = null;
+            samReader = null;
+        } else if (samReader != null) {
             samReader.close();
         }
     }
@@ -475,6 +737,66 @@ public class BamManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Create an iterator of the reader of the manager, the first records may be read when it is created.
+     */
+    private SAMRecordIterator trackedIterator(Supplier<SAMRecordIterator> iteratorSupplier) {
+        try {
+            return new TrackedSamRecordIterator(iteratorSupplier.get());
+        } catch (RuntimeException e) {
+            readFailed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Iterator of the reader of the manager, counting the open iterators and the read failures.
+     */
+    private class TrackedSamRecordIterator implements SAMRecordIterator {
+        private final SAMRecordIterator iterator;
+        private boolean closed;
+
+        TrackedSamRecordIterator(SAMRecordIterator iterator) {
+            this.iterator = iterator;
+            openIterators++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return iterator.hasNext();
+            } catch (RuntimeException e) {
+                readFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public SAMRecord next() {
+            try {
+                return iterator.next();
+            } catch (RuntimeException e) {
+                readFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public SAMRecordIterator assertSorted(SAMFileHeader.SortOrder sortOrder) {
+            iterator.assertSorted(sortOrder);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                openIterators--;
+                iterator.close();
+            }
+        }
+    }
+
     public Path getBamFile() {
         return bamFile;
     }
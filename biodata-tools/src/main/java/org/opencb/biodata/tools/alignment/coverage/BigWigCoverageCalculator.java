@@ -0,0 +1,224 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.alignment.coverage;
+
+import htsjdk.samtools.*;
+import org.opencb.biodata.models.alignment.RegionCoverage;
+import org.opencb.biodata.tools.alignment.AlignmentOptions;
+import org.opencb.biodata.tools.alignment.filters.AlignmentFilters;
+import org.opencb.biodata.tools.alignment.iterators.SamRecordBamIterator;
+import org.opencb.biodata.tools.feature.BigWigWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compute the coverage of a BAM/CRAM file and write it as a BigWig file, with no external tools.
+ *
+ * Each chromosome is processed by a different task of a thread pool, every task opens its own reader and computes the
+ * coverage in chunks using a {@link SamRecordRegionCoverageCalculator}. Coverage is averaged by windows of windowSize
+ * bases, consecutive windows with the same value are merged and windows with no coverage are skipped.
+ */
+public class BigWigCoverageCalculator {
+
+    private final Path bamFile;
+    private final Path refFile;
+    private final AlignmentFilters<SAMRecord> filters;
+    private final AlignmentOptions options;
+
+    private int chunkSize;
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000000;
+    public static final int ZOOM_REDUCTION_FACTOR = 10;
+
+    private final Logger logger = LoggerFactory.getLogger(BigWigCoverageCalculator.class);
+
+    public BigWigCoverageCalculator(Path bamFile) {
+        this(bamFile, null, null, null);
+    }
+
+    public BigWigCoverageCalculator(Path bamFile, Path refFile, AlignmentFilters<SAMRecord> filters, AlignmentOptions options) {
+        this.bamFile = bamFile;
+        this.refFile = refFile;
+        this.filters = filters;
+        this.options = (options == null) ? new AlignmentOptions() : options;
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Compute the coverage and write the BigWig file.
+     *
+     * @param bigWigPath    BigWig file to be created
+     * @param windowSize    Window size (bin size), it must be greater or equal than 1
+     * @param numThreads    Number of chromosomes processed in parallel
+     * @return              The BigWig file path
+     * @throws IOException  If any error occurs reading the BAM file or writing the BigWig file
+     */
+    public Path calculate(Path bigWigPath, int windowSize, int numThreads) throws IOException {
+        windowSize = Math.max(1, windowSize);
+        numThreads = Math.max(1, numThreads);
+
+        List<SAMSequenceRecord> sequences;
+        try (SamReader samReader = openSamReader()) {
+            sequences = samReader.getFileHeader().getSequenceDictionary().getSequences();
+        }
+        Map<String, Integer> chromosomeSizes = new LinkedHashMap<>();
+        for (SAMSequenceRecord sequence : sequences) {
+            chromosomeSizes.put(sequence.getSequenceName(), sequence.getSequenceLength());
+        }
+
+        // Chunks must contain an exact number of windows so that windows never span two chunks
+        int windowsPerChunk = Math.max(1, chunkSize / windowSize);
+        int alignedChunkSize = windowsPerChunk * windowSize;
+
+        BigWigWriter bigWigWriter = new BigWigWriter(bigWigPath, chromosomeSizes, windowSize * ZOOM_REDUCTION_FACTOR);
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(numThreads, sequences.size()));
+        try {
+            // Longest chromosomes are submitted first to balance the load
+            List<SAMSequenceRecord> sortedSequences = new ArrayList<>(sequences);
+            sortedSequences.sort(Comparator.comparingInt(SAMSequenceRecord::getSequenceLength).reversed());
+
+            List<Future<Void>> futures = new ArrayList<>(sortedSequences.size());
+            final int finalWindowSize = windowSize;
+            for (SAMSequenceRecord sequence : sortedSequences) {
+                futures.add(executorService.submit(() -> {
+                    calculate(sequence, finalWindowSize, alignedChunkSize, bigWigWriter);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            bigWigWriter.close();
+        } catch (InterruptedException e) {
+            bigWigWriter.discard();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the coverage for " + bamFile, e);
+        } catch (ExecutionException e) {
+            bigWigWriter.discard();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error computing the coverage for " + bamFile + ": " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return bigWigPath;
+    }
+
+    private void calculate(SAMSequenceRecord sequence, int windowSize, int alignedChunkSize, BigWigWriter bigWigWriter)
+            throws IOException {
+        String chromosome = sequence.getSequenceName();
+        int length = sequence.getSequenceLength();
+        logger.debug("Computing coverage for {} ({} bp)", chromosome, length);
+
+        SamRecordRegionCoverageCalculator calculator = new SamRecordRegionCoverageCalculator(options.getMinBaseQuality());
+        RegionCoverage regionCoverage = new RegionCoverage(chromosome, 1, Math.min(alignedChunkSize, length));
+        double[] values = regionCoverage.getValues();
+
+        try (SamReader samReader = openSamReader();
+             BigWigWriter.ContigWriter contigWriter = bigWigWriter.newContigWriter(chromosome)) {
+            // Current run of windows sharing the same value
+            int runStart = -1;
+            int runEnd = -1;
+            float runValue = 0;
+            boolean dirty = false;
+
+            for (int chunkStart = 1; chunkStart <= length; chunkStart += alignedChunkSize) {
+                int chunkEnd = Math.min(chunkStart + alignedChunkSize - 1, length);
+                regionCoverage.setStart(chunkStart);
+                regionCoverage.setEnd(chunkEnd);
+                if (dirty) {
+                    Arrays.fill(values, 0);
+                    dirty = false;
+                }
+
+                try (SamRecordBamIterator iterator = new SamRecordBamIterator(samReader.queryOverlapping(chromosome, chunkStart,
+                        chunkEnd), filters)) {
+                    while (iterator.hasNext()) {
+                        calculator.update(iterator.next(), regionCoverage);
+                        dirty = true;
+                    }
+                }
+
+                if (!dirty) {
+                    // No reads in this chunk, there is nothing to write
+                    if (runStart != -1) {
+                        contigWriter.add(runStart, runEnd, runValue);
+                        runStart = -1;
+                    }
+                    continue;
+                }
+
+                for (int windowStart = chunkStart; windowStart <= chunkEnd; windowStart += windowSize) {
+                    int windowEnd = Math.min(windowStart + windowSize - 1, chunkEnd);
+                    double sum = 0;
+                    for (int i = windowStart - chunkStart; i <= windowEnd - chunkStart; i++) {
+                        sum += values[i];
+                    }
+                    float value = (float) (sum / (windowEnd - windowStart + 1));
+
+                    if (runStart != -1 && value == runValue && windowStart == runEnd + 1) {
+                        runEnd = windowEnd;
+                    } else {
+                        if (runStart != -1) {
+                            contigWriter.add(runStart, runEnd, runValue);
+                            runStart = -1;
+                        }
+                        if (value != 0) {
+                            runStart = windowStart;
+                            runEnd = windowEnd;
+                            runValue = value;
+                        }
+                    }
+                }
+            }
+            if (runStart != -1) {
+                contigWriter.add(runStart, runEnd, runValue);
+            }
+        }
+    }
+
+    private SamReader openSamReader() throws IOException {
+        SamReaderFactory srf = SamReaderFactory.make();
+        srf.validationStringency(ValidationStringency.LENIENT);
+        if (refFile != null) {
+            srf.referenceSequence(refFile);
+        }
+        return srf.open(SamInputResource.of(bamFile.toFile()));
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public BigWigCoverageCalculator setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+/**
+ * Aggregate of the depth of the positions of a window, see {@link WindowCoverageAggregator}. Aggregates keep state,
+ * so each window aggregator needs its own instances.
+ */
+public interface CoverageAggregate {
+
+    void reset();
+
+    /**
+     * @param depth     Depth
+     * @param length    Number of positions with that depth
+     */
+    void add(int depth, int length);
+
+    double get();
+
+    static CoverageAggregate mean() {
+        return new CoverageAggregate() {
+            private long sum;
+            private long length;
+
+            @Override
+            public void reset() {
+                sum = 0;
+                length = 0;
+            }
+
+            @Override
+            public void add(int depth, int length) {
+                this.sum += (long) depth * length;
+                this.length += length;
+            }
+
+            @Override
+            public double get() {
+                return length == 0 ? 0 : (double) sum / length;
+            }
+        };
+    }
+
+    static CoverageAggregate min() {
+        return new CoverageAggregate() {
+            private int min = Integer.MAX_VALUE;
+
+            @Override
+            public void reset() {
+                min = Integer.MAX_VALUE;
+            }
+
+            @Override
+            public void add(int depth, int length) {
+                min = Math.min(min, depth);
+            }
+
+            @Override
+            public double get() {
+                return min == Integer.MAX_VALUE ? 0 : min;
+            }
+        };
+    }
+
+    static CoverageAggregate max() {
+        return new CoverageAggregate() {
+            private int max;
+
+            @Override
+            public void reset() {
+                max = 0;
+            }
+
+            @Override
+            public void add(int depth, int length) {
+                max = Math.max(max, depth);
+            }
+
+            @Override
+            public double get() {
+                return max;
+            }
+        };
+    }
+
+    /**
+     * @param minDepth  Minimum depth
+     * @return          Aggregate computing the fraction of the positions with a depth greater or equal than minDepth
+     */
+    static CoverageAggregate fractionAtLeast(int minDepth) {
+        return new CoverageAggregate() {
+            private long covered;
+            private long length;
+
+            @Override
+            public void reset() {
+                covered = 0;
+                length = 0;
+            }
+
+            @Override
+            public void add(int depth, int length) {
+                if (depth >= minDepth) {
+                    covered += length;
+                }
+                this.length += length;
+            }
+
+            @Override
+            public double get() {
+                return length == 0 ? 0 : (double) covered / length;
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+/**
+ * Receives the depth of a region computed by {@link StreamingCoverageCalculator}, as runs of consecutive positions
+ * with the same depth. The runs of a region are sorted, contiguous, and cover all its positions, including the ones
+ * without alignments (depth 0).
+ */
+public interface CoverageListener {
+
+    /**
+     * Called before the first run of a region.
+     *
+     * @param chromosome    Chromosome
+     * @param start         First position of the region
+     * @param end           Last position of the region
+     */
+    default void start(String chromosome, int start, int end) {
+    }
+
+    /**
+     * @param chromosome    Chromosome
+     * @param start         First position of the run
+     * @param end           Last position of the run
+     * @param depth         Depth of all the positions of the run
+     */
+    void coverage(String chromosome, int start, int end, int depth);
+
+    /**
+     * Called after the last run of a region.
+     *
+     * @param chromosome    Chromosome
+     */
+    default void end(String chromosome) {
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+import org.opencb.biodata.models.alignment.LowCoverageRegionStats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the regions with a depth lower than a threshold: maximal runs of consecutive positions below the threshold.
+ */
+public class LowCoverageRegionCalculator implements CoverageListener {
+
+    private final int threshold;
+    private final int minLength;
+    private final List<LowCoverageRegionStats> lowCoverageRegions;
+
+    // current low coverage region, if start > 0
+    private int start;
+    private int end;
+    private long depthSum;
+    private int depthMin;
+
+    public LowCoverageRegionCalculator(int threshold) {
+        this(threshold, 1);
+    }
+
+    /**
+     * @param threshold Positions with a depth lower than the threshold have low coverage
+     * @param minLength Minimum length of the reported regions
+     */
+    public LowCoverageRegionCalculator(int threshold, int minLength) {
+        this.threshold = threshold;
+        this.minLength = minLength;
+        this.lowCoverageRegions = new ArrayList<>();
+    }
+
+    @Override
+    public void coverage(String chromosome, int start, int end, int depth) {
+        if (depth >= threshold) {
+            close(chromosome);
+            return;
+        }
+        if (this.start == 0) {
+            this.start = start;
+            this.depthSum = 0;
+            this.depthMin = depth;
+        }
+        this.end = end;
+        this.depthSum += (long) depth * (end - start + 1);
+        this.depthMin = Math.min(depthMin, depth);
+    }
+
+    @Override
+    public void end(String chromosome) {
+        close(chromosome);
+    }
+
+    private void close(String chromosome) {
+        if (start > 0) {
+            int length = end - start + 1;
+            if (length >= minLength) {
+                lowCoverageRegions.add(new LowCoverageRegionStats(chromosome, start, end, (double) depthSum / length,
+                        depthMin));
+            }
+            start = 0;
+        }
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    public List<LowCoverageRegionStats> getLowCoverageRegions() {
+        return lowCoverageRegions;
+    }
+}
@@ -48,30 +48,39 @@ public class SamRecordRegionCoverageCalculator extends RegionCoverageCalculator<
         int qualityPos = 0;
 
         byte[] qualities = sr.getBaseQualities();
+        boolean checkQuality = minBaseQuality > 0 && qualities.length > 0;
         double[] values = dest.getValues();
+        int destStart = dest.getStart();
+        int destEnd = dest.getEnd();
 
         for (CigarElement ce: sr.getCigar().getCigarElements()) {
-            switch (ce.getOperator().toString()) {
-                case "M":
-                case "=":
-                case "X":
-                    for (int i = 0; i < ce.getLength(); i++) {
-                        if (refPos >= dest.getStart() && refPos <= dest.getEnd()) {
-                            if (qualities[qualityPos] >= minBaseQuality) {
-                                values[refPos - dest.getStart()]++;
-                            }
+            if (refPos > destEnd) {
+                // the rest of the read is out of the region
+                break;
+            }
+            int length = ce.getLength();
+            switch (ce.getOperator()) {
+                case M:
+                case EQ:
+                case X:
+                    // only the aligned bases overlapping the region are visited
+                    int from = Math.max(refPos, destStart);
+                    int to = Math.min(refPos + length - 1, destEnd);
+                    for (int pos = from; pos <= to; pos++) {
+                        if (!checkQuality || qualities[qualityPos + pos - refPos] >= minBaseQuality) {
+                            values[pos - destStart]++;
                         }
-                        qualityPos++;
-                        refPos++;
                     }
+                    qualityPos += length;
+                    refPos += length;
                     break;
-                case "N":
-                case "D":
-                    refPos += ce.getLength();
+                case N:
+                case D:
+                    refPos += length;
                     break;
-                case "S":
-                case "I":
-                    qualityPos += ce.getLength();
+                case S:
+                case I:
+                    qualityPos += length;
                     break;
                 default:
                     break;
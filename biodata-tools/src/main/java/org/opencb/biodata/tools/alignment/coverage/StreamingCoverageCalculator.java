@@ -0,0 +1,248 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.SAMRecord;
+import org.opencb.biodata.models.core.Region;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sweep-line coverage calculator over alignments sorted by position.
+ *
+ * Each aligned block of a read adds +1 at its first position and -1 after its last one into a ring buffer of depth
+ * deltas. Since the alignments are sorted, once an alignment starting at position P is read the depth of all the
+ * positions before P is final: it is the running sum of the deltas. Those positions are flushed to the listeners as
+ * runs of constant depth, and their slots of the buffer are reused. The memory depends on the span of the longest
+ * alignment and not on the size of the region, so whole chromosomes can be processed in a single pass.
+ *
+ * Several listeners can be fed in the same pass, e.g. a {@link WindowCoverageAggregator}, a
+ * {@link LowCoverageRegionCalculator} and a {@link TargetCoverageStatsCalculator}.
+ */
+public class StreamingCoverageCalculator {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final int minBaseQuality;
+    private final List<CoverageListener> listeners;
+
+    // ring buffer of depth deltas, the delta of position p is at p & mask
+    private int[] deltas;
+    private int mask;
+
+    // current region
+    private String chromosome;
+    private int end;
+    private int lastAlignmentStart;
+    // next position to flush, its depth is the depth of the current run plus its delta
+    private int position;
+    private int runStart;
+    private int depth;
+
+    public StreamingCoverageCalculator() {
+        this(0);
+    }
+
+    /**
+     * @param minBaseQuality    Bases with a lower quality are not counted
+     */
+    public StreamingCoverageCalculator(int minBaseQuality) {
+        this.minBaseQuality = minBaseQuality;
+        this.listeners = new ArrayList<>();
+        this.deltas = new int[DEFAULT_BUFFER_SIZE];
+        this.mask = DEFAULT_BUFFER_SIZE - 1;
+    }
+
+    public StreamingCoverageCalculator addListener(CoverageListener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    /**
+     * Compute the coverage of a region.
+     *
+     * @param region        Region, positions are 1-based and inclusive
+     * @param alignments    Alignments overlapping the region, sorted by alignment start
+     */
+    public void calculate(Region region, Iterator<SAMRecord> alignments) {
+        start(region.getChromosome(), Math.max(1, region.getStart()), region.getEnd());
+        while (alignments.hasNext()) {
+            update(alignments.next());
+        }
+        end();
+    }
+
+    /**
+     * Start the computation of a region, the alignments are then added with {@link #update(SAMRecord)}.
+     *
+     * @param chromosome    Chromosome
+     * @param start         First position of the region
+     * @param end           Last position of the region
+     */
+    public void start(String chromosome, int start, int end) {
+        if (start < 1 || start > end) {
+            throw new IllegalArgumentException("Invalid region " + chromosome + ":" + start + "-" + end);
+        }
+        this.chromosome = chromosome;
+        this.end = end;
+        this.lastAlignmentStart = 0;
+        this.position = start;
+        this.runStart = start;
+        this.depth = 0;
+        for (CoverageListener listener : listeners) {
+            listener.start(chromosome, start, end);
+        }
+    }
+
+    public void update(SAMRecord alignment) {
+        if (alignment.getReadUnmappedFlag() || !alignment.getReferenceName().equals(chromosome)) {
+            return;
+        }
+        int alignmentStart = alignment.getAlignmentStart();
+        if (alignmentStart < lastAlignmentStart) {
+            throw new IllegalArgumentException("Alignments are not sorted by position: " + alignment.getReadName()
+                    + " at " + alignment.getReferenceName() + ":" + alignmentStart);
+        }
+        lastAlignmentStart = alignmentStart;
+        if (alignmentStart > end) {
+            return;
+        }
+        // no more alignments can cover the positions before the start of this one
+        flush(alignmentStart);
+
+        byte[] qualities = alignment.getBaseQualities();
+        boolean checkQuality = minBaseQuality > 0 && qualities.length > 0;
+        int refPos = alignmentStart;
+        int qualityPos = 0;
+        for (CigarElement ce : alignment.getCigar().getCigarElements()) {
+            if (refPos > end) {
+                break;
+            }
+            int length = ce.getLength();
+            switch (ce.getOperator()) {
+                case M:
+                case EQ:
+                case X:
+                    if (checkQuality) {
+                        // split the block by the bases with low quality
+                        int blockStart = -1;
+                        for (int i = 0; i < length; i++) {
+                            if (qualities[qualityPos + i] >= minBaseQuality) {
+                                if (blockStart < 0) {
+                                    blockStart = refPos + i;
+                                }
+                            } else if (blockStart >= 0) {
+                                addBlock(blockStart, refPos + i - 1);
+                                blockStart = -1;
+                            }
+                        }
+                        if (blockStart >= 0) {
+                            addBlock(blockStart, refPos + length - 1);
+                        }
+                    } else {
+                        addBlock(refPos, refPos + length - 1);
+                    }
+                    qualityPos += length;
+                    refPos += length;
+                    break;
+                case N:
+                case D:
+                    refPos += length;
+                    break;
+                case S:
+                case I:
+                    qualityPos += length;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Flush the remaining positions of the region to the listeners.
+     */
+    public void end() {
+        flush(end + 1);
+        if (runStart <= end) {
+            emit(runStart, end, depth);
+        }
+        for (CoverageListener listener : listeners) {
+            listener.end(chromosome);
+        }
+    }
+
+    private void addBlock(int blockStart, int blockEnd) {
+        blockStart = Math.max(blockStart, position);
+        blockEnd = Math.min(blockEnd, end);
+        if (blockStart > blockEnd) {
+            return;
+        }
+        ensureCapacity(blockEnd + 1);
+        deltas[blockStart & mask]++;
+        if (blockEnd < end) {
+            deltas[(blockEnd + 1) & mask]--;
+        }
+    }
+
+    private void ensureCapacity(int maxPosition) {
+        if (maxPosition - position < deltas.length) {
+            return;
+        }
+        int size = Integer.highestOneBit(maxPosition - position) * 2;
+        int[] newDeltas = new int[size];
+        for (int pos = position; pos < position + deltas.length; pos++) {
+            newDeltas[pos & (size - 1)] = deltas[pos & mask];
+        }
+        deltas = newDeltas;
+        mask = size - 1;
+    }
+
+    private void flush(int to) {
+        to = Math.min(to, end + 1);
+        for (; position < to; position++) {
+            int slot = position & mask;
+            if (deltas[slot] != 0) {
+                if (position > runStart) {
+                    emit(runStart, position - 1, depth);
+                }
+                depth += deltas[slot];
+                deltas[slot] = 0;
+                runStart = position;
+            }
+        }
+    }
+
+    private void emit(int start, int end, int depth) {
+        for (CoverageListener listener : listeners) {
+            listener.coverage(chromosome, start, end, depth);
+        }
+    }
+
+    public int getMinBaseQuality() {
+        return minBaseQuality;
+    }
+
+    public List<CoverageListener> getListeners() {
+        return listeners;
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+import org.opencb.biodata.models.alignment.LowCoverageRegionStats;
+import org.opencb.biodata.models.alignment.RegionCoverageStats;
+import org.opencb.biodata.models.core.Region;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+
+/**
+ * Computes the coverage stats (min, max and mean depth) of a list of target regions, e.g. genes or exons, while the
+ * coverage of a larger region is streamed. Targets can overlap. Only the positions of a target inside the computed
+ * regions are taken into account, the stats of the targets outside them are null. A target spanning several computed
+ * regions keeps the stats of the last one.
+ *
+ * Optionally, it also counts the positions of each target covered at several depths, and finds the low coverage
+ * regions inside each target.
+ */
+public class TargetCoverageStatsCalculator implements CoverageListener {
+
+    private final List<Region> targets;
+    private final RegionCoverageStats[] stats;
+
+    // accumulators, by target
+    private final long[] depthSums;
+    private final int[] lengths;
+    private final int[] depthMins;
+    private final int[] depthMaxs;
+
+    // number of positions with depth >= each threshold, by target
+    private int[] depthThresholds;
+    private int[][] depthCounts;
+
+    // low coverage regions by target, and the current one of each target
+    private int lowCoverageThreshold;
+    private List<LowCoverageRegionStats>[] lowCoverageRegions;
+    private int[] lowStarts;
+    private int[] lowEnds;
+    private long[] lowDepthSums;
+    private int[] lowDepthMins;
+
+    // targets of each chromosome sorted by start, and the maximum end of the targets up to each one
+    private final Map<String, int[]> sortedTargets;
+    private final Map<String, int[]> maxEnds;
+
+    // targets of the current region: sorted targets, the next one to activate, the first one starting after the
+    // region, and the active ones
+    private int regionStart;
+    private int[] order;
+    private int next;
+    private int limit;
+    private int[] active;
+    private int numActive;
+
+    public TargetCoverageStatsCalculator(List<Region> targets) {
+        this.targets = targets;
+        this.stats = new RegionCoverageStats[targets.size()];
+        this.depthSums = new long[targets.size()];
+        this.lengths = new int[targets.size()];
+        this.depthMins = new int[targets.size()];
+        this.depthMaxs = new int[targets.size()];
+        this.active = new int[16];
+
+        Map<String, List<Integer>> byChromosome = new HashMap<>();
+        for (int i = 0; i < targets.size(); i++) {
+            byChromosome.computeIfAbsent(targets.get(i).getChromosome(), k -> new ArrayList<>()).add(i);
+        }
+        this.sortedTargets = new HashMap<>();
+        this.maxEnds = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : byChromosome.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            indexes.sort(Comparator.comparingInt(i -> targets.get(i).getStart()));
+            int[] sorted = new int[indexes.size()];
+            int[] ends = new int[indexes.size()];
+            int maxEnd = Integer.MIN_VALUE;
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = indexes.get(i);
+                maxEnd = Math.max(maxEnd, targets.get(sorted[i]).getEnd());
+                ends[i] = maxEnd;
+            }
+            sortedTargets.put(entry.getKey(), sorted);
+            maxEnds.put(entry.getKey(), ends);
+        }
+    }
+
+    /**
+     * Count the positions of each target with a depth greater or equal than each threshold.
+     *
+     * @param depthThresholds   Depth thresholds
+     * @return                  This calculator
+     */
+    public TargetCoverageStatsCalculator setDepthThresholds(int... depthThresholds) {
+        this.depthThresholds = depthThresholds;
+        this.depthCounts = new int[targets.size()][];
+        return this;
+    }
+
+    /**
+     * Find the regions of each target with a depth lower than the threshold.
+     *
+     * @param lowCoverageThreshold  Positions with a lower depth have low coverage
+     * @return                      This calculator
+     */
+    @SuppressWarnings("unchecked")
+    public TargetCoverageStatsCalculator setLowCoverageThreshold(int lowCoverageThreshold) {
+        this.lowCoverageThreshold = lowCoverageThreshold;
+        this.lowCoverageRegions = new List[targets.size()];
+        this.lowStarts = new int[targets.size()];
+        this.lowEnds = new int[targets.size()];
+        this.lowDepthSums = new long[targets.size()];
+        this.lowDepthMins = new int[targets.size()];
+        return this;
+    }
+
+    @Override
+    public void start(String chromosome, int start, int end) {
+        regionStart = start;
+        order = sortedTargets.getOrDefault(chromosome, new int[0]);
+        int[] ends = maxEnds.getOrDefault(chromosome, new int[0]);
+        // targets before the first one with maximum end >= start end before the region
+        next = firstIndex(order.length, i -> ends[i] >= start);
+        limit = firstIndex(order.length, i -> targets.get(order[i]).getStart() > end);
+        numActive = 0;
+    }
+
+    @Override
+    public void coverage(String chromosome, int start, int end, int depth) {
+        while (next < limit && targets.get(order[next]).getStart() <= end) {
+            int target = order[next++];
+            if (targets.get(target).getEnd() >= regionStart) {
+                activate(target);
+            }
+        }
+
+        for (int i = 0; i < numActive; ) {
+            int target = active[i];
+            int from = Math.max(start, targets.get(target).getStart());
+            int to = Math.min(end, targets.get(target).getEnd());
+            if (from <= to) {
+                add(target, from, to, depth);
+            }
+            if (targets.get(target).getEnd() <= end) {
+                // done, remove it from the active targets
+                finish(target);
+                active[i] = active[--numActive];
+            } else {
+                i++;
+            }
+        }
+    }
+
+    @Override
+    public void end(String chromosome) {
+        // targets partially inside the region
+        for (int i = 0; i < numActive; i++) {
+            finish(active[i]);
+        }
+        numActive = 0;
+    }
+
+    private void activate(int target) {
+        if (numActive == active.length) {
+            active = Arrays.copyOf(active, numActive * 2);
+        }
+        active[numActive++] = target;
+        depthSums[target] = 0;
+        lengths[target] = 0;
+        depthMins[target] = Integer.MAX_VALUE;
+        depthMaxs[target] = 0;
+        if (depthThresholds != null) {
+            depthCounts[target] = new int[depthThresholds.length];
+        }
+        if (lowCoverageRegions != null) {
+            lowCoverageRegions[target] = new ArrayList<>();
+            lowStarts[target] = 0;
+        }
+    }
+
+    private void add(int target, int from, int to, int depth) {
+        int length = to - from + 1;
+        depthSums[target] += (long) depth * length;
+        lengths[target] += length;
+        depthMins[target] = Math.min(depthMins[target], depth);
+        depthMaxs[target] = Math.max(depthMaxs[target], depth);
+
+        if (depthThresholds != null) {
+            for (int i = 0; i < depthThresholds.length; i++) {
+                if (depth >= depthThresholds[i]) {
+                    depthCounts[target][i] += length;
+                }
+            }
+        }
+
+        if (lowCoverageRegions != null) {
+            if (depth >= lowCoverageThreshold) {
+                closeLowCoverageRegion(target);
+            } else {
+                if (lowStarts[target] == 0) {
+                    lowStarts[target] = from;
+                    lowDepthSums[target] = 0;
+                    lowDepthMins[target] = depth;
+                }
+                lowEnds[target] = to;
+                lowDepthSums[target] += (long) depth * length;
+                lowDepthMins[target] = Math.min(lowDepthMins[target], depth);
+            }
+        }
+    }
+
+    private void closeLowCoverageRegion(int target) {
+        if (lowStarts[target] > 0) {
+            int length = lowEnds[target] - lowStarts[target] + 1;
+            lowCoverageRegions[target].add(new LowCoverageRegionStats(targets.get(target).getChromosome(),
+                    lowStarts[target], lowEnds[target], (double) lowDepthSums[target] / length, lowDepthMins[target]));
+            lowStarts[target] = 0;
+        }
+    }
+
+    private void finish(int target) {
+        if (lengths[target] > 0) {
+            stats[target] = new RegionCoverageStats(depthMins[target], depthMaxs[target],
+                    (double) depthSums[target] / lengths[target]);
+            if (lowCoverageRegions != null) {
+                closeLowCoverageRegion(target);
+            }
+        }
+    }
+
+    private static int firstIndex(int size, IntPredicate predicate) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (predicate.test(mid)) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    public List<Region> getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return  Coverage stats of each target, in the order of the targets
+     */
+    public List<RegionCoverageStats> getStats() {
+        return Arrays.asList(stats);
+    }
+
+    /**
+     * @param target    Index of the target
+     * @return          Number of positions of the target inside the computed regions
+     */
+    public int getLength(int target) {
+        return lengths[target];
+    }
+
+    /**
+     * @param target    Index of the target
+     * @return          Number of positions of the target with a depth greater or equal than each threshold, or null
+     */
+    public int[] getDepthCounts(int target) {
+        return depthCounts == null ? null : depthCounts[target];
+    }
+
+    /**
+     * @param target    Index of the target
+     * @return          Low coverage regions of the target, or null
+     */
+    public List<LowCoverageRegionStats> getLowCoverageRegions(int target) {
+        return lowCoverageRegions == null ? null : lowCoverageRegions[target];
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+import htsjdk.samtools.*;
+import org.opencb.biodata.models.alignment.*;
+import org.opencb.biodata.models.core.Exon;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.tools.alignment.AlignmentOptions;
+import org.opencb.biodata.tools.alignment.BamUtils;
+import org.opencb.biodata.tools.alignment.filters.AlignmentFilters;
+import org.opencb.biodata.tools.alignment.iterators.SamRecordBamIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compute the coverage QC stats of a panel of transcripts or genes from a BAM/CRAM file, with a single pass over the
+ * reads of each chromosome.
+ *
+ * Exons shared by several transcripts are computed once. Exons closer than maxGap bases are merged into blocks, and
+ * each block is read with a single query to the index, so the reads shared by neighbouring exons are decoded only
+ * once. The coverage of the blocks is streamed with a {@link StreamingCoverageCalculator} into a
+ * {@link TargetCoverageStatsCalculator}, which fills the stats of all the exons at once. Chromosomes are processed in
+ * parallel, every task opens its own reader.
+ */
+public class TranscriptCoverageStatsCalculator {
+
+    private final Path bamFile;
+    private final Path refFile;
+    private final AlignmentFilters<SAMRecord> filters;
+    private final AlignmentOptions options;
+
+    private int lowCoverageThreshold;
+    private int maxGap;
+
+    /** Depths of {@link TranscriptCoverageStats#getDepths()}. */
+    public static final int[] DEPTH_THRESHOLDS = {1, 5, 10, 15, 20, 25, 30, 40, 50, 60, 75, 100};
+    public static final int DEFAULT_LOW_COVERAGE_THRESHOLD = 20;
+    public static final int DEFAULT_MAX_GAP = 1000;
+
+    private final Logger logger = LoggerFactory.getLogger(TranscriptCoverageStatsCalculator.class);
+
+    public TranscriptCoverageStatsCalculator(Path bamFile) {
+        this(bamFile, null, null, null);
+    }
+
+    public TranscriptCoverageStatsCalculator(Path bamFile, Path refFile, AlignmentFilters<SAMRecord> filters,
+                                             AlignmentOptions options) {
+        this.bamFile = bamFile;
+        this.refFile = refFile;
+        this.filters = filters;
+        this.options = (options == null) ? new AlignmentOptions() : options;
+        this.lowCoverageThreshold = DEFAULT_LOW_COVERAGE_THRESHOLD;
+        this.maxGap = DEFAULT_MAX_GAP;
+    }
+
+    /**
+     * Compute the coverage stats of the genes, one {@link TranscriptCoverageStats} for each of their transcripts.
+     *
+     * @param genes         Genes, with their transcripts and exons
+     * @param numThreads    Number of chromosomes processed in parallel
+     * @return              Coverage stats of each gene, in the same order
+     * @throws IOException  If any error occurs reading the BAM file
+     */
+    public List<GeneCoverageStats> calculateGenes(List<Gene> genes, int numThreads) throws IOException {
+        List<Transcript> transcripts = new ArrayList<>();
+        for (Gene gene : genes) {
+            if (gene.getTranscripts() != null) {
+                transcripts.addAll(gene.getTranscripts());
+            }
+        }
+        List<TranscriptCoverageStats> transcriptStats = calculate(transcripts, numThreads);
+
+        String sampleId = null;
+        try (SamReader samReader = openSamReader()) {
+            for (SAMReadGroupRecord readGroup : samReader.getFileHeader().getReadGroups()) {
+                if (readGroup.getSample() != null) {
+                    sampleId = readGroup.getSample();
+                    break;
+                }
+            }
+        }
+
+        List<GeneCoverageStats> geneStats = new ArrayList<>(genes.size());
+        Iterator<TranscriptCoverageStats> iterator = transcriptStats.iterator();
+        for (Gene gene : genes) {
+            int numTranscripts = gene.getTranscripts() == null ? 0 : gene.getTranscripts().size();
+            List<TranscriptCoverageStats> stats = new ArrayList<>(numTranscripts);
+            for (int i = 0; i < numTranscripts; i++) {
+                stats.add(iterator.next());
+            }
+            geneStats.add(new GeneCoverageStats(bamFile.getFileName().toString(), sampleId, gene.getName(), stats));
+        }
+        return geneStats;
+    }
+
+    /**
+     * Compute the coverage stats of the transcripts: the percentage of the exonic positions covered at each depth of
+     * {@link #DEPTH_THRESHOLDS}, the low coverage regions of the exons and the stats of every exon. Transcripts without
+     * exons are processed as a single exon.
+     *
+     * @param transcripts   Transcripts, with their exons
+     * @param numThreads    Number of chromosomes processed in parallel
+     * @return              Coverage stats of each transcript, in the same order
+     * @throws IOException  If any error occurs reading the BAM file
+     */
+    public List<TranscriptCoverageStats> calculate(List<Transcript> transcripts, int numThreads) throws IOException {
+        Map<String, List<Integer>> byChromosome = new LinkedHashMap<>();
+        for (int i = 0; i < transcripts.size(); i++) {
+            byChromosome.computeIfAbsent(transcripts.get(i).getChromosome(), k -> new ArrayList<>()).add(i);
+        }
+        TranscriptCoverageStats[] results = new TranscriptCoverageStats[transcripts.size()];
+        if (byChromosome.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads,
+                byChromosome.size())));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(byChromosome.size());
+            for (Map.Entry<String, List<Integer>> entry : byChromosome.entrySet()) {
+                futures.add(executorService.submit(() -> {
+                    calculate(entry.getKey(), entry.getValue(), transcripts, results);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the coverage stats for " + bamFile, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error computing the coverage stats for " + bamFile + ": " + e.getCause().getMessage(),
+                    e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+        return Arrays.asList(results);
+    }
+
+    private void calculate(String chromosome, List<Integer> indexes, List<Transcript> transcripts,
+                           TranscriptCoverageStats[] results) throws IOException {
+        try (SamReader samReader = openSamReader()) {
+            // chromosome name in the BAM file, e.g.: with or without 'chr'
+            Region chromosomeRegion = new Region(chromosome, 1, 1);
+            boolean found = true;
+            try {
+                BamUtils.validateRegion(chromosomeRegion, samReader);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Chromosome {} not found in {}, its coverage is 0", chromosome, bamFile);
+                found = false;
+            }
+            String bamChromosome = chromosomeRegion.getChromosome();
+
+            // unique exons of the chromosome
+            Map<Long, Integer> exonIndexes = new HashMap<>();
+            List<Region> exons = new ArrayList<>();
+            for (int index : indexes) {
+                for (Region exon : getExonRegions(transcripts.get(index))) {
+                    long key = ((long) exon.getStart() << 32) | exon.getEnd();
+                    if (!exonIndexes.containsKey(key)) {
+                        exonIndexes.put(key, exons.size());
+                        exons.add(new Region(bamChromosome, exon.getStart(), exon.getEnd()));
+                    }
+                }
+            }
+
+            TargetCoverageStatsCalculator targetStats = new TargetCoverageStatsCalculator(exons)
+                    .setDepthThresholds(DEPTH_THRESHOLDS)
+                    .setLowCoverageThreshold(lowCoverageThreshold);
+            StreamingCoverageCalculator calculator = new StreamingCoverageCalculator(options.getMinBaseQuality())
+                    .addListener(targetStats);
+
+            List<Region> blocks = getBlocks(exons);
+            logger.debug("Computing coverage stats for {} exons of {} in {} blocks", exons.size(), chromosome,
+                    blocks.size());
+            for (Region block : blocks) {
+                if (found) {
+                    try (SamRecordBamIterator iterator = new SamRecordBamIterator(samReader.queryOverlapping(
+                            bamChromosome, block.getStart(), block.getEnd()), filters)) {
+                        calculator.calculate(block, iterator);
+                    }
+                } else {
+                    calculator.calculate(block, Collections.emptyIterator());
+                }
+            }
+
+            for (int index : indexes) {
+                results[index] = getTranscriptStats(transcripts.get(index), exonIndexes, targetStats);
+            }
+        }
+    }
+
+    /**
+     * Merge the exons, sorted by start, into blocks with gaps no longer than maxGap.
+     */
+    private List<Region> getBlocks(List<Region> exons) {
+        List<Region> sorted = new ArrayList<>(exons);
+        sorted.sort(Comparator.comparingInt(Region::getStart));
+        List<Region> blocks = new ArrayList<>();
+        Region block = null;
+        for (Region exon : sorted) {
+            if (block != null && (long) exon.getStart() - block.getEnd() - 1 <= maxGap) {
+                block.setEnd(Math.max(block.getEnd(), exon.getEnd()));
+            } else {
+                block = new Region(exon.getChromosome(), exon.getStart(), exon.getEnd());
+                blocks.add(block);
+            }
+        }
+        return blocks;
+    }
+
+    private TranscriptCoverageStats getTranscriptStats(Transcript transcript, Map<Long, Integer> exonIndexes,
+                                                       TargetCoverageStatsCalculator targetStats) {
+        int length = 0;
+        long[] depthCounts = new long[DEPTH_THRESHOLDS.length];
+        List<LowCoverageRegionStats> lowCoverageRegions = new ArrayList<>();
+        List<ExonCoverageStats> exonStats = new ArrayList<>();
+        List<Exon> exons = transcript.getExons();
+        List<Region> exonRegions = getExonRegions(transcript);
+        for (int i = 0; i < exonRegions.size(); i++) {
+            Region exon = exonRegions.get(i);
+            int index = exonIndexes.get(((long) exon.getStart() << 32) | exon.getEnd());
+            RegionCoverageStats stats = targetStats.getStats().get(index);
+            String id = exons == null || exons.isEmpty() ? transcript.getId() : exons.get(i).getId();
+            if (stats == null) {
+                exonStats.add(new ExonCoverageStats(id, exon.getChromosome(), exon.getStart(), exon.getEnd(), 0, 0, 0));
+                continue;
+            }
+            exonStats.add(new ExonCoverageStats(id, exon.getChromosome(), exon.getStart(), exon.getEnd(), stats.getAvg(),
+                    stats.getMin(), stats.getMax()));
+
+            length += exon.size();
+            int[] counts = targetStats.getDepthCounts(index);
+            for (int j = 0; j < depthCounts.length; j++) {
+                depthCounts[j] += counts[j];
+            }
+            for (LowCoverageRegionStats region : targetStats.getLowCoverageRegions(index)) {
+                lowCoverageRegions.add(new LowCoverageRegionStats(transcript.getChromosome(), region.getStart(),
+                        region.getEnd(), region.getDepthAvg(), region.getDepthMin()));
+            }
+        }
+        lowCoverageRegions.sort(Comparator.comparingInt(LowCoverageRegionStats::getStart));
+
+        double[] depths = new double[DEPTH_THRESHOLDS.length];
+        for (int i = 0; i < depths.length && length > 0; i++) {
+            depths[i] = 100.0 * depthCounts[i] / length;
+        }
+        return new TranscriptCoverageStats(transcript.getId(), transcript.getName(), transcript.getBiotype(),
+                transcript.getChromosome(), transcript.getStart(), transcript.getEnd(), length, depths,
+                lowCoverageThreshold, lowCoverageRegions, exonStats);
+    }
+
+    private static List<Region> getExonRegions(Transcript transcript) {
+        List<Region> regions = new ArrayList<>();
+        if (transcript.getExons() == null || transcript.getExons().isEmpty()) {
+            regions.add(new Region(transcript.getChromosome(), transcript.getStart(), transcript.getEnd()));
+        } else {
+            for (Exon exon : transcript.getExons()) {
+                regions.add(new Region(transcript.getChromosome(), exon.getStart(), exon.getEnd()));
+            }
+        }
+        return regions;
+    }
+
+    private SamReader openSamReader() throws IOException {
+        SamReaderFactory srf = SamReaderFactory.make();
+        srf.validationStringency(ValidationStringency.LENIENT);
+        if (refFile != null) {
+            srf.referenceSequence(refFile);
+        }
+        return srf.open(SamInputResource.of(bamFile.toFile()));
+    }
+
+    public int getLowCoverageThreshold() {
+        return lowCoverageThreshold;
+    }
+
+    public TranscriptCoverageStatsCalculator setLowCoverageThreshold(int lowCoverageThreshold) {
+        this.lowCoverageThreshold = lowCoverageThreshold;
+        return this;
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * @param maxGap    Exons separated by up to maxGap bases are read with a single query
+     * @return          This calculator
+     */
+    public TranscriptCoverageStatsCalculator setMaxGap(int maxGap) {
+        this.maxGap = maxGap;
+        return this;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.coverage;
+
+/**
+ * Splits the region into windows of a fixed size and computes a set of aggregates of the depth of each window. The
+ * windows start at the first position of the region, and the last one is truncated at the end of the region.
+ */
+public class WindowCoverageAggregator implements CoverageListener {
+
+    private final int windowSize;
+    private final CoverageAggregate[] aggregates;
+    private final WindowListener listener;
+    private final double[] values;
+
+    private int windowStart;
+    private int windowEnd;
+    private int regionEnd;
+
+    public interface WindowListener {
+        /**
+         * @param chromosome    Chromosome
+         * @param start         First position of the window
+         * @param end           Last position of the window
+         * @param values        Value of each aggregate, the array is reused for the next window
+         */
+        void window(String chromosome, int start, int end, double[] values);
+    }
+
+    public WindowCoverageAggregator(int windowSize, WindowListener listener, CoverageAggregate... aggregates) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be greater or equal than 1: " + windowSize);
+        }
+        if (aggregates.length == 0) {
+            aggregates = new CoverageAggregate[]{CoverageAggregate.mean()};
+        }
+        this.windowSize = windowSize;
+        this.aggregates = aggregates;
+        this.listener = listener;
+        this.values = new double[aggregates.length];
+    }
+
+    @Override
+    public void start(String chromosome, int start, int end) {
+        regionEnd = end;
+        nextWindow(start);
+    }
+
+    @Override
+    public void coverage(String chromosome, int start, int end, int depth) {
+        while (start <= end) {
+            int to = Math.min(end, windowEnd);
+            for (CoverageAggregate aggregate : aggregates) {
+                aggregate.add(depth, to - start + 1);
+            }
+            if (to == windowEnd) {
+                for (int i = 0; i < aggregates.length; i++) {
+                    values[i] = aggregates[i].get();
+                }
+                listener.window(chromosome, windowStart, windowEnd, values);
+                nextWindow(windowEnd + 1);
+            }
+            start = to + 1;
+        }
+    }
+
+    private void nextWindow(int start) {
+        windowStart = start;
+        windowEnd = (int) Math.min((long) start + windowSize - 1, regionEnd);
+        for (CoverageAggregate aggregate : aggregates) {
+            aggregate.reset();
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+}
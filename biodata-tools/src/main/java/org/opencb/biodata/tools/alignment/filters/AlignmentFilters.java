@@ -21,6 +21,7 @@ package org.opencb.biodata.tools.alignment.filters;
 
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.tools.commons.CommonsFilters;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
 import java.util.List;
 import java.util.function.Predicate;
@@ -77,4 +78,14 @@ public abstract class AlignmentFilters<T> extends CommonsFilters<T> {
     public abstract AlignmentFilters<T> addRegionFilter(Region region, boolean contained);
 
     public abstract AlignmentFilters<T> addRegionFilter(List<Region> regions, boolean contained);
+
+    /**
+     * Keep the records overlapping, or contained in, any region of the index. Sorted records are filtered in amortized
+     * constant time.
+     *
+     * @param regionIndex   Index of the regions, e.g. the targets of a BED file
+     * @param contained     True if records must be fully contained in a region
+     * @return              This filters object
+     */
+    public abstract AlignmentFilters<T> addRegionFilter(RegionIndex regionIndex, boolean contained);
 }
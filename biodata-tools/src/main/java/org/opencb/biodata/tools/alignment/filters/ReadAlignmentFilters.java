@@ -21,8 +21,8 @@ package org.opencb.biodata.tools.alignment.filters;
 
 import org.ga4gh.models.ReadAlignment;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
@@ -116,24 +116,25 @@ public class ReadAlignmentFilters extends AlignmentFilters<ReadAlignment> {
 
     @Override
     public ReadAlignmentFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<ReadAlignment>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            // estimate the end position of the alignment, it does not take into account the CIGAR code
-            if (contained) {
-                predicates.add(readAlignment -> readAlignment.getAlignment() != null
-                        && readAlignment.getAlignment().getPosition().getReferenceName().equals(region.getChromosome())
-                        && readAlignment.getAlignment().getPosition().getPosition() >= region.getStart()
-                        && readAlignment.getAlignment().getPosition().getPosition()
-                        + readAlignment.getAlignedSequence().length() <= region.getEnd());
-            } else {
-                predicates.add(readAlignment -> readAlignment.getAlignment() != null
-                        && readAlignment.getAlignment().getPosition().getReferenceName().equals(region.getChromosome())
-                        && readAlignment.getAlignment().getPosition().getPosition() <= region.getEnd()
-                        && readAlignment.getAlignment().getPosition().getPosition()
-                        + readAlignment.getAlignedSequence().length() >= region.getStart());
+        return addRegionFilter(new RegionIndex(regions), contained);
+    }
+
+    @Override
+    public ReadAlignmentFilters addRegionFilter(RegionIndex regionIndex, boolean contained) {
+        // Records are usually sorted, so each thread sweeps the regions with its own cursor
+        ThreadLocal<RegionIndex.Cursor> cursors = ThreadLocal.withInitial(regionIndex::cursor);
+        filters.add(readAlignment -> {
+            if (readAlignment.getAlignment() == null) {
+                return false;
             }
-        }
-        addFilterList(predicates);
+            // estimate the end position of the alignment, it does not take into account the CIGAR code
+            String chromosome = readAlignment.getAlignment().getPosition().getReferenceName();
+            int start = readAlignment.getAlignment().getPosition().getPosition().intValue();
+            int end = start + readAlignment.getAlignedSequence().length();
+            return contained
+                    ? cursors.get().contains(chromosome, start, end)
+                    : cursors.get().overlaps(chromosome, start, end);
+        });
         return this;
     }
 }
@@ -22,8 +22,8 @@ package org.opencb.biodata.tools.alignment.filters;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMTag;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.function.Predicate;
@@ -119,19 +119,20 @@ public class SamRecordFilters extends AlignmentFilters<SAMRecord> {
 
     @Override
     public SamRecordFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<SAMRecord>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(samRecord -> samRecord.getReferenceName().equals(region.getChromosome())
-                        && samRecord.getAlignmentStart() >= region.getStart()
-                        && samRecord.getAlignmentEnd() <= region.getEnd());
-            } else {
-                predicates.add(samRecord -> samRecord.getReferenceName().equals(region.getChromosome())
-                        && samRecord.getAlignmentStart() <= region.getEnd()
-                        && samRecord.getAlignmentEnd() >= region.getStart());
-            }
+        return addRegionFilter(new RegionIndex(regions), contained);
+    }
+
+    @Override
+    public SamRecordFilters addRegionFilter(RegionIndex regionIndex, boolean contained) {
+        // Records are usually sorted, so each thread sweeps the regions with its own cursor
+        ThreadLocal<RegionIndex.Cursor> cursors = ThreadLocal.withInitial(regionIndex::cursor);
+        if (contained) {
+            filters.add(samRecord -> cursors.get().contains(samRecord.getReferenceName(), samRecord.getAlignmentStart(),
+                    samRecord.getAlignmentEnd()));
+        } else {
+            filters.add(samRecord -> cursors.get().overlaps(samRecord.getReferenceName(), samRecord.getAlignmentStart(),
+                    samRecord.getAlignmentEnd()));
         }
-        addFilterList(predicates);
         return this;
     }
 }
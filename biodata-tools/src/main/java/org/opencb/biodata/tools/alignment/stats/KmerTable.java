@@ -0,0 +1,263 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.alignment.stats;
+
+import java.util.Arrays;
+
+/**
+ * Counts of k-mers, with k up to 31, encoded with 2 bits per base into long keys and stored in an open addressing
+ * hash table of primitive arrays. Sequences are encoded with a rolling window: each base shifts the previous k-mer,
+ * and any base other than A, C, G or T (e.g. N) resets the window, so no k-mer containing it is counted.
+ * Lower and upper case bases are the same k-mer.
+ */
+public class KmerTable {
+
+    public static final int MAX_K = 31;
+
+    // keys are lower than 2^62, so -1 is never a k-mer
+    private static final long EMPTY = -1L;
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final byte[] CODES = new byte[128];
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        CODES['A'] = 0;
+        CODES['a'] = 0;
+        CODES['C'] = 1;
+        CODES['c'] = 1;
+        CODES['G'] = 2;
+        CODES['g'] = 2;
+        CODES['T'] = 3;
+        CODES['t'] = 3;
+    }
+
+    private long[] keys;
+    private int[] counts;
+    private int size;
+    private int mask;
+
+    public interface KmerConsumer {
+        void accept(long kmer, int count);
+    }
+
+    public KmerTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize  Expected number of different k-mers
+     */
+    public KmerTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2 - 1)) * 2;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Count all the k-mers of a sequence.
+     *
+     * @param sequence  Sequence
+     * @param k         Length of the k-mers, from 1 to {@link #MAX_K}
+     */
+    public void count(CharSequence sequence, int k) {
+        checkK(k);
+        final long kmerMask = (1L << (2 * k)) - 1;
+        long kmer = 0;
+        int valid = 0;
+        final int length = sequence.length();
+        for (int i = 0; i < length; i++) {
+            char base = sequence.charAt(i);
+            int code = base < 128 ? CODES[base] : -1;
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            kmer = ((kmer << 2) | code) & kmerMask;
+            if (++valid >= k) {
+                add(kmer, 1);
+            }
+        }
+    }
+
+    public void add(long kmer, int count) {
+        int slot = slot(kmer);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = kmer;
+            counts[slot] = count;
+            if (++size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+        } else {
+            counts[slot] += count;
+        }
+    }
+
+    public int get(long kmer) {
+        int slot = slot(kmer);
+        return keys[slot] == EMPTY ? 0 : counts[slot];
+    }
+
+    /**
+     * Replace the count of a k-mer.
+     *
+     * @param kmer  Encoded k-mer
+     * @param count New count, 0 to remove the k-mer
+     * @return      Previous count
+     */
+    public int put(long kmer, int count) {
+        int previous = get(kmer);
+        if (count == 0) {
+            remove(kmer);
+        } else {
+            add(kmer, count - previous);
+        }
+        return previous;
+    }
+
+    /**
+     * Add the counts of another table, e.g. computed by a different thread.
+     *
+     * @param other Table to merge
+     */
+    public void merge(KmerTable other) {
+        if (size == 0 && other.size > 0) {
+            keys = other.keys.clone();
+            counts = other.counts.clone();
+            size = other.size;
+            mask = other.mask;
+            return;
+        }
+        long[] otherKeys = other.keys;
+        int[] otherCounts = other.counts;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != EMPTY) {
+                add(otherKeys[i], otherCounts[i]);
+            }
+        }
+    }
+
+    public void forEach(KmerConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * @return  Number of different k-mers
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(counts, 0);
+        size = 0;
+    }
+
+    /**
+     * @param kmer  K-mer of bases A, C, G and T, lower or upper case
+     * @return      Encoded k-mer, or -1 if the k-mer contains other bases
+     */
+    public static long encode(CharSequence kmer) {
+        checkK(kmer.length());
+        long encoded = 0;
+        for (int i = 0; i < kmer.length(); i++) {
+            char base = kmer.charAt(i);
+            int code = base < 128 ? CODES[base] : -1;
+            if (code < 0) {
+                return EMPTY;
+            }
+            encoded = (encoded << 2) | code;
+        }
+        return encoded;
+    }
+
+    public static String decode(long kmer, int k) {
+        char[] bases = new char[k];
+        for (int i = k - 1; i >= 0; i--) {
+            bases[i] = BASES[(int) (kmer & 3)];
+            kmer >>>= 2;
+        }
+        return new String(bases);
+    }
+
+    private void remove(long kmer) {
+        int slot = slot(kmer);
+        if (keys[slot] == EMPTY) {
+            return;
+        }
+        keys[slot] = EMPTY;
+        counts[slot] = 0;
+        size--;
+        // re-insert the following keys of the cluster, so that lookups do not stop at the removed slot
+        for (int i = (slot + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask) {
+            long key = keys[i];
+            int count = counts[i];
+            keys[i] = EMPTY;
+            counts[i] = 0;
+            int newSlot = slot(key);
+            keys[newSlot] = key;
+            counts[newSlot] = count;
+        }
+    }
+
+    private int slot(long kmer) {
+        // linear probing, the hash spreads the low bits of similar k-mers
+        int slot = (int) hash(kmer) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != kmer) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        counts = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static long hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static void checkK(int k) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("K-mer length must be between 1 and " + MAX_K + ": " + k);
+        }
+    }
+}
@@ -19,25 +19,36 @@
 
 package org.opencb.biodata.tools.alignment.stats;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
+/**
+ * K-mer counts, stored in a {@link KmerTable}. The map of k-mers is a view of the table, sorted by k-mer.
+ */
 public class SequenceKmers {
 
 	public int kvalue;
 	public Map<String, Integer> kmersMap;
 
+	private final KmerTable table;
+
 	public SequenceKmers() {
 		this(0);
 	}
 
 	public SequenceKmers(int k) {
 		kvalue = k;
-		kmersMap = new HashMap<>();
+		table = new KmerTable();
+		kmersMap = new KmersMapView();
+	}
+
+	@JsonIgnore
+	public KmerTable getTable() {
+		return table;
 	}
 
 	public int getKvalue() {
@@ -61,4 +72,59 @@ public class SequenceKmers {
 		sb.append('}');
 		return sb.toString();
 	}
+
+	private class KmersMapView extends AbstractMap<String, Integer> {
+
+		@Override
+		public Integer get(Object key) {
+			long kmer = encode(key);
+			int count = kmer < 0 ? 0 : table.get(kmer);
+			return count == 0 ? null : count;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Integer put(String key, Integer value) {
+			long kmer = encode(key);
+			if (kmer < 0) {
+				throw new IllegalArgumentException("Invalid k-mer " + key + ", only A, C, G and T are supported");
+			}
+			int previous = table.put(kmer, value);
+			return previous == 0 ? null : previous;
+		}
+
+		@Override
+		public Integer remove(Object key) {
+			long kmer = encode(key);
+			int previous = kmer < 0 ? 0 : table.put(kmer, 0);
+			return previous == 0 ? null : previous;
+		}
+
+		@Override
+		public int size() {
+			return table.size();
+		}
+
+		@Override
+		public void clear() {
+			table.clear();
+		}
+
+		@Override
+		public Set<Entry<String, Integer>> entrySet() {
+			Map<String, Integer> kmers = new TreeMap<>();
+			table.forEach((kmer, count) -> kmers.put(KmerTable.decode(kmer, kvalue), count));
+			return Collections.unmodifiableMap(kmers).entrySet();
+		}
+
+		private long encode(Object key) {
+			return kvalue > 0 && kvalue <= KmerTable.MAX_K && key instanceof String && ((String) key).length() == kvalue
+					? KmerTable.encode((String) key)
+					: -1;
+		}
+	}
 }
@@ -22,6 +22,8 @@ package org.opencb.biodata.tools.alignment.stats;
 import org.opencb.biodata.models.sequence.Read;
 
 /**
+ * Counts the k-mers of sequences with a rolling 2-bit encoding, see {@link KmerTable}.
+ *
  * Created by jtarraga on 22/05/15.
  */
 public class SequenceKmersCalculator {
@@ -32,29 +34,21 @@ public class SequenceKmersCalculator {
 
     public SequenceKmers compute(final String sequence, final int k) {
         SequenceKmers kmers = new SequenceKmers(k);
-
-        final int len = sequence.length();
-        final int stop = len - k;
-
-        String kmer;
-        for (int i = 0; i < stop; i++) {
-            kmer = sequence.substring(i, i + k);
-            if (!kmer.contains("N") && !kmer.contains("n")) {
-                kmers.kmersMap.put(kmer, kmers.kmersMap.containsKey(kmer) ? kmers.kmersMap.get(kmer) + 1 : 1);
-            }
-        } // end for
-
+        kmers.getTable().count(sequence, k);
         return kmers;
     }
 
+    /**
+     * Count the k-mers of a sequence into existing counts, with no intermediate objects.
+     *
+     * @param sequence  Sequence
+     * @param dest      K-mer counts
+     */
+    public void update(final CharSequence sequence, SequenceKmers dest) {
+        dest.getTable().count(sequence, dest.kvalue);
+    }
+
     public void update(SequenceKmers src, SequenceKmers dest) {
-        int value;
-        for(String key:src.kmersMap.keySet()) {
-            value = src.kmersMap.get(key);
-            if (dest.kmersMap.containsKey(key)) {
-                value += dest.kmersMap.get(key);
-            }
-            dest.kmersMap.put(key, value);
-        }
+        dest.getTable().merge(src.getTable());
     }
 }
@@ -23,10 +23,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 
 /**
+ * Sequence stats, the counts by position and by read length are kept in flat primitive arrays. The maps of positions
+ * and lengths are read-only views of the arrays.
+ *
  * Created by jtarraga on 22/05/15.
  */
 public class SequenceStats {
@@ -46,20 +48,42 @@ public class SequenceStats {
 
     public SequenceKmers kmers;
 
+    // bases A, T, G, C and N
+    static final int NUM_BASES = 5;
+
+    // counts of each base by position, at position * NUM_BASES + base, quality sums by position, and counts by length
+    long[] baseCounts;
+    long[] qualitySums;
+    long[] lengthCounts;
+
     public SequenceStats() {
-        minSeqLength = Integer.MAX_VALUE;
-        lengthMap = new HashMap<>();
-        infoMap = new HashMap<>();
-        kmers = new SequenceKmers();
+        this(0);
     }
 
     public SequenceStats(int kvalue) {
         minSeqLength = Integer.MAX_VALUE;
-        lengthMap = new HashMap<>();
-        infoMap = new HashMap<>();
+        baseCounts = new long[0];
+        qualitySums = new long[0];
+        lengthCounts = new long[0];
+        lengthMap = new LengthMapView();
+        infoMap = new InfoMapView();
         kmers = new SequenceKmers(kvalue);
     }
 
+    /**
+     * Grow the arrays to hold reads of the given length.
+     */
+    void ensureLength(int length) {
+        if (qualitySums.length < length) {
+            int size = Math.max(length, qualitySums.length * 2);
+            baseCounts = Arrays.copyOf(baseCounts, size * NUM_BASES);
+            qualitySums = Arrays.copyOf(qualitySums, size);
+        }
+        if (lengthCounts.length <= length) {
+            lengthCounts = Arrays.copyOf(lengthCounts, Math.max(length + 1, lengthCounts.length * 2));
+        }
+    }
+
     public String toJSON() throws IOException {
         ObjectWriter objectWriter = new ObjectMapper().writer();
         return objectWriter.writeValueAsString(this);
@@ -83,4 +107,39 @@ public class SequenceStats {
         sb.append('}');
         return sb.toString();
     }
+
+    private class LengthMapView extends AbstractMap<Integer, Integer> {
+        @Override
+        public Set<Entry<Integer, Integer>> entrySet() {
+            Map<Integer, Integer> lengths = new TreeMap<>();
+            for (int length = 0; length < lengthCounts.length; length++) {
+                if (lengthCounts[length] > 0) {
+                    lengths.put(length, (int) lengthCounts[length]);
+                }
+            }
+            return Collections.unmodifiableMap(lengths).entrySet();
+        }
+    }
+
+    private class InfoMapView extends AbstractMap<Integer, SequenceInfo> {
+        @Override
+        public Set<Entry<Integer, SequenceInfo>> entrySet() {
+            Map<Integer, SequenceInfo> infos = new TreeMap<>();
+            for (int position = 0; position < qualitySums.length; position++) {
+                int offset = position * NUM_BASES;
+                SequenceInfo info = new SequenceInfo();
+                info.numA = (int) baseCounts[offset];
+                info.numT = (int) baseCounts[offset + 1];
+                info.numG = (int) baseCounts[offset + 2];
+                info.numC = (int) baseCounts[offset + 3];
+                info.numN = (int) baseCounts[offset + 4];
+                info.numQual = info.numA + info.numT + info.numG + info.numC + info.numN;
+                info.accQual = (int) qualitySums[position];
+                if (info.numQual > 0) {
+                    infos.put(position, info);
+                }
+            }
+            return Collections.unmodifiableMap(infos).entrySet();
+        }
+    }
 }
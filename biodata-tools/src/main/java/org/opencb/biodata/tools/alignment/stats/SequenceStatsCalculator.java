@@ -22,6 +22,7 @@ package org.opencb.biodata.tools.alignment.stats;
 import org.opencb.biodata.models.sequence.Read;
 
 import java.util.List;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Created by jtarraga on 22/05/15.
@@ -38,98 +39,34 @@ public class SequenceStatsCalculator {
 
     public SequenceStats compute(final String sequence, final String quality, int kvalue) {
         SequenceStats stats = new SequenceStats(kvalue);
-
-        stats.numSeqs++;
-        SequenceInfo info = null;
-        //final String read = fastqRecord.getReadString();
-        //final String quality = fastqRecord.getBaseQualityString();
-        final int len = sequence.length();
-
-        int accQual = 0;
-        int qual = 0;
-
-        // read length
-        stats.lengthMap.put(len, stats.lengthMap.containsKey(len) ? stats.lengthMap.get(len) + 1: 1);
-        if (len < stats.minSeqLength) {
-            stats.minSeqLength = len;
-        }
-        if (len > stats.maxSeqLength) {
-            stats.maxSeqLength = len;
-        }
-
-        for (int i=0; i < len; i++) {
-            // info management
-            if (stats.infoMap.containsKey(i)) {
-                info = stats.infoMap.get(i);
-            } else {
-                info = new SequenceInfo();
-                stats.infoMap.put(i, info);
-            }
-
-            // quality
-            qual = (int) quality.charAt(i);
-            accQual += qual;
-            info.numQual++;
-            info.accQual += qual;
-
-            // nucleotide content
-            switch (sequence.charAt(i)) {
-                case 'A':
-                case 'a': {
-                    stats.numA++;
-                    info.numA++;
-                    break;
-                }
-                case 'T':
-                case 't': {
-                    stats.numT++;
-                    info.numT++;
-                    break;
-                }
-                case 'G':
-                case 'g': {
-                    stats.numG++;
-                    info.numG++;
-                    break;
-                }
-                case 'C':
-                case 'c': {
-                    stats.numC++;
-                    info.numC++;
-                    break;
-                }
-                default: {
-                    stats.numN++;
-                    info.numN++;
-                    break;
-                }
-            } // end switch
-        } // end for
-
-        // read quality
-        stats.accSeqQual += accQual;
-
-        if (kvalue > 0) {
-            stats.kmers = new SequenceKmersCalculator().compute(sequence, kvalue);
-        }
-
+        update(sequence, quality::charAt, stats);
         return stats;
     }
 
     public SequenceStats compute(final String sequence, final List<Integer> quality, int kvalue) {
         SequenceStats stats = new SequenceStats(kvalue);
+        update(sequence, quality::get, stats);
+        return stats;
+    }
+
+    /**
+     * Add a sequence to existing stats, with no intermediate objects.
+     *
+     * @param sequence  Sequence
+     * @param quality   Quality string, one char per base
+     * @param dest      Stats to update
+     */
+    public void update(final String sequence, final String quality, SequenceStats dest) {
+        update(sequence, quality::charAt, dest);
+    }
 
+    private void update(final String sequence, final IntUnaryOperator quality, SequenceStats stats) {
         stats.numSeqs++;
-        SequenceInfo info = null;
-        //final String read = fastqRecord.getReadString();
-        //final String quality = fastqRecord.getBaseQualityString();
         final int len = sequence.length();
-
-        int accQual = 0;
-        int qual = 0;
+        stats.ensureLength(len);
 
         // read length
-        stats.lengthMap.put(len, stats.lengthMap.containsKey(len) ? stats.lengthMap.get(len) + 1: 1);
+        stats.lengthCounts[len]++;
         if (len < stats.minSeqLength) {
             stats.minSeqLength = len;
         }
@@ -137,63 +74,52 @@ public class SequenceStatsCalculator {
             stats.maxSeqLength = len;
         }
 
-        for (int i=0; i < len; i++) {
-            // info management
-            if (stats.infoMap.containsKey(i)) {
-                info = stats.infoMap.get(i);
-            } else {
-                info = new SequenceInfo();
-                stats.infoMap.put(i, info);
-            }
-
+        final long[] baseCounts = stats.baseCounts;
+        final long[] qualitySums = stats.qualitySums;
+        int accQual = 0;
+        for (int i = 0; i < len; i++) {
             // quality
-            qual = quality.get(i);
+            int qual = quality.applyAsInt(i);
             accQual += qual;
-            info.numQual++;
-            info.accQual += qual;
+            qualitySums[i] += qual;
 
-            // nucleotide content
+            // nucleotide content, in the order of SequenceInfo
+            int base;
             switch (sequence.charAt(i)) {
                 case 'A':
-                case 'a': {
+                case 'a':
                     stats.numA++;
-                    info.numA++;
+                    base = 0;
                     break;
-                }
                 case 'T':
-                case 't': {
+                case 't':
                     stats.numT++;
-                    info.numT++;
+                    base = 1;
                     break;
-                }
                 case 'G':
-                case 'g': {
+                case 'g':
                     stats.numG++;
-                    info.numG++;
+                    base = 2;
                     break;
-                }
                 case 'C':
-                case 'c': {
+                case 'c':
                     stats.numC++;
-                    info.numC++;
+                    base = 3;
                     break;
-                }
-                default: {
+                default:
                     stats.numN++;
-                    info.numN++;
+                    base = 4;
                     break;
-                }
-            } // end switch
-        } // end for
+            }
+            baseCounts[i * SequenceStats.NUM_BASES + base]++;
+        }
 
         // read quality
         stats.accSeqQual += accQual;
 
-        if (kvalue > 0) {
-            stats.kmers = new SequenceKmersCalculator().compute(sequence, kvalue);
+        if (stats.kmers.kvalue > 0) {
+            new SequenceKmersCalculator().update(sequence, stats.kmers);
         }
-
-        return stats;
     }
 
     public void update(SequenceStats src, SequenceStats dest) {
@@ -213,31 +139,15 @@ public class SequenceStatsCalculator {
 
         dest.accSeqQual += src.accSeqQual;
 
-        int value;
-        for(int key:src.lengthMap.keySet()) {
-            value = src.lengthMap.get(key);
-            if (dest.lengthMap.containsKey(key)) {
-                value += dest.lengthMap.get(key);
-            }
-            dest.lengthMap.put(key, value);
+        dest.ensureLength(Math.max(src.qualitySums.length, src.lengthCounts.length - 1));
+        for (int i = 0; i < src.lengthCounts.length; i++) {
+            dest.lengthCounts[i] += src.lengthCounts[i];
         }
-
-        SequenceInfo destInfo, info;
-        for(int key:src.infoMap.keySet()) {
-            if (dest.infoMap.containsKey(key)) {
-                destInfo = dest.infoMap.get(key);
-                info = src.infoMap.get(key);
-                destInfo.numA += info.numA;
-                destInfo.numT += info.numT;
-                destInfo.numG += info.numG;
-                destInfo.numC += info.numC;
-                destInfo.numN += info.numN;
-                destInfo.numQual += info.numQual;
-                destInfo.accQual += info.accQual;
-            } else {
-                destInfo = src.infoMap.get(key);
-            }
-            dest.infoMap.put(key, destInfo);
+        for (int i = 0; i < src.qualitySums.length; i++) {
+            dest.qualitySums[i] += src.qualitySums[i];
+        }
+        for (int i = 0; i < src.baseCounts.length; i++) {
+            dest.baseCounts[i] += src.baseCounts[i];
         }
 
         // update kmers, if necessary
@@ -25,54 +25,73 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.*;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
 
 /**
+ * Stores a value per chunk of the chromosomes of several files, e.g.: the mean coverage of each 1000 positions, in a
+ * binary index file.
+ *
+ * The index file has a header with the chunk size, followed by one block per file and chromosome, appended by
+ * {@link #insert}. Each block has the chunk values, one unsigned byte per chunk, and precomputed sums of
+ * {@link #LEVEL_FACTOR} consecutive values, of {@link #LEVEL_FACTOR} consecutive sums, and so on. The blocks are
+ * memory mapped, and the sum of any range of chunks is computed reading a few values of these levels.
+ *
+ * The index is append only: inserting a chromosome of a file again appends a new block, and the previous one is
+ * ignored but kept in the index until {@link #compact()} is called.
+ *
  * Created by jtarraga on 07/11/16.
  */
 public class ChunkFrequencyManager {
 
     private Path databasePath;
     private int chunkSize;
-    private int chunkSize64k;
 
     private final static int DEFAULT_CHUNK_SIZE = 1000;
 
-    // main counters and structures to save packed coverages
-    int counter1 = 0; // counter for 8-byte mean coverages array
-    int counter2 = 0; // counter for 8-long packed coverages array
-    byte[] chunkValues = new byte[8]; // contains 8 coverages
-    long[] packedChunkValues = new long[8]; // contains 8 x 8 coverages
-    private Map<String, Integer> chunkIdMap = new HashMap<>();
+    /** Number of values of a level summed in each value of the next level. */
+    public final static int LEVEL_FACTOR = 8;
+
+    private final static int MAGIC = 0x43464931; // CFI1
+    private final static int VERSION = 1;
+    private final static int HEADER_SIZE = 3 * Integer.BYTES;
+
+    // blocks by file and chromosome
+    private final Map<String, Map<String, Block>> blocks = new ConcurrentHashMap<>();
+    // size of the blocks replaced by newer ones
+    private long staleSize;
 
     private Logger logger;
 
     /**
      * Constructor.
      *
-     * @param databasePath  Full path to the file where the database is saved
-     * @throws IOException
+     * @param databasePath  Full path to the file where the index is saved
+     * @throws IOException  If the index can not be read
      */
     public ChunkFrequencyManager(Path databasePath) throws IOException {
         this(databasePath, DEFAULT_CHUNK_SIZE);
     }
 
     /**
-     * Constructor.
+     * Constructor. If the index exists, the chunk size is read from the index.
      *
-     * @param databasePath  Full path to the file where the database is saved
+     * @param databasePath  Full path to the file where the index is saved
      * @param chunkSize     Chunk size (a value is saved for each chunk)
+     * @throws IOException  If the index can not be read
      */
-    public ChunkFrequencyManager(Path databasePath, int chunkSize) {
+    public ChunkFrequencyManager(Path databasePath, int chunkSize) throws IOException {
         this.databasePath = databasePath;
         this.chunkSize = chunkSize;
-        this.chunkSize64k = chunkSize * 64;
 
         logger = LoggerFactory.getLogger(this.getClass());
         init();
@@ -84,78 +103,115 @@ public class ChunkFrequencyManager {
      * @param filePath      Full path to the file target
      * @param chromosome    Chromosome target
      * @param values        Chunk values for that chromosome
-     * @throws IOException
+     * @throws IOException  If the index can not be written
      */
-    public void insert(Path filePath, String chromosome, List<Integer> values) {
-
-        Connection conn = null;
-
-        try {
-            Class.forName("org.sqlite.JDBC");
-            conn = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
+    public void insert(Path filePath, String chromosome, List<Integer> values) throws IOException {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        insert(filePath, chromosome, array, array.length);
+    }
 
-            // get the file ID from the database, (if it does not exits, the file will be inserted)
-            int fileId = getFileId(filePath, conn);
-            if (fileId == -1) {
-                throw new InternalError("Impossible to insert file '" + filePath
-                        + "' into the database '" + databasePath + "'");
+    /**
+     * Insert values for the given chromosome, a value per chunk. Values are limited to 255. If the chromosome of the
+     * file was already inserted, the new values replace the previous ones in the queries, but the previous block
+     * stays in the index until it is compacted.
+     *
+     * @param filePath      Full path to the file target
+     * @param chromosome    Chromosome target
+     * @param values        Chunk values for that chromosome
+     * @param numChunks     Number of chunks of the chromosome, the first values of the array
+     * @throws IOException  If the index can not be written
+     */
+    public synchronized void insert(Path filePath, String chromosome, int[] values, int numChunks) throws IOException {
+        byte[] file = getFileKey(filePath).getBytes(StandardCharsets.UTF_8);
+        byte[] chrom = chromosome.getBytes(StandardCharsets.UTF_8);
+
+        // levels: level 0 contains the chunk values, the next ones the sums of LEVEL_FACTOR values
+        int[] levelSizes = levelSizes(numChunks);
+        int dataLength = padding(numChunks);
+        for (int level = 1; level < levelSizes.length; level++) {
+            dataLength += levelSizes[level] * Integer.BYTES;
+        }
+        int headerLength = 4 * Integer.BYTES + file.length + chrom.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + headerLength + dataLength);
+        buffer.putInt(headerLength + dataLength);
+        buffer.putInt(file.length).put(file);
+        buffer.putInt(chrom.length).put(chrom);
+        buffer.putInt(numChunks);
+        buffer.putInt(levelSizes.length);
+
+        int[] sums = new int[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            sums[i] = Math.max(0, Math.min(values[i], 255));
+            buffer.put((byte) sums[i]);
+        }
+        buffer.position(buffer.position() + padding(numChunks) - numChunks);
+        for (int level = 1; level < levelSizes.length; level++) {
+            int[] levelSums = new int[levelSizes[level]];
+            for (int i = 0; i < levelSizes[level - 1]; i++) {
+                levelSums[i / LEVEL_FACTOR] += sums[i];
             }
-
-            // update chromosome chunks, inserting them to the database and update the map, if necessary
-            if (!chunkIdMap.containsKey(buildChunkMapKey(chromosome, 1))) {
-                updateChromosomeChunks(chromosome, values.size(), conn);
+            for (int sum : levelSums) {
+                buffer.putInt(sum);
+            }
+            sums = levelSums;
+        }
+        buffer.flip();
+
+        // append the block
+        long position;
+        try (FileChannel channel = FileChannel.open(databasePath, StandardOpenOption.WRITE)) {
+            position = channel.size();
+            channel.position(position);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
             }
+        }
+        readBlock(position);
+    }
 
-            // reset counters
-            resetCounters();
-            int chunk64k = 0;
-
-            // prepare statement to iterate over the values
-            PreparedStatement insertCoverage = conn.prepareStatement("insert into mean_coverage (chunk_id, "
-                    + " file_id, v1, v2, v3, v4, v5, v6, v7, v8) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-            conn.setAutoCommit(false);
-
-            // main loop
-            for (int v: values) {
-                chunkValues[counter1] = (byte) Math.min(v, 255);
-                if (++counter1 == 8) {
-                    // packed mean coverages and save into the packed coverages array
-                    packedChunkValues[counter2] = bytesToLong(chunkValues);
-                    if (++counter2 == 8) {
-                        // write packed coverages array to DB
-                        insertPackedChunkValues(insertCoverage, getChunkId(chromosome, chunk64k),
-                                fileId, packedChunkValues);
-
-                        // update counters and reset packed coverages array and counter2
-                        chunk64k++;
-                        Arrays.fill(packedChunkValues, 0);
-                        counter2 = 0;
+    /**
+     * Rewrite the index without the blocks replaced by later inserts. Nothing is done if there are no replaced blocks.
+     *
+     * @throws IOException  If the index can not be written
+     */
+    public synchronized void compact() throws IOException {
+        if (staleSize == 0) {
+            return;
+        }
+        Path tmpPath = databasePath.resolveSibling(databasePath.getFileName() + ".tmp");
+        try (FileChannel input = FileChannel.open(databasePath, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(tmpPath, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(chunkSize).flip();
+            while (header.hasRemaining()) {
+                output.write(header);
+            }
+            for (Map<String, Block> fileBlocks : blocks.values()) {
+                for (Block block : fileBlocks.values()) {
+                    long position = block.position;
+                    long end = block.position + block.size;
+                    while (position < end) {
+                        position += input.transferTo(position, end - position, output);
                     }
-                    // reset mean coverages array and counter1
-                    counter1 = 0;
-                    Arrays.fill(chunkValues, (byte) 0);
                 }
             }
-
-            // write to DB, if pending mean values
-            if (counter1 > 0 || counter2 > 0) {
-                packedChunkValues[counter2] = bytesToLong(chunkValues);
-                insertPackedChunkValues(insertCoverage, getChunkId(chromosome, chunk64k), fileId, packedChunkValues);
+        }
+        Files.move(tmpPath, databasePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // map the blocks again, they replace the blocks of the previous file
+        try (FileChannel channel = FileChannel.open(databasePath, StandardOpenOption.READ)) {
+            long position = HEADER_SIZE;
+            long size = channel.size();
+            while (position < size) {
+                position = readBlock(channel, position);
             }
-            // execute batch
-            insertCoverage.executeBatch();
-            conn.commit();
-            conn.setAutoCommit(true);
-
-            // close resources
-            conn.close();
-        } catch (SQLException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            cleanConnectionClose(conn, null);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
         }
+        staleSize = 0;
     }
 
     /**
@@ -173,12 +229,13 @@ public class ChunkFrequencyManager {
 
     /**
      * Query values for the given region and file. Values are grouped according to the windowSize, to those values
-     * an aggregation function will be applied, e.g.: mean or addition.
+     * an aggregation function will be applied, e.g.: mean or addition. The window size is rounded to a multiple of
+     * the chunk size, and the first window starts at the chunk containing the region start.
      *
      * @param region                Region target
      * @param filePath              File target
      * @param windowSize            Group size of values
-     * @param aggregatorFunction    The aggregation function to apply to the group of values
+     * @param aggregatorFunction    The aggregation function to apply to the sum and the number of values of a group
      * @return                      A chunk frequency region with the mean values
      */
     public ChunkFrequency query(Region region, Path filePath, int windowSize, BiFunction aggregatorFunction) {
@@ -187,78 +244,22 @@ public class ChunkFrequencyManager {
         }
 
         windowSize = Math.max(windowSize / chunkSize * chunkSize, chunkSize);
-        int size = ((region.getEnd() - region.getStart() + 1) / windowSize);
-        if ((region.getEnd() - region.getStart() + 1) % windowSize > 0) {
-            size++;
-        }
+        int chunksPerWindow = windowSize / chunkSize;
+        int firstChunk = (Math.max(region.getStart(), 1) - 1) / chunkSize;
+        int lastChunk = (Math.max(region.getEnd(), 1) - 1) / chunkSize;
+        int size = (lastChunk - firstChunk) / chunksPerWindow + 1;
         short[] values = new short[size];
 
-        try {
-            Class.forName("org.sqlite.JDBC");
-            Connection connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-            Statement stmt = connection.createStatement();
-
-            String sql = "SELECT id FROM file where path = '" + filePath.getParent() + "';";
-            ResultSet rs = stmt.executeQuery(sql);
-            int fileId = -1;
-            while (rs.next()) {
-                fileId = rs.getInt("id");
-                break;
-            }
-
-            // sanity check
-            if (fileId == -1) {
-                throw new SQLException("File " + filePath + " not found in the coverage DB");
-            }
-
-            sql = "SELECT c.start, c.end, mc.v1, mc.v2, mc.v3, mc.v4, mc.v5, mc.v6, mc.v7, mc.v8"
-                    + " FROM chunk c, mean_coverage mc"
-                    + " WHERE c.id = mc.chunk_id AND mc.file_id = " + fileId
-                    + " AND c.chromosome = '" + region.getChromosome() + "' AND c.start <= " + region.getEnd()
-                    + " AND c.end > " + region.getStart() + " ORDER by c.start ASC;";
-            rs = stmt.executeQuery(sql);
-
-            int chunksPerWindow = windowSize / chunkSize;
-            int chunkCounter = 0;
-            int coverageAccumulator = 0;
-            int arrayPos = 0;
-
-            int start = 0;
-            long packedCoverages;
-            byte[] meanCoverages;
-
-            boolean first = true;
-            while (rs.next()) {
-                if (first) {
-                    start = rs.getInt("start");
-                    first = false;
-                }
-                for (int i = 0; i < 8; i++) {
-                    packedCoverages = rs.getLong("v" + (i + 1));
-                    meanCoverages = longToBytes(packedCoverages);
-                    for (int j = 0; j < 8; j++) {
-                        if (start <= region.getEnd() && (start + chunkSize) >= region.getStart()) {
-                            // A byte is always signed in Java,
-                            // we can get its unsigned value by binary-anding it with 0xFF
-                            coverageAccumulator += (meanCoverages[j] & 0xFF);
-                            if (++chunkCounter >= chunksPerWindow) {
-                                values[arrayPos++] = (short) aggregatorFunction.apply(coverageAccumulator, chunkCounter);
-//                                        (short) Math.min(Math.round(
-//                                        1.0f * coverageAccumulator / chunkCounter), 255);
-                                coverageAccumulator = 0;
-                                chunkCounter = 0;
-                            }
-                        }
-                        start += chunkSize;
-                    }
-                }
-            }
-            if (chunkCounter > 0) {
-                values[arrayPos++] = (short) aggregatorFunction.apply(coverageAccumulator, chunkCounter);
-//                (short) Math.min(Math.round(1.0f * coverageAccumulator / chunkCounter), 255);
+        Map<String, Block> fileBlocks = blocks.get(getFileKey(filePath));
+        Block block = fileBlocks == null ? null : fileBlocks.get(region.getChromosome());
+        if (block == null) {
+            logger.warn("Chromosome {} of file {} not found in the coverage index {}", region.getChromosome(),
+                    filePath, databasePath);
+        } else {
+            for (int i = 0, chunk = firstChunk; i < size; i++, chunk += chunksPerWindow) {
+                int end = Math.min(chunk + chunksPerWindow, lastChunk + 1);
+                values[i] = (short) aggregatorFunction.apply((int) block.sum(chunk, end), end - chunk);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
 
         return new ChunkFrequency(region, windowSize, values);
@@ -343,345 +344,181 @@ public class ChunkFrequencyManager {
     }
 
     /**
-     * P R I V A T E   M E T H O D S
-     */
-
-    /**
-     * Initialize database creating tables.
-     */
-    private void init() {
-        if (databasePath.toFile().exists()) {
-            // we have to initialize chunk size and the map of chunks
-            // and return
-            initChunkMap();
-            int chunkSize = readChunkSize();
-            assert(this.chunkSize == chunkSize);
-            if (chunkSize == -1) {
-                throw new InternalError("Impossible to read chunk size from the database '" + databasePath + "'");
-            }
-            this.chunkSize = chunkSize;
-            logger.debug("Database was initialized previously. Nothing to do.");
-            return;
-        }
-
-        Statement stmt = null;
-        Connection connection = null;
-
-        try {
-            Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-
-            // Create tables
-            stmt = connection.createStatement();
-            String sql = "CREATE TABLE chunk "
-                    + "(id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "chunk_id VARCHAR NOT NULL,"
-                    + "chromosome VARCHAR NOT NULL, "
-                    + "start INTEGER NOT NULL, "
-                    + "end INTEGER NOT NULL); "
-                    + "CREATE UNIQUE INDEX chunk_id_idx ON chunk (chunk_id);"
-                    + "CREATE INDEX chrom_start_end_idx ON chunk (chromosome, start, end);";
-            stmt.executeUpdate(sql);
-
-            sql = "CREATE TABLE info "
-                    + "(id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "name VARCHAR NOT NULL,"
-                    + "value VARCHAR NOT NULL);"
-                    + "CREATE UNIQUE INDEX name_idx ON info (name);";
-            stmt.executeUpdate(sql);
-
-            sql = "insert into info (name, value) values ('chunkSize', '" + chunkSize + "');";
-            stmt.executeUpdate(sql);
-
-            sql = "CREATE TABLE file "
-                    + "(id INTEGER PRIMARY KEY AUTOINCREMENT,"
-                    + "path VARCHAR NOT NULL,"
-                    + "name VARCHAR NOT NULL);"
-                    + "CREATE UNIQUE INDEX path_idx ON file (path);";
-            stmt.executeUpdate(sql);
-
-            sql = "CREATE TABLE mean_coverage "
-                    + "(chunk_id INTEGER,"
-                    + "file_id INTEGER,"
-                    + "v1 INTEGER, "
-                    + "v2 INTEGER, "
-                    + "v3 INTEGER, "
-                    + "v4 INTEGER, "
-                    + "v5 INTEGER, "
-                    + "v6 INTEGER, "
-                    + "v7 INTEGER, "
-                    + "v8 INTEGER,"
-                    + "PRIMARY KEY(chunk_id, file_id));";
-            stmt.executeUpdate(sql);
-
-            // close both resources
-            stmt.close();
-            connection.close();
-        } catch (SQLException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            cleanConnectionClose(connection, stmt);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-
-        logger.debug("Initialized database successfully");
-    }
-
-    /**
-     * Initialize the map of chunks.
+     * Get the size of the blocks replaced by later inserts, removed by {@link #compact()}.
+     *
+     * @return  Size in bytes
      */
-    private void initChunkMap() {
-        Statement stmt = null;
-        Connection connection = null;
-
-        try {
-            Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-
-            // retrieve chunk IDs from database
-            String sql = "SELECT id, chromosome, start FROM chunk";
-            stmt = connection.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
-            chunkIdMap = new HashMap<>();
-            while (rs.next()) {
-                chunkIdMap.put(rs.getString("chromosome") + "_" + rs.getInt("start"), rs.getInt("id"));
-            }
-        } catch (SQLException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            cleanConnectionClose(connection, stmt);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
-        }
+    public long getStaleSize() {
+        return staleSize;
     }
 
     /**
-     * Insert all the chunks for the given chromosome and update the internal map of chunks, if necessary.
-     *
-     * @param chromosome    Chromosome target
-     * @param numChunks     Number of chunks for that chromosome
-     * @param conn          Database connection
-     * Database connection
+     * P R I V A T E   M E T H O D S
      */
-    private void updateChromosomeChunks(String chromosome, int numChunks, Connection conn) throws SQLException {
-        // insert all the chunks for that chromosome
-        String minorChunkSuffix = (chunkSize / 1000) * 64 + "k";
-
-        String sql = "insert into chunk (chunk_id, chromosome, start, end) values (?, ?, ?, ?)";
-        PreparedStatement insertChunk = conn.prepareStatement(sql);
-        conn.setAutoCommit(false);
-        for (int i = 0, j = 1; i < numChunks; i++, j += chunkSize64k) {
-            String chunkId = chromosome + "_" + i + "_" + minorChunkSuffix;
-//
-//            // check if this chunk is in the dabasete
-//            sql = "SELECT id FROM chunk where chunk_id = '" + chunkId + "'";
-//            ResultSet rs = stmt.executeQuery(sql);
-//            if (!rs.next()) {
-            // if this chunk is not in the database, then insert it
-            insertChunk.setString(1, chunkId);
-            insertChunk.setString(2, chromosome);
-            insertChunk.setInt(3, j);
-            insertChunk.setInt(4, j + chunkSize64k - 1);
-            insertChunk.addBatch();
-//            }
-        }
-        insertChunk.executeBatch();
-        conn.commit();
-        conn.setAutoCommit(true);
-
-        initChunkMap();
-    }
 
     /**
-     * Read chunk size from the database.
-     *
-     * @return  Chunk size
+     * Initialize the index, writing the header of a new index or reading the blocks of an existing one.
      */
-    private int readChunkSize() {
-        // read chunk size from database
-        int chunkSize = -1;
-        Connection conn = null;
-        try {
-            Class.forName("org.sqlite.JDBC");
-            conn = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT value FROM info where name = 'chunkSize';");
-            while (rs.next()) {
-                // the first is read
-                chunkSize = Integer.parseInt(rs.getString("value"));
-                break;
+    private void init() throws IOException {
+        if (!databasePath.toFile().exists()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(chunkSize).flip();
+            try (FileChannel channel = FileChannel.open(databasePath, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
             }
-            conn.close();
-        } catch (SQLException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            cleanConnectionClose(conn, null);
-        } catch (ClassNotFoundException e) {
-            logger.error(e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
+            logger.debug("Initialized index successfully");
+            return;
         }
-        return chunkSize;
-    }
 
-    /**
-     * Close connection and sql statement in a clean way.
-     *
-     * @param connection    Connection to close.
-     * @param stmt          Statement to close.
-     */
-    private void cleanConnectionClose(Connection connection, Statement stmt) {
-        try {
-            // clean close
-            if (connection != null) {
-                connection.rollback();
+        try (FileChannel channel = FileChannel.open(databasePath, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
             }
-
-            if (stmt != null) {
-                stmt.close();
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("File '" + databasePath + "' is not a chunk frequency index");
             }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of chunk frequency index '"
+                        + databasePath + "'");
+            }
+            this.chunkSize = header.getInt();
 
-            if (connection != null) {
-                connection.close();
+            long position = HEADER_SIZE;
+            long size = channel.size();
+            while (position < size) {
+                position = readBlock(channel, position);
             }
-        } catch (SQLException e1) {
-            e1.printStackTrace();
         }
+        logger.debug("Index was initialized previously. Nothing to do.");
     }
 
-    /**
-     * Read file ID from the database. If it does not exits, then insert it to the database and return the file ID.
-     *
-     * @param filePath  File to insert
-     * @param conn      Database connection
-     * @return          File ID in the database
-     */
-    private int getFileId(Path filePath, Connection conn) throws SQLException {
-        int fileId = readFileId(filePath, conn);
-        if (fileId == -1) {
-            Statement stmt = conn.createStatement();
-            String insertFileSql = "insert into file (path, name) values ('" + filePath.getParent()
-                    + "', '" + filePath.getFileName() + "');";
-            stmt.executeUpdate(insertFileSql);
-            stmt.close();
-
-            fileId = readFileId(filePath, conn);
-            if (fileId == -1) {
-                throw new InternalError("Impossible to read the ID for the file " + filePath + " in database "
-                        + databasePath);
-            }
-
-            stmt.close();
+    private void readBlock(long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(databasePath, StandardOpenOption.READ)) {
+            readBlock(channel, position);
         }
-
-        return fileId;
     }
 
     /**
-     * Read file ID from the database.
+     * Map the block at the given position of the index.
      *
-     * @param filePath  Path to the file
-     * @param conn      Database connection
-     * @return          File ID in the database
+     * @return  Position of the next block
      */
-    private int readFileId(Path filePath, Connection conn) {
-        int fileId = -1;
-        try {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery("SELECT id FROM file where path = '" + filePath.getParent() + "';");
-            while (rs.next()) {
-                fileId = rs.getInt("id");
+    private long readBlock(FileChannel channel, long position) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+        while (lengthBuffer.hasRemaining()) {
+            if (channel.read(lengthBuffer, position + lengthBuffer.position()) < 0) {
+                throw new IOException("Truncated chunk frequency index '" + databasePath + "'");
             }
-            stmt.close();
-        } catch (SQLException e) {
-            e.printStackTrace();
         }
-        return fileId;
+        int length = lengthBuffer.getInt(0);
+        if (position + Integer.BYTES + length > channel.size()) {
+            throw new IOException("Truncated chunk frequency index '" + databasePath + "'");
+        }
+        // The mapping is still valid after closing the channel
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position + Integer.BYTES, length);
+
+        byte[] file = new byte[buffer.getInt()];
+        buffer.get(file);
+        byte[] chrom = new byte[buffer.getInt()];
+        buffer.get(chrom);
+        int numChunks = buffer.getInt();
+        int numLevels = buffer.getInt();
+        Block block = new Block(buffer, buffer.position(), numChunks, numLevels, position, Integer.BYTES + length);
+        Block previous = blocks.computeIfAbsent(new String(file, StandardCharsets.UTF_8),
+                k -> new ConcurrentHashMap<>()).put(new String(chrom, StandardCharsets.UTF_8), block);
+        if (previous != null) {
+            staleSize += previous.size;
+        }
+
+        return position + Integer.BYTES + length;
     }
 
-    /**
-     * Reset the counter used when inserting chunk values into the database.
-     */
-    private void resetCounters() {
-        Arrays.fill(chunkValues, (byte) 0);
-        Arrays.fill(packedChunkValues, 0);
-        counter2 = 0;
-        counter1 = 0;
+    private String getFileKey(Path filePath) {
+        return filePath.toAbsolutePath().normalize().toString();
     }
 
-    /**
-     * Insert packed values into the database using a prepared statement batch for efficiency.
-     *
-     * @param insertPStatement  Prepared statement
-     * @param chunkId           ID of the chunk target
-     * @param fileId            ID of the file target
-     * @param packedValues      An array of 8-long values, each long value contain 8-byte chunk values
-     * @throws SQLException
-     */
-    private void insertPackedChunkValues(PreparedStatement insertPStatement, int chunkId,
-                                         int fileId, long[] packedValues)
-            throws SQLException {
-        assert(chunkId != -1);
-
-        insertPStatement.setInt(1, chunkId);
-        insertPStatement.setInt(2, fileId);
-        for (int i = 0; i < 8; i++) {
-            insertPStatement.setLong(i + 3, packedValues[i]);
+    private static int[] levelSizes(int numChunks) {
+        int numLevels = 1;
+        for (long size = numChunks; size > 1; size = (size + LEVEL_FACTOR - 1) / LEVEL_FACTOR) {
+            numLevels++;
+        }
+        int[] levelSizes = new int[numLevels];
+        levelSizes[0] = numChunks;
+        for (int level = 1; level < numLevels; level++) {
+            levelSizes[level] = (levelSizes[level - 1] + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
         }
-        insertPStatement.addBatch();
+        return levelSizes;
     }
 
     /**
-     * Create the key for the map of chunks from the chromosome and start position.
-     *
-     * @param chromosome    Chromosome target
-     * @param start         Start position target
-     * @return              Key
+     * Size of the chunk values, padded to keep the sums aligned.
      */
-    private String buildChunkMapKey(String chromosome, int start) {
-        return chromosome + "_" + start;
+    private static int padding(int numChunks) {
+        return (numChunks + Integer.BYTES - 1) / Integer.BYTES * Integer.BYTES;
     }
 
     /**
-     * Get the chunk ID from the map of chunks.
-     *
-     * @param chromosome    Chromosome of the chunk target
-     * @param chunk64k         Number of 64k chunk
-     * @return              Chunk ID in the database
+     * Values of a chromosome of a file.
      */
-    private int getChunkId(String chromosome, int chunk64k) {
-        int chunkId, pos = chunk64k * chunkSize64k + 1;
-        String key = buildChunkMapKey(chromosome, pos);
-        if (chunkIdMap.containsKey(key)) {
-            chunkId = chunkIdMap.get(key);
-        } else {
-            throw new InternalError("Coverage chunk " + chromosome
-                    + ":" + pos + "-, not found in database (64-chunk : " + chunk64k + ")");
+    private static final class Block {
+        private final ByteBuffer buffer;
+        private final int numChunks;
+        private final int[] levelSizes;
+        private final int[] levelOffsets;
+        // position and size of the block in the index
+        private final long position;
+        private final long size;
+
+        private Block(ByteBuffer buffer, int offset, int numChunks, int numLevels, long position, long size) {
+            this.buffer = buffer;
+            this.position = position;
+            this.size = size;
+            this.numChunks = numChunks;
+            this.levelSizes = levelSizes(numChunks);
+            if (levelSizes.length != numLevels) {
+                throw new IllegalStateException("Wrong number of levels: " + numLevels);
+            }
+            this.levelOffsets = new int[numLevels];
+            levelOffsets[0] = offset;
+            if (numLevels > 1) {
+                levelOffsets[1] = offset + padding(numChunks);
+            }
+            for (int level = 2; level < numLevels; level++) {
+                levelOffsets[level] = levelOffsets[level - 1] + levelSizes[level - 1] * Integer.BYTES;
+            }
         }
-        return chunkId;
-    }
 
-    /**
-     * Unpack function: from a long value to array of bytes
-     *
-     * @param x Long value
-     * @return  Array of bytes
-     */
-    private byte[] longToBytes(long x) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.putLong(x);
-        return buffer.array();
-    }
-
-    /**
-     * Pack function: from array of bytes to a long value
-     *
-     * @param bytes Array of bytes
-     * @return      Long value
-     */
-    private long bytesToLong(byte[] bytes) {
-        ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
-        buffer.put(bytes);
-        buffer.flip(); // need flip
-        return buffer.getLong();
+        /**
+         * Sum of the values of the chunks [start, end). Missing chunks are 0.
+         */
+        private long sum(int start, int end) {
+            end = Math.min(end, numChunks);
+            long sum = 0;
+            int chunk = start;
+            while (chunk < end) {
+                // Use the largest precomputed sum starting at this chunk and not exceeding the end
+                int level = 0;
+                long width = 1;
+                while (level + 1 < levelSizes.length && chunk % (width * LEVEL_FACTOR) == 0
+                        && chunk + width * LEVEL_FACTOR <= end) {
+                    level++;
+                    width *= LEVEL_FACTOR;
+                }
+                int index = (int) (chunk / width);
+                if (level == 0) {
+                    sum += buffer.get(levelOffsets[0] + index) & 0xFF;
+                } else {
+                    sum += buffer.getInt(levelOffsets[level] + index * Integer.BYTES);
+                }
+                chunk += width;
+            }
+            return sum;
+        }
     }
 }
@@ -0,0 +1,364 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of open readers, keyed by file path.
+ *
+ * Opening a reader of an indexed file parses the header, and the index is loaded by the first query. Readers are not
+ * thread safe, so instead of sharing one reader, each caller leases a reader for as long as it needs it, and returns
+ * it to the pool when the lease is closed. Returned readers keep their header and index, so the next lease of the same
+ * file does not load them again. Readers idle for longer than the maximum idle time are closed.
+ *
+ * <pre>
+ * try (ReaderPool.Lease&lt;SamReader&gt; lease = pool.lease(bamPath)) {
+ *     SamReader reader = lease.get();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @param <R> Reader
+ */
+public class ReaderPool<R extends Closeable> implements AutoCloseable {
+
+    public static final int DEFAULT_MAX_IDLE_READERS = 8;
+    public static final long DEFAULT_MAX_IDLE_TIME_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @FunctionalInterface
+    public interface ReaderFactory<R> {
+        R open(Path path) throws IOException;
+    }
+
+    private final ReaderFactory<R> readerFactory;
+    private final int maxIdleReaders;
+    private final long maxIdleTimeMillis;
+    private final Map<Path, Deque<IdleReader<R>>> idleReaders = new HashMap<>();
+    private int numIdleReaders;
+    private long lastEviction = currentTimeMillis();
+    private boolean closed;
+
+    private final AtomicLong leases = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closedReaders = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+
+    private final Logger logger = LoggerFactory.getLogger(ReaderPool.class);
+
+    public ReaderPool(ReaderFactory<R> readerFactory) {
+        this(readerFactory, DEFAULT_MAX_IDLE_READERS, DEFAULT_MAX_IDLE_TIME_MILLIS);
+    }
+
+    /**
+     * @param readerFactory     Opens a new reader of the given file
+     * @param maxIdleReaders    Maximum number of idle readers of each file. Returned readers exceeding this number
+     *                          are closed
+     * @param maxIdleTimeMillis Idle readers not leased during this time are closed
+     */
+    public ReaderPool(ReaderFactory<R> readerFactory, int maxIdleReaders, long maxIdleTimeMillis) {
+        if (maxIdleReaders < 0) {
+            throw new IllegalArgumentException("maxIdleReaders (" + maxIdleReaders + ") must not be negative");
+        }
+        this.readerFactory = Objects.requireNonNull(readerFactory);
+        this.maxIdleReaders = maxIdleReaders;
+        this.maxIdleTimeMillis = maxIdleTimeMillis;
+    }
+
+    /**
+     * Lease a reader of the file, opening a new one if there are no idle readers.
+     *
+     * @param path  File to read
+     * @return the lease. The reader is returned to the pool when the lease is closed
+     * @throws IOException if a new reader can not be opened
+     */
+    public Lease<R> lease(Path path) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        evictIdleIfNeeded();
+        R reader = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Reader pool is closed");
+            }
+            Deque<IdleReader<R>> readers = idleReaders.get(key);
+            if (readers != null && !readers.isEmpty()) {
+                // Most recently used reader first
+                reader = readers.pollLast().reader;
+                numIdleReaders--;
+                reused.incrementAndGet();
+            }
+        }
+        if (reader == null) {
+            reader = readerFactory.open(key);
+            opened.incrementAndGet();
+        }
+        leases.incrementAndGet();
+        active.incrementAndGet();
+        return new Lease<>(this, key, reader);
+    }
+
+    private void release(Path key, R reader, boolean valid) {
+        active.decrementAndGet();
+        boolean keep = false;
+        if (valid) {
+            synchronized (this) {
+                Deque<IdleReader<R>> readers = idleReaders.get(key);
+                if (!closed && (readers == null ? 0 : readers.size()) < maxIdleReaders) {
+                    idleReaders.computeIfAbsent(key, k -> new ArrayDeque<>())
+                            .add(new IdleReader<>(reader, currentTimeMillis()));
+                    numIdleReaders++;
+                    keep = true;
+                }
+            }
+        }
+        if (!keep) {
+            closeReader(reader);
+        }
+        evictIdleIfNeeded();
+    }
+
+    private void evictIdleIfNeeded() {
+        boolean evict;
+        synchronized (this) {
+            evict = currentTimeMillis() - lastEviction >= maxIdleTimeMillis;
+        }
+        if (evict) {
+            evictIdle();
+        }
+    }
+
+    /**
+     * Close the readers idle for longer than the maximum idle time.
+     *
+     * @return the number of closed readers
+     */
+    public int evictIdle() {
+        List<R> expired = new ArrayList<>();
+        synchronized (this) {
+            long now = currentTimeMillis();
+            lastEviction = now;
+            Iterator<Deque<IdleReader<R>>> iterator = idleReaders.values().iterator();
+            while (iterator.hasNext()) {
+                Deque<IdleReader<R>> readers = iterator.next();
+                // Least recently used readers first
+                while (!readers.isEmpty() && now - readers.peekFirst().lastUsed >= maxIdleTimeMillis) {
+                    expired.add(readers.pollFirst().reader);
+                    numIdleReaders--;
+                }
+                if (readers.isEmpty()) {
+                    iterator.remove();
+                }
+            }
+        }
+        for (R reader : expired) {
+            closeReader(reader);
+        }
+        evicted.addAndGet(expired.size());
+        return expired.size();
+    }
+
+    private void closeReader(R reader) {
+        try {
+            reader.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Error closing reader: {}", e.getMessage());
+        }
+        closedReaders.incrementAndGet();
+    }
+
+    public Metrics getMetrics() {
+        int numFiles;
+        int idle;
+        synchronized (this) {
+            numFiles = idleReaders.size();
+            idle = numIdleReaders;
+        }
+        return new Metrics(leases.get(), reused.get(), opened.get(), closedReaders.get(), evicted.get(),
+                (int) active.get(), idle, numFiles);
+    }
+
+    /**
+     * Close all the idle readers. Leased readers are closed when returned.
+     */
+    @Override
+    public void close() {
+        List<R> readers = new ArrayList<>();
+        synchronized (this) {
+            closed = true;
+            for (Deque<IdleReader<R>> idle : idleReaders.values()) {
+                for (IdleReader<R> idleReader : idle) {
+                    readers.add(idleReader.reader);
+                }
+            }
+            idleReaders.clear();
+            numIdleReaders = 0;
+        }
+        for (R reader : readers) {
+            closeReader(reader);
+        }
+    }
+
+    private static long currentTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static final class IdleReader<R> {
+        private final R reader;
+        private final long lastUsed;
+
+        private IdleReader(R reader, long lastUsed) {
+            this.reader = reader;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Reader leased to a single caller. Closing the lease returns the reader to the pool.
+     *
+     * @param <R> Reader
+     */
+    public static final class Lease<R extends Closeable> implements AutoCloseable {
+        private final ReaderPool<R> pool;
+        private final Path path;
+        private final R reader;
+        private boolean valid = true;
+        private boolean released;
+
+        private Lease(ReaderPool<R> pool, Path path, R reader) {
+            this.pool = pool;
+            this.path = path;
+            this.reader = reader;
+        }
+
+        public R get() {
+            if (released) {
+                throw new IllegalStateException("Lease of " + path + " already released");
+            }
+            return reader;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Mark the reader as not reusable, e.g. after an error reading the file. It is closed with the lease.
+         */
+        public void invalidate() {
+            valid = false;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                pool.release(path, reader, valid);
+            }
+        }
+    }
+
+    public static final class Metrics {
+        private final long leases;
+        private final long reused;
+        private final long opened;
+        private final long closed;
+        private final long evicted;
+        private final int active;
+        private final int idle;
+        private final int files;
+
+        private Metrics(long leases, long reused, long opened, long closed, long evicted, int active, int idle,
+                        int files) {
+            this.leases = leases;
+            this.reused = reused;
+            this.opened = opened;
+            this.closed = closed;
+            this.evicted = evicted;
+            this.active = active;
+            this.idle = idle;
+            this.files = files;
+        }
+
+        /** @return total number of leases */
+        public long getLeases() {
+            return leases;
+        }
+
+        /** @return number of leases served with an idle reader */
+        public long getReused() {
+            return reused;
+        }
+
+        /** @return number of opened readers */
+        public long getOpened() {
+            return opened;
+        }
+
+        /** @return number of closed readers, including the evicted ones */
+        public long getClosed() {
+            return closed;
+        }
+
+        /** @return number of readers closed after being idle for longer than the maximum idle time */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        /** @return number of readers currently leased */
+        public int getActive() {
+            return active;
+        }
+
+        /** @return number of idle readers */
+        public int getIdle() {
+            return idle;
+        }
+
+        /** @return number of files with idle readers */
+        public int getFiles() {
+            return files;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Metrics{");
+            sb.append("leases=").append(leases);
+            sb.append(", reused=").append(reused);
+            sb.append(", opened=").append(opened);
+            sb.append(", closed=").append(closed);
+            sb.append(", evicted=").append(evicted);
+            sb.append(", active=").append(active);
+            sb.append(", idle=").append(idle);
+            sb.append(", files=").append(files);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import org.opencb.biodata.formats.feature.bed.Bed;
+import org.opencb.biodata.formats.feature.bed.io.BedReader;
+import org.opencb.biodata.formats.io.FileFormatException;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Immutable index of regions, to find the regions overlapping or containing a position range in O(log n).
+ *
+ * Regions of each chromosome are sorted by start in primitive arrays, augmented with:
+ * <ul>
+ *     <li>the maximum end of the regions up to each index, to test if a range overlaps or is contained in any
+ *     region</li>
+ *     <li>an implicit interval tree, to find all the regions overlapping a range</li>
+ *     <li>the union of the regions, used by {@link Cursor} to filter sorted records</li>
+ * </ul>
+ * Positions are 1-based and inclusive, as in {@link Region}. The index can be shared by several threads, cursors can
+ * not.
+ */
+public class RegionIndex {
+
+    private final Map<String, Contig> contigs;
+    private final int size;
+
+    public RegionIndex(Region region) {
+        this(Collections.singletonList(region));
+    }
+
+    public RegionIndex(Collection<Region> regions) {
+        Map<String, List<Region>> regionsByChromosome = new HashMap<>();
+        for (Region region : regions) {
+            regionsByChromosome.computeIfAbsent(region.getChromosome(), k -> new ArrayList<>()).add(region);
+        }
+        contigs = new HashMap<>();
+        for (Map.Entry<String, List<Region>> entry : regionsByChromosome.entrySet()) {
+            contigs.put(entry.getKey(), new Contig(entry.getValue()));
+        }
+        size = regions.size();
+    }
+
+    /**
+     * Index the regions of a BED file. BED coordinates are 0-based and half-open, they are converted to 1-based
+     * regions.
+     *
+     * @param bedPath   BED file
+     * @return          Index of the regions
+     * @throws IOException  If the file can not be read
+     */
+    public static RegionIndex fromBed(Path bedPath) throws IOException {
+        List<Region> regions = new ArrayList<>();
+        BedReader bedReader;
+        try {
+            bedReader = new BedReader(bedPath);
+        } catch (NoSuchMethodException e) {
+            throw new IOException("Can not read BED file " + bedPath, e);
+        }
+        try {
+            Bed bed = bedReader.read();
+            while (bed != null) {
+                regions.add(new Region(bed.getChromosome(), bed.getStart() + 1, bed.getEnd()));
+                bed = bedReader.read();
+            }
+        } catch (FileFormatException e) {
+            throw new IOException("Can not read BED file " + bedPath, e);
+        } finally {
+            bedReader.close();
+        }
+        return new RegionIndex(regions);
+    }
+
+    /**
+     * @param chromosome    Chromosome
+     * @param start         Start of the range
+     * @param end           End of the range
+     * @return              True if any region overlaps the range
+     */
+    public boolean overlaps(String chromosome, int start, int end) {
+        Contig contig = contigs.get(chromosome);
+        return contig != null && contig.overlaps(start, end);
+    }
+
+    /**
+     * @param chromosome    Chromosome
+     * @param start         Start of the range
+     * @param end           End of the range
+     * @return              True if any region contains the whole range
+     */
+    public boolean contains(String chromosome, int start, int end) {
+        Contig contig = contigs.get(chromosome);
+        return contig != null && contig.contains(start, end);
+    }
+
+    /**
+     * Find the regions overlapping a range.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start of the range
+     * @param end           End of the range
+     * @return              Overlapping regions, sorted by start
+     */
+    public List<Region> query(String chromosome, int start, int end) {
+        Contig contig = contigs.get(chromosome);
+        if (contig == null) {
+            return Collections.emptyList();
+        }
+        List<Region> regions = new ArrayList<>();
+        contig.query(start, end, regions);
+        regions.sort(Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getEnd));
+        return regions;
+    }
+
+    public List<Region> query(Region region) {
+        return query(region.getChromosome(), region.getStart(), region.getEnd());
+    }
+
+    /**
+     * Create a cursor for records sorted by chromosome and start, e.g. the records of a sorted BAM or VCF file.
+     *
+     * @return  A new cursor
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Set<String> getChromosomes() {
+        return Collections.unmodifiableSet(contigs.keySet());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("RegionIndex{");
+        sb.append("chromosomes=").append(contigs.size());
+        sb.append(", size=").append(size);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * Sweep-line over the regions for queries sorted by chromosome and start. Each query moves forward the current
+     * position, so a sorted stream of records is filtered in amortized constant time per record. Unsorted queries are
+     * still answered correctly, by searching the position again.
+     *
+     * Cursors are not thread safe.
+     */
+    public class Cursor {
+
+        private String chromosome;
+        private Contig contig;
+        private int lastStart;
+        // first union interval not ending before the last start
+        private int unionIndex;
+        // last region starting at or before the last start
+        private int regionIndex;
+
+        private Cursor() {
+        }
+
+        public boolean overlaps(String chromosome, int start, int end) {
+            if (!moveTo(chromosome, start)) {
+                return false;
+            }
+            return unionIndex < contig.unionStarts.length && contig.unionStarts[unionIndex] <= end;
+        }
+
+        public boolean contains(String chromosome, int start, int end) {
+            if (!moveTo(chromosome, start)) {
+                return false;
+            }
+            return regionIndex >= 0 && contig.maxEnds[regionIndex] >= end;
+        }
+
+        private boolean moveTo(String chromosome, int start) {
+            if (this.chromosome == null || !this.chromosome.equals(chromosome)) {
+                this.chromosome = chromosome;
+                this.contig = contigs.get(chromosome);
+                if (contig == null) {
+                    return false;
+                }
+                unionIndex = firstEndingAtOrAfter(contig.unionEnds, start);
+                regionIndex = lastStartingAtOrBefore(contig.starts, start);
+            } else if (contig == null) {
+                return false;
+            } else if (start < lastStart) {
+                // Unsorted input, search again
+                unionIndex = firstEndingAtOrAfter(contig.unionEnds, start);
+                regionIndex = lastStartingAtOrBefore(contig.starts, start);
+            } else {
+                while (unionIndex < contig.unionEnds.length && contig.unionEnds[unionIndex] < start) {
+                    unionIndex++;
+                }
+                while (regionIndex + 1 < contig.starts.length && contig.starts[regionIndex + 1] <= start) {
+                    regionIndex++;
+                }
+            }
+            lastStart = start;
+            return true;
+        }
+    }
+
+    /**
+     * @return  Index of the last value lower or equal than the key, or -1
+     */
+    private static int lastStartingAtOrBefore(int[] starts, int key) {
+        int low = 0;
+        int high = starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * @return  Index of the first value greater or equal than the key, or the length of the array
+     */
+    private static int firstEndingAtOrAfter(int[] ends, int key) {
+        int low = 0;
+        int high = ends.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Regions of a chromosome.
+     */
+    private static final class Contig {
+        // Maximum size of the subtrees scanned linearly
+        private static final int MIN_TREE_LEVEL = 3;
+
+        private final Region[] regions;
+        private final int[] starts;
+        private final int[] ends;
+        // maximum end of the regions [0, i]
+        private final int[] maxEnds;
+        // maximum end of the subtree rooted at i
+        private final int[] treeMaxEnds;
+        private final int maxLevel;
+        // union of the regions, sorted and not overlapping
+        private final int[] unionStarts;
+        private final int[] unionEnds;
+
+        private Contig(List<Region> regionList) {
+            regions = regionList.toArray(new Region[0]);
+            Arrays.sort(regions, Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getEnd));
+            int n = regions.length;
+            starts = new int[n];
+            ends = new int[n];
+            maxEnds = new int[n];
+            int unionSize = 0;
+            for (int i = 0; i < n; i++) {
+                starts[i] = regions[i].getStart();
+                ends[i] = regions[i].getEnd();
+                maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+                if (i == 0 || starts[i] > maxEnds[i - 1]) {
+                    unionSize++;
+                }
+            }
+
+            unionStarts = new int[unionSize];
+            unionEnds = new int[unionSize];
+            for (int i = 0, u = -1; i < n; i++) {
+                if (i == 0 || starts[i] > maxEnds[i - 1]) {
+                    unionStarts[++u] = starts[i];
+                }
+                unionEnds[u] = maxEnds[i];
+            }
+
+            treeMaxEnds = ends.clone();
+            maxLevel = buildTree();
+        }
+
+        private boolean overlaps(int start, int end) {
+            int i = lastStartingAtOrBefore(starts, end);
+            return i >= 0 && maxEnds[i] >= start;
+        }
+
+        private boolean contains(int start, int end) {
+            int i = lastStartingAtOrBefore(starts, start);
+            return i >= 0 && maxEnds[i] >= end;
+        }
+
+        /**
+         * Implicit interval tree over the sorted array: the node at index i has level k, the number of trailing 1
+         * bits of i, and its children are i - 2^(k-1) and i + 2^(k-1). Nodes beyond the end of the array are virtual.
+         *
+         * @return  Level of the root
+         */
+        private int buildTree() {
+            int n = starts.length;
+            if (n == 0) {
+                return -1;
+            }
+            // maximum end of the last node of the previous level, used for virtual nodes
+            int lastIndex = 0;
+            int lastMaxEnd = 0;
+            for (int i = 0; i < n; i += 2) {
+                lastIndex = i;
+                lastMaxEnd = treeMaxEnds[i];
+            }
+            int level = 1;
+            for (; 1 << level <= n; level++) {
+                int x = 1 << (level - 1);
+                for (int i = (x << 1) - 1; i < n; i += x << 2) {
+                    int leftMaxEnd = treeMaxEnds[i - x];
+                    int rightMaxEnd = i + x < n ? treeMaxEnds[i + x] : lastMaxEnd;
+                    treeMaxEnds[i] = Math.max(ends[i], Math.max(leftMaxEnd, rightMaxEnd));
+                }
+                lastIndex = ((lastIndex >> level) & 1) != 0 ? lastIndex - x : lastIndex + x;
+                if (lastIndex < n && treeMaxEnds[lastIndex] > lastMaxEnd) {
+                    lastMaxEnd = treeMaxEnds[lastIndex];
+                }
+            }
+            return level - 1;
+        }
+
+        private void query(int start, int end, List<Region> result) {
+            if (maxLevel < 0) {
+                return;
+            }
+            int n = starts.length;
+            // stack of nodes: level, index and whether the left child was visited
+            int[] levels = new int[maxLevel * 2 + 2];
+            int[] nodes = new int[levels.length];
+            boolean[] visited = new boolean[levels.length];
+            int top = 0;
+            levels[top] = maxLevel;
+            nodes[top] = (1 << maxLevel) - 1;
+            visited[top++] = false;
+            while (top > 0) {
+                top--;
+                int level = levels[top];
+                int node = nodes[top];
+                if (level <= MIN_TREE_LEVEL) {
+                    // small subtree, scan it
+                    int first = node >> level << level;
+                    int last = Math.min(first + (1 << (level + 1)) - 1, n);
+                    for (int i = first; i < last && starts[i] <= end; i++) {
+                        if (ends[i] >= start) {
+                            result.add(regions[i]);
+                        }
+                    }
+                } else if (!visited[top]) {
+                    int left = node - (1 << (level - 1));
+                    visited[top++] = true;
+                    if (left >= n || treeMaxEnds[left] >= start) {
+                        levels[top] = level - 1;
+                        nodes[top] = left;
+                        visited[top++] = false;
+                    }
+                } else if (node < n && starts[node] <= end) {
+                    if (ends[node] >= start) {
+                        result.add(regions[node]);
+                    }
+                    levels[top] = level - 1;
+                    nodes[top] = node + (1 << (level - 1));
+                    visited[top++] = false;
+                }
+            }
+        }
+    }
+}
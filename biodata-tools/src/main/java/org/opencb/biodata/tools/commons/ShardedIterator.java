@@ -0,0 +1,377 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.commons;
+
+import org.opencb.biodata.models.core.Region;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a list of regions of an indexed file with several threads.
+ *
+ * Each region is split in shards of consecutive positions, aligned to the 16kb windows of the BAI and tabix linear
+ * indexes. The shards are read concurrently, each one with a reader taken from a pool, and the records are returned in
+ * the same order as the regions and shards. Each shard keeps at most {@link #BUFFER_SIZE} records in memory, the thread
+ * reading it waits until the previous records are consumed.
+ *
+ * A record overlapping several shards must be returned only by one of them. Shard readers should return the records
+ * where {@link #isFirstShard(Region, Region, int)} is true.
+ *
+ * @param <R> Reader of the file
+ * @param <T> Records
+ */
+public class ShardedIterator<R extends Closeable, T> implements Iterator<T>, AutoCloseable {
+
+    public static final int DEFAULT_SHARD_SIZE = 1024 * 1024;
+    public static final int SHARD_ALIGNMENT = 16 * 1024;
+    public static final int BUFFER_SIZE = 1024;
+
+    private static final Object END_OF_SHARD = new Object();
+
+    @FunctionalInterface
+    public interface ReaderFactory<R extends Closeable> {
+        R open() throws IOException;
+
+        /**
+         * Release a reader opened by this factory, once the iterator is closed or the reader fails.
+         *
+         * @param reader    Reader
+         * @param valid     False if reading failed, so the reader must not be reused
+         * @throws IOException if the reader can not be closed
+         */
+        default void release(R reader, boolean valid) throws IOException {
+            reader.close();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ShardReader<R, T> {
+        /**
+         * @param reader    Reader, not used by any other thread at the same time
+         * @param region    Queried region
+         * @param shard     Shard of the region to be read
+         * @param limit     Maximum number of records needed from the shard, or -1 to read all of them
+         * @return the records of the shard. It is closed once read if it is {@link AutoCloseable}
+         * @throws IOException if the file can not be read
+         */
+        Iterator<T> read(R reader, Region region, Region shard, int limit) throws IOException;
+    }
+
+    private final Deque<Region[]> shards;
+    private final ReaderFactory<R> readerFactory;
+    private final ShardReader<R, T> shardReader;
+    private final int numThreads;
+    private final ExecutorService executorService;
+    private final BlockingQueue<R> readers;
+    private final List<R> openReaders = Collections.synchronizedList(new ArrayList<>());
+    private final Deque<Shard> pendingShards = new ArrayDeque<>();
+    private final int limit;
+    private int counter;
+    private boolean closed;
+
+    public ShardedIterator(List<Region> regions, ReaderFactory<R> readerFactory, ShardReader<R, T> shardReader,
+                           int numThreads) {
+        this(regions, DEFAULT_SHARD_SIZE, readerFactory, shardReader, numThreads, -1);
+    }
+
+    /**
+     * @param regions       Regions to read
+     * @param shardSize     Maximum size of each shard
+     * @param readerFactory Opens the readers of the pool. At most one reader is opened per thread
+     * @param shardReader   Reads the records of a shard
+     * @param numThreads    Number of threads
+     * @param limit         Maximum number of records to return, or -1 to return all the records
+     */
+    public ShardedIterator(List<Region> regions, int shardSize, ReaderFactory<R> readerFactory,
+                           ShardReader<R, T> shardReader, int numThreads, int limit) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads (" + numThreads + ") must be positive");
+        }
+        this.shards = new ArrayDeque<>();
+        for (Region region : regions) {
+            for (Region shard : split(region, shardSize)) {
+                shards.add(new Region[]{region, shard});
+            }
+        }
+        this.readerFactory = readerFactory;
+        this.shardReader = shardReader;
+        this.numThreads = numThreads;
+        this.limit = limit;
+        this.readers = new ArrayBlockingQueue<>(numThreads);
+        this.executorService = Executors.newFixedThreadPool(numThreads);
+    }
+
+    /**
+     * Lease the readers from a pool. Each reader is returned to the pool when the iterator is closed, or invalidated if
+     * reading a shard fails.
+     *
+     * @param readerPool    Pool of readers
+     * @param path          File to read
+     * @param <R>           Reader
+     * @return a factory of readers leased from the pool
+     */
+    public static <R extends Closeable> ReaderFactory<R> leaseFrom(ReaderPool<R> readerPool, Path path) {
+        Map<R, ReaderPool.Lease<R>> leases = Collections.synchronizedMap(new IdentityHashMap<>());
+        return new ReaderFactory<R>() {
+            @Override
+            public R open() throws IOException {
+                ReaderPool.Lease<R> lease = readerPool.lease(path);
+                leases.put(lease.get(), lease);
+                return lease.get();
+            }
+
+            @Override
+            public void release(R reader, boolean valid) {
+                ReaderPool.Lease<R> lease = leases.remove(reader);
+                if (!valid) {
+                    lease.invalidate();
+                }
+                lease.close();
+            }
+        };
+    }
+
+    /**
+     * Split a region in shards aligned to {@link #SHARD_ALIGNMENT}. The first and last shards may be smaller.
+     * Shards smaller than the alignment are aligned to their own size.
+     *
+     * @param region    Region to split
+     * @param shardSize Maximum size of each shard
+     * @return the shards of the region
+     */
+    public static List<Region> split(Region region, int shardSize) {
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("shardSize (" + shardSize + ") must be positive");
+        }
+        int size = shardSize < SHARD_ALIGNMENT ? shardSize : shardSize / SHARD_ALIGNMENT * SHARD_ALIGNMENT;
+        List<Region> shards = new ArrayList<>();
+        int start = region.getStart();
+        while (start <= region.getEnd()) {
+            // Positions are 1-based, windows are 0-based
+            int end = (int) Math.min(region.getEnd(), ((long) (start - 1) / size + 1) * size);
+            shards.add(new Region(region.getChromosome(), start, end));
+            start = end + 1;
+        }
+        return shards;
+    }
+
+    /**
+     * Each record overlapping the region belongs to the shard containing its first position in the region.
+     *
+     * @param region    Queried region
+     * @param shard     Shard of the region
+     * @param start     Start of the record
+     * @return true if the record belongs to the shard
+     */
+    public static boolean isFirstShard(Region region, Region shard, int start) {
+        int firstPosition = Math.max(start, region.getStart());
+        return firstPosition >= shard.getStart() && firstPosition <= shard.getEnd();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (limit > 0 && counter >= limit) {
+            cancelShards();
+            return false;
+        }
+        submitShards();
+        while (!pendingShards.isEmpty()) {
+            Shard shard = pendingShards.peek();
+            if (shard.peek() != END_OF_SHARD) {
+                return true;
+            }
+            pendingShards.poll();
+            get(shard.future);
+            submitShards();
+        }
+        return false;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        counter++;
+        return (T) pendingShards.peek().poll();
+    }
+
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL),
+                false).onClose(this::close);
+    }
+
+    private void submitShards() {
+        while (pendingShards.size() < numThreads * 2 && !shards.isEmpty()) {
+            Region[] regionShard = shards.poll();
+            // Records returned by the previous shards are not known yet, so this is only an upper bound
+            Shard shard = new Shard(regionShard[0], regionShard[1], limit > 0 ? limit - counter : -1);
+            shard.future = executorService.submit(shard);
+            pendingShards.add(shard);
+        }
+    }
+
+    private void cancelShards() {
+        for (Shard pendingShard : pendingShards) {
+            pendingShard.cancelled = true;
+            pendingShard.future.cancel(false);
+        }
+        pendingShards.clear();
+        shards.clear();
+    }
+
+    private void get(Future<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof IOException) {
+                throw new UncheckedIOException((IOException) e.getCause());
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cancelShards();
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (openReaders) {
+            for (R reader : openReaders) {
+                release(reader, true);
+            }
+            openReaders.clear();
+        }
+    }
+
+    private void release(R reader, boolean valid) {
+        try {
+            readerFactory.release(reader, valid);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a shard into a bounded queue, ended by {@link #END_OF_SHARD} even if the read fails.
+     */
+    private class Shard implements Callable<Void> {
+
+        private final Region region;
+        private final Region shard;
+        private final int limit;
+        private final BlockingQueue<Object> records = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        private volatile boolean cancelled;
+        private Future<Void> future;
+        // Next record, only used by the consumer
+        private Object head;
+
+        Shard(Region region, Region shard, int limit) {
+            this.region = region;
+            this.shard = shard;
+            this.limit = limit;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            R reader = null;
+            boolean valid = false;
+            try {
+                reader = readers.poll();
+                if (reader == null) {
+                    // There is at most one reader per thread, so the pool is never full
+                    reader = readerFactory.open();
+                    openReaders.add(reader);
+                }
+                Iterator<T> iterator = shardReader.read(reader, region, shard, limit);
+                try {
+                    int count = 0;
+                    while (!cancelled && (limit < 0 || count < limit) && iterator.hasNext()) {
+                        put(iterator.next());
+                        count++;
+                    }
+                } finally {
+                    if (iterator instanceof AutoCloseable) {
+                        ((AutoCloseable) iterator).close();
+                    }
+                }
+                valid = true;
+            } finally {
+                if (reader != null) {
+                    if (valid) {
+                        readers.add(reader);
+                    } else {
+                        // The reader may be in the middle of a record, do not use it for other shards
+                        openReaders.remove(reader);
+                        release(reader, false);
+                    }
+                }
+                put(END_OF_SHARD);
+            }
+            return null;
+        }
+
+        private void put(Object record) throws InterruptedException {
+            while (!cancelled && !records.offer(record, 100, TimeUnit.MILLISECONDS)) {
+                // Wait until the consumer reads the previous records or the iterator is closed
+            }
+        }
+
+        private Object peek() {
+            if (head == null) {
+                try {
+                    head = records.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+            }
+            return head;
+        }
+
+        private Object poll() {
+            Object record = peek();
+            head = null;
+            return record;
+        }
+    }
+}
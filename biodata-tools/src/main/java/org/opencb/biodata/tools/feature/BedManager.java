@@ -16,23 +16,75 @@
  *   -->
  *
  */
-
 package org.opencb.biodata.tools.feature;
 
 import org.opencb.biodata.formats.feature.bed.Bed;
+import org.opencb.biodata.formats.feature.bed.io.BedReader;
+import org.opencb.biodata.formats.io.FileFormatException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 
 /**
+ * BED file indexed with tabix. BED coordinates are 0-based and half-open.
+ *
  * Created by imedina on 26/10/16.
  */
 public class BedManager extends FeatureManager<Bed> {
 
-
-    public BedManager() {
+    public BedManager(Path path) {
+        super(path);
         this.chromsomeColIndex = 1;
-        this.startColIndex = 3;
-        this.endColIndex = 4;
+        this.startColIndex = 2;
+        this.endColIndex = 3;
+        this.zeroBased = true;
     }
 
+    @Override
+    public List<Bed> load() throws IOException {
+        try (BedReader bedReader = new BedReader(path)) {
+            return bedReader.readAll();
+        } catch (NoSuchMethodException | FileFormatException e) {
+            throw new IOException("Error reading BED file " + path, e);
+        }
+    }
 
+    @Override
+    protected String getChromosome(Bed feature) {
+        return feature.getChromosome();
+    }
 
+    @Override
+    protected int getStart(Bed feature) {
+        return feature.getStart() + 1;
+    }
+
+    @Override
+    protected int getEnd(Bed feature) {
+        return feature.getEnd();
+    }
+
+    @Override
+    protected String encode(Bed feature) {
+        if (feature.getName().isEmpty() && feature.getBlockCount() == 0) {
+            return feature.getChromosome() + "\t" + feature.getStart() + "\t" + feature.getEnd();
+        }
+        return feature.toString();
+    }
+
+    @Override
+    protected Bed decode(String line) throws FileFormatException {
+        String[] fields = line.split("\t");
+        try {
+            if (fields.length >= 12) {
+                return new Bed(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]), fields[3],
+                        Integer.parseInt(fields[4]), fields[5], Integer.parseInt(fields[6]), Integer.parseInt(fields[7]),
+                        fields[8], Integer.parseInt(fields[9]), fields[10], fields[11]);
+            }
+            return new Bed(fields[0], Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        } catch (RuntimeException e) {
+            throw new FileFormatException(e);
+        }
+    }
 }
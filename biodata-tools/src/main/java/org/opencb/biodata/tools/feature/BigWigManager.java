@@ -5,11 +5,17 @@ import org.opencb.biodata.models.core.Region;
 import org.opencb.commons.utils.FileUtils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
+ * Reads values from a BigWig file.
+ *
+ * Items of the data and of the zoom levels are decoded into primitive arrays by tiles, and kept in a LRU cache shared
+ * by all the queries of the manager, so that browsing close regions does not decode the same blocks again. Query
+ * methods accepting a buffer do not allocate memory once the tiles are cached.
+ *
  * Created by imedina on 25/11/16.
  */
 public class BigWigManager {
@@ -19,6 +25,15 @@ public class BigWigManager {
     private BBFileReader bbFileReader;
     private List<Integer> zoomWindowSizes;
 
+    // LRU cache of decoded data, in tiles of TILE_SIZE bases or ZOOM_TILE_ITEMS zoom records
+    private final LinkedHashMap<Long, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedItems;
+    private long maxCachedItems = DEFAULT_MAX_CACHED_ITEMS;
+
+    public static final long DEFAULT_MAX_CACHED_ITEMS = 4 * 1024 * 1024;
+    private static final int TILE_SIZE = 64 * 1024;
+    private static final int ZOOM_TILE_ITEMS = 1024;
+
     @Deprecated
     private Path indexPath;
 
@@ -59,19 +74,42 @@ public class BigWigManager {
      * Query by a given region.
      *
      * @param region    Region target
-     * @return          Array of double values for that region
+     * @return          Array of double values for that region, one value per position
      * @throws IOException
      */
     public double[] query(Region region) throws IOException {
-        BigWigIterator bigWigIterator = iterator(region);
         double[] values = new double[region.getEnd() - region.getStart() + 1];
-        while (bigWigIterator.hasNext()) {
-            WigItem wigItem = bigWigIterator.next();
-            for (int i = wigItem.getStartBase(), j = wigItem.getStartBase() - region.getStart(); i <= region.getEnd(); i++, j++) {
-                values[j] = wigItem.getWigValue();
+        query(region, values);
+        return values;
+    }
+
+    /**
+     * Query by a given region, filling the given buffer with one value per position. Positions without data are 0.
+     *
+     * @param region    Region target
+     * @param values    Buffer with at least one element per position of the region
+     * @throws IOException
+     */
+    public void query(Region region, double[] values) throws IOException {
+        int length = region.getEnd() - region.getStart() + 1;
+        if (values.length < length) {
+            throw new IllegalArgumentException("Buffer of size " + values.length + " too small for region " + region);
+        }
+        Arrays.fill(values, 0, length, 0);
+        WigUtils.validateRegion(region, bbFileReader);
+
+        // 0-based and half-open, as in the BigWig file
+        int start = region.getStart() - 1;
+        int end = region.getEnd();
+        for (int tileIndex = start / tileSize(0); tileIndex <= (end - 1) / tileSize(0); tileIndex++) {
+            Tile tile = getTile(region.getChromosome(), 0, tileIndex);
+            int tileStart = Math.max(start, tile.start);
+            int tileEnd = Math.min(end, tile.end);
+            for (int i = tile.first(tileStart); i < tile.size && tile.starts[i] < tileEnd; i++) {
+                Arrays.fill(values, Math.max(tileStart, tile.starts[i]) - start, Math.min(tileEnd, tile.ends[i]) - start,
+                        tile.values[i]);
             }
         }
-        return values;
     }
 
     /**
@@ -84,77 +122,217 @@ public class BigWigManager {
         // Sanity check
         WigUtils.validateRegion(region, bbFileReader);
 
-        return bbFileReader.getBigWigIterator(region.getChromosome(), region.getStart(), region.getChromosome(), region.getEnd() + 1, false);
+        return bbFileReader.getBigWigIterator(region.getChromosome(), region.getStart() - 1, region.getChromosome(),
+                region.getEnd(), false);
     }
 
     public ZoomLevelIterator iterator(Region region, int zoomLevel) {
         // Sanity check
         WigUtils.validateRegion(region, bbFileReader);
 
-        return bbFileReader.getZoomLevelIterator(zoomLevel, region.getChromosome(), region.getStart(), region.getChromosome(), region.getEnd(), false);
+        return bbFileReader.getZoomLevelIterator(zoomLevel, region.getChromosome(), region.getStart() - 1,
+                region.getChromosome(), region.getEnd(), false);
     }
 
+    /**
+     * Compute the mean value of each window of the region. The last window is completed if the region size is not
+     * a multiple of the window size. The data is read from the zoom level with the largest reduction not greater than
+     * the window size.
+     *
+     * @param region        Region target
+     * @param windowSize    Window size
+     * @return              Array with the mean value of each window
+     * @throws UncheckedIOException if the BigWig file can not be read
+     */
     public double[] groupBy(Region region, int windowSize) {
-        int zoomLevel = -1;
-        for (int level = 0; level < zoomWindowSizes.size(); level++) {
-            if (windowSize < zoomWindowSizes.get(level)) {
-                break;
-            }
-            zoomLevel++;
+        windowSize = Math.max(1, windowSize);
+        int length = region.getEnd() - region.getStart() + 1;
+        double[] values = new double[(length + windowSize - 1) / windowSize];
+        try {
+            groupBy(region, windowSize, values);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+        return values;
+    }
 
+    /**
+     * Compute the mean value of each window of the region, filling the given buffer.
+     *
+     * @param region        Region target
+     * @param windowSize    Window size
+     * @param values        Buffer with at least one element per window
+     * @return              Number of windows
+     * @throws IOException
+     */
+    public int groupBy(Region region, int windowSize, double[] values) throws IOException {
         // Calculate the number of needed windows, ensure windowSize => 1
         windowSize = Math.max(1, windowSize);
-        int start = region.getStart();
-        int end = region.getEnd();
-        int numWindows = (end - start + 1) / windowSize;
-        if ((end - start + 1) % windowSize != 0) {
-            numWindows++;
-            end = start + (numWindows * windowSize - 1);
-        }
-        double[] chunks = new double[numWindows];
-
-        if (zoomLevel == -1) {
-            // No zoom level available. This can happen because there are not zoom levels or the window size is too small
-            BigWigIterator bigWigIterator = iterator(new Region(region.getChromosome(), start, end));
-            WigItem wItem;
-            int length, chunkStart, chunkEnd;
-            while (bigWigIterator.hasNext()) {
-                wItem = bigWigIterator.next();
-                chunkStart = (Math.max(start, wItem.getStartBase()) - start) / windowSize;
-                chunkEnd = (Math.min(end, wItem.getEndBase()) - start) / windowSize;
-                for (int chunk = chunkStart; chunk <= chunkEnd; chunk++) {
-                    length = Math.min(wItem.getEndBase() - start, chunk * windowSize + windowSize)
-                            - Math.max(wItem.getStartBase() - start, chunk * windowSize);
-                    if (chunk < chunks.length) {
-                        chunks[chunk] += (wItem.getWigValue() * length);
-                    }
+        int numWindows = (region.getEnd() - region.getStart() + windowSize) / windowSize;
+        if (values.length < numWindows) {
+            throw new IllegalArgumentException("Buffer of size " + values.length + " too small for " + numWindows
+                    + " windows");
+        }
+        Arrays.fill(values, 0, numWindows, 0);
+        WigUtils.validateRegion(region, bbFileReader);
+
+        int level = getZoomLevel(windowSize);
+        // 0-based and half-open, as in the BigWig file
+        int start = region.getStart() - 1;
+        int end = start + numWindows * windowSize;
+        for (int tileIndex = start / tileSize(level); tileIndex <= (end - 1) / tileSize(level); tileIndex++) {
+            Tile tile = getTile(region.getChromosome(), level, tileIndex);
+            int tileStart = Math.max(start, tile.start);
+            int tileEnd = Math.min(end, tile.end);
+            for (int i = tile.first(tileStart); i < tile.size && tile.starts[i] < tileEnd; i++) {
+                int itemStart = Math.max(tileStart, tile.starts[i]) - start;
+                int itemEnd = Math.min(tileEnd, tile.ends[i]) - start;
+                // add the value of each position to its window
+                for (int window = itemStart / windowSize; window * windowSize < itemEnd; window++) {
+                    int length = Math.min(itemEnd, (window + 1) * windowSize) - Math.max(itemStart, window * windowSize);
+                    values[window] += (double) tile.values[i] * length;
                 }
             }
-        } else {
-            // We get the zoom iterator, we need to increment by 1.
-            ZoomLevelIterator zoomIterator = iterator(new Region(region.getChromosome(), start, end), zoomLevel + 1);
-            ZoomDataRecord wItem;
-            int length, chunkStart, chunkEnd;
-            while (zoomIterator.hasNext()) {
-                wItem = zoomIterator.next();
-                chunkStart = (Math.max(start, wItem.getChromStart()) - start) / windowSize;
-                chunkEnd = (Math.min(end, wItem.getChromEnd()) - start) / windowSize;
-                for (int chunk = chunkStart; chunk <= chunkEnd; chunk++) {
-                    length = Math.min(wItem.getChromEnd() - start, chunk * windowSize + windowSize)
-                            - Math.max(wItem.getChromStart() - start, chunk * windowSize);
-                    if (chunk < chunks.length) {
-                        chunks[chunk] += (wItem.getMeanVal() * length);
-                    }
+        }
+
+        for (int i = 0; i < numWindows; i++) {
+            values[i] /= windowSize;
+        }
+        return numWindows;
+    }
+
+    /**
+     * Get the zoom level with the largest reduction not greater than the window size.
+     *
+     * @param windowSize    Window size
+     * @return              Zoom level, or 0 if the window size is smaller than all the zoom reductions
+     */
+    public int getZoomLevel(int windowSize) {
+        int zoomLevel = 0;
+        while (zoomLevel < zoomWindowSizes.size() && zoomWindowSizes.get(zoomLevel) <= windowSize) {
+            zoomLevel++;
+        }
+        return zoomLevel;
+    }
+
+    /**
+     * Remove all the decoded data blocks from the cache.
+     */
+    public void clearCache() {
+        synchronized (tiles) {
+            tiles.clear();
+            cachedItems = 0;
+        }
+    }
+
+    private int tileSize(int level) {
+        return level == 0 ? TILE_SIZE : zoomWindowSizes.get(level - 1) * ZOOM_TILE_ITEMS;
+    }
+
+    private Tile getTile(String chromosome, int level, int index) {
+        long key = ((long) bbFileReader.getChromosomeID(chromosome) << 40) | ((long) level << 32) | index;
+        synchronized (tiles) {
+            Tile tile = tiles.get(key);
+            if (tile != null) {
+                return tile;
+            }
+        }
+
+        Tile tile = readTile(chromosome, level, index);
+        synchronized (tiles) {
+            if (tiles.put(key, tile) == null) {
+                cachedItems += tile.size;
+            }
+            // Least recently used tiles first
+            Iterator<Tile> iterator = tiles.values().iterator();
+            while (cachedItems > maxCachedItems && tiles.size() > 1) {
+                cachedItems -= iterator.next().size;
+                iterator.remove();
+            }
+        }
+        return tile;
+    }
+
+    private Tile readTile(String chromosome, int level, int index) {
+        int tileSize = tileSize(level);
+        Tile tile = new Tile(index * tileSize, index * tileSize + tileSize);
+        // The reader is not thread safe
+        synchronized (bbFileReader) {
+            if (level == 0) {
+                BigWigIterator iterator = bbFileReader.getBigWigIterator(chromosome, tile.start, chromosome, tile.end,
+                        false);
+                while (iterator.hasNext()) {
+                    WigItem item = iterator.next();
+                    tile.add(item.getStartBase(), item.getEndBase(), item.getWigValue());
+                }
+            } else {
+                ZoomLevelIterator iterator = bbFileReader.getZoomLevelIterator(level, chromosome, tile.start,
+                        chromosome, tile.end, false);
+                while (iterator.hasNext()) {
+                    ZoomDataRecord record = iterator.next();
+                    tile.add(record.getChromStart(), record.getChromEnd(), record.getMeanVal());
                 }
             }
         }
+        tile.trim();
+        return tile;
+    }
 
-        for (int i = 0; i < chunks.length; i++) {
-            chunks[i] /= windowSize;
+    /**
+     * Decoded items of a range of a chromosome, from the data or from a zoom level, sorted by start.
+     */
+    private static class Tile {
+        private final int start;
+        private final int end;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private float[] values = new float[16];
+        private int size;
+
+        Tile(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void add(int itemStart, int itemEnd, float value) {
+            if (itemEnd <= start || itemStart >= end) {
+                return;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            starts[size] = itemStart;
+            ends[size] = itemEnd;
+            values[size] = value;
+            size++;
         }
 
-        return chunks;
+        void trim() {
+            starts = Arrays.copyOf(starts, size);
+            ends = Arrays.copyOf(ends, size);
+            values = Arrays.copyOf(values, size);
+        }
+
+        /**
+         * Items do not overlap, so the ends are also sorted.
+         *
+         * @return  Index of the first item ending after the position
+         */
+        int first(int position) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (ends[mid] <= position) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
     }
 
     public List<Integer> getZoomWindowSizes() {
@@ -164,5 +342,20 @@ public class BigWigManager {
     public BBFileReader getBbFileReader() {
         return bbFileReader;
     }
+
+    public long getMaxCachedItems() {
+        return maxCachedItems;
+    }
+
+    /**
+     * Set the maximum number of decoded items (positions or zoom records) kept in the cache, 12 bytes each.
+     *
+     * @param maxCachedItems    Maximum number of cached items
+     * @return                  This manager
+     */
+    public BigWigManager setMaxCachedItems(long maxCachedItems) {
+        this.maxCachedItems = maxCachedItems;
+        return this;
+    }
 }
 
@@ -0,0 +1,736 @@
+package org.opencb.biodata.tools.feature;
+
+import org.opencb.commons.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.Deflater;
+
+/**
+ * Pure Java writer for BigWig files, see https://genome.ucsc.edu/goldenPath/help/bigWig.html.
+ *
+ * Data is added per chromosome through a {@link ContigWriter}, values are stored as bedGraph sections and the zoom
+ * levels are computed on the fly. Each contig writer is expected to be used by one single thread, so different
+ * chromosomes can be processed concurrently. Compressed blocks are spilled to temporary files and the final BigWig
+ * file (header, chromosome B+ tree, data, R-tree indexes and zoom levels) is assembled when this writer is closed.
+ */
+public class BigWigWriter implements AutoCloseable {
+
+    private final Path bigWigPath;
+    private final Path tmpDir;
+    private final int itemsPerSlot;
+    private final int blockSize;
+
+    // Chromosomes are sorted by name, the position in the list is the chromosome ID used in the file
+    private final List<String> chromosomes;
+    private final Map<String, Integer> chromosomeIds;
+    private final int[] chromosomeSizes;
+    private final int[] zoomReductions;
+    private final ContigWriter[] contigWriters;
+
+    private boolean closed;
+
+    public static final int BIGWIG_MAGIC = 0x888FFC26;
+    public static final int BPT_MAGIC = 0x78CA8C91;
+    public static final int CIR_TREE_MAGIC = 0x2468ACE0;
+    public static final int BIGWIG_VERSION = 4;
+
+    public static final int DEFAULT_ITEMS_PER_SLOT = 1024;
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+    public static final int ZOOM_INCREMENT = 4;
+    public static final int MAX_ZOOM_LEVELS = 10;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int ZOOM_HEADER_SIZE = 24;
+    private static final int TOTAL_SUMMARY_SIZE = 40;
+    private static final int SECTION_HEADER_SIZE = 24;
+    private static final int BED_GRAPH_ITEM_SIZE = 12;
+    private static final int ZOOM_RECORD_SIZE = 32;
+    private static final byte BED_GRAPH_SECTION_TYPE = 1;
+
+    /**
+     * Constructor.
+     *
+     * @param bigWigPath        BigWig file to be created
+     * @param chromosomeSizes   Chromosome names and lengths
+     * @param initialReduction  Reduction (in bases) of the first zoom level, the next ones are multiplied by 4
+     * @throws IOException      If the output folder is not valid
+     */
+    public BigWigWriter(Path bigWigPath, Map<String, Integer> chromosomeSizes, int initialReduction) throws IOException {
+        this(bigWigPath, chromosomeSizes, initialReduction, DEFAULT_ITEMS_PER_SLOT, DEFAULT_BLOCK_SIZE);
+    }
+
+    public BigWigWriter(Path bigWigPath, Map<String, Integer> chromosomeSizes, int initialReduction, int itemsPerSlot,
+                        int blockSize) throws IOException {
+        FileUtils.checkDirectory(bigWigPath.toAbsolutePath().getParent(), true);
+        if (chromosomeSizes == null || chromosomeSizes.isEmpty()) {
+            throw new IllegalArgumentException("Missing chromosome sizes to create the BigWig file " + bigWigPath);
+        }
+
+        this.bigWigPath = bigWigPath;
+        this.tmpDir = bigWigPath.toAbsolutePath().getParent();
+        this.itemsPerSlot = Math.min(itemsPerSlot, 0xFFFF);
+        this.blockSize = blockSize;
+
+        this.chromosomes = new ArrayList<>(chromosomeSizes.keySet());
+        Collections.sort(this.chromosomes);
+        this.chromosomeIds = new HashMap<>();
+        this.chromosomeSizes = new int[chromosomes.size()];
+        int maxChromosomeSize = 0;
+        for (int i = 0; i < chromosomes.size(); i++) {
+            chromosomeIds.put(chromosomes.get(i), i);
+            this.chromosomeSizes[i] = chromosomeSizes.get(chromosomes.get(i));
+            maxChromosomeSize = Math.max(maxChromosomeSize, this.chromosomeSizes[i]);
+        }
+
+        // Zoom levels are added while they reduce the longest chromosome
+        List<Integer> reductions = new ArrayList<>();
+        long reduction = Math.max(1, initialReduction);
+        while (reductions.size() < MAX_ZOOM_LEVELS && reduction < maxChromosomeSize) {
+            reductions.add((int) reduction);
+            reduction *= ZOOM_INCREMENT;
+        }
+        this.zoomReductions = reductions.stream().mapToInt(Integer::intValue).toArray();
+
+        this.contigWriters = new ContigWriter[chromosomes.size()];
+        this.closed = false;
+    }
+
+    /**
+     * Create the writer for a chromosome. Each chromosome can only be written once and the returned object must not be
+     * shared among threads.
+     *
+     * @param chromosome    Chromosome name, it must be one of the chromosome sizes given to the constructor
+     * @return              The contig writer, it must be closed when all the values have been added
+     * @throws IOException  If the temporary file can not be created
+     */
+    public synchronized ContigWriter newContigWriter(String chromosome) throws IOException {
+        Integer chromosomeId = chromosomeIds.get(chromosome);
+        if (chromosomeId == null) {
+            throw new IllegalArgumentException("Unknown chromosome '" + chromosome + "' for the BigWig file " + bigWigPath);
+        }
+        if (contigWriters[chromosomeId] != null) {
+            throw new IllegalStateException("Chromosome '" + chromosome + "' has already been written");
+        }
+        contigWriters[chromosomeId] = new ContigWriter(chromosomeId);
+        return contigWriters[chromosomeId];
+    }
+
+    /**
+     * Assemble the BigWig file from all the contig writers and delete the temporary files.
+     *
+     * @throws IOException If any error occurs writing the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try (FileChannel out = FileChannel.open(bigWigPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (ContigWriter contigWriter : contigWriters) {
+                if (contigWriter != null && !contigWriter.closed) {
+                    throw new IllegalStateException("Contig writer for '" + chromosomes.get(contigWriter.chromosomeId)
+                            + "' has not been closed");
+                }
+            }
+
+            long totalSummaryOffset = HEADER_SIZE + (long) ZOOM_HEADER_SIZE * zoomReductions.length;
+            long chromosomeTreeOffset = totalSummaryOffset + TOTAL_SUMMARY_SIZE;
+            out.position(chromosomeTreeOffset);
+            writeChromosomeTree(out);
+
+            // Full resolution data and its index
+            long fullDataOffset = out.position();
+            List<IndexItem> dataIndex = new ArrayList<>();
+            writeBuffer(out, newBuffer(8).putLong(countBlocks(-1)));
+            copyBlocks(out, -1, dataIndex);
+            long fullIndexOffset = out.position();
+            writeRTree(out, dataIndex, fullIndexOffset);
+
+            // Zoom levels
+            long[] zoomDataOffsets = new long[zoomReductions.length];
+            long[] zoomIndexOffsets = new long[zoomReductions.length];
+            for (int level = 0; level < zoomReductions.length; level++) {
+                zoomDataOffsets[level] = out.position();
+                List<IndexItem> zoomIndex = new ArrayList<>();
+                writeBuffer(out, newBuffer(4).putInt((int) countZoomRecords(level)));
+                copyBlocks(out, level, zoomIndex);
+                zoomIndexOffsets[level] = out.position();
+                writeRTree(out, zoomIndex, zoomIndexOffsets[level]);
+            }
+
+            // End signature
+            writeBuffer(out, newBuffer(4).putInt(BIGWIG_MAGIC));
+
+            // And finally the header, zoom headers and total summary at the beginning of the file
+            int uncompressBufSize = 0;
+            long basesCovered = 0;
+            double minValue = Double.MAX_VALUE;
+            double maxValue = -Double.MAX_VALUE;
+            double sumData = 0;
+            double sumSquares = 0;
+            for (ContigWriter contigWriter : contigWriters) {
+                if (contigWriter != null) {
+                    uncompressBufSize = Math.max(uncompressBufSize, contigWriter.maxUncompressedSize);
+                    basesCovered += contigWriter.basesCovered;
+                    minValue = Math.min(minValue, contigWriter.minValue);
+                    maxValue = Math.max(maxValue, contigWriter.maxValue);
+                    sumData += contigWriter.sumData;
+                    sumSquares += contigWriter.sumSquares;
+                }
+            }
+            if (basesCovered == 0) {
+                minValue = 0;
+                maxValue = 0;
+            }
+
+            ByteBuffer header = newBuffer((int) chromosomeTreeOffset);
+            header.putInt(BIGWIG_MAGIC)
+                    .putShort((short) BIGWIG_VERSION)
+                    .putShort((short) zoomReductions.length)
+                    .putLong(chromosomeTreeOffset)
+                    .putLong(fullDataOffset)
+                    .putLong(fullIndexOffset)
+                    .putShort((short) 0)        // field count
+                    .putShort((short) 0)        // defined field count
+                    .putLong(0)                 // autoSql offset
+                    .putLong(totalSummaryOffset)
+                    .putInt(uncompressBufSize)
+                    .putLong(0);                // extension offset
+            for (int level = 0; level < zoomReductions.length; level++) {
+                header.putInt(zoomReductions[level])
+                        .putInt(0)
+                        .putLong(zoomDataOffsets[level])
+                        .putLong(zoomIndexOffsets[level]);
+            }
+            header.putLong(basesCovered)
+                    .putDouble(minValue)
+                    .putDouble(maxValue)
+                    .putDouble(sumData)
+                    .putDouble(sumSquares);
+            out.position(0);
+            writeBuffer(out, header);
+        } finally {
+            for (ContigWriter contigWriter : contigWriters) {
+                if (contigWriter != null) {
+                    contigWriter.deleteTmpFile();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard all the data added so far, the temporary files are deleted and no BigWig file is written.
+     *
+     * @throws IOException If any temporary file can not be deleted
+     */
+    public synchronized void discard() throws IOException {
+        closed = true;
+        for (ContigWriter contigWriter : contigWriters) {
+            if (contigWriter != null) {
+                contigWriter.deleteTmpFile();
+            }
+        }
+    }
+
+    private long countBlocks(int level) {
+        long count = 0;
+        for (ContigWriter contigWriter : contigWriters) {
+            if (contigWriter != null) {
+                count += contigWriter.blocks(level).size();
+            }
+        }
+        return count;
+    }
+
+    private long countZoomRecords(int level) {
+        long count = 0;
+        for (ContigWriter contigWriter : contigWriters) {
+            if (contigWriter != null) {
+                count += contigWriter.zoomLevels[level].numRecords;
+            }
+        }
+        return count;
+    }
+
+    private void copyBlocks(FileChannel out, int level, List<IndexItem> index) throws IOException {
+        for (ContigWriter contigWriter : contigWriters) {
+            if (contigWriter == null) {
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(contigWriter.tmpFile, StandardOpenOption.READ)) {
+                for (Block block : contigWriter.blocks(level)) {
+                    long offset = out.position();
+                    long transferred = 0;
+                    while (transferred < block.size) {
+                        transferred += in.transferTo(block.offset + transferred, block.size - transferred, out);
+                    }
+                    out.position(offset + block.size);
+                    index.add(new IndexItem(contigWriter.chromosomeId, block.start, block.end, offset, block.size));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the chromosome B+ tree as UCSC bptFileBulkIndexToOpenFile does, chromosomes are already sorted by name.
+     */
+    private void writeChromosomeTree(FileChannel out) throws IOException {
+        int itemCount = chromosomes.size();
+        int bptBlockSize = Math.max(1, Math.min(blockSize, itemCount));
+        int keySize = 1;
+        for (String chromosome : chromosomes) {
+            keySize = Math.max(keySize, chromosome.getBytes(StandardCharsets.US_ASCII).length);
+        }
+        int valSize = 8;
+
+        writeBuffer(out, newBuffer(32)
+                .putInt(BPT_MAGIC)
+                .putInt(bptBlockSize)
+                .putInt(keySize)
+                .putInt(valSize)
+                .putLong(itemCount)
+                .putLong(0));
+
+        int levels = 1;
+        for (long count = itemCount; count > bptBlockSize; count = (count + bptBlockSize - 1) / bptBlockSize) {
+            levels++;
+        }
+
+        long indexOffset = out.position();
+        int indexNodeSize = 4 + bptBlockSize * (keySize + 8);
+        int leafNodeSize = 4 + bptBlockSize * (keySize + valSize);
+        for (int level = levels - 1; level > 0; level--) {
+            long slotSizePer = (long) Math.pow(bptBlockSize, level);
+            long nodeSizePer = slotSizePer * bptBlockSize;
+            long nodeCount = (itemCount + nodeSizePer - 1) / nodeSizePer;
+            long nextChild = indexOffset + nodeCount * indexNodeSize;
+            int nextLevelNodeSize = (level == 1) ? leafNodeSize : indexNodeSize;
+
+            for (long i = 0; i < itemCount; i += nodeSizePer) {
+                long endIndex = Math.min(i + nodeSizePer, itemCount);
+                int count = (int) ((endIndex - i + slotSizePer - 1) / slotSizePer);
+                ByteBuffer node = newBuffer(indexNodeSize);
+                node.put((byte) 0).put((byte) 0).putShort((short) count);
+                for (long j = i; j < endIndex; j += slotSizePer) {
+                    putKey(node, chromosomes.get((int) j), keySize);
+                    node.putLong(nextChild);
+                    nextChild += nextLevelNodeSize;
+                }
+                writeBuffer(out, node);
+            }
+            indexOffset = out.position();
+        }
+
+        for (int i = 0; i < itemCount; i += bptBlockSize) {
+            int count = Math.min(bptBlockSize, itemCount - i);
+            ByteBuffer node = newBuffer(leafNodeSize);
+            node.put((byte) 1).put((byte) 0).putShort((short) count);
+            for (int j = i; j < i + count; j++) {
+                putKey(node, chromosomes.get(j), keySize);
+                node.putInt(j).putInt(chromosomeSizes[j]);
+            }
+            writeBuffer(out, node);
+        }
+    }
+
+    private void putKey(ByteBuffer buffer, String key, int keySize) {
+        byte[] bytes = key.getBytes(StandardCharsets.US_ASCII);
+        buffer.put(bytes);
+        for (int i = bytes.length; i < keySize; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    /**
+     * Write the R-tree index (cirTree) for the given blocks, which must be sorted by chromosome and position. Levels are
+     * written from the root to the leaves and every node is padded to the block size.
+     */
+    private void writeRTree(FileChannel out, List<IndexItem> items, long indexOffset) throws IOException {
+        // Build the tree bottom-up, levels.get(0) contains the leaves
+        List<List<IndexItem>> levels = new ArrayList<>();
+        List<IndexItem> current = items;
+        do {
+            List<IndexItem> parents = new ArrayList<>();
+            for (int i = 0; i < current.size(); i += blockSize) {
+                parents.add(IndexItem.parentOf(current.subList(i, Math.min(i + blockSize, current.size()))));
+            }
+            if (parents.isEmpty()) {
+                parents.add(new IndexItem(0, 0, 0, 0, 0));
+            }
+            levels.add(parents);
+            current = parents;
+        } while (current.size() > 1);
+
+        IndexItem root = levels.get(levels.size() - 1).get(0);
+        writeBuffer(out, newBuffer(48)
+                .putInt(CIR_TREE_MAGIC)
+                .putInt(blockSize)
+                .putLong(items.size())
+                .putInt(root.startChromosomeId)
+                .putInt(root.start)
+                .putInt(root.endChromosomeId)
+                .putInt(root.end)
+                .putLong(indexOffset)
+                .putInt(1)
+                .putInt(0));
+
+        int indexNodeSize = 4 + blockSize * 24;
+        int leafNodeSize = 4 + blockSize * 32;
+        long levelOffset = out.position();
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            List<IndexItem> nodes = levels.get(level);
+            boolean isLeaf = (level == 0);
+            List<IndexItem> children = isLeaf ? items : levels.get(level - 1);
+            long childOffset = levelOffset + (long) nodes.size() * (isLeaf ? leafNodeSize : indexNodeSize);
+            int childNodeSize = (level == 1) ? leafNodeSize : indexNodeSize;
+
+            int childIndex = 0;
+            for (IndexItem node : nodes) {
+                ByteBuffer buffer = newBuffer(isLeaf ? leafNodeSize : indexNodeSize);
+                buffer.put((byte) (isLeaf ? 1 : 0)).put((byte) 0).putShort((short) node.numChildren);
+                for (int i = 0; i < node.numChildren; i++, childIndex++) {
+                    IndexItem child = children.get(childIndex);
+                    buffer.putInt(child.startChromosomeId).putInt(child.start).putInt(child.endChromosomeId).putInt(child.end);
+                    if (isLeaf) {
+                        buffer.putLong(child.offset).putLong(child.size);
+                    } else {
+                        buffer.putLong(childOffset + (long) childIndex * childNodeSize);
+                    }
+                }
+                writeBuffer(out, buffer);
+            }
+            levelOffset = out.position();
+        }
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void writeBuffer(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.position(0);
+        buffer.limit(buffer.capacity());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    public Path getBigWigPath() {
+        return bigWigPath;
+    }
+
+    public List<String> getChromosomes() {
+        return Collections.unmodifiableList(chromosomes);
+    }
+
+    public int[] getZoomReductions() {
+        return zoomReductions;
+    }
+
+    /**
+     * Writer for the values of one chromosome. Values must be added sorted by position and must not overlap.
+     */
+    public class ContigWriter implements AutoCloseable {
+
+        private final int chromosomeId;
+        private final int chromosomeSize;
+        private final Path tmpFile;
+        private final FileChannel tmpChannel;
+        private final Deflater deflater;
+        private byte[] compressBuffer;
+
+        private final ByteBuffer sectionBuffer;
+        private int sectionItems;
+        private int sectionStart;
+        private int sectionEnd;
+        private int lastEnd;
+        private final List<Block> dataBlocks;
+        private final ZoomLevel[] zoomLevels;
+
+        private int maxUncompressedSize;
+        private long basesCovered;
+        private double minValue;
+        private double maxValue;
+        private double sumData;
+        private double sumSquares;
+        private boolean closed;
+
+        private ContigWriter(int chromosomeId) throws IOException {
+            this.chromosomeId = chromosomeId;
+            this.chromosomeSize = chromosomeSizes[chromosomeId];
+            this.tmpFile = Files.createTempFile(tmpDir, "." + bigWigPath.getFileName() + "." + chromosomeId + ".", ".tmp");
+            this.tmpChannel = FileChannel.open(tmpFile, StandardOpenOption.WRITE);
+            this.deflater = new Deflater();
+            this.compressBuffer = new byte[1024];
+
+            this.sectionBuffer = newBuffer(SECTION_HEADER_SIZE + itemsPerSlot * BED_GRAPH_ITEM_SIZE);
+            this.dataBlocks = new ArrayList<>();
+            this.zoomLevels = new ZoomLevel[zoomReductions.length];
+            for (int i = 0; i < zoomReductions.length; i++) {
+                zoomLevels[i] = new ZoomLevel(zoomReductions[i]);
+            }
+
+            this.lastEnd = 0;
+            this.minValue = Double.MAX_VALUE;
+            this.maxValue = -Double.MAX_VALUE;
+        }
+
+        /**
+         * Add a value for the region start-end (1-based, both included).
+         *
+         * @param start Start position, 1-based
+         * @param end   End position, 1-based and inclusive
+         * @param value Value for all the positions of the region
+         * @throws IOException If the compressed block can not be written
+         */
+        public void add(int start, int end, float value) throws IOException {
+            int start0 = start - 1;
+            if (start0 < lastEnd || end < start || end > chromosomeSize) {
+                throw new IllegalArgumentException("Invalid region " + chromosomes.get(chromosomeId) + ":" + start + "-" + end
+                        + ", values must be sorted, not overlapping and within the chromosome length " + chromosomeSize);
+            }
+            lastEnd = end;
+
+            if (sectionItems == 0) {
+                sectionBuffer.position(SECTION_HEADER_SIZE);
+                sectionStart = start0;
+            }
+            sectionBuffer.putInt(start0).putInt(end).putFloat(value);
+            sectionEnd = end;
+            sectionItems++;
+            if (sectionItems == itemsPerSlot) {
+                flushSection();
+            }
+
+            long length = end - start0;
+            basesCovered += length;
+            minValue = Math.min(minValue, value);
+            maxValue = Math.max(maxValue, value);
+            sumData += (double) value * length;
+            sumSquares += (double) value * value * length;
+
+            for (ZoomLevel zoomLevel : zoomLevels) {
+                zoomLevel.add(start0, end, value);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            flushSection();
+            for (ZoomLevel zoomLevel : zoomLevels) {
+                zoomLevel.flushRecord();
+                zoomLevel.flushBlock();
+            }
+            tmpChannel.close();
+            deflater.end();
+            closed = true;
+        }
+
+        private void flushSection() throws IOException {
+            if (sectionItems == 0) {
+                return;
+            }
+            int size = sectionBuffer.position();
+            sectionBuffer.position(0);
+            sectionBuffer.putInt(chromosomeId)
+                    .putInt(sectionStart)
+                    .putInt(sectionEnd)
+                    .putInt(0)                          // item step
+                    .putInt(0)                          // item span
+                    .put(BED_GRAPH_SECTION_TYPE)
+                    .put((byte) 0)
+                    .putShort((short) sectionItems);
+            dataBlocks.add(writeBlock(sectionBuffer, size, sectionStart, sectionEnd));
+            sectionItems = 0;
+        }
+
+        private Block writeBlock(ByteBuffer buffer, int size, int start, int end) throws IOException {
+            maxUncompressedSize = Math.max(maxUncompressedSize, size);
+
+            deflater.reset();
+            deflater.setInput(buffer.array(), 0, size);
+            deflater.finish();
+            int compressedSize = 0;
+            while (!deflater.finished()) {
+                if (compressedSize == compressBuffer.length) {
+                    compressBuffer = Arrays.copyOf(compressBuffer, compressBuffer.length * 2);
+                }
+                compressedSize += deflater.deflate(compressBuffer, compressedSize, compressBuffer.length - compressedSize);
+            }
+
+            long offset = tmpChannel.position();
+            ByteBuffer compressed = ByteBuffer.wrap(compressBuffer, 0, compressedSize);
+            while (compressed.hasRemaining()) {
+                tmpChannel.write(compressed);
+            }
+            return new Block(start, end, offset, compressedSize);
+        }
+
+        private List<Block> blocks(int level) {
+            return (level < 0) ? dataBlocks : zoomLevels[level].blocks;
+        }
+
+        private void deleteTmpFile() throws IOException {
+            if (!closed) {
+                tmpChannel.close();
+                deflater.end();
+            }
+            Files.deleteIfExists(tmpFile);
+        }
+
+        /**
+         * Summary records of one zoom level, one record per bin of 'reduction' bases containing data.
+         */
+        private class ZoomLevel {
+
+            private final int reduction;
+            private final ByteBuffer buffer;
+            private final List<Block> blocks;
+            private int bufferRecords;
+            private int blockStart;
+            private int blockEnd;
+            private long numRecords;
+
+            private int bin;
+            private int recordStart;
+            private int recordEnd;
+            private int validCount;
+            private float min;
+            private float max;
+            private double sum;
+            private double sumSquares;
+
+            ZoomLevel(int reduction) {
+                this.reduction = reduction;
+                this.buffer = newBuffer(itemsPerSlot * ZOOM_RECORD_SIZE);
+                this.blocks = new ArrayList<>();
+                this.bin = -1;
+            }
+
+            void add(int start0, int end, float value) throws IOException {
+                int position = start0;
+                while (position < end) {
+                    int currentBin = position / reduction;
+                    if (currentBin != bin) {
+                        flushRecord();
+                        bin = currentBin;
+                        recordStart = position;
+                        min = value;
+                        max = value;
+                    }
+                    int overlapEnd = (int) Math.min(end, (long) (currentBin + 1) * reduction);
+                    int length = overlapEnd - position;
+                    recordEnd = overlapEnd;
+                    validCount += length;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += (double) value * length;
+                    sumSquares += (double) value * value * length;
+                    position = overlapEnd;
+                }
+            }
+
+            void flushRecord() throws IOException {
+                if (validCount == 0) {
+                    return;
+                }
+                if (bufferRecords == 0) {
+                    buffer.position(0);
+                    blockStart = recordStart;
+                }
+                buffer.putInt(chromosomeId)
+                        .putInt(recordStart)
+                        .putInt(recordEnd)
+                        .putInt(validCount)
+                        .putFloat(min)
+                        .putFloat(max)
+                        .putFloat((float) sum)
+                        .putFloat((float) sumSquares);
+                blockEnd = recordEnd;
+                bufferRecords++;
+                numRecords++;
+                if (bufferRecords == itemsPerSlot) {
+                    flushBlock();
+                }
+
+                validCount = 0;
+                sum = 0;
+                sumSquares = 0;
+            }
+
+            void flushBlock() throws IOException {
+                if (bufferRecords == 0) {
+                    return;
+                }
+                blocks.add(writeBlock(buffer, buffer.position(), blockStart, blockEnd));
+                bufferRecords = 0;
+            }
+        }
+    }
+
+    private static class Block {
+        private final int start;
+        private final int end;
+        private final long offset;
+        private final int size;
+
+        Block(int start, int end, long offset, int size) {
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    private static class IndexItem {
+        private final int startChromosomeId;
+        private final int start;
+        private final int endChromosomeId;
+        private final int end;
+        private final long offset;
+        private final long size;
+        private int numChildren;
+
+        IndexItem(int chromosomeId, int start, int end, long offset, long size) {
+            this(chromosomeId, start, chromosomeId, end, offset, size);
+        }
+
+        IndexItem(int startChromosomeId, int start, int endChromosomeId, int end, long offset, long size) {
+            this.startChromosomeId = startChromosomeId;
+            this.start = start;
+            this.endChromosomeId = endChromosomeId;
+            this.end = end;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        static IndexItem parentOf(List<IndexItem> children) {
+            IndexItem first = children.get(0);
+            int endChromosomeId = first.endChromosomeId;
+            int end = first.end;
+            for (IndexItem child : children) {
+                if (child.endChromosomeId > endChromosomeId || (child.endChromosomeId == endChromosomeId && child.end > end)) {
+                    endChromosomeId = child.endChromosomeId;
+                    end = child.end;
+                }
+            }
+            IndexItem parent = new IndexItem(first.startChromosomeId, first.start, endChromosomeId, end, 0, 0);
+            parent.numChildren = children.size();
+            return parent;
+        }
+    }
+}
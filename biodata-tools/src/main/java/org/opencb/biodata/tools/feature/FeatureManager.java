@@ -19,21 +19,302 @@
 
 package org.opencb.biodata.tools.feature;
 
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.Index;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.readers.TabixReader;
+import org.opencb.biodata.formats.io.FileFormatException;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
 /**
+ * Feature file (BED, GFF, GTF...) indexed with tabix.
+ *
+ * {@link #index()} loads the features with the reader of the format, sorts them, and writes them into a bgzip
+ * compressed file with a tabix index. Queries read from the compressed file only the bins of the index overlapping
+ * the queried region, so large files are never loaded into memory. The indexed file can also be read by tabix, IGV
+ * and htsjdk.
+ *
+ * Positions are 1-based and inclusive, as in {@link Region}, whatever the coordinates of the format.
+ *
  * Created by imedina on 26/10/16.
  */
-public abstract class FeatureManager<T> {
+public abstract class FeatureManager<T> implements AutoCloseable {
+
+    /** Largest window of {@link #nearest(String, int)}, the maximum position of the tabix index. */
+    public static final int MAX_NEAREST_WINDOW = 1 << 29;
+    private static final int MIN_NEAREST_WINDOW = 1024;
 
+    protected Path path;
+    protected Path indexedPath;
+
+    // 1-based columns
     protected int chromsomeColIndex;
     protected int startColIndex;
     protected int endColIndex;
+    // true if the start column is 0-based, as in BED files
+    protected boolean zeroBased;
+
+    private TabixReader tabixReader;
+
+    /**
+     * @param path  Feature file. If it is already compressed with bgzip and indexed with tabix, it is not indexed again
+     */
+    protected FeatureManager(Path path) {
+        this.path = path;
+        if (Files.exists(getTabixIndexPath(path))) {
+            this.indexedPath = path;
+        }
+    }
+
+    /**
+     * Load all the features of the file, with the reader of the format.
+     *
+     * @return  Features, in the order of the file
+     * @throws IOException  If the file can not be read
+     */
+    public abstract List<T> load() throws IOException;
+
+    protected abstract String getChromosome(T feature);
 
+    /**
+     * @param feature   Feature
+     * @return          1-based start of the feature
+     */
+    protected abstract int getStart(T feature);
+
+    /**
+     * @param feature   Feature
+     * @return          1-based end of the feature, inclusive
+     */
+    protected abstract int getEnd(T feature);
+
+    /**
+     * Convert a feature into a line of the format.
+     */
+    protected abstract String encode(T feature);
+
+    /**
+     * Parse a line of the format.
+     */
+    protected abstract T decode(String line) throws FileFormatException;
+
+    /**
+     * Index the feature file. The sorted features are written in the file '.gz', and the index in the file '.gz.tbi'.
+     *
+     * @return  Path to the indexed file
+     * @throws IOException  If the file can not be read or written
+     */
+    public Path index() throws IOException {
+        if (indexedPath != null) {
+            return indexedPath;
+        }
+        String fileName = path.getFileName().toString();
+        if (fileName.endsWith(".gz")) {
+            fileName = fileName.substring(0, fileName.length() - 3) + ".sorted";
+        }
+        return index(path.resolveSibling(fileName + ".gz"));
+    }
+
+    /**
+     * Sort the features of the file and write them, compressed with bgzip, into the output file. The tabix index is
+     * written next to it, in the file '.tbi'.
+     *
+     * @param outputPath    Indexed file
+     * @return              Path to the indexed file
+     * @throws IOException  If the file can not be read or written
+     */
+    public Path index(Path outputPath) throws IOException {
+        // group the features by chromosome, in order of appearance, and sort them by position
+        Map<String, List<T>> features = new LinkedHashMap<>();
+        for (T feature : load()) {
+            features.computeIfAbsent(getChromosome(feature), k -> new ArrayList<>()).add(feature);
+        }
+        Comparator<T> comparator = Comparator.<T>comparingInt(this::getStart).thenComparingInt(this::getEnd);
+
+        TabixIndexCreator indexCreator = new TabixIndexCreator(getTabixFormat());
+        Index index;
+        try (BlockCompressedOutputStream outputStream = new BlockCompressedOutputStream(outputPath.toFile())) {
+            for (Map.Entry<String, List<T>> entry : features.entrySet()) {
+                entry.getValue().sort(comparator);
+                for (T feature : entry.getValue()) {
+                    indexCreator.addFeature(new SimpleFeature(entry.getKey(), getStart(feature), getEnd(feature)),
+                            outputStream.getFilePointer());
+                    outputStream.write(encode(feature).getBytes(StandardCharsets.UTF_8));
+                    outputStream.write('\n');
+                }
+            }
+            index = indexCreator.finalizeIndex(outputStream.getFilePointer());
+        }
+        index.write(getTabixIndexPath(outputPath).toFile());
+
+        close();
+        indexedPath = outputPath;
+        return indexedPath;
+    }
+
+    public boolean isIndexed() {
+        return indexedPath != null;
+    }
 
-    public void index() {
+    /**
+     * Find the features overlapping a region.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start of the region
+     * @param end           End of the region
+     * @return              Features overlapping the region, sorted by start
+     * @throws IOException  If the file can not be read
+     */
+    public List<T> query(String chromosome, int start, int end) throws IOException {
+        List<T> features = new ArrayList<>();
+        Iterator<T> iterator = iterator(chromosome, start, end);
+        while (iterator.hasNext()) {
+            features.add(iterator.next());
+        }
+        return features;
+    }
+
+    public List<T> query(Region region) throws IOException {
+        return query(region.getChromosome(), region.getStart(), region.getEnd());
+    }
+
+    /**
+     * Find the features at a distance of the region lower or equal than the window size, e.g.: the regulatory
+     * features around a variant.
+     *
+     * @param region        Region
+     * @param windowSize    Maximum distance to the region
+     * @return              Features within the window, sorted by start
+     * @throws IOException  If the file can not be read
+     */
+    public List<T> queryWindow(Region region, int windowSize) throws IOException {
+        return query(region.getChromosome(), Math.max(1, region.getStart() - windowSize),
+                region.getEnd() + windowSize);
+    }
+
+    /**
+     * Find the feature closest to a position. Overlapping features have distance 0. Ties are resolved by start.
+     *
+     * @param chromosome    Chromosome
+     * @param position      Position
+     * @return              Closest feature, or null if there are no features in the chromosome
+     * @throws IOException  If the file can not be read
+     */
+    public T nearest(String chromosome, int position) throws IOException {
+        // Any feature outside a window is farther than the closest feature inside it
+        for (int window = MIN_NEAREST_WINDOW; ; window *= 2) {
+            T nearest = null;
+            long minDistance = Long.MAX_VALUE;
+            Iterator<T> iterator = iterator(chromosome, Math.max(1, position - window), position + window);
+            while (iterator.hasNext()) {
+                T feature = iterator.next();
+                long distance = Math.max(0, Math.max(getStart(feature) - (long) position,
+                        (long) position - getEnd(feature)));
+                if (distance < minDistance) {
+                    minDistance = distance;
+                    nearest = feature;
+                }
+            }
+            if (nearest != null || window >= MAX_NEAREST_WINDOW) {
+                return nearest;
+            }
+        }
+    }
+
+    /**
+     * Iterate over the features overlapping a region, reading them from the file while iterating.
+     *
+     * @param chromosome    Chromosome
+     * @param start         Start of the region
+     * @param end           End of the region
+     * @return              Iterator of the features, sorted by start
+     * @throws IOException  If the file can not be read
+     */
+    public Iterator<T> iterator(String chromosome, int start, int end) throws IOException {
+        TabixReader reader = getTabixReader();
+        if (!reader.getChromosomes().contains(chromosome)) {
+            return Collections.emptyIterator();
+        }
+        // tabix queries are 0-based and half-open
+        TabixReader.Iterator lines = reader.query(chromosome, Math.max(0, start - 1), end);
+        return new Iterator<T>() {
+            private String next = nextLine();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                String line = next;
+                next = nextLine();
+                try {
+                    return decode(line);
+                } catch (FileFormatException e) {
+                    throw new IllegalArgumentException("Malformed feature line: " + line, e);
+                }
+            }
+
+            private String nextLine() {
+                try {
+                    return lines.next();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    public Set<String> getChromosomes() throws IOException {
+        return getTabixReader().getChromosomes();
+    }
+
+    @Override
+    public void close() {
+        if (tabixReader != null) {
+            tabixReader.close();
+            tabixReader = null;
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Path getIndexedPath() {
+        return indexedPath;
+    }
+
+    protected TabixFormat getTabixFormat() {
+        return new TabixFormat(zeroBased ? TabixFormat.UCSC_FLAGS : TabixFormat.GENERIC_FLAGS, chromsomeColIndex,
+                startColIndex, endColIndex, '#', 0);
+    }
 
+    private TabixReader getTabixReader() throws IOException {
+        if (tabixReader == null) {
+            if (indexedPath == null) {
+                throw new IllegalStateException("Feature file " + path + " is not indexed, call index() first");
+            }
+            tabixReader = new TabixReader(indexedPath.toString(), getTabixIndexPath(indexedPath).toString());
+        }
+        return tabixReader;
     }
 
-    public T query(String chromosome, int start, int end) {
-        return null;
+    private static Path getTabixIndexPath(Path path) {
+        return Paths.get(path.toString() + ".tbi");
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.feature;
+
+import org.opencb.biodata.formats.feature.gff.Gff;
+import org.opencb.biodata.formats.feature.gff.io.GffReader;
+import org.opencb.biodata.formats.io.FileFormatException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * GFF file indexed with tabix.
+ */
+public class GffManager extends FeatureManager<Gff> {
+
+    public GffManager(Path path) {
+        super(path);
+        this.chromsomeColIndex = 1;
+        this.startColIndex = 4;
+        this.endColIndex = 5;
+        this.zeroBased = false;
+    }
+
+    @Override
+    public List<Gff> load() throws IOException {
+        try (GffReader gffReader = new GffReader(path)) {
+            return gffReader.readAll();
+        } catch (NoSuchMethodException | FileFormatException e) {
+            throw new IOException("Error reading GFF file " + path, e);
+        }
+    }
+
+    @Override
+    protected String getChromosome(Gff feature) {
+        return feature.getSequenceName();
+    }
+
+    @Override
+    protected int getStart(Gff feature) {
+        return feature.getStart();
+    }
+
+    @Override
+    protected int getEnd(Gff feature) {
+        return feature.getEnd();
+    }
+
+    @Override
+    protected String encode(Gff feature) {
+        return feature.toString();
+    }
+
+    @Override
+    protected Gff decode(String line) throws FileFormatException {
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 8) {
+            throw new FileFormatException("Expected at least 8 columns, found " + fields.length);
+        }
+        try {
+            return new Gff(fields[0], fields[1], fields[2], Integer.valueOf(fields[3]), Integer.valueOf(fields[4]),
+                    fields[5], fields[6], fields[7], fields.length > 8 ? fields[8] : "");
+        } catch (NumberFormatException e) {
+            throw new FileFormatException(e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.feature;
+
+import org.opencb.biodata.formats.feature.gtf.Gtf;
+import org.opencb.biodata.formats.feature.gtf.io.GtfReader;
+import org.opencb.biodata.formats.io.FileFormatException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * GTF file indexed with tabix.
+ */
+public class GtfManager extends FeatureManager<Gtf> {
+
+    private static final Pattern ATTRIBUTE_PATTERN = Pattern.compile("(\\S*)\\s\"(.*)\"");
+    private static final Pattern ATTRIBUTE_SEPARATOR = Pattern.compile(";(?=([^\"]*\"[^\"]*\")*[^\"]*$)");
+
+    public GtfManager(Path path) {
+        super(path);
+        this.chromsomeColIndex = 1;
+        this.startColIndex = 4;
+        this.endColIndex = 5;
+        this.zeroBased = false;
+    }
+
+    @Override
+    public List<Gtf> load() throws IOException {
+        try (GtfReader gtfReader = new GtfReader(path)) {
+            return gtfReader.readAll();
+        } catch (NoSuchMethodException | FileFormatException e) {
+            throw new IOException("Error reading GTF file " + path, e);
+        }
+    }
+
+    @Override
+    protected String getChromosome(Gtf feature) {
+        return feature.getSequenceName();
+    }
+
+    @Override
+    protected int getStart(Gtf feature) {
+        return feature.getStart();
+    }
+
+    @Override
+    protected int getEnd(Gtf feature) {
+        return feature.getEnd();
+    }
+
+    @Override
+    protected String encode(Gtf feature) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(feature.getSequenceName()).append('\t');
+        sb.append(feature.getSource()).append('\t');
+        sb.append(feature.getFeature()).append('\t');
+        sb.append(feature.getStart()).append('\t');
+        sb.append(feature.getEnd()).append('\t');
+        sb.append(feature.getScore()).append('\t');
+        sb.append(feature.getStrand()).append('\t');
+        sb.append(feature.getFrame()).append('\t');
+        for (Map.Entry<String, String> entry : feature.getAttributes().entrySet()) {
+            sb.append(entry.getKey()).append(" \"").append(entry.getValue()).append("\"; ");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Parse a GTF line, as {@link GtfReader} does.
+     */
+    @Override
+    protected Gtf decode(String line) throws FileFormatException {
+        String[] fields = line.split("\t");
+        if (fields.length < 9) {
+            throw new FileFormatException("Expected 9 columns, found " + fields.length);
+        }
+        Map<String, String> attributes = new LinkedHashMap<>();
+        for (String attribute : ATTRIBUTE_SEPARATOR.split(fields[8])) {
+            Matcher matcher = ATTRIBUTE_PATTERN.matcher(attribute.trim());
+            if (matcher.matches()) {
+                attributes.merge(matcher.group(1), matcher.group(2), (a, b) -> a + "," + b);
+            }
+        }
+        try {
+            return new Gtf(fields[0], fields[1], fields[2], Integer.parseInt(fields[3]), Integer.parseInt(fields[4]),
+                    fields[5], fields[6], fields[7], attributes);
+        } catch (NumberFormatException e) {
+            throw new FileFormatException(e);
+        }
+    }
+}
@@ -14,6 +14,7 @@ import java.io.IOException;
 import java.io.InvalidObjectException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -24,10 +25,12 @@ public class WigUtils {
     public static final String WIG_DB = "wig.db";
 
     /**
-     * Index the entire Wig file content in a SQLite database managed by the ChunkFrequencyManager.
+     * Index the entire Wig file content in a coverage index managed by the ChunkFrequencyManager. The mean value of
+     * each chunk is saved. The sections of a chromosome must be consecutive, a chromosome found again after another
+     * one replaces its previous values.
      *
      * @param wigPath   Wig file
-     * @return          Path to the database
+     * @return          Path to the index
      * @throws Exception
      */
     public static Path index(Path wigPath) throws Exception {
@@ -39,85 +42,75 @@ public class WigUtils {
         int chunkSize = chunkFrequencyManager.getChunkSize();
 
         String chromosome = null;
-        int step, span = 1, start = 1, end;
-        int startChunk, endChunk, partial;
+        int step = 1, span = 1, start = 1;
 
-        boolean empty = true;
-        List<Integer> values = new ArrayList<>();
+        // sum of the values of each chunk of the current chromosome
+        long[] sums = new long[1024];
+        int numChunks = 0;
 
         // reader
-        BufferedReader bufferedReader = FileUtils.newBufferedReader(wigPath);
-        // main loop
-        String line = bufferedReader.readLine();
-        while (line != null) {
-            // check for header lines
-            if (WigUtils.isHeaderLine(line)) {
-                if (!empty) {
-                    // save values for the current chromosome into the database
-                    System.out.println("\tStoring " + values.size() + " values for " + chromosome);
-//                    if (chromosome.equals("chr1")) {
-                        computeAndSaveMeanValues(values, wigPath, chromosome, chunkSize, chunkFrequencyManager);
-//                    }
-                }
+        try (BufferedReader bufferedReader = FileUtils.newBufferedReader(wigPath)) {
+            // main loop
+            String line = bufferedReader.readLine();
+            while (line != null) {
+                // check for header lines
+                if (WigUtils.isHeaderLine(line)) {
+                    if (WigUtils.isVariableStep(line)) {
+                        throw new UnsupportedOperationException("Wig coverage file with 'variableStep'"
+                                + " is not supported yet.");
+                    }
 
-                System.out.println("Loading wig data:" + line);
-                if (WigUtils.isVariableStep(line)) {
-                    throw new UnsupportedOperationException("Wig coverage file with 'variableStep'"
-                            + " is not supported yet.");
-                }
+                    // a chromosome can have several sections, its values are saved when the chromosome changes
+                    String headerChromosome = WigUtils.getChromosome(line);
+                    if (!headerChromosome.equals(chromosome)) {
+                        if (numChunks > 0) {
+                            // save values for the current chromosome into the index
+                            saveMeanValues(sums, numChunks, wigPath, chromosome, chunkSize, chunkFrequencyManager);
+                        }
+                        chromosome = headerChromosome;
+                        numChunks = 0;
+                    }
 
-                // update some values
-                step = WigUtils.getStep(line);
-                span = WigUtils.getSpan(line);
-                start = WigUtils.getStart(line);
-                chromosome = WigUtils.getChromosome(line);
-                empty = true;
-                values = new ArrayList<>();
-                // sanity check
-                if (start <= 0) {
-                    throw new UnsupportedOperationException("Wig coverage file with"
-                            + " 'start' <= 0, it must be greater than 0.");
-                }
-                if (start != 1) {
-                    // we have to put zeros until the start position
-                    for (int i = 0; i < start; i++) {
-                        values.add(0);
+                    // update some values
+                    step = WigUtils.getStep(line);
+                    span = WigUtils.getSpan(line);
+                    start = WigUtils.getStart(line);
+                    // sanity check
+                    if (start <= 0) {
+                        throw new UnsupportedOperationException("Wig coverage file with"
+                                + " 'start' <= 0, it must be greater than 0.");
                     }
-                }
-                if (step != 1) {
-                    throw new UnsupportedOperationException("Wig coverage file with"
-                            + " 'step' != 1 is not supported yet.");
-                }
-                // next line...
-                line = bufferedReader.readLine();
-            } else {
-                if (values != null) {
-                    end = start + span - 1;
-                    startChunk = start / chunkSize;
-                    endChunk = end / chunkSize;
-                    for (int chunk = startChunk, pos = startChunk * chunkSize;
-                         chunk <= endChunk;
-                         chunk++, pos += chunkSize) {
-                        // compute how many values are within the current chunk
-                        // and update the chunk
-                        partial = Math.min(end, pos + chunkSize) - Math.max(start, pos);
-                        values.add(partial * Integer.parseInt(line));
-                        empty = false;
+                } else if (chromosome != null && !line.isEmpty()) {
+                    int value = Integer.parseInt(line.trim());
+                    int end = start + span - 1;
+                    int endChunk = (end - 1) / chunkSize;
+                    if (endChunk >= sums.length) {
+                        sums = Arrays.copyOf(sums, Math.max(sums.length * 2, endChunk + 1));
+                    }
+                    // Fill the chunks between the previous data and this one with zeros
+                    if (numChunks <= endChunk) {
+                        Arrays.fill(sums, numChunks, endChunk + 1, 0);
+                        numChunks = endChunk + 1;
                     }
-                    start += span;
+                    // add the value to each position of the span, chunks are 1-based
+                    for (int chunk = (start - 1) / chunkSize; chunk <= endChunk; chunk++) {
+                        int partial = Math.min(end, (chunk + 1) * chunkSize) - Math.max(start, chunk * chunkSize + 1)
+                                + 1;
+                        sums[chunk] += (long) partial * value;
+                    }
+                    start += step;
                 }
                 // next line...
                 line = bufferedReader.readLine();
             }
         }
 
-        if (!empty) {
-            // save values for the current chromosome into the database
-            System.out.println("\tStoring " + values.size() + " values for " + chromosome);
-//            if (chromosome.equals("chr1")) {
-                computeAndSaveMeanValues(values, wigPath, chromosome, chunkSize, chunkFrequencyManager);
-//            }
+        if (numChunks > 0) {
+            // save values for the current chromosome into the index
+            saveMeanValues(sums, numChunks, wigPath, chromosome, chunkSize, chunkFrequencyManager);
         }
+        // remove the values of a previous index of the file
+        chunkFrequencyManager.compact();
 
         return dbPath;
     }
@@ -298,4 +291,16 @@ public class WigUtils {
         }
         return null;
     }
+
+    /**
+     * Save the mean value of each chunk, the chunk sums divided by the chunk size.
+     */
+    private static void saveMeanValues(long[] sums, int numChunks, Path filePath, String chromosome, int chunkSize,
+                                       ChunkFrequencyManager chunkFrequencyManager) throws IOException {
+        int[] meanValues = new int[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            meanValues[i] = (int) (sums[i] / chunkSize);
+        }
+        chunkFrequencyManager.insert(filePath, chromosome, meanValues, numChunks);
+    }
 }
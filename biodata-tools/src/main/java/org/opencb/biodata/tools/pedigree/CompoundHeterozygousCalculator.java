@@ -0,0 +1,437 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.pedigree;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.models.variant.GenotypeCodec;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Finds compound heterozygous variants of several probands in a single pass over a sorted stream of variants.
+ *
+ * A variant is a candidate of a proband if the proband is heterozygous and exactly one of the parents carries the
+ * main alternate allele. If one parent is missing, the genotype of the other one decides the origin, as in
+ * {@link ModeOfInheritance#compoundHeterozygous(Iterator, int, int, int)}. Candidates are buffered by transcript, and
+ * each transcript is flushed as soon as the stream moves past its end: the listener receives the maternal and paternal
+ * variants of every proband with candidates from both parents. Only the transcripts overlapping the current position
+ * are kept in memory, so whole genomes can be processed with bounded memory.
+ *
+ * The end of a transcript is taken from {@link #addTranscripts(Collection)}. For unknown transcripts it is estimated as
+ * the position of its first candidate plus the maximum transcript length.
+ *
+ * Genotypes are decoded once per variant and sample with {@link GenotypeCodec}, samples shared by several trios,
+ * e.g. the parents of siblings, are decoded only once.
+ */
+public class CompoundHeterozygousCalculator {
+
+    public static final int DEFAULT_MAX_TRANSCRIPT_LENGTH = 2500000;
+
+    // flags of a decoded genotype
+    private static final byte DECODED = 1;
+    private static final byte HAS_REF = 2;
+    private static final byte HAS_ALT = 4;
+
+    private final List<Trio> trios;
+    private final Listener listener;
+    private Set<String> acceptedSoTerms;
+    private Set<String> acceptedBiotypes;
+    private int maxTranscriptLength;
+    private final Map<String, Integer> transcriptEnds;
+
+    // distinct samples of the trios, and the position of the proband, mother and father of each trio in them
+    private final int[] samples;
+    private final int[] probands;
+    private final int[] mothers;
+    private final int[] fathers;
+    private final int[] genotypes;
+    private byte[] genotypeFlags = new byte[256];
+
+    // buffered transcripts of the current chromosome, by id and by end
+    private final Map<String, TranscriptBuffer> buffers;
+    private final PriorityQueue<TranscriptBuffer> buffersByEnd;
+    private final Set<String> doneChromosomes;
+    private String chromosome;
+    private int position;
+    private long numResults;
+
+    /**
+     * Listener of the compound heterozygous variants found.
+     */
+    public interface Listener {
+
+        /**
+         * @param trio              Index of the trio
+         * @param transcriptId      Transcript
+         * @param maternalVariants  Variants of the transcript inherited from the mother, sorted
+         * @param paternalVariants  Variants of the transcript inherited from the father, sorted
+         */
+        void compoundHeterozygous(int trio, String transcriptId, List<Variant> maternalVariants,
+                                  List<Variant> paternalVariants);
+    }
+
+    /**
+     * Positions of the samples of a trio in the study. Missing parents are -1.
+     */
+    public static class Trio {
+        private final int proband;
+        private final int mother;
+        private final int father;
+
+        public Trio(int proband, int mother, int father) {
+            this.proband = proband;
+            this.mother = mother;
+            this.father = father;
+        }
+
+        public int getProband() {
+            return proband;
+        }
+
+        public int getMother() {
+            return mother;
+        }
+
+        public int getFather() {
+            return father;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Trio{");
+            sb.append("proband=").append(proband);
+            sb.append(", mother=").append(mother);
+            sb.append(", father=").append(father);
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+
+    public CompoundHeterozygousCalculator(List<Trio> trios, Listener listener) {
+        for (Trio trio : trios) {
+            if (trio.getProband() < 0) {
+                throw new IllegalArgumentException("Missing proband in " + trio);
+            }
+            if (trio.getMother() < 0 && trio.getFather() < 0) {
+                throw new IllegalArgumentException("Missing mother and father in " + trio);
+            }
+        }
+        this.trios = trios;
+        this.listener = listener;
+        this.acceptedSoTerms = ModeOfInheritance.extendedLof;
+        this.acceptedBiotypes = ModeOfInheritance.proteinCoding;
+        this.maxTranscriptLength = DEFAULT_MAX_TRANSCRIPT_LENGTH;
+        this.transcriptEnds = new HashMap<>();
+
+        Map<Integer, Integer> samplePositions = new LinkedHashMap<>();
+        this.probands = new int[trios.size()];
+        this.mothers = new int[trios.size()];
+        this.fathers = new int[trios.size()];
+        for (int i = 0; i < trios.size(); i++) {
+            probands[i] = samplePosition(samplePositions, trios.get(i).getProband());
+            mothers[i] = samplePosition(samplePositions, trios.get(i).getMother());
+            fathers[i] = samplePosition(samplePositions, trios.get(i).getFather());
+        }
+        this.samples = samplePositions.keySet().stream().mapToInt(Integer::intValue).toArray();
+        this.genotypes = new int[samples.length];
+
+        this.buffers = new HashMap<>();
+        this.buffersByEnd = new PriorityQueue<>(Comparator.comparingInt(buffer -> buffer.end));
+        this.doneChromosomes = new HashSet<>();
+    }
+
+    private static int samplePosition(Map<Integer, Integer> samplePositions, int sample) {
+        return sample < 0 ? -1 : samplePositions.computeIfAbsent(sample, k -> samplePositions.size());
+    }
+
+    /**
+     * Set the ends of the transcripts, so they are flushed as soon as the stream passes them.
+     *
+     * @param transcripts   Transcripts
+     * @return              This calculator
+     */
+    public CompoundHeterozygousCalculator addTranscripts(Collection<Transcript> transcripts) {
+        for (Transcript transcript : transcripts) {
+            transcriptEnds.put(transcript.getId(), transcript.getEnd());
+        }
+        return this;
+    }
+
+    /**
+     * Process all the variants of the iterator and flush the remaining transcripts.
+     *
+     * @param iterator  Variants sorted by chromosome and start
+     * @return          Number of compound heterozygous results sent to the listener
+     */
+    public long calculate(Iterator<Variant> iterator) {
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+        finish();
+        return numResults;
+    }
+
+    /**
+     * Process a variant. Transcripts ending before it are flushed.
+     *
+     * @param variant   Variant, not before the previous one
+     * @throws IllegalArgumentException if the variants are not sorted
+     */
+    public void add(Variant variant) {
+        add(variant, null);
+    }
+
+    /**
+     * Process a variant whose genotypes have already been decoded, e.g. by {@link SegregationCalculator}.
+     *
+     * @param variant             Variant, not before the previous one
+     * @param decodedGenotypes    Genotype code of each sample position, or null to decode them from the variant
+     */
+    void add(Variant variant, IntUnaryOperator decodedGenotypes) {
+        if (!variant.getChromosome().equals(chromosome)) {
+            flush(Integer.MAX_VALUE);
+            if (chromosome != null) {
+                doneChromosomes.add(chromosome);
+            }
+            if (doneChromosomes.contains(variant.getChromosome())) {
+                throw new IllegalArgumentException("Variants are not sorted, chromosome " + variant.getChromosome()
+                        + " found again after " + chromosome);
+            }
+            chromosome = variant.getChromosome();
+            position = 0;
+        } else if (variant.getStart() < position) {
+            throw new IllegalArgumentException("Variants are not sorted, " + variant + " found after position "
+                    + position);
+        }
+        position = variant.getStart();
+        flush(position - 1);
+
+        if (variant.getAnnotation() == null || CollectionUtils.isEmpty(variant.getAnnotation().getConsequenceTypes())
+                || !decodeGenotypes(variant, decodedGenotypes)) {
+            return;
+        }
+
+        for (int trio = 0; trio < trios.size(); trio++) {
+            int proband = genotypeFlags[genotypes[probands[trio]]];
+            if ((proband & HAS_REF) == 0 || (proband & HAS_ALT) == 0) {
+                continue;
+            }
+
+            boolean motherCarrier;
+            boolean fatherCarrier;
+            if (mothers[trio] < 0) {
+                // Missing mother, the variant comes from her unless the father is heterozygous
+                int father = genotypeFlags[genotypes[fathers[trio]]];
+                fatherCarrier = (father & HAS_ALT) != 0;
+                motherCarrier = (father & HAS_REF) == 0 || (father & HAS_ALT) == 0;
+            } else if (fathers[trio] < 0) {
+                int mother = genotypeFlags[genotypes[mothers[trio]]];
+                motherCarrier = (mother & HAS_ALT) != 0;
+                fatherCarrier = (mother & HAS_REF) == 0 || (mother & HAS_ALT) == 0;
+            } else {
+                motherCarrier = (genotypeFlags[genotypes[mothers[trio]]] & HAS_ALT) != 0;
+                fatherCarrier = (genotypeFlags[genotypes[fathers[trio]]] & HAS_ALT) != 0;
+            }
+            if (motherCarrier == fatherCarrier) {
+                continue;
+            }
+
+            for (ConsequenceType consequenceType : variant.getAnnotation().getConsequenceTypes()) {
+                String transcriptId = consequenceType.getEnsemblTranscriptId();
+                if (StringUtils.isNotEmpty(transcriptId) && isAccepted(consequenceType)) {
+                    buffer(transcriptId).add(trio, motherCarrier, variant);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush all the buffered transcripts, at the end of the stream.
+     */
+    public void finish() {
+        flush(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decode the genotypes of all the samples of the trios.
+     *
+     * @return  false if the variant has no genotypes
+     */
+    private boolean decodeGenotypes(Variant variant, IntUnaryOperator decodedGenotypes) {
+        StudyEntry studyEntry = variant.getStudies().get(0);
+        Integer gtIdx = decodedGenotypes == null ? studyEntry.getSampleDataKeyPosition("GT") : null;
+        if (decodedGenotypes == null && gtIdx == null) {
+            return false;
+        }
+        for (int i = 0; i < samples.length; i++) {
+            int code;
+            if (decodedGenotypes != null) {
+                code = decodedGenotypes.applyAsInt(samples[i]);
+            } else {
+                List<String> sampleData = studyEntry.getSampleData(samples[i]);
+                code = sampleData == null || sampleData.size() <= gtIdx
+                        ? GenotypeCodec.MISSING
+                        : GenotypeCodec.encode(sampleData.get(gtIdx));
+            }
+            if (code >= genotypeFlags.length) {
+                genotypeFlags = Arrays.copyOf(genotypeFlags, Math.max(code + 1, genotypeFlags.length * 2));
+            }
+            if (genotypeFlags[code] == 0) {
+                genotypeFlags[code] = (byte) (DECODED
+                        | (GenotypeCodec.countAllele(code, 0) > 0 ? HAS_REF : 0)
+                        | (GenotypeCodec.countAllele(code, 1) > 0 ? HAS_ALT : 0));
+            }
+            genotypes[i] = code;
+        }
+        return true;
+    }
+
+    private boolean isAccepted(ConsequenceType consequenceType) {
+        if (!acceptedBiotypes.isEmpty() && !acceptedBiotypes.contains(consequenceType.getBiotype())) {
+            return false;
+        }
+        if (acceptedSoTerms.isEmpty()) {
+            return true;
+        }
+        if (consequenceType.getSequenceOntologyTerms() != null) {
+            for (SequenceOntologyTerm soTerm : consequenceType.getSequenceOntologyTerms()) {
+                if (acceptedSoTerms.contains(soTerm.getName()) || acceptedSoTerms.contains(soTerm.getAccession())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private TranscriptBuffer buffer(String transcriptId) {
+        TranscriptBuffer buffer = buffers.get(transcriptId);
+        if (buffer == null) {
+            Integer end = transcriptEnds.get(transcriptId);
+            buffer = new TranscriptBuffer(transcriptId, end == null ? position + maxTranscriptLength : Math.max(position, end),
+                    trios.size());
+            buffers.put(transcriptId, buffer);
+            buffersByEnd.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Flush the transcripts ending before or at the position.
+     */
+    private void flush(int position) {
+        while (!buffersByEnd.isEmpty() && buffersByEnd.peek().end <= position) {
+            TranscriptBuffer buffer = buffersByEnd.poll();
+            buffers.remove(buffer.transcriptId);
+            for (int trio = 0; trio < trios.size(); trio++) {
+                if (buffer.maternal[trio] != null && buffer.paternal[trio] != null) {
+                    numResults++;
+                    listener.compoundHeterozygous(trio, buffer.transcriptId, buffer.maternal[trio],
+                            buffer.paternal[trio]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Candidate variants of a transcript, by trio.
+     */
+    private static class TranscriptBuffer {
+        private final String transcriptId;
+        private final int end;
+        private final List<Variant>[] maternal;
+        private final List<Variant>[] paternal;
+
+        @SuppressWarnings("unchecked")
+        TranscriptBuffer(String transcriptId, int end, int numTrios) {
+            this.transcriptId = transcriptId;
+            this.end = end;
+            this.maternal = new List[numTrios];
+            this.paternal = new List[numTrios];
+        }
+
+        void add(int trio, boolean fromMother, Variant variant) {
+            List<Variant>[] variants = fromMother ? maternal : paternal;
+            if (variants[trio] == null) {
+                variants[trio] = new ArrayList<>();
+            }
+            // the same variant can have several consequence types in the transcript
+            List<Variant> list = variants[trio];
+            if (list.isEmpty() || list.get(list.size() - 1) != variant) {
+                list.add(variant);
+            }
+        }
+    }
+
+    public List<Trio> getTrios() {
+        return trios;
+    }
+
+    public Set<String> getAcceptedSoTerms() {
+        return acceptedSoTerms;
+    }
+
+    /**
+     * @param acceptedSoTerms   Names or accessions of the accepted consequence types, all if empty
+     * @return                  This calculator
+     */
+    public CompoundHeterozygousCalculator setAcceptedSoTerms(Set<String> acceptedSoTerms) {
+        this.acceptedSoTerms = acceptedSoTerms;
+        return this;
+    }
+
+    public Set<String> getAcceptedBiotypes() {
+        return acceptedBiotypes;
+    }
+
+    /**
+     * @param acceptedBiotypes  Accepted transcript biotypes, all if empty
+     * @return                  This calculator
+     */
+    public CompoundHeterozygousCalculator setAcceptedBiotypes(Set<String> acceptedBiotypes) {
+        this.acceptedBiotypes = acceptedBiotypes;
+        return this;
+    }
+
+    public int getMaxTranscriptLength() {
+        return maxTranscriptLength;
+    }
+
+    /**
+     * @param maxTranscriptLength   Maximum length of the transcripts without a known end
+     * @return                      This calculator
+     */
+    public CompoundHeterozygousCalculator setMaxTranscriptLength(int maxTranscriptLength) {
+        this.maxTranscriptLength = maxTranscriptLength;
+        return this;
+    }
+
+    /**
+     * @return  Number of transcripts currently buffered
+     */
+    public int getNumBufferedTranscripts() {
+        return buffers.size();
+    }
+}
@@ -2,6 +2,7 @@ package org.opencb.biodata.tools.pedigree;
 
 import org.opencb.biodata.models.variant.AllelesCode;
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 
 import javax.annotation.Nullable;
 import java.util.*;
@@ -26,12 +27,30 @@ public class MendelianError {
         deNovoCodesMap[12] = true;
     }
 
+    // Genotype code of unknown parents
+    public static final int UNKNOWN_GT = -1;
+
     public enum GenotypeCode {
         HOM_REF, HOM_VAR, HET
     }
 
     public static int compute(@Nullable Genotype fatherGt, @Nullable Genotype motherGt, Genotype childGt,
                                   String chromosome) {
+        return compute(fatherGt == null ? UNKNOWN_GT : GenotypeCodec.encode(fatherGt),
+                motherGt == null ? UNKNOWN_GT : GenotypeCodec.encode(motherGt),
+                GenotypeCodec.encode(childGt), chromosome);
+    }
+
+    /**
+     * Compute the mendelian error code of a trio, given the genotypes as {@link GenotypeCodec} codes.
+     *
+     * @param fatherGt   Genotype code of the father, or {@link #UNKNOWN_GT} if missing
+     * @param motherGt   Genotype code of the mother, or {@link #UNKNOWN_GT} if missing
+     * @param childGt    Genotype code of the child
+     * @param chromosome Chromosome
+     * @return Mendelian error code, 0 if none
+     */
+    public static int compute(int fatherGt, int motherGt, int childGt, String chromosome) {
         // The error classification is available at:
         // https://www.cog-genomics.org/plink2/basic_stats#mendel
         // HOM_REF = 0/0, HOM_VAR = 1/1, HET = 1/0, 0/1
@@ -53,18 +72,18 @@ public class MendelianError {
 
         // If any of the parents do not exist, we set a generic Genotype (0/1) to the other parent so the Mendelian
         // error only depends on the known parent genotype
-        if (fatherGt == null) {
-            fatherGt = new Genotype("0/1");
+        if (fatherGt == UNKNOWN_GT) {
+            fatherGt = GenotypeCodec.HET_REF;
         }
-        if (motherGt == null) {
-            motherGt = new Genotype("0/1");
+        if (motherGt == UNKNOWN_GT) {
+            motherGt = GenotypeCodec.HET_REF;
         }
 
         final int code;
 
-        if (fatherGt.getCode() != AllelesCode.ALLELES_MISSING
-                && motherGt.getCode() != AllelesCode.ALLELES_MISSING
-                && childGt.getCode() != AllelesCode.ALLELES_MISSING) {
+        if (GenotypeCodec.getAllelesCode(fatherGt) != AllelesCode.ALLELES_MISSING
+                && GenotypeCodec.getAllelesCode(motherGt) != AllelesCode.ALLELES_MISSING
+                && GenotypeCodec.getAllelesCode(childGt) != AllelesCode.ALLELES_MISSING) {
             GenotypeCode fatherCode = getAlternateAlleleCount(fatherGt);
             GenotypeCode motherCode = getAlternateAlleleCount(motherGt);
             GenotypeCode childCode = getAlternateAlleleCount(childGt);
@@ -149,6 +168,14 @@ public class MendelianError {
                 count++;
             }
         }
+        return getGenotypeCode(count);
+    }
+
+    public static GenotypeCode getAlternateAlleleCount(int gt) {
+        return getGenotypeCode(GenotypeCodec.getNumAlternateAlleles(gt));
+    }
+
+    private static GenotypeCode getGenotypeCode(int count) {
         switch (count) {
             case 0:
                 return GenotypeCode.HOM_REF;
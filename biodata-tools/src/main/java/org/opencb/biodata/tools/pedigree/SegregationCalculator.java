@@ -0,0 +1,484 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.pedigree;
+
+import org.opencb.biodata.models.clinical.ClinicalProperty;
+import org.opencb.biodata.models.clinical.ClinicalProperty.Penetrance;
+import org.opencb.biodata.models.clinical.Disorder;
+import org.opencb.biodata.models.clinical.pedigree.Member;
+import org.opencb.biodata.models.clinical.pedigree.Pedigree;
+import org.opencb.biodata.models.variant.GenotypeCodec;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.*;
+
+/**
+ * Evaluates several modes of inheritance and the mendelian errors of many families in a single pass over the variants.
+ *
+ * Each family is compiled once into a compact index over the samples of the study:
+ * <ul>
+ *     <li>For each genotype based model (dominant, recessive, X-linked, Y-linked and mitochondrial), the samples of the
+ *     members and the genotype codes accepted for each of them, from the genotypes computed by
+ *     {@link ModeOfInheritance}. Models not possible for the family are dropped.</li>
+ *     <li>The trios (child and known parents) used for the mendelian errors and for the de novo variants of the
+ *     proband.</li>
+ * </ul>
+ * The genotypes of each variant are decoded once with {@link GenotypeCodec} for all the families, and every model is
+ * checked with int lookups. A variant segregates with a model if all the members with a sample have an accepted
+ * genotype and at least one of them carries the main alternate. Genotype models are only checked on their chromosomes:
+ * autosomal models on autosomes, X and Y-linked models on X and Y, and mitochondrial models on the mitochondrial
+ * chromosome.
+ *
+ * Compound heterozygous variants need several variants of a transcript, so they are found by a
+ * {@link CompoundHeterozygousCalculator} fed with the same decoded genotypes, and reported when each transcript is
+ * complete. Variants must be sorted in that case.
+ */
+public class SegregationCalculator {
+
+    private static final int AUTOSOMAL = 0;
+    private static final int CHROMOSOME_X = 1;
+    private static final int CHROMOSOME_Y = 2;
+    private static final int CHROMOSOME_MT = 3;
+
+    private final Map<String, Integer> samplePositions;
+    private final Set<ClinicalProperty.ModeOfInheritance> models;
+    private final Listener listener;
+    private Penetrance penetrance;
+
+    private final List<Family> families;
+    // distinct samples of all the families: slot of each sample position, and sample position of each slot
+    private final Map<Integer, Integer> slots;
+    private int[] slotsBySample;
+    private int[] samplesBySlot;
+    // genotype code of each slot for the current variant
+    private int[] genotypes;
+
+    // trios of the probands for the compound heterozygous variants, and their families
+    private final List<CompoundHeterozygousCalculator.Trio> probandTrios;
+    private final List<String> probandFamilies;
+    private CompoundHeterozygousCalculator compoundHeterozygousCalculator;
+
+    private boolean started;
+    private String chromosome;
+    private String normalizedChromosome;
+    private int chromosomeType;
+
+    /**
+     * Listener of the segregation results.
+     */
+    public interface Listener {
+
+        /**
+         * @param variant   Variant
+         * @param results   Results of the families with any model or mendelian error
+         */
+        void segregation(Variant variant, List<FamilySegregation> results);
+
+        /**
+         * @param familyId          Family
+         * @param transcriptId      Transcript
+         * @param maternalVariants  Variants of the transcript inherited from the mother
+         * @param paternalVariants  Variants of the transcript inherited from the father
+         */
+        default void compoundHeterozygous(String familyId, String transcriptId, List<Variant> maternalVariants,
+                                          List<Variant> paternalVariants) {
+        }
+    }
+
+    /**
+     * Models and mendelian errors of a family for a variant.
+     */
+    public static class FamilySegregation {
+        private final String familyId;
+        private final List<ClinicalProperty.ModeOfInheritance> modesOfInheritance;
+        private final Map<String, Integer> mendelianErrors;
+
+        public FamilySegregation(String familyId) {
+            this.familyId = familyId;
+            this.modesOfInheritance = new ArrayList<>(2);
+            this.mendelianErrors = new HashMap<>(2);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("FamilySegregation{");
+            sb.append("familyId='").append(familyId).append('\'');
+            sb.append(", modesOfInheritance=").append(modesOfInheritance);
+            sb.append(", mendelianErrors=").append(mendelianErrors);
+            sb.append('}');
+            return sb.toString();
+        }
+
+        public String getFamilyId() {
+            return familyId;
+        }
+
+        public List<ClinicalProperty.ModeOfInheritance> getModesOfInheritance() {
+            return modesOfInheritance;
+        }
+
+        /**
+         * @return  Mendelian error code of each member with an error, see {@link MendelianError#compute}
+         */
+        public Map<String, Integer> getMendelianErrors() {
+            return mendelianErrors;
+        }
+    }
+
+    /**
+     * @param samplePositions   Position of the sample of each member in the study. Members without a sample are ignored
+     * @param models            Models to evaluate
+     * @param listener          Listener of the results
+     */
+    public SegregationCalculator(Map<String, Integer> samplePositions, Set<ClinicalProperty.ModeOfInheritance> models,
+                                 Listener listener) {
+        this.samplePositions = samplePositions;
+        this.models = models;
+        this.listener = listener;
+        this.penetrance = Penetrance.COMPLETE;
+        this.families = new ArrayList<>();
+        this.slots = new LinkedHashMap<>();
+        this.probandTrios = new ArrayList<>();
+        this.probandFamilies = new ArrayList<>();
+    }
+
+    /**
+     * Compile a family. All the families must be added before the first variant.
+     *
+     * @param pedigree  Pedigree of the family
+     * @param disorder  Disorder segregating in the family
+     * @return          This calculator
+     */
+    public SegregationCalculator addFamily(Pedigree pedigree, Disorder disorder) {
+        if (started) {
+            throw new IllegalStateException("Families must be added before the first variant");
+        }
+        Family family = new Family(pedigree.getName());
+
+        for (ClinicalProperty.ModeOfInheritance model : models) {
+            Map<String, List<String>> genotypes;
+            int modelChromosome;
+            switch (model) {
+                case AUTOSOMAL_DOMINANT:
+                    genotypes = ModeOfInheritance.dominant(pedigree, disorder, penetrance);
+                    modelChromosome = AUTOSOMAL;
+                    break;
+                case AUTOSOMAL_RECESSIVE:
+                    genotypes = ModeOfInheritance.recessive(pedigree, disorder, penetrance);
+                    modelChromosome = AUTOSOMAL;
+                    break;
+                case X_LINKED_DOMINANT:
+                    genotypes = ModeOfInheritance.xLinked(pedigree, disorder, true, penetrance);
+                    modelChromosome = CHROMOSOME_X;
+                    break;
+                case X_LINKED_RECESSIVE:
+                    genotypes = ModeOfInheritance.xLinked(pedigree, disorder, false, penetrance);
+                    modelChromosome = CHROMOSOME_X;
+                    break;
+                case Y_LINKED:
+                    genotypes = ModeOfInheritance.yLinked(pedigree, disorder, penetrance);
+                    modelChromosome = CHROMOSOME_Y;
+                    break;
+                case MITOCHONDRIAL:
+                    genotypes = ModeOfInheritance.mitochondrial(pedigree, disorder, penetrance);
+                    modelChromosome = CHROMOSOME_MT;
+                    break;
+                default:
+                    continue;
+            }
+            GenotypeFilter filter = compile(model, modelChromosome, genotypes);
+            if (filter != null) {
+                family.filters.add(filter);
+            }
+        }
+
+        // trios of all the members with a sample and at least one parent with a sample
+        List<String> trioIds = new ArrayList<>();
+        List<int[]> trios = new ArrayList<>();
+        Member proband = pedigree.getProband();
+        for (Member member : pedigree.getMembers()) {
+            int child = slot(member);
+            int father = slot(member.getFather());
+            int mother = slot(member.getMother());
+            if (child >= 0 && (father >= 0 || mother >= 0)) {
+                if (proband != null && member.getId().equals(proband.getId())) {
+                    family.probandTrio = trios.size();
+                    if (models.contains(ClinicalProperty.ModeOfInheritance.COMPOUND_HETEROZYGOUS)) {
+                        probandTrios.add(new CompoundHeterozygousCalculator.Trio(samplePositions.get(member.getId()),
+                                mother < 0 ? -1 : samplePositions.get(member.getMother().getId()),
+                                father < 0 ? -1 : samplePositions.get(member.getFather().getId())));
+                        probandFamilies.add(family.id);
+                    }
+                }
+                trioIds.add(member.getId());
+                trios.add(new int[]{child, father, mother});
+            }
+        }
+        family.trioIds = trioIds.toArray(new String[0]);
+        family.trios = trios.toArray(new int[0][]);
+
+        families.add(family);
+        return this;
+    }
+
+    /**
+     * @return  Filter of the genotypes of the members with a sample, or null if the model is not possible
+     */
+    private GenotypeFilter compile(ClinicalProperty.ModeOfInheritance model, int modelChromosome,
+                                   Map<String, List<String>> genotypes) {
+        if (ModeOfInheritance.isEmptyMapOfGenotypes(genotypes)) {
+            return null;
+        }
+        List<Integer> memberSlots = new ArrayList<>();
+        List<BitSet> accepted = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : genotypes.entrySet()) {
+            if (!samplePositions.containsKey(entry.getKey())) {
+                continue;
+            }
+            BitSet codes = new BitSet();
+            for (String genotype : entry.getValue()) {
+                if (!genotype.equals("-")) {
+                    codes.set(GenotypeCodec.encode(genotype));
+                }
+            }
+            if (codes.isEmpty()) {
+                // no constraint for this member, e.g. the females of a Y-linked model. Impossible models were
+                // already discarded by isEmptyMapOfGenotypes
+                continue;
+            }
+            memberSlots.add(slot(samplePositions.get(entry.getKey())));
+            accepted.add(codes);
+        }
+        if (memberSlots.isEmpty()) {
+            return null;
+        }
+        return new GenotypeFilter(model, modelChromosome, memberSlots.stream().mapToInt(Integer::intValue).toArray(),
+                accepted.toArray(new BitSet[0]));
+    }
+
+    private int slot(Member member) {
+        if (member == null || member.getId() == null || !samplePositions.containsKey(member.getId())) {
+            return -1;
+        }
+        return slot(samplePositions.get(member.getId()));
+    }
+
+    private int slot(int samplePosition) {
+        return slots.computeIfAbsent(samplePosition, k -> slots.size());
+    }
+
+    private void start() {
+        started = true;
+        int maxSamplePosition = slots.keySet().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        slotsBySample = new int[maxSamplePosition + 1];
+        samplesBySlot = new int[slots.size()];
+        Arrays.fill(slotsBySample, -1);
+        for (Map.Entry<Integer, Integer> entry : slots.entrySet()) {
+            slotsBySample[entry.getKey()] = entry.getValue();
+            samplesBySlot[entry.getValue()] = entry.getKey();
+        }
+        genotypes = new int[slots.size()];
+
+        if (!probandTrios.isEmpty()) {
+            compoundHeterozygousCalculator = new CompoundHeterozygousCalculator(probandTrios,
+                    (trio, transcriptId, maternalVariants, paternalVariants) -> listener.compoundHeterozygous(
+                            probandFamilies.get(trio), transcriptId, maternalVariants, paternalVariants));
+        }
+    }
+
+    /**
+     * Process all the variants of the iterator.
+     *
+     * @param iterator  Variants, sorted if compound heterozygous variants are requested
+     */
+    public void calculate(Iterator<Variant> iterator) {
+        while (iterator.hasNext()) {
+            add(iterator.next());
+        }
+        finish();
+    }
+
+    /**
+     * Evaluate the models and mendelian errors of all the families for a variant.
+     *
+     * @param variant   Variant
+     */
+    public void add(Variant variant) {
+        if (!started) {
+            start();
+        }
+        if (!variant.getChromosome().equals(chromosome)) {
+            chromosome = variant.getChromosome();
+            normalizedChromosome = chromosome.startsWith("chr") ? chromosome.substring(3) : chromosome;
+            chromosomeType = chromosomeType(normalizedChromosome);
+        }
+        decodeGenotypes(variant);
+
+        if (compoundHeterozygousCalculator != null) {
+            compoundHeterozygousCalculator.add(variant, sample -> genotypes[slotsBySample[sample]]);
+        }
+
+        List<FamilySegregation> results = null;
+        for (Family family : families) {
+            FamilySegregation result = evaluate(family);
+            if (result != null) {
+                if (results == null) {
+                    results = new ArrayList<>();
+                }
+                results.add(result);
+            }
+        }
+        if (results != null) {
+            listener.segregation(variant, results);
+        }
+    }
+
+    /**
+     * Report the compound heterozygous variants of the transcripts still open.
+     */
+    public void finish() {
+        if (compoundHeterozygousCalculator != null) {
+            compoundHeterozygousCalculator.finish();
+        }
+    }
+
+    private void decodeGenotypes(Variant variant) {
+        StudyEntry studyEntry = variant.getStudies().get(0);
+        Integer gtIdx = studyEntry.getSampleDataKeyPosition("GT");
+        for (int slot = 0; slot < samplesBySlot.length; slot++) {
+            List<String> sampleData = gtIdx == null ? null : studyEntry.getSampleData(samplesBySlot[slot]);
+            genotypes[slot] = sampleData == null || sampleData.size() <= gtIdx
+                    ? GenotypeCodec.MISSING
+                    : GenotypeCodec.encode(sampleData.get(gtIdx));
+        }
+    }
+
+    private FamilySegregation evaluate(Family family) {
+        FamilySegregation result = null;
+        for (GenotypeFilter filter : family.filters) {
+            if (filter.chromosomeType == chromosomeType && filter.test(genotypes)) {
+                result = result == null ? new FamilySegregation(family.id) : result;
+                result.modesOfInheritance.add(filter.model);
+            }
+        }
+
+        boolean mendelianErrors = models.contains(ClinicalProperty.ModeOfInheritance.MENDELIAN_ERROR);
+        boolean deNovo = models.contains(ClinicalProperty.ModeOfInheritance.DE_NOVO) && family.probandTrio >= 0;
+        for (int i = 0; i < family.trios.length; i++) {
+            if (!mendelianErrors && !(deNovo && i == family.probandTrio)) {
+                continue;
+            }
+            int[] trio = family.trios[i];
+            int code = MendelianError.compute(trio[1] < 0 ? MendelianError.UNKNOWN_GT : genotypes[trio[1]],
+                    trio[2] < 0 ? MendelianError.UNKNOWN_GT : genotypes[trio[2]], genotypes[trio[0]],
+                    normalizedChromosome);
+            if (code > 0) {
+                result = result == null ? new FamilySegregation(family.id) : result;
+                if (mendelianErrors) {
+                    if (result.mendelianErrors.isEmpty()) {
+                        result.modesOfInheritance.add(ClinicalProperty.ModeOfInheritance.MENDELIAN_ERROR);
+                    }
+                    result.mendelianErrors.put(family.trioIds[i], code);
+                }
+                if (deNovo && i == family.probandTrio && MendelianError.isDeNovo(code)) {
+                    result.modesOfInheritance.add(ClinicalProperty.ModeOfInheritance.DE_NOVO);
+                }
+            }
+        }
+        return result == null || result.modesOfInheritance.isEmpty() ? null : result;
+    }
+
+    private static int chromosomeType(String chromosome) {
+        if (chromosome.equalsIgnoreCase(MendelianError.CHROMOSOME_X)) {
+            return CHROMOSOME_X;
+        } else if (chromosome.equalsIgnoreCase(MendelianError.CHROMOSOME_Y)) {
+            return CHROMOSOME_Y;
+        } else if (MendelianError.CHROMOSOME_MT.contains(chromosome)) {
+            return CHROMOSOME_MT;
+        } else {
+            return AUTOSOMAL;
+        }
+    }
+
+    /**
+     * Compiled family: genotype filters of the possible models, and trios as slots of the child, father and mother.
+     */
+    private static class Family {
+        private final String id;
+        private final List<GenotypeFilter> filters = new ArrayList<>();
+        private String[] trioIds;
+        private int[][] trios;
+        private int probandTrio = -1;
+
+        Family(String id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Genotype codes accepted by a model for each member with a sample.
+     */
+    private static class GenotypeFilter {
+        private final ClinicalProperty.ModeOfInheritance model;
+        private final int chromosomeType;
+        private final int[] slots;
+        private final BitSet[] accepted;
+
+        GenotypeFilter(ClinicalProperty.ModeOfInheritance model, int chromosomeType, int[] slots, BitSet[] accepted) {
+            this.model = model;
+            this.chromosomeType = chromosomeType;
+            this.slots = slots;
+            this.accepted = accepted;
+        }
+
+        boolean test(int[] genotypes) {
+            boolean carrier = false;
+            for (int i = 0; i < slots.length; i++) {
+                int genotype = genotypes[slots[i]];
+                if (!accepted[i].get(genotype)) {
+                    return false;
+                }
+                carrier |= GenotypeCodec.hasMainAlternate(genotype);
+            }
+            return carrier;
+        }
+    }
+
+    public Set<ClinicalProperty.ModeOfInheritance> getModels() {
+        return models;
+    }
+
+    public Penetrance getPenetrance() {
+        return penetrance;
+    }
+
+    /**
+     * @param penetrance    Penetrance of the genotype models of the families added after this call
+     * @return              This calculator
+     */
+    public SegregationCalculator setPenetrance(Penetrance penetrance) {
+        this.penetrance = penetrance;
+        return this;
+    }
+
+    public int getNumFamilies() {
+        return families.size();
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.sequence;
+
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * SequenceAdaptor decorator that prefetches the reference genome in fixed size blocks and keeps the most recently used
+ * ones in memory.
+ *
+ * Designed for coordinate-sorted input, where consecutive queries fall close to each other: every block of the
+ * underlying adaptor is read once while the input walks through it. Blocks are aligned to blockSize (1-based, the first
+ * block of a contig starts at position 1) and evicted in LRU order when more than maxBlocks are loaded.
+ *
+ * The last block of a contig usually goes beyond the contig end. When the underlying adaptor fails or returns fewer
+ * bases than requested for a whole block, the end of the contig is located with a binary search of single base queries
+ * and the block is loaded up to there. Queries that can not be served from the cache, e.g. unknown contigs or regions
+ * past the end of the contig, are sent to the underlying adaptor so that it reports the same errors.
+ */
+public class CachedSequenceAdaptor implements SequenceAdaptor {
+
+    private final SequenceAdaptor sequenceAdaptor;
+    private final int blockSize;
+    private final int maxBlocks;
+    private final LinkedHashMap<BlockKey, Block> blocks;
+
+    private long hits;
+    private long misses;
+
+    public static final int DEFAULT_BLOCK_SIZE = 1000000;
+    public static final int DEFAULT_MAX_BLOCKS = 4;
+
+    public CachedSequenceAdaptor(SequenceAdaptor sequenceAdaptor) {
+        this(sequenceAdaptor, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS);
+    }
+
+    public CachedSequenceAdaptor(SequenceAdaptor sequenceAdaptor, int blockSize, int maxBlocks) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be greater than 0, found " + blockSize);
+        }
+        if (maxBlocks < 1) {
+            throw new IllegalArgumentException("Max number of blocks must be greater than 0, found " + maxBlocks);
+        }
+        this.sequenceAdaptor = Objects.requireNonNull(sequenceAdaptor);
+        this.blockSize = blockSize;
+        this.maxBlocks = maxBlocks;
+        this.blocks = new LinkedHashMap<BlockKey, Block>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BlockKey, Block> eldest) {
+                return size() > CachedSequenceAdaptor.this.maxBlocks;
+            }
+        };
+    }
+
+    @Override
+    public String query(String contig, int start, int end) throws Exception {
+        return querySequence(contig, start, end).toString();
+    }
+
+    /**
+     * Query the sequence without copying it when the region is contained in a single block.
+     *
+     * @param contig    Contig name
+     * @param start     Start position, 1-based
+     * @param end       End position, 1-based and inclusive
+     * @return          Read-only view of the sequence
+     * @throws Exception If the underlying adaptor fails
+     */
+    public synchronized CharSequence querySequence(String contig, int start, int end) throws Exception {
+        if (start < 1 || end < start) {
+            // Let the underlying adaptor report invalid regions
+            misses++;
+            return sequenceAdaptor.query(contig, start, end);
+        }
+
+        int firstBlock = (start - 1) / blockSize;
+        int lastBlock = (end - 1) / blockSize;
+        if (firstBlock == lastBlock) {
+            Block block = getBlock(contig, firstBlock);
+            if (block == null || block.end() < end) {
+                // Let the underlying adaptor report the error, e.g. contig not found or query past the end of the contig
+                return sequenceAdaptor.query(contig, start, end);
+            }
+            return CharBuffer.wrap(block.sequence, start - block.start, end - block.start + 1);
+        }
+
+        StringBuilder sb = new StringBuilder(end - start + 1);
+        for (int blockIndex = firstBlock; blockIndex <= lastBlock; blockIndex++) {
+            int blockEnd = Math.min(end, (blockIndex + 1) * blockSize);
+            Block block = getBlock(contig, blockIndex);
+            if (block == null || block.end() < blockEnd) {
+                return sequenceAdaptor.query(contig, start, end);
+            }
+            sb.append(block.sequence, Math.max(start, block.start) - block.start, blockEnd - block.start + 1);
+        }
+        return sb;
+    }
+
+    /**
+     * Get a block of the contig, loading it from the underlying adaptor if needed.
+     *
+     * @return The block, or null if the block is not part of the contig
+     */
+    private Block getBlock(String contig, int blockIndex) {
+        BlockKey key = new BlockKey(contig, blockIndex);
+        Block block = blocks.get(key);
+        if (block != null) {
+            hits++;
+            return block;
+        }
+        misses++;
+
+        int blockStart = blockIndex * blockSize + 1;
+        int blockEnd = blockStart + blockSize - 1;
+        String sequence = tryQuery(contig, blockStart, blockEnd);
+        if (sequence == null) {
+            // The block goes beyond the end of the contig, search the last position of the contig
+            if (tryQuery(contig, blockStart, blockStart) == null) {
+                return null;
+            }
+            int lastValid = blockStart;
+            int firstInvalid = blockEnd;
+            while (firstInvalid - lastValid > 1) {
+                int mid = (lastValid + firstInvalid) >>> 1;
+                if (tryQuery(contig, mid, mid) == null) {
+                    firstInvalid = mid;
+                } else {
+                    lastValid = mid;
+                }
+            }
+            sequence = tryQuery(contig, blockStart, lastValid);
+            if (sequence == null) {
+                return null;
+            }
+        }
+        block = new Block(blockStart, sequence);
+        blocks.put(key, block);
+        return block;
+    }
+
+    /**
+     * Query the underlying adaptor.
+     *
+     * @return The sequence, or null if the adaptor fails or does not return the expected number of bases
+     */
+    private String tryQuery(String contig, int start, int end) {
+        try {
+            String sequence = sequenceAdaptor.query(contig, start, end);
+            if (sequence != null && sequence.length() == end - start + 1) {
+                return sequence;
+            }
+        } catch (Exception ignore) {
+            // Errors are reported by the query of the exact region requested by the caller
+        }
+        return null;
+    }
+
+    public synchronized void clear() {
+        blocks.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getNumBlocks() {
+        return blocks.size();
+    }
+
+    public SequenceAdaptor getSequenceAdaptor() {
+        return sequenceAdaptor;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMaxBlocks() {
+        return maxBlocks;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CachedSequenceAdaptor{");
+        sb.append("blockSize=").append(blockSize);
+        sb.append(", maxBlocks=").append(maxBlocks);
+        sb.append(", hits=").append(getHits());
+        sb.append(", misses=").append(getMisses());
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class BlockKey {
+        private final String contig;
+        private final int index;
+
+        BlockKey(String contig, int index) {
+            this.contig = contig;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey blockKey = (BlockKey) o;
+            return index == blockKey.index && contig.equals(blockKey.contig);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * contig.hashCode() + index;
+        }
+    }
+
+    private static final class Block {
+        // 1-based position of the first base of the sequence
+        private final int start;
+        private final String sequence;
+
+        Block(int start, String sequence) {
+            this.start = start;
+            this.sequence = sequence;
+        }
+
+        int end() {
+            return start + sequence.length() - 1;
+        }
+    }
+}
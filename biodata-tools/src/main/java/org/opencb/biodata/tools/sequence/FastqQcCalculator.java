@@ -0,0 +1,479 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+package org.opencb.biodata.tools.sequence;
+
+import org.opencb.biodata.formats.sequence.fastqc.*;
+import org.opencb.commons.utils.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * FastQC-like quality control of a FASTQ file, optionally gzipped, with no external tools.
+ *
+ * The file is read by the calling thread and split into chunks of reads, which are processed by a pool of workers.
+ * Each worker accumulates its reads into flat primitive histograms: bases and qualities by position, mean quality and
+ * GC content by read, and read lengths. The histograms of the workers are merged at the end and converted into the
+ * modules of {@link FastQcMetrics}, with the PASS/WARN/FAIL criteria of FastQC. The modules of FastQC that are not
+ * computed (per tile quality, duplication, overrepresented sequences, adapters and k-mers) have no status.
+ */
+public class FastqQcCalculator {
+
+    private int numThreads;
+    private int chunkSize;
+
+    public static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private static final String PASS = "PASS";
+    private static final String WARN = "WARN";
+    private static final String FAIL = "FAIL";
+
+    private final Logger logger = LoggerFactory.getLogger(FastqQcCalculator.class);
+
+    public FastqQcCalculator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public FastqQcCalculator(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        this.chunkSize = DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Compute the quality control metrics of a FASTQ file.
+     *
+     * @param fastqPath     FASTQ file, gzipped if the name ends with '.gz'
+     * @return              Metrics, with the summary, the basic stats and the computed modules
+     * @throws IOException  If the file can not be read or it is not a valid FASTQ file
+     */
+    public FastQcMetrics calculate(Path fastqPath) throws IOException {
+        FileUtils.checkFile(fastqPath);
+        logger.debug("Computing QC metrics for {} with {} threads", fastqPath, numThreads);
+
+        BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(numThreads * 2);
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try (BufferedReader reader = newReader(fastqPath)) {
+            List<Future<QcStats>> futures = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executorService.submit(() -> {
+                    QcStats stats = new QcStats();
+                    Chunk chunk;
+                    while ((chunk = queue.take()) != Chunk.END) {
+                        for (int j = 0; j < chunk.size; j++) {
+                            stats.add(chunk.sequences[j], chunk.qualities[j]);
+                        }
+                    }
+                    return stats;
+                }));
+            }
+
+            Chunk chunk = new Chunk(chunkSize);
+            while (readRecord(reader, chunk)) {
+                if (chunk.size == chunkSize) {
+                    put(queue, chunk, futures);
+                    chunk = new Chunk(chunkSize);
+                }
+            }
+            if (chunk.size > 0) {
+                put(queue, chunk, futures);
+            }
+            for (int i = 0; i < numThreads; i++) {
+                put(queue, Chunk.END, futures);
+            }
+
+            QcStats stats = new QcStats();
+            for (Future<QcStats> future : futures) {
+                stats.merge(future.get());
+            }
+            return stats.toMetrics(fastqPath.getFileName().toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing the QC metrics for " + fastqPath, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error computing the QC metrics for " + fastqPath + ": " + e.getCause().getMessage(),
+                    e.getCause());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait for space in the queue, checking that no worker has failed.
+     */
+    private static void put(BlockingQueue<Chunk> queue, Chunk chunk, List<Future<QcStats>> futures)
+            throws InterruptedException, ExecutionException {
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            for (Future<QcStats> future : futures) {
+                if (future.isDone()) {
+                    future.get();
+                }
+            }
+        }
+    }
+
+    private static BufferedReader newReader(Path path) throws IOException {
+        InputStream inputStream = Files.newInputStream(path);
+        if (path.getFileName().toString().endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.US_ASCII), 1 << 20);
+    }
+
+    /**
+     * Read a record, sequence and quality can be split in several lines.
+     *
+     * @return  false at the end of the file
+     */
+    private static boolean readRecord(BufferedReader reader, Chunk chunk) throws IOException {
+        String header = reader.readLine();
+        while (header != null && header.isEmpty()) {
+            header = reader.readLine();
+        }
+        if (header == null) {
+            return false;
+        }
+        if (header.charAt(0) != '@') {
+            throw new IOException("Malformed FASTQ record, expected '@' at the beginning of: " + header);
+        }
+
+        String sequence = reader.readLine();
+        String line = reader.readLine();
+        if (line != null && (line.isEmpty() || line.charAt(0) != '+')) {
+            StringBuilder sb = new StringBuilder(sequence);
+            while (line != null && (line.isEmpty() || line.charAt(0) != '+')) {
+                sb.append(line);
+                line = reader.readLine();
+            }
+            sequence = sb.toString();
+        }
+        String quality = line == null ? null : reader.readLine();
+        if (quality == null) {
+            throw new IOException("Truncated FASTQ record " + header);
+        }
+        if (quality.length() < sequence.length()) {
+            StringBuilder sb = new StringBuilder(quality);
+            while (sb.length() < sequence.length() && (line = reader.readLine()) != null) {
+                sb.append(line);
+            }
+            quality = sb.toString();
+        }
+        if (quality.length() != sequence.length()) {
+            throw new IOException("Sequence and quality lengths differ in FASTQ record " + header);
+        }
+
+        chunk.sequences[chunk.size] = sequence;
+        chunk.qualities[chunk.size] = quality;
+        chunk.size++;
+        return true;
+    }
+
+    private static class Chunk {
+        private static final Chunk END = new Chunk(0);
+
+        private final String[] sequences;
+        private final String[] qualities;
+        private int size;
+
+        Chunk(int capacity) {
+            sequences = new String[capacity];
+            qualities = new String[capacity];
+        }
+    }
+
+    /**
+     * Histograms of a set of reads, in flat primitive arrays.
+     */
+    private static class QcStats {
+        // bases A, C, G, T and N
+        private static final int NUM_BASES = 5;
+        private static final byte[] BASE_INDEXES = new byte[128];
+        // qualities are kept as raw chars, the offset is known when all the reads have been read
+        private static final int NUM_QUALITIES = 128;
+
+        static {
+            Arrays.fill(BASE_INDEXES, (byte) 4);
+            BASE_INDEXES['A'] = 0;
+            BASE_INDEXES['a'] = 0;
+            BASE_INDEXES['C'] = 1;
+            BASE_INDEXES['c'] = 1;
+            BASE_INDEXES['G'] = 2;
+            BASE_INDEXES['g'] = 2;
+            BASE_INDEXES['T'] = 3;
+            BASE_INDEXES['t'] = 3;
+        }
+
+        private long numSeqs;
+        private long gcBases;
+        private long acgtBases;
+        private int minLength = Integer.MAX_VALUE;
+        private int maxLength;
+        private int minQuality = NUM_QUALITIES;
+
+        // by position: base counts at position * NUM_BASES + base, quality counts at position * NUM_QUALITIES + quality
+        private long[] baseCounts = new long[0];
+        private long[] qualityCounts = new long[0];
+        // by read: mean quality, GC percentage and length
+        private final long[] seqQualityCounts = new long[NUM_QUALITIES];
+        private final long[] gcCounts = new long[101];
+        private long[] lengthCounts = new long[0];
+
+        void add(String sequence, String quality) {
+            int length = sequence.length();
+            ensureLength(length);
+            numSeqs++;
+            lengthCounts[length]++;
+            minLength = Math.min(minLength, length);
+            maxLength = Math.max(maxLength, length);
+
+            int gc = 0;
+            int acgt = 0;
+            long qualitySum = 0;
+            for (int i = 0; i < length; i++) {
+                int base = BASE_INDEXES[sequence.charAt(i) & 0x7f];
+                baseCounts[i * NUM_BASES + base]++;
+                if (base == 1 || base == 2) {
+                    gc++;
+                }
+                if (base != 4) {
+                    acgt++;
+                }
+
+                int q = quality.charAt(i) & 0x7f;
+                qualityCounts[i * NUM_QUALITIES + q]++;
+                qualitySum += q;
+                minQuality = Math.min(minQuality, q);
+            }
+
+            if (length > 0) {
+                seqQualityCounts[(int) Math.round((double) qualitySum / length)]++;
+            }
+            if (acgt > 0) {
+                gcCounts[(int) Math.round(100.0 * gc / acgt)]++;
+            }
+            gcBases += gc;
+            acgtBases += acgt;
+        }
+
+        void merge(QcStats other) {
+            numSeqs += other.numSeqs;
+            gcBases += other.gcBases;
+            acgtBases += other.acgtBases;
+            minLength = Math.min(minLength, other.minLength);
+            maxLength = Math.max(maxLength, other.maxLength);
+            minQuality = Math.min(minQuality, other.minQuality);
+
+            ensureLength(other.lengthCounts.length - 1);
+            add(baseCounts, other.baseCounts);
+            add(qualityCounts, other.qualityCounts);
+            add(seqQualityCounts, other.seqQualityCounts);
+            add(gcCounts, other.gcCounts);
+            add(lengthCounts, other.lengthCounts);
+        }
+
+        private static void add(long[] dest, long[] src) {
+            for (int i = 0; i < src.length; i++) {
+                dest[i] += src[i];
+            }
+        }
+
+        private void ensureLength(int length) {
+            if (lengthCounts.length <= length) {
+                int size = Math.max(length + 1, lengthCounts.length * 2);
+                baseCounts = Arrays.copyOf(baseCounts, size * NUM_BASES);
+                qualityCounts = Arrays.copyOf(qualityCounts, size * NUM_QUALITIES);
+                lengthCounts = Arrays.copyOf(lengthCounts, size);
+            }
+        }
+
+        FastQcMetrics toMetrics(String fileName) {
+            // Sanger and Illumina 1.8+ qualities start at '!', Illumina 1.3-1.7 qualities start at '@'
+            int offset = minQuality < 64 || numSeqs == 0 ? 33 : 64;
+            FastQcMetrics metrics = new FastQcMetrics();
+            Summary summary = metrics.getSummary();
+
+            Map<String, String> basicStats = metrics.getBasicStats();
+            basicStats.put("Filename", fileName);
+            basicStats.put("File type", "Conventional base calls");
+            basicStats.put("Encoding", offset == 33 ? "Sanger / Illumina 1.9" : "Illumina 1.5");
+            basicStats.put("Total Sequences", String.valueOf(numSeqs));
+            basicStats.put("Sequences flagged as poor quality", "0");
+            basicStats.put("Sequence length", numSeqs == 0 ? "0"
+                    : minLength == maxLength ? String.valueOf(maxLength) : minLength + "-" + maxLength);
+            basicStats.put("%GC", String.valueOf(acgtBases == 0 ? 0 : Math.round(100.0 * gcBases / acgtBases)));
+            summary.setBasicStatistics(PASS);
+
+            // per base sequence quality, per base sequence content and per base N content
+            String qualityStatus = PASS;
+            double maxContentDiff = 0;
+            double maxNContent = 0;
+            for (int position = 0; position < maxLength; position++) {
+                String base = String.valueOf(position + 1);
+                long total = 0;
+                long sum = 0;
+                for (int q = 0; q < NUM_QUALITIES; q++) {
+                    long count = qualityCounts[position * NUM_QUALITIES + q];
+                    total += count;
+                    sum += count * (q - offset);
+                }
+                if (total == 0) {
+                    continue;
+                }
+                double median = percentile(position, total, 50, offset);
+                double lowerQuartile = percentile(position, total, 25, offset);
+                metrics.getPerBaseSeqQuality().getValues().add(new PerBaseSeqQuality.Value(base, (double) sum / total,
+                        median, lowerQuartile, percentile(position, total, 75, offset),
+                        percentile(position, total, 10, offset), percentile(position, total, 90, offset)));
+                qualityStatus = worst(qualityStatus, lowerQuartile < 5 || median < 20 ? FAIL
+                        : lowerQuartile < 10 || median < 25 ? WARN : PASS);
+
+                int i = position * NUM_BASES;
+                long acgt = baseCounts[i] + baseCounts[i + 1] + baseCounts[i + 2] + baseCounts[i + 3];
+                double a = percentage(baseCounts[i], acgt);
+                double c = percentage(baseCounts[i + 1], acgt);
+                double g = percentage(baseCounts[i + 2], acgt);
+                double t = percentage(baseCounts[i + 3], acgt);
+                metrics.getPerBaseSeqContent().getValues().add(new PerBaseSeqContent.Value(base, g, a, t, c));
+                maxContentDiff = Math.max(maxContentDiff, Math.max(Math.abs(a - t), Math.abs(g - c)));
+
+                double nContent = percentage(baseCounts[i + 4], acgt + baseCounts[i + 4]);
+                metrics.getPerBaseNContent().getValues().put(base, nContent);
+                maxNContent = Math.max(maxNContent, nContent);
+            }
+            summary.setPerBaseSeqQuality(qualityStatus);
+            summary.setPerBaseSeqContent(status(maxContentDiff, 10, 20));
+            summary.setPerBaseNContent(status(maxNContent, 5, 20));
+
+            // per sequence quality scores, the status depends on the most frequent mean quality
+            int modeQuality = 0;
+            for (int q = 0; q < NUM_QUALITIES; q++) {
+                if (seqQualityCounts[q] > 0) {
+                    metrics.getPerSeqQualityScore().getValues().put(q - offset, (double) seqQualityCounts[q]);
+                    if (seqQualityCounts[q] > seqQualityCounts[modeQuality]) {
+                        modeQuality = q;
+                    }
+                }
+            }
+            summary.setPerSeqQualityScores(modeQuality - offset < 20 ? FAIL : modeQuality - offset < 27 ? WARN : PASS);
+
+            // per sequence GC content, the status depends on the deviation from a normal distribution
+            double[] gcValues = metrics.getPerSeqGcContent().getValues();
+            for (int i = 0; i < gcCounts.length; i++) {
+                gcValues[i] = gcCounts[i];
+            }
+            summary.setPerSeqGcContent(status(gcDeviation(), 15, 30));
+
+            // sequence length distribution
+            for (int length = 0; length < lengthCounts.length; length++) {
+                if (lengthCounts[length] > 0) {
+                    metrics.getSeqLengthDistribution().getValues().put(String.valueOf(length),
+                            (double) lengthCounts[length]);
+                }
+            }
+            summary.setSeqLengthDistribution(lengthCounts.length > 0 && lengthCounts[0] > 0 ? FAIL
+                    : minLength != maxLength && numSeqs > 0 ? WARN : PASS);
+
+            return metrics;
+        }
+
+        private double percentile(int position, long total, int percentile, int offset) {
+            long limit = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long count = 0;
+            for (int q = 0; q < NUM_QUALITIES; q++) {
+                count += qualityCounts[position * NUM_QUALITIES + q];
+                if (count >= limit) {
+                    return q - offset;
+                }
+            }
+            return NUM_QUALITIES - 1 - offset;
+        }
+
+        /**
+         * @return  Percentage of the reads deviating from a normal distribution with the mean and standard deviation
+         *          of the GC content
+         */
+        private double gcDeviation() {
+            long total = 0;
+            double sum = 0;
+            for (int i = 0; i < gcCounts.length; i++) {
+                total += gcCounts[i];
+                sum += (double) i * gcCounts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            double mean = sum / total;
+            double variance = 0;
+            for (int i = 0; i < gcCounts.length; i++) {
+                variance += gcCounts[i] * (i - mean) * (i - mean);
+            }
+            double sd = Math.max(Math.sqrt(variance / total), 1);
+
+            double deviation = 0;
+            for (int i = 0; i < gcCounts.length; i++) {
+                double expected = total * Math.exp(-(i - mean) * (i - mean) / (2 * sd * sd)) / (sd * Math.sqrt(2 * Math.PI));
+                deviation += Math.abs(gcCounts[i] - expected);
+            }
+            return 100.0 * deviation / total;
+        }
+
+        private static double percentage(long count, long total) {
+            return total == 0 ? 0 : 100.0 * count / total;
+        }
+
+        private static String status(double value, double warn, double fail) {
+            return value > fail ? FAIL : value > warn ? WARN : PASS;
+        }
+
+        private static String worst(String status1, String status2) {
+            if (FAIL.equals(status1) || FAIL.equals(status2)) {
+                return FAIL;
+            }
+            return WARN.equals(status1) || WARN.equals(status2) ? WARN : PASS;
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public FastqQcCalculator setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        return this;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize Number of reads sent to a worker at once
+     * @return          This calculator
+     */
+    public FastqQcCalculator setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+}
@@ -0,0 +1,587 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.sequence;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.reference.FastaSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import org.opencb.commons.utils.FileUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reference genome stored in a 2-bit packed file that is memory-mapped read-only, so one single instance can be shared
+ * by all the threads. The file is created once from a FASTA file with {@link #index(Path)}.
+ *
+ * A, C, G and T are packed in 2 bits per base. Any other base (N, IUPAC codes...) is stored in a side table of runs of
+ * the same byte, and soft-masked (lowercase) bases in a side table of runs, so queries return exactly the same bases
+ * as the FASTA file. Besides the String API this class provides accessors that fill a caller buffer or return a
+ * {@link CharSequence} view with no copies at all.
+ */
+public class PackedFastaIndex implements SequenceAdaptor, AutoCloseable {
+
+    private final Path packedFile;
+    private FileChannel fileChannel;
+    private final Map<String, PackedSequence> sequences;
+    private final SAMSequenceDictionary sequenceDictionary;
+
+    public static final String INDEX_EXTENSION = ".packed";
+
+    private static final int MAGIC = 0x4B504442;    // "BDPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] CODES = new byte[256];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        CODES['A'] = 0;
+        CODES['C'] = 1;
+        CODES['G'] = 2;
+        CODES['T'] = 3;
+        CODES['a'] = 0;
+        CODES['c'] = 1;
+        CODES['g'] = 2;
+        CODES['t'] = 3;
+    }
+
+    /**
+     * Opens the packed file of the given FASTA file, i.e. the FASTA file name with the {@link #INDEX_EXTENSION}
+     * extension. The packed file is created if it does not exist.
+     *
+     * @param fastaFile     FASTA file
+     * @return              The packed FASTA index
+     * @throws IOException  If the FASTA or the packed file can not be read or written
+     */
+    public static PackedFastaIndex open(Path fastaFile) throws IOException {
+        Path packedFile = getPackedFile(fastaFile);
+        if (!packedFile.toFile().exists()) {
+            index(fastaFile, packedFile);
+        }
+        return new PackedFastaIndex(packedFile);
+    }
+
+    public static Path getPackedFile(Path fastaFile) {
+        return Paths.get(fastaFile.toAbsolutePath().toString() + INDEX_EXTENSION);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param packedFile    Packed file created with {@link #index(Path)}
+     * @throws IOException  If the file is not a valid packed file
+     */
+    public PackedFastaIndex(Path packedFile) throws IOException {
+        FileUtils.checkFile(packedFile);
+        this.packedFile = packedFile;
+        this.fileChannel = FileChannel.open(packedFile, StandardOpenOption.READ);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("File '" + packedFile + "' is not a valid packed FASTA file");
+        }
+        long directoryOffset = header.getLong(8);
+
+        ByteBuffer directory = ByteBuffer.allocate((int) (fileChannel.size() - directoryOffset)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(directory, directoryOffset);
+        directory.flip();
+
+        int numSequences = directory.getInt();
+        this.sequences = new HashMap<>(numSequences * 2);
+        List<SAMSequenceRecord> sequenceRecords = new ArrayList<>(numSequences);
+        for (int i = 0; i < numSequences; i++) {
+            byte[] name = new byte[directory.getShort() & 0xFFFF];
+            directory.get(name);
+            String contig = new String(name, StandardCharsets.US_ASCII);
+            int length = directory.getInt();
+            long packedOffset = directory.getLong();
+            int numExceptions = directory.getInt();
+            long exceptionsOffset = directory.getLong();
+            int numMasks = directory.getInt();
+            long masksOffset = directory.getLong();
+
+            PackedSequence sequence = new PackedSequence(contig, length,
+                    map(packedOffset, (length + 3L) / 4),
+                    map(exceptionsOffset, numExceptions * 9L),
+                    numExceptions,
+                    map(masksOffset, numMasks * 8L),
+                    numMasks);
+            sequences.put(contig, sequence);
+            sequenceRecords.add(new SAMSequenceRecord(contig, length));
+        }
+        this.sequenceDictionary = new SAMSequenceDictionary(sequenceRecords);
+    }
+
+    /**
+     * Creates the packed file for a FASTA file (plain or gzipped), named as the FASTA file plus
+     * {@link #INDEX_EXTENSION}.
+     *
+     * @param fastaFile     FASTA file
+     * @return              The path of the packed file
+     * @throws IOException  If the FASTA file can not be read or the packed file can not be written
+     */
+    public static Path index(Path fastaFile) throws IOException {
+        return index(fastaFile, getPackedFile(fastaFile));
+    }
+
+    public static Path index(Path fastaFile, Path packedFile) throws IOException {
+        FileUtils.checkFile(fastaFile);
+        FileUtils.checkDirectory(packedFile.toAbsolutePath().getParent(), true);
+
+        ByteArrayBuilder directory = new ByteArrayBuilder(1024);
+        int numSequences = 0;
+        try (FastaSequenceFile fastaSequenceFile = new FastaSequenceFile(fastaFile, true);
+             FileChannel out = FileChannel.open(packedFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.position(HEADER_SIZE);
+
+            ReferenceSequence referenceSequence;
+            while ((referenceSequence = fastaSequenceFile.nextSequence()) != null) {
+                byte[] bases = referenceSequence.getBases();
+                int length = bases.length;
+
+                // Packed bases, non ACGT bases are packed as A and stored in the exception table
+                ByteBuffer packed = ByteBuffer.allocate((length + 3) / 4);
+                ByteArrayBuilder exceptions = new ByteArrayBuilder(64);
+                ByteArrayBuilder masks = new ByteArrayBuilder(64);
+                int numExceptions = 0;
+                int numMasks = 0;
+                int exceptionStart = -1;
+                int maskStart = -1;
+                for (int i = 0; i < length; i++) {
+                    byte base = bases[i];
+                    byte code = CODES[base & 0xFF];
+                    if (code >= 0) {
+                        packed.put(i >>> 2, (byte) (packed.get(i >>> 2) | (code << ((i & 3) << 1))));
+                    }
+
+                    // Runs of the same non ACGT byte
+                    if (exceptionStart >= 0 && (code >= 0 || base != bases[exceptionStart])) {
+                        exceptions.putInt(exceptionStart).putInt(i - exceptionStart).put(bases[exceptionStart]);
+                        numExceptions++;
+                        exceptionStart = -1;
+                    }
+                    if (code < 0 && exceptionStart < 0) {
+                        exceptionStart = i;
+                    }
+
+                    // Runs of lowercase bases
+                    boolean lowercase = base >= 'a' && base <= 'z';
+                    if (maskStart >= 0 && !lowercase) {
+                        masks.putInt(maskStart).putInt(i - maskStart);
+                        numMasks++;
+                        maskStart = -1;
+                    } else if (maskStart < 0 && lowercase) {
+                        maskStart = i;
+                    }
+                }
+                if (exceptionStart >= 0) {
+                    exceptions.putInt(exceptionStart).putInt(length - exceptionStart).put(bases[exceptionStart]);
+                    numExceptions++;
+                }
+                if (maskStart >= 0) {
+                    masks.putInt(maskStart).putInt(length - maskStart);
+                    numMasks++;
+                }
+
+                long packedOffset = out.position();
+                writeFully(out, packed.array(), packed.capacity());
+                // Exceptions are stored by columns: starts, lengths and bases
+                long exceptionsOffset = out.position();
+                writeFully(out, exceptions.toColumns(numExceptions, 4, 4, 1), numExceptions * 9);
+                long masksOffset = out.position();
+                writeFully(out, masks.toColumns(numMasks, 4, 4), numMasks * 8);
+
+                byte[] name = referenceSequence.getName().getBytes(StandardCharsets.US_ASCII);
+                directory.putShort((short) name.length).put(name)
+                        .putInt(length)
+                        .putLong(packedOffset)
+                        .putInt(numExceptions)
+                        .putLong(exceptionsOffset)
+                        .putInt(numMasks)
+                        .putLong(masksOffset);
+                numSequences++;
+            }
+
+            long directoryOffset = out.position();
+            ByteArrayBuilder numSequencesBuffer = new ByteArrayBuilder(4).putInt(numSequences);
+            writeFully(out, numSequencesBuffer.array(), 4);
+            writeFully(out, directory.array(), directory.size());
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(directoryOffset);
+            out.position(0);
+            writeFully(out, header.array(), HEADER_SIZE);
+        }
+        return packedFile;
+    }
+
+    /**
+     * Query the sequence for the given region, 1-based and both positions included.
+     *
+     * @param contig    Contig name
+     * @param start     Start position, 1-based
+     * @param end       End position, 1-based and inclusive
+     * @return          The bases
+     * @throws SAMException If the contig does not exist or the region is out of the contig
+     */
+    @Override
+    public String query(String contig, int start, int end) {
+        PackedSequence sequence = getPackedSequence(contig, start, end);
+        byte[] bases = new byte[end - start + 1];
+        sequence.fill(start - 1, end, bases, 0);
+        return new String(bases, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Copies the bases of the given region into the buffer, no objects are created.
+     *
+     * @param contig    Contig name
+     * @param start     Start position, 1-based
+     * @param end       End position, 1-based and inclusive
+     * @param buffer    Destination buffer, it must have room for end - start + 1 bases from offset
+     * @param offset    Position of the buffer where the first base is copied
+     * @return          The number of bases copied
+     */
+    public int query(String contig, int start, int end, byte[] buffer, int offset) {
+        PackedSequence sequence = getPackedSequence(contig, start, end);
+        sequence.fill(start - 1, end, buffer, offset);
+        return end - start + 1;
+    }
+
+    /**
+     * Returns a view over the bases of the given region, the bases are decoded from the mapped file when accessed.
+     *
+     * @param contig    Contig name
+     * @param start     Start position, 1-based
+     * @param end       End position, 1-based and inclusive
+     * @return          The bases as a CharSequence
+     */
+    public CharSequence querySequence(String contig, int start, int end) {
+        PackedSequence sequence = getPackedSequence(contig, start, end);
+        return sequence.subSequence(start - 1, end);
+    }
+
+    /**
+     * Returns one base.
+     *
+     * @param contig    Contig name
+     * @param position  Position, 1-based
+     * @return          The base
+     */
+    public byte getBase(String contig, int position) {
+        return getPackedSequence(contig, position, position).getBase(position - 1);
+    }
+
+    public int getLength(String contig) {
+        PackedSequence sequence = sequences.get(contig);
+        if (sequence == null) {
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        }
+        return sequence.length;
+    }
+
+    public boolean containsContig(String contig) {
+        return sequences.containsKey(contig);
+    }
+
+    public SAMSequenceDictionary getSequenceDictionary() {
+        return sequenceDictionary;
+    }
+
+    public Path getPackedFile() {
+        return packedFile;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+
+    private PackedSequence getPackedSequence(String contig, int start, int end) {
+        PackedSequence sequence = sequences.get(contig);
+        if (sequence == null) {
+            throw new SAMException("Unable to find entry for contig: " + contig);
+        }
+        if (start < 1 || end > sequence.length) {
+            throw new SAMException(String.format("Query asks for data past end of contig. Query contig %s start:%d stop:%d "
+                    + "contigLength:%d", contig, start, end, sequence.length));
+        }
+        if (start > end + 1) {
+            throw new SAMException(String.format("Malformed query; start point %d lies after end point %d", start, end));
+        }
+        return sequence;
+    }
+
+    private ByteBuffer map(long offset, long size) throws IOException {
+        return fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file '" + packedFile + "'");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, byte[] bytes, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Packed bases and side tables of one contig. All the accesses use absolute positions of the mapped buffers, so
+     * instances can be used concurrently.
+     */
+    private static class PackedSequence {
+
+        private final String contig;
+        private final int length;
+        private final ByteBuffer packed;
+        private final IntBuffer exceptionStarts;
+        private final IntBuffer exceptionLengths;
+        private final ByteBuffer exceptionBases;
+        private final IntBuffer maskStarts;
+        private final IntBuffer maskLengths;
+
+        PackedSequence(String contig, int length, ByteBuffer packed, ByteBuffer exceptions, int numExceptions,
+                       ByteBuffer masks, int numMasks) {
+            this.contig = contig;
+            this.length = length;
+            this.packed = packed;
+            this.exceptionStarts = slice(exceptions, 0, numExceptions * 4).asIntBuffer();
+            this.exceptionLengths = slice(exceptions, numExceptions * 4, numExceptions * 4).asIntBuffer();
+            this.exceptionBases = slice(exceptions, numExceptions * 8, numExceptions);
+            this.maskStarts = slice(masks, 0, numMasks * 4).asIntBuffer();
+            this.maskLengths = slice(masks, numMasks * 4, numMasks * 4).asIntBuffer();
+        }
+
+        private static ByteBuffer slice(ByteBuffer buffer, int offset, int size) {
+            ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset);
+            duplicate.limit(offset + size);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * Decodes the bases from start (0-based) to end (excluded) into the buffer.
+         */
+        void fill(int start, int end, byte[] buffer, int offset) {
+            for (int i = start; i < end; i++) {
+                buffer[offset + i - start] = BASES[(packed.get(i >>> 2) >>> ((i & 3) << 1)) & 3];
+            }
+
+            // Lowercase runs
+            for (int run = Math.max(0, floorRun(maskStarts, start)); run < maskStarts.limit(); run++) {
+                int runStart = maskStarts.get(run);
+                if (runStart >= end) {
+                    break;
+                }
+                int runEnd = Math.min(end, runStart + maskLengths.get(run));
+                for (int i = Math.max(start, runStart); i < runEnd; i++) {
+                    buffer[offset + i - start] |= 0x20;
+                }
+            }
+
+            // Non ACGT runs, they keep the original byte
+            for (int run = Math.max(0, floorRun(exceptionStarts, start)); run < exceptionStarts.limit(); run++) {
+                int runStart = exceptionStarts.get(run);
+                if (runStart >= end) {
+                    break;
+                }
+                int runEnd = Math.min(end, runStart + exceptionLengths.get(run));
+                byte base = exceptionBases.get(run);
+                for (int i = Math.max(start, runStart); i < runEnd; i++) {
+                    buffer[offset + i - start] = base;
+                }
+            }
+        }
+
+        byte getBase(int position) {
+            int run = floorRun(exceptionStarts, position);
+            if (run >= 0 && position < exceptionStarts.get(run) + exceptionLengths.get(run)) {
+                return exceptionBases.get(run);
+            }
+            byte base = BASES[(packed.get(position >>> 2) >>> ((position & 3) << 1)) & 3];
+            run = floorRun(maskStarts, position);
+            if (run >= 0 && position < maskStarts.get(run) + maskLengths.get(run)) {
+                base |= 0x20;
+            }
+            return base;
+        }
+
+        CharSequence subSequence(int start, int end) {
+            return new PackedCharSequence(this, start, end);
+        }
+
+        /**
+         * Index of the last run starting at or before the position, -1 if there is none.
+         */
+        private static int floorRun(IntBuffer starts, int position) {
+            int low = 0;
+            int high = starts.limit() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts.get(mid) <= position) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return high;
+        }
+    }
+
+    /**
+     * CharSequence view of a region of a packed sequence, positions are 0-based and end is excluded.
+     */
+    private static class PackedCharSequence implements CharSequence {
+
+        private final PackedSequence sequence;
+        private final int start;
+        private final int end;
+
+        PackedCharSequence(PackedSequence sequence, int start, int end) {
+            this.sequence = sequence;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + (end - start));
+            }
+            return (char) sequence.getBase(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length() || start > end) {
+                throw new IndexOutOfBoundsException("Invalid range " + start + "-" + end + " for length " + length());
+            }
+            return new PackedCharSequence(sequence, this.start + start, this.start + end);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bases = new byte[end - start];
+            sequence.fill(start, end, bases, 0);
+            return new String(bases, StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Minimal little-endian growable byte array used to build the side tables and the directory.
+     */
+    private static class ByteArrayBuilder {
+
+        private byte[] bytes;
+        private int size;
+
+        ByteArrayBuilder(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        ByteArrayBuilder put(byte value) {
+            ensureCapacity(1);
+            bytes[size++] = value;
+            return this;
+        }
+
+        ByteArrayBuilder put(byte[] values) {
+            ensureCapacity(values.length);
+            System.arraycopy(values, 0, bytes, size, values.length);
+            size += values.length;
+            return this;
+        }
+
+        ByteArrayBuilder putShort(short value) {
+            return put((byte) value).put((byte) (value >>> 8));
+        }
+
+        ByteArrayBuilder putInt(int value) {
+            return putShort((short) value).putShort((short) (value >>> 16));
+        }
+
+        ByteArrayBuilder putLong(long value) {
+            return putInt((int) value).putInt((int) (value >>> 32));
+        }
+
+        /**
+         * Transposes fixed size records into columns, e.g. (start, length, base) records into starts, lengths, bases.
+         */
+        byte[] toColumns(int numRecords, int... fieldSizes) {
+            int recordSize = 0;
+            for (int fieldSize : fieldSizes) {
+                recordSize += fieldSize;
+            }
+            byte[] columns = new byte[numRecords * recordSize];
+            int columnOffset = 0;
+            int fieldOffset = 0;
+            for (int fieldSize : fieldSizes) {
+                for (int record = 0; record < numRecords; record++) {
+                    System.arraycopy(bytes, record * recordSize + fieldOffset, columns, columnOffset, fieldSize);
+                    columnOffset += fieldSize;
+                }
+                fieldOffset += fieldSize;
+            }
+            return columns;
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
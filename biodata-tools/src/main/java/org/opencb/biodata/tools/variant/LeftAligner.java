@@ -6,7 +6,9 @@ import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
 import htsjdk.samtools.util.IOUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.formats.sequence.fasta.dbadaptor.SequenceDBAdaptor;
+import org.opencb.biodata.tools.sequence.CachedSequenceAdaptor;
 import org.opencb.biodata.tools.sequence.FastaIndexManager;
+import org.opencb.biodata.tools.sequence.PackedFastaIndex;
 import org.opencb.biodata.tools.sequence.SamtoolsFastaIndex;
 import org.opencb.biodata.tools.sequence.SequenceAdaptor;
 import org.rocksdb.RocksDBException;
@@ -31,6 +33,8 @@ public class LeftAligner {
             new HashSet<>(Arrays.asList('M', 'R', 'W', 'S', 'Y', 'K', 'V', 'H', 'D', 'B'));
     private final String[] acceptedExtensions = {".fa", ".fn", ".fasta"};
     private SequenceAdaptor referenceGenomeReader;
+    // Cache in front of referenceGenomeReader, null if the reader is already in memory
+    private CachedSequenceAdaptor referenceCache;
     private String referenceGenome;
     private int windowSize;
     private boolean acceptAmbiguousBasesInReference = true;
@@ -57,7 +61,9 @@ public class LeftAligner {
             throw new FileNotFoundException(referenceGenome);
         }
 
-        if (Paths.get(referenceGenome + FastaIndexManager.INDEX_EXTENSION).toFile().exists())  {
+        if (PackedFastaIndex.getPackedFile(Paths.get(referenceGenome)).toFile().exists()) {
+            this.referenceGenomeReader = new PackedFastaIndex(PackedFastaIndex.getPackedFile(Paths.get(referenceGenome)));
+        } else if (Paths.get(referenceGenome + FastaIndexManager.INDEX_EXTENSION).toFile().exists())  {
             this.referenceGenomeReader = new FastaIndexManager(Paths.get(referenceGenome), true);
         } else {
             // it is checked by HTSJDK if there is a fai index exists
@@ -65,6 +71,7 @@ public class LeftAligner {
         }
         this.referenceGenome = referenceGenome;
         this.windowSize = windowSize;
+        this.setReferenceCache(CachedSequenceAdaptor.DEFAULT_BLOCK_SIZE, CachedSequenceAdaptor.DEFAULT_MAX_BLOCKS);
     }
 
     /**
@@ -78,6 +85,33 @@ public class LeftAligner {
         // anywhere
         this.referenceGenomeReader = referenceGenomeReader;
         this.windowSize = windowSize;
+        this.setReferenceCache(CachedSequenceAdaptor.DEFAULT_BLOCK_SIZE, CachedSequenceAdaptor.DEFAULT_MAX_BLOCKS);
+    }
+
+    /**
+     * Configures the cache of the reference genome. Every window of the left alignment is read from blocks of
+     * blockSize bases, and the last maxBlocks blocks used are kept in memory. With coordinate-sorted input each block
+     * is read once from the reference genome.
+     * The cache is not used with a {@link PackedFastaIndex}, which is already memory-mapped.
+     *
+     * @param blockSize number of bases read at once from the reference genome
+     * @param maxBlocks maximum number of blocks kept in memory
+     * @return
+     */
+    public LeftAligner setReferenceCache(int blockSize, int maxBlocks) {
+        if (this.referenceGenomeReader instanceof PackedFastaIndex) {
+            this.referenceCache = null;
+        } else {
+            this.referenceCache = new CachedSequenceAdaptor(this.referenceGenomeReader, blockSize, maxBlocks);
+        }
+        return this;
+    }
+
+    /**
+     * @return the cache of the reference genome, with its hit and miss counters. Null if the cache is not used
+     */
+    public CachedSequenceAdaptor getReferenceCache() {
+        return referenceCache;
     }
 
     /**
@@ -164,7 +198,7 @@ public class LeftAligner {
         private int windowEnd;
         private String chromosome;
         private SequenceAdaptor referenceGenomeReader;
-        private String sequence;
+        private CharSequence sequence;
         // Absolute position
         private int position;
 
@@ -186,7 +220,7 @@ public class LeftAligner {
             this.loadSequence();
         }
 
-        String getSequence() {
+        CharSequence getSequence() {
             return sequence;
         }
 
@@ -200,7 +234,16 @@ public class LeftAligner {
 
         private void loadSequence() {
             try {
-                this.sequence = this.referenceGenomeReader.query(this.chromosome, this.windowStart, this.windowEnd);
+                if (this.referenceGenomeReader instanceof PackedFastaIndex) {
+                    // Zero-copy view over the memory-mapped genome
+                    this.sequence = ((PackedFastaIndex) this.referenceGenomeReader)
+                            .querySequence(this.chromosome, this.windowStart, this.windowEnd);
+                } else if (this.referenceGenomeReader instanceof CachedSequenceAdaptor) {
+                    this.sequence = ((CachedSequenceAdaptor) this.referenceGenomeReader)
+                            .querySequence(this.chromosome, this.windowStart, this.windowEnd);
+                } else {
+                    this.sequence = this.referenceGenomeReader.query(this.chromosome, this.windowStart, this.windowEnd);
+                }
             } catch (Exception e) {
                 throw Throwables.propagate(e);
             }
@@ -229,8 +272,8 @@ public class LeftAligner {
             return getBase();
         }
 
-        String getSequence(int start, int end) {
-            return sequence.substring(start - windowStart, end - windowStart + 1);
+        CharSequence getSequence(int start, int end) {
+            return sequence.subSequence(start - windowStart, end - windowStart + 1);
         }
 
     }
@@ -241,9 +284,9 @@ public class LeftAligner {
      * @return
      */
     private static boolean checkReferenceMatchGenome(
-            String reference, String expectedReference) {
+            String reference, CharSequence expectedReference) {
 
-        return reference.equals(expectedReference);
+        return reference.contentEquals(expectedReference);
     }
 
     /**
@@ -276,7 +319,8 @@ public class LeftAligner {
                 isAlleleCorrect(reference, this.acceptAmbiguousBasesInReference) &&
                 isAlleleCorrect(alternate, this.acceptAmbiguousBasesInAlternate)) {
 
-            LeftAlignmentWindow alignmentWindow = new LeftAlignmentWindow(variant.getStart() - 1, referenceLength, chromosome, referenceGenomeReader);
+            LeftAlignmentWindow alignmentWindow = new LeftAlignmentWindow(variant.getStart() - 1, referenceLength, chromosome,
+                    referenceCache == null ? referenceGenomeReader : referenceCache);
             char referenceBase = alignmentWindow.getBase();
 
             // if reference bases do not match the reference genome skips left alignment
@@ -0,0 +1,245 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant;
+
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.metadata.VariantFileHeader;
+import org.opencb.commons.run.Task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Normalizes batches of variants using several threads, returning the normalized variants in the input order.
+ *
+ * Every batch is split in contiguous chunks, one per thread, and every thread always uses its own
+ * {@link VariantNormalizer}, created with the given factory, so each thread keeps its own state, e.g. the window of the
+ * reference genome used for the left alignment. The normalization of a variant does not depend on other variants:
+ * all the variants produced from one input variant (decomposed MNVs with their phase set, split multi-allelic variants
+ * and reference blocks) are generated by the same normalizer and kept together and sorted, so the output is the same
+ * as normalizing the whole input with one single normalizer.
+ *
+ * This class is not thread-safe, batches must be applied one at a time.
+ */
+public class ParallelVariantNormalizer implements Task<Variant, Variant> {
+
+    private final List<VariantNormalizer> normalizers;
+    private final int numThreads;
+    private int minChunkSize;
+    private BiConsumer<Variant, RuntimeException> errorHandler;
+    private ExecutorService executorService;
+
+    public static final int DEFAULT_MIN_CHUNK_SIZE = 50;
+
+    /**
+     * @param normalizerFactory Factory of normalizers, called once per thread
+     * @param numThreads        Number of threads
+     */
+    public ParallelVariantNormalizer(Supplier<VariantNormalizer> normalizerFactory, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Number of threads must be greater than 0, found " + numThreads);
+        }
+        this.numThreads = numThreads;
+        this.normalizers = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            normalizers.add(Objects.requireNonNull(normalizerFactory.get()));
+        }
+        this.minChunkSize = DEFAULT_MIN_CHUNK_SIZE;
+    }
+
+    public ParallelVariantNormalizer configure(VCFHeader header) {
+        return forEachNormalizer(normalizer -> normalizer.configure(header));
+    }
+
+    public ParallelVariantNormalizer configure(VariantFileHeader header) {
+        return forEachNormalizer(normalizer -> normalizer.configure(header));
+    }
+
+    /**
+     * Apply a configuration to all the normalizers.
+     *
+     * @param consumer Configuration to apply
+     * @return this
+     */
+    public ParallelVariantNormalizer forEachNormalizer(Consumer<VariantNormalizer> consumer) {
+        normalizers.forEach(consumer);
+        return this;
+    }
+
+    @Override
+    public void pre() {
+        if (executorService == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            executorService = Executors.newFixedThreadPool(numThreads, runnable -> {
+                Thread thread = new Thread(runnable, "variant-normalizer-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public List<Variant> apply(List<Variant> batch) {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int numChunks = Math.max(1, Math.min(numThreads, batch.size() / Math.max(1, minChunkSize)));
+        if (numChunks == 1) {
+            // Not worth to use other threads
+            Chunk chunk = new Chunk(batch);
+            chunk.normalize(normalizers.get(0));
+            return chunk.getResult();
+        }
+
+        pre();
+        List<Chunk> chunks = new ArrayList<>(numChunks);
+        List<Future<?>> futures = new ArrayList<>(numChunks);
+        int chunkSize = (batch.size() + numChunks - 1) / numChunks;
+        for (int i = 0; i < numChunks; i++) {
+            Chunk chunk = new Chunk(batch.subList(Math.min(batch.size(), i * chunkSize),
+                    Math.min(batch.size(), (i + 1) * chunkSize)));
+            VariantNormalizer normalizer = normalizers.get(i);
+            chunks.add(chunk);
+            futures.add(executorService.submit(() -> chunk.normalize(normalizer)));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        List<Variant> normalizedVariants = new ArrayList<>(batch.size());
+        for (Chunk chunk : chunks) {
+            normalizedVariants.addAll(chunk.getResult());
+        }
+        return normalizedVariants;
+    }
+
+    @Override
+    public void post() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+            executorService = null;
+        }
+    }
+
+    /**
+     * Contiguous subset of a batch normalized by one thread.
+     */
+    private final class Chunk {
+        private final List<Variant> variants;
+        private List<Variant> normalizedVariants;
+        private List<Variant> failedVariants;
+        private List<RuntimeException> errors;
+
+        private Chunk(List<Variant> variants) {
+            this.variants = variants;
+        }
+
+        private void normalize(VariantNormalizer normalizer) {
+            if (errorHandler == null) {
+                normalizedVariants = normalizer.apply(variants);
+                return;
+            }
+            // Normalize one by one, so the variants raising errors can be skipped
+            normalizedVariants = new ArrayList<>(variants.size());
+            for (Variant variant : variants) {
+                try {
+                    normalizedVariants.addAll(normalizer.apply(Collections.singletonList(variant)));
+                } catch (RuntimeException e) {
+                    if (failedVariants == null) {
+                        failedVariants = new ArrayList<>();
+                        errors = new ArrayList<>();
+                    }
+                    failedVariants.add(variant);
+                    errors.add(e);
+                }
+            }
+        }
+
+        private List<Variant> getResult() {
+            // Errors are notified from the calling thread, in the input order
+            if (failedVariants != null) {
+                for (int i = 0; i < failedVariants.size(); i++) {
+                    errorHandler.accept(failedVariants.get(i), errors.get(i));
+                }
+            }
+            return normalizedVariants;
+        }
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public List<VariantNormalizer> getNormalizers() {
+        return Collections.unmodifiableList(normalizers);
+    }
+
+    public int getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    /**
+     * Batches are split in chunks of at least this number of variants. Small batches use less threads.
+     *
+     * @param minChunkSize Minimum number of variants normalized by each thread
+     * @return this
+     */
+    public ParallelVariantNormalizer setMinChunkSize(int minChunkSize) {
+        this.minChunkSize = minChunkSize;
+        return this;
+    }
+
+    public BiConsumer<Variant, RuntimeException> getErrorHandler() {
+        return errorHandler;
+    }
+
+    /**
+     * If set, variants failing the normalization are skipped and notified to this handler, which can throw the
+     * exception to stop the normalization. If not set, the first exception is thrown.
+     *
+     * @param errorHandler Handler of the variants failing the normalization
+     * @return this
+     */
+    public ParallelVariantNormalizer setErrorHandler(BiConsumer<Variant, RuntimeException> errorHandler) {
+        this.errorHandler = errorHandler;
+        return this;
+    }
+}
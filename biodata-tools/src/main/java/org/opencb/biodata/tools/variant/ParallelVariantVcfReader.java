@@ -0,0 +1,477 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
+import org.opencb.biodata.formats.variant.io.VariantReader;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.tools.variant.converters.avro.VariantContextToVariantConverter;
+import org.opencb.biodata.tools.variant.converters.avro.VcfLineToVariantConverter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads a bgzipped VCF file with several threads.
+ *
+ * The file is split in parts of consecutive BGZF blocks, of about {@link #DEFAULT_PART_SIZE} compressed bytes. The
+ * calling thread reads the compressed parts, and a thread pool inflates the blocks and converts the lines of each
+ * part. The lines split between two parts are joined and converted by the calling thread. The variants are returned
+ * in the same order as in the file. The block boundaries are read from the BGZF headers, so no index is needed.
+ *
+ * The lines are converted with the {@link VcfLineToVariantConverter}, or with htsjdk if not supported, so the variants
+ * are the same as the ones read by the {@link VariantVcfHtsjdkReader} ignoring the phase set.
+ * Breakends are not combined, and the variants are not normalized.
+ *
+ * Created on 18/10/26.
+ */
+public class ParallelVariantVcfReader implements VariantReader {
+
+    /** Compressed bytes per part. */
+    public static final int DEFAULT_PART_SIZE = 4 * 1024 * 1024;
+
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int BLOCK_HEADER_LENGTH = 18;
+    private static final int BLOCK_FOOTER_LENGTH = 8;
+    private static final int MAX_PART_SIZE = 256 * 1024 * 1024;
+
+    private final Logger logger = LoggerFactory.getLogger(ParallelVariantVcfReader.class);
+
+    private final Path input;
+    private final VariantStudyMetadata metadata;
+    private final int numThreads;
+    private int partSize = DEFAULT_PART_SIZE;
+    private boolean columnarSamples = false;
+    private boolean failOnError = false;
+    private final Set<BiConsumer<String, RuntimeException>> malformHandlerSet = new HashSet<>();
+
+    private VariantVcfHtsjdkReader headerReader;
+    private VCFHeader header;
+    private VCFHeaderVersion version;
+    private FileChannel channel;
+    private long fileSize;
+    private long position;
+    private ExecutorService executorService;
+    private ThreadLocal<LineParser> parsers;
+    private final Deque<Future<Part>> pendingParts = new ArrayDeque<>();
+    private final Deque<Variant> variants = new ArrayDeque<>();
+    private final ByteArrayOutputStream carry = new ByteArrayOutputStream();
+
+    public ParallelVariantVcfReader(Path input, VariantStudyMetadata metadata) {
+        this(input, metadata, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelVariantVcfReader(Path input, VariantStudyMetadata metadata, int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads (" + numThreads + ") must be positive");
+        }
+        this.input = Objects.requireNonNull(input);
+        this.metadata = Objects.requireNonNull(metadata);
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param partSize Compressed bytes of each part. Each part has at least one BGZF block
+     * @return this
+     */
+    public ParallelVariantVcfReader setPartSize(int partSize) {
+        if (partSize < 1 || partSize > MAX_PART_SIZE) {
+            throw new IllegalArgumentException("partSize (" + partSize + ") must be between 1 and " + MAX_PART_SIZE);
+        }
+        this.partSize = partSize;
+        return this;
+    }
+
+    /**
+     * Store the samples data of the read variants by columns. See
+     * {@link org.opencb.biodata.models.variant.ColumnarSampleEntries}.
+     *
+     * @param columnarSamples Use columnar samples data
+     * @return this
+     */
+    public ParallelVariantVcfReader setColumnarSamples(boolean columnarSamples) {
+        this.columnarSamples = columnarSamples;
+        return this;
+    }
+
+    public ParallelVariantVcfReader setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+        return this;
+    }
+
+    public ParallelVariantVcfReader registerMalformatedVcfHandler(BiConsumer<String, RuntimeException> handler) {
+        this.malformHandlerSet.add(handler);
+        return this;
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            channel = FileChannel.open(input, StandardOpenOption.READ);
+            fileSize = channel.size();
+            byte[] firstBlock = new byte[(int) Math.min(BLOCK_HEADER_LENGTH, fileSize)];
+            readFully(firstBlock, firstBlock.length, 0);
+            if (blockSize(firstBlock, 0, firstBlock.length) < 0) {
+                throw new IllegalArgumentException("File " + input + " is not BGZF compressed");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException("File " + input + " is not BGZF compressed", e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        // Read the header, and fill the metadata, with the VariantVcfHtsjdkReader
+        headerReader = new VariantVcfHtsjdkReader(input, metadata);
+        headerReader.open();
+        headerReader.pre();
+        headerReader.post();
+        headerReader.close();
+        header = headerReader.getVCFHeader();
+        version = headerReader.getVCFHeaderVersion();
+
+        parsers = ThreadLocal.withInitial(LineParser::new);
+        executorService = Executors.newFixedThreadPool(numThreads);
+        position = 0;
+        return true;
+    }
+
+    @Override
+    public List<Variant> read(int batchSize) {
+        while (variants.size() < batchSize && nextPart()) {
+            continue;
+        }
+        List<Variant> batch = new ArrayList<>(Math.min(batchSize, variants.size()));
+        while (batch.size() < batchSize && !variants.isEmpty()) {
+            batch.add(variants.poll());
+        }
+        return batch;
+    }
+
+    /**
+     * Add the variants of the next part.
+     *
+     * @return false if there are no more parts
+     */
+    private boolean nextPart() {
+        submitParts();
+        Future<Part> future = pendingParts.poll();
+        if (future == null) {
+            if (carry.size() > 0) {
+                // Last line, without line break
+                parseCarry();
+                return true;
+            }
+            return false;
+        }
+        Part part;
+        try {
+            part = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        if (part.firstLineEnd < 0) {
+            // The part is in the middle of a line
+            carry.write(part.data, 0, part.data.length);
+            return true;
+        }
+        carry.write(part.data, 0, part.firstLineEnd);
+        parseCarry();
+        for (Pair<String, RuntimeException> malformedLine : part.malformedLines) {
+            onMalformedLine(malformedLine.getKey(), malformedLine.getValue());
+        }
+        variants.addAll(part.variants);
+        carry.write(part.data, part.lastLineEnd + 1, part.data.length - part.lastLineEnd - 1);
+        return true;
+    }
+
+    private void parseCarry() {
+        String line = decode(carry.toByteArray(), 0, carry.size());
+        carry.reset();
+        List<Pair<String, RuntimeException>> malformedLines = new ArrayList<>(0);
+        parsers.get().parse(line, variants, malformedLines);
+        for (Pair<String, RuntimeException> malformedLine : malformedLines) {
+            onMalformedLine(malformedLine.getKey(), malformedLine.getValue());
+        }
+    }
+
+    private void onMalformedLine(String line, RuntimeException exception) {
+        logger.warn(exception.getMessage());
+        for (BiConsumer<String, RuntimeException> consumer : malformHandlerSet) {
+            consumer.accept(line, exception);
+        }
+        if (failOnError) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Read the next compressed parts, and submit them to the thread pool.
+     */
+    private void submitParts() {
+        while (pendingParts.size() < numThreads * 2 && position < fileSize) {
+            byte[] buffer = new byte[(int) Math.min(partSize + MAX_BLOCK_SIZE, fileSize - position)];
+            int length;
+            try {
+                readFully(buffer, buffer.length, position);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            // Complete blocks, up to the part size
+            length = 0;
+            while (length < partSize && length < buffer.length) {
+                int blockSize = blockSize(buffer, length, buffer.length);
+                if (blockSize < 0 || length + blockSize > buffer.length) {
+                    break;
+                }
+                length += blockSize;
+            }
+            if (length == 0) {
+                throw new IllegalStateException("Truncated BGZF block at offset " + position + " of file " + input);
+            }
+            position += length;
+            int partLength = length;
+            pendingParts.add(executorService.submit(() -> parsers.get().parsePart(buffer, partLength)));
+        }
+    }
+
+    private void readFully(byte[] buffer, int length, long offset) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            if (channel.read(byteBuffer, offset + byteBuffer.position()) < 0) {
+                throw new IOException("Unexpected end of file " + input);
+            }
+        }
+    }
+
+    /**
+     * Size of the BGZF block starting at the offset, from the BSIZE field of the gzip header.
+     *
+     * @return the block size, or -1 if the header is not complete
+     */
+    static int blockSize(byte[] buffer, int offset, int length) {
+        if (length - offset < BLOCK_HEADER_LENGTH) {
+            return -1;
+        }
+        if (buffer[offset] != 31 || (buffer[offset + 1] & 0xFF) != 139 || buffer[offset + 2] != 8
+                || (buffer[offset + 3] & 4) == 0) {
+            throw new IllegalStateException("Invalid BGZF block header");
+        }
+        int xlen = readUnsignedShort(buffer, offset + 10);
+        if (length - offset < 12 + xlen) {
+            return -1;
+        }
+        int subfield = offset + 12;
+        while (subfield + 4 <= offset + 12 + xlen) {
+            int slen = readUnsignedShort(buffer, subfield + 2);
+            if (buffer[subfield] == 'B' && buffer[subfield + 1] == 'C' && slen == 2) {
+                return readUnsignedShort(buffer, subfield + 4) + 1;
+            }
+            subfield += 4 + slen;
+        }
+        throw new IllegalStateException("Missing BSIZE in BGZF block header");
+    }
+
+    private static int readUnsignedShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return readUnsignedShort(buffer, offset) | readUnsignedShort(buffer, offset + 2) << 16;
+    }
+
+    /**
+     * Decode a line as the htsjdk line readers, with the default charset, removing the carriage return.
+     */
+    private static String decode(byte[] data, int start, int end) {
+        if (end > start && data[end - 1] == '\r') {
+            end--;
+        }
+        return new String(data, start, end - start, Charset.defaultCharset());
+    }
+
+    @Override
+    public boolean post() {
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+        pendingParts.clear();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public List<String> getSampleNames() {
+        return header.getSampleNamesInOrder();
+    }
+
+    @Override
+    @Deprecated
+    public String getHeader() {
+        return headerReader.getHeader();
+    }
+
+    public VCFHeader getVCFHeader() {
+        return header;
+    }
+
+    @Override
+    public VariantFileMetadata getVariantFileMetadata() {
+        return headerReader.getVariantFileMetadata();
+    }
+
+    /**
+     * Inflated part. The variants are the lines between the first and the last line breaks. The bytes before the
+     * first line break are the end of the last line of the previous part, and the bytes after the last line break are
+     * the beginning of the first line of the next part.
+     */
+    private static final class Part {
+        private final byte[] data;
+        private int firstLineEnd = -1;
+        private int lastLineEnd = -1;
+        private final List<Variant> variants = new ArrayList<>();
+        private final List<Pair<String, RuntimeException>> malformedLines = new ArrayList<>(0);
+
+        private Part(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * Inflater and converters of each thread.
+     */
+    private final class LineParser {
+        private final Inflater inflater = new Inflater(true);
+        private final FullVcfCodec codec = new FullVcfCodec(header, version);
+        private final VariantContextToVariantConverter converter =
+                new VariantContextToVariantConverter(metadata.getId(), getVariantFileMetadata().getId(),
+                        header.getGenotypeSamples())
+                        .setColumnarSamples(columnarSamples);
+        private final VcfLineToVariantConverter lineConverter =
+                new VcfLineToVariantConverter(metadata.getId(), getVariantFileMetadata().getId(), header, version)
+                        .setColumnarSamples(columnarSamples);
+
+        private Part parsePart(byte[] compressed, int length) throws DataFormatException {
+            Part part = new Part(inflate(compressed, length));
+            byte[] data = part.data;
+            int start = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n') {
+                    if (part.firstLineEnd < 0) {
+                        part.firstLineEnd = i;
+                    } else {
+                        parse(decode(data, start, i), part.variants, part.malformedLines);
+                    }
+                    part.lastLineEnd = i;
+                    start = i + 1;
+                }
+            }
+            return part;
+        }
+
+        private byte[] inflate(byte[] compressed, int length) throws DataFormatException {
+            int size = 0;
+            for (int offset = 0; offset < length; offset += blockSize(compressed, offset, length)) {
+                int blockSize = blockSize(compressed, offset, length);
+                size += readInt(compressed, offset + blockSize - 4);
+            }
+            byte[] data = new byte[size];
+            int dataOffset = 0;
+            for (int offset = 0; offset < length; ) {
+                int blockSize = blockSize(compressed, offset, length);
+                int headerLength = 12 + readUnsignedShort(compressed, offset + 10);
+                int uncompressedSize = readInt(compressed, offset + blockSize - 4);
+                inflater.reset();
+                inflater.setInput(compressed, offset + headerLength, blockSize - headerLength - BLOCK_FOOTER_LENGTH);
+                int inflated = 0;
+                while (inflated < uncompressedSize) {
+                    int n = inflater.inflate(data, dataOffset + inflated, uncompressedSize - inflated);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        break;
+                    }
+                    inflated += n;
+                }
+                if (inflated != uncompressedSize) {
+                    throw new DataFormatException("Corrupted BGZF block in file " + input);
+                }
+                dataOffset += uncompressedSize;
+                offset += blockSize;
+            }
+            return data;
+        }
+
+        private void parse(String line, Collection<Variant> variants, List<Pair<String, RuntimeException>> malformed) {
+            if (StringUtils.isBlank(line) || line.startsWith("#")) {
+                return;
+            }
+            try {
+                Variant variant = lineConverter.convert(line);
+                if (variant == null) {
+                    VariantContext variantContext = codec.decode(line);
+                    variant = converter.convert(variantContext);
+                }
+                variants.add(variant);
+            } catch (RuntimeException e) {
+                malformed.add(Pair.of(line, e));
+            }
+        }
+    }
+}
@@ -23,15 +23,6 @@ import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.vcf.*;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.biojava.nbio.alignment.Alignments;
-import org.biojava.nbio.alignment.SimpleGapPenalty;
-import org.biojava.nbio.alignment.SubstitutionMatrixHelper;
-import org.biojava.nbio.alignment.template.SequencePair;
-import org.biojava.nbio.alignment.template.SubstitutionMatrix;
-import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
-import org.biojava.nbio.core.sequence.DNASequence;
-import org.biojava.nbio.core.sequence.compound.AmbiguityDNACompoundSet;
-import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
 import org.opencb.biodata.models.variant.Genotype;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
@@ -42,6 +33,8 @@ import org.opencb.biodata.models.variant.metadata.VariantFileHeader;
 import org.opencb.biodata.tools.sequence.SequenceAdaptor;
 import org.opencb.biodata.tools.variant.exceptions.VariantNormalizerException;
 import org.opencb.biodata.tools.variant.merge.VariantAlternateRearranger;
+import org.opencb.biodata.tools.variant.normalizer.mnv.GotohMnvAligner;
+import org.opencb.biodata.tools.variant.normalizer.mnv.MnvAligner;
 import org.opencb.commons.run.Task;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -73,6 +66,7 @@ public class VariantNormalizer implements Task<Variant, Variant> {
         private int leftAlignmentWindowSize = 100;
         private boolean acceptAmbiguousBasesInReference = false;
         private boolean acceptAmbiguousBasesInAlternate = false;
+        private MnvAligner mnvAligner = new GotohMnvAligner();
 
         public VariantNormalizerConfig(){}
 
@@ -98,6 +92,15 @@ public class VariantNormalizer implements Task<Variant, Variant> {
             return this;
         }
 
+        public MnvAligner getMnvAligner() {
+            return mnvAligner;
+        }
+
+        public VariantNormalizerConfig setMnvAligner(MnvAligner mnvAligner) {
+            this.mnvAligner = mnvAligner;
+            return this;
+        }
+
         public VariantNormalizerConfig setNormalizeAlleles(boolean normalizeAlleles) {
             this.normalizeAlleles = normalizeAlleles;
             return this;
@@ -165,6 +168,17 @@ public class VariantNormalizer implements Task<Variant, Variant> {
             return this;
         }
 
+        public VariantNormalizerConfig setReferenceCache(int blockSize, int maxBlocks) {
+
+            if (this.leftAligner == null) {
+                throw new IllegalArgumentException(
+                        "Cannot set 'reference cache' if left aligner is not configured"
+                );
+            }
+            this.leftAligner.setReferenceCache(blockSize, maxBlocks);
+            return this;
+        }
+
     }
 
     private Map<Integer, int[]> genotypeReorderMapCache = new ConcurrentHashMap<>();
@@ -210,6 +224,11 @@ public class VariantNormalizer implements Task<Variant, Variant> {
         return this;
     }
 
+    public VariantNormalizer setMnvAligner(MnvAligner mnvAligner) {
+        this.config.setMnvAligner(mnvAligner);
+        return this;
+    }
+
     public VariantNormalizer setReuseVariants(boolean reuseVariants) {
         this.config.setReuseVariants(reuseVariants);
         return this;
@@ -247,6 +266,11 @@ public class VariantNormalizer implements Task<Variant, Variant> {
         return this;
     }
 
+    public VariantNormalizer setReferenceCache(int blockSize, int maxBlocks)  {
+        this.config.setReferenceCache(blockSize, maxBlocks);
+        return this;
+    }
+
     public VariantNormalizer configure(VCFHeader header) {
         rearrangerConf.configure(header);
         return this;
@@ -1042,18 +1066,25 @@ public class VariantNormalizer implements Task<Variant, Variant> {
     }
 
     private List<VariantKeyFields> decomposeMNVSingleVariants(VariantKeyFields keyFields) {
-        SequencePair<DNASequence, NucleotideCompound> sequenceAlignment = getPairwiseAlignment(keyFields.getReference(),
-                keyFields.getAlternate());
-        return decomposeAlignmentSingleVariants(sequenceAlignment.getTarget().getSequenceAsString(),
-                sequenceAlignment.getQuery().getSequenceAsString(),
-                keyFields.getStart(),
-                keyFields);
+        int length = keyFields.getReference().length() + keyFields.getAlternate().length();
+        StringBuilder alignedReference = new StringBuilder(length);
+        StringBuilder alignedAlternate = new StringBuilder(length);
+        this.config.getMnvAligner().align(keyFields.getReference(), keyFields.getAlternate(), alignedReference,
+                alignedAlternate);
+        return decomposeAlignmentSingleVariants(alignedReference, alignedAlternate, keyFields.getStart(), keyFields);
     }
 
     public static List<VariantKeyFields> decomposeAlignmentSingleVariants(String reference,
                                                                           String alternate,
                                                                           int genomicStart,
                                                                           VariantKeyFields originalKeyFields) {
+        return decomposeAlignmentSingleVariants((CharSequence) reference, alternate, genomicStart, originalKeyFields);
+    }
+
+    public static List<VariantKeyFields> decomposeAlignmentSingleVariants(CharSequence reference,
+                                                                          CharSequence alternate,
+                                                                          int genomicStart,
+                                                                          VariantKeyFields originalKeyFields) {
 
         List<VariantKeyFields> keyFieldsList = new ArrayList<>();
         VariantKeyFields keyFields = null;
@@ -1104,28 +1135,6 @@ public class VariantNormalizer implements Task<Variant, Variant> {
         return keyFieldsList;
     }
 
-    private SequencePair<DNASequence, NucleotideCompound> getPairwiseAlignment(String seq1, String seq2) {
-        DNASequence target = null;
-        DNASequence query = null;
-        try {
-            target = new DNASequence(seq1, AmbiguityDNACompoundSet.getDNACompoundSet());
-            query = new DNASequence(seq2, AmbiguityDNACompoundSet.getDNACompoundSet());
-        } catch (CompoundNotFoundException e) {
-            String msg = "Error when creating DNASequence objects for " + seq1 + " and " + seq2 + " prior to pairwise "
-                    + "sequence alignment";
-            logger.error(msg, e);
-            throw new VariantNormalizerException(msg, e);
-        }
-        SubstitutionMatrix<NucleotideCompound> substitutionMatrix = SubstitutionMatrixHelper.getNuc4_4();
-        SimpleGapPenalty gapP = new SimpleGapPenalty();
-        gapP.setOpenPenalty((short)5);
-        gapP.setExtensionPenalty((short)2);
-        SequencePair<DNASequence, NucleotideCompound> psa = Alignments.getPairwiseAlignment(query, target,
-                Alignments.PairwiseSequenceAlignerType.GLOBAL, gapP, substitutionMatrix);
-
-        return psa;
-    }
-
     /**
      * Non normalizable variants
      */
@@ -38,6 +38,7 @@ import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.biodata.tools.variant.converters.avro.VCFHeaderToVariantFileHeaderConverter;
 import org.opencb.biodata.tools.variant.converters.avro.VCFHeaderToVariantFileMetadataConverter;
 import org.opencb.biodata.tools.variant.converters.avro.VariantContextToVariantConverter;
+import org.opencb.biodata.tools.variant.converters.avro.VcfLineToVariantConverter;
 import org.opencb.biodata.tools.variant.metadata.VariantMetadataManager;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.Logger;
@@ -76,15 +77,19 @@ public class VariantVcfHtsjdkReader implements VariantReader {
     private final VariantStudyMetadata metadata;
     private final VariantFileMetadata fileMetadata;
     private final VariantNormalizer normalizer;
+    private ParallelVariantNormalizer parallelNormalizer;
     private FullVcfCodec codec;
     private VCFHeader header;
     private VariantContextToVariantConverter converter;
+    private VcfLineToVariantConverter lineConverter;
     private LineIterator lineIterator;
     private List<String> headerLines;
     private Set<BiConsumer<String, RuntimeException>> malformHandlerSet = new HashSet<>();
     private boolean failOnError = false;
     private boolean ignorePhaseSet = true;
     private boolean combineBreakends = false;
+    private boolean columnarSamples = false;
+    private boolean fastParser = false;
     private final boolean closeInputStream;   // Do not close inputStream if is provided in constructor. Respect symmetrical open/close
     private VariantContext lastVariantContext = null;
     private HashMap<String, Variant> breakendMates;
@@ -120,6 +125,42 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return this;
     }
 
+    /**
+     * Normalize the variants with several threads instead of the normalizer given in the constructor, if any.
+     *
+     * @param parallelNormalizer Parallel normalizer
+     * @return this
+     */
+    public VariantVcfHtsjdkReader setParallelNormalizer(ParallelVariantNormalizer parallelNormalizer) {
+        this.parallelNormalizer = parallelNormalizer;
+        return this;
+    }
+
+    /**
+     * Store the samples data of the read variants by columns, reducing the memory usage of VCFs with many samples.
+     * See {@link org.opencb.biodata.models.variant.ColumnarSampleEntries}.
+     *
+     * @param columnarSamples Use columnar samples data
+     * @return this
+     */
+    public VariantVcfHtsjdkReader setColumnarSamples(boolean columnarSamples) {
+        this.columnarSamples = columnarSamples;
+        return this;
+    }
+
+    /**
+     * Convert the VCF lines directly into variants, without creating an htsjdk VariantContext for each line.
+     * The lines not supported by the {@link VcfLineToVariantConverter} are read with htsjdk, so the variants are
+     * the same. Only used if the phase set is ignored, see {@link #setIgnorePhaseSet(boolean)}.
+     *
+     * @param fastParser Use the fast parser
+     * @return this
+     */
+    public VariantVcfHtsjdkReader setFastParser(boolean fastParser) {
+        this.fastParser = fastParser;
+        return this;
+    }
+
     public VariantVcfHtsjdkReader setFailOnError(boolean failOnError) {
         this.failOnError = failOnError;
         return this;
@@ -187,7 +228,13 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         codec.setVCFHeader(header, codec.getVCFHeaderVersion());
 
         // Create converters
-        converter = new VariantContextToVariantConverter(metadata.getId(), fileMetadata.getId(), samples);
+        converter = new VariantContextToVariantConverter(metadata.getId(), fileMetadata.getId(), samples)
+                .setColumnarSamples(columnarSamples);
+        if (fastParser) {
+            lineConverter = new VcfLineToVariantConverter(metadata.getId(), fileMetadata.getId(), header,
+                    codec.getVCFHeaderVersion())
+                    .setColumnarSamples(columnarSamples);
+        }
         if (metadata.getIndividuals() == null) {
             metadata.setIndividuals(new ArrayList<>(samples.size()));
         }
@@ -196,7 +243,11 @@ public class VariantVcfHtsjdkReader implements VariantReader {
             metadataManager.addIndividual(sample, sample, metadata.getId());
         }
 
-        if (normalizer != null) {
+        if (parallelNormalizer != null) {
+            parallelNormalizer.configure(fileMetadata.getHeader());
+            parallelNormalizer.setErrorHandler(this::onNormalizationError);
+            parallelNormalizer.pre();
+        } else if (normalizer != null) {
             normalizer.configure(fileMetadata.getHeader());
         }
         return true;
@@ -204,25 +255,33 @@ public class VariantVcfHtsjdkReader implements VariantReader {
 
     @Override
     public List<Variant> read(int batchSize) {
-        List<VariantContext> variantContexts = new ArrayList<>(batchSize);
+        List<Variant> variants;
+        boolean endOfFile;
+        if (lineConverter != null && ignorePhaseSet && lastVariantContext == null) {
+            variants = readNextVariants(batchSize);
+            endOfFile = !lineIterator.hasNext();
+        } else {
+            List<VariantContext> variantContexts = new ArrayList<>(batchSize);
 
-        // Add last variant context from last call to "read"
-        if (lastVariantContext != null) {
-            variantContexts.add(lastVariantContext);
-        }
+            // Add last variant context from last call to "read"
+            if (lastVariantContext != null) {
+                variantContexts.add(lastVariantContext);
+            }
 
-        lastVariantContext = readNextVariantContext();
-        while (lastVariantContext != null && incompleteBatch(variantContexts, batchSize)) {
-            variantContexts.add(lastVariantContext);
             lastVariantContext = readNextVariantContext();
-        }
+            while (lastVariantContext != null && incompleteBatch(variantContexts, batchSize)) {
+                variantContexts.add(lastVariantContext);
+                lastVariantContext = readNextVariantContext();
+            }
 
-        List<Variant> variants = converter.apply(variantContexts);
+            variants = converter.apply(variantContexts);
+            endOfFile = lastVariantContext == null;
+        }
 
         if (combineBreakends) {
             variants = runCombineBreakends(variants);
             // Reached end of file, no more variants - Drain unpaired breakends
-            if (lastVariantContext == null) {
+            if (endOfFile) {
                 // Singleton BNDs - BNDs that contain a MATEID in the info field, however, no BND was found in the
                 // VCF with that MATEID
                 Iterator<String> breakendIdIterator = breakendMates.keySet().iterator();
@@ -241,18 +300,16 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         // Need to normalise one by one so that if one of them raises error while normalising we can easily notify which
         // one and skip it
         List<Variant> finalVariantList;
-        if (normalizer != null) {
+        if (parallelNormalizer != null) {
+            // Variants are normalised one by one in each thread as well, errors are notified to onNormalizationError
+            finalVariantList = parallelNormalizer.apply(variants);
+        } else if (normalizer != null) {
             finalVariantList = new ArrayList<>(variants.size());
             for (Variant variant : variants) {
                 try {
                     finalVariantList.addAll(normalizer.apply(Collections.singletonList(variant)));
                 } catch (RuntimeException e) {
-                    logger.warn("Error found during variant normalization. Variant: {}. This variant will be skipped "
-                            + "and process will continue", variant.toString());
-                    logMalformatedLine(variant.toString(), e);
-                    if (failOnError) {
-                        throw e;
-                    }
+                    onNormalizationError(variant, e);
                 }
             }
         } else {
@@ -261,6 +318,15 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return finalVariantList;
     }
 
+    private void onNormalizationError(Variant variant, RuntimeException e) {
+        logger.warn("Error found during variant normalization. Variant: {}. This variant will be skipped "
+                + "and process will continue", variant.toString());
+        logMalformatedLine(variant.toString(), e);
+        if (failOnError) {
+            throw e;
+        }
+    }
+
     private List<Variant> runCombineBreakends(List<Variant> variants) {
         List<Variant> variantListToReturn = new ArrayList<>(variants.size());
         for (Variant variant : variants) {
@@ -480,6 +546,37 @@ public class VariantVcfHtsjdkReader implements VariantReader {
         return null;
     }
 
+    /**
+     * Read the next variants with the {@link VcfLineToVariantConverter}, or with htsjdk if not supported.
+     */
+    private List<Variant> readNextVariants(int batchSize) {
+        List<Variant> variants = new ArrayList<>(batchSize);
+        while (variants.size() < batchSize && lineIterator.hasNext()) {
+            String line = lineIterator.next();
+            if (StringUtils.isNotBlank(line) && !line.startsWith("#")) {
+                Variant variant;
+                VariantContext variantContext = null;
+                try {
+                    variant = lineConverter.convert(line);
+                    if (variant == null) {
+                        variantContext = codec.decode(line);
+                    }
+                } catch (RuntimeException e) {
+                    logMalformatedLine(line, e);
+                    if (failOnError) {
+                        throw e;
+                    }
+                    continue;
+                }
+                if (variant == null) {
+                    variant = converter.convert(variantContext);
+                }
+                variants.add(variant);
+            }
+        }
+        return variants;
+    }
+
     private void logMalformatedLine(String line, RuntimeException exception) {
         logger.warn(exception.getMessage());
         for (BiConsumer<String, RuntimeException> consumer : this.malformHandlerSet) {
@@ -489,6 +586,9 @@ public class VariantVcfHtsjdkReader implements VariantReader {
 
     @Override
     public boolean post() {
+        if (parallelNormalizer != null) {
+            parallelNormalizer.post();
+        }
         return true;
     }
 
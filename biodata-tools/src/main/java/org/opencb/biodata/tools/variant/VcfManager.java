@@ -30,6 +30,9 @@ import htsjdk.variant.vcf.VCFFileReader;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.commons.ReaderPool;
+import org.opencb.biodata.tools.commons.ShardedIterator;
+import org.opencb.biodata.tools.variant.filters.VariantContextFilters;
 import org.opencb.biodata.tools.variant.filters.VariantFilters;
 import org.opencb.biodata.tools.variant.iterators.VariantContextToAvroVariantVcfIterator;
 import org.opencb.biodata.tools.variant.iterators.VariantContextToProtoVariantVcfIterator;
@@ -38,10 +41,12 @@ import org.opencb.biodata.tools.variant.iterators.VcfIterator;
 import org.opencb.commons.utils.FileUtils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder.OutputType.BLOCK_COMPRESSED_VCF;
 
@@ -56,13 +61,41 @@ public class VcfManager {
     private Path indexPath;
 
     private VCFFileReader vcfReader;
+    private ReaderPool<VCFFileReader> readerPool;
+    private ReaderPool.Lease<VCFFileReader> lease;
+    // iterators of the reader not closed yet, and whether reading from the reader failed
+    private int openIterators;
+    private boolean readFailed;
 
     private static final int DEFAULT_MAX_NUM_RECORDS = 50000;
 
     public VcfManager(Path input) throws IOException {
+        this(input, null);
+    }
+
+    /**
+     * Creates a VcfManager reading the indexed VCF file with a reader leased from the pool. The reader is returned to
+     * the pool when the manager is closed. Iterators must be closed before closing the manager, otherwise the reader
+     * is closed instead of returned.
+     *
+     * @param input         Indexed VCF file
+     * @param readerPool    Pool of readers created with {@link #newReaderPool()}, or null to open a new reader
+     * @throws IOException  If the file does not exist
+     */
+    public VcfManager(Path input, ReaderPool<VCFFileReader> readerPool) throws IOException {
         FileUtils.checkFile(input);
         this.input = input;
         this.dataPath = input;
+        this.readerPool = readerPool;
+    }
+
+    /**
+     * Creates a pool of readers of indexed VCF files, to be shared by the VcfManagers of different threads.
+     *
+     * @return A pool of readers
+     */
+    public static ReaderPool<VCFFileReader> newReaderPool() {
+        return new ReaderPool<>(path -> new VCFFileReader(path.toFile()));
     }
 
     /**
@@ -166,14 +199,34 @@ public class VcfManager {
         }
 
         List<T> results = new ArrayList<>(maxNumberRecords);
-        VcfIterator<T> vcfIterator = (region != null)
+        try (VcfIterator<T> vcfIterator = (region != null)
                 ? iterator(region, filters, clazz)
-                : iterator(filters, clazz);
+                : iterator(filters, clazz)) {
+            while (vcfIterator.hasNext() && results.size() < maxNumberRecords) {
+                results.add(vcfIterator.next());
+            }
+        }
+        return results;
+    }
 
-        while (vcfIterator.hasNext() && results.size() < maxNumberRecords) {
-            results.add(vcfIterator.next());
+    /**
+     * Query a list of regions with several threads. The number of records is only limited by the option limit, so
+     * this can be used to scan big regions or whole chromosomes of an indexed VCF file.
+     *
+     * @param regions       Regions to query, the records are returned in the same order
+     * @param filters       Filters to be applied to variants
+     * @param options       Other possible options, e.g.: limit
+     * @param clazz         Class of the returned records
+     * @param numThreads    Number of threads, each thread reads a different shard of the regions with its own reader
+     * @param <T>           Class of the returned records
+     * @return The records of all the regions
+     */
+    public <T> List<T> query(List<Region> regions, VariantFilters<VariantContext> filters, VariantOptions options,
+                             Class<T> clazz, int numThreads) {
+        List<T> results = new ArrayList<>();
+        try (ShardedIterator<VCFFileReader, T> iterator = iterator(regions, filters, options, clazz, numThreads)) {
+            iterator.forEachRemaining(results::add);
         }
-        vcfIterator.close();
         return results;
     }
 
@@ -193,7 +246,7 @@ public class VcfManager {
     public <T> VcfIterator<T> iterator(VariantFilters<VariantContext> filters, Class<T> clazz) {
         open();
 
-        CloseableIterator<VariantContext> variantContextIterator = vcfReader.iterator();
+        CloseableIterator<VariantContext> variantContextIterator = trackedIterator(vcfReader::iterator);
         return getVariantIterator(filters, clazz, variantContextIterator);
     }
 
@@ -209,10 +262,57 @@ public class VcfManager {
         open();
 
         CloseableIterator<VariantContext> variantContextIterator =
-                vcfReader.query(region.getChromosome(), region.getStart(), region.getEnd());
+                trackedIterator(() -> vcfReader.query(region.getChromosome(), region.getStart(), region.getEnd()));
         return getVariantIterator(filters, clazz, variantContextIterator);
     }
 
+    public <T> ShardedIterator<VCFFileReader, T> iterator(List<Region> regions, VariantFilters<VariantContext> filters,
+                                                          VariantOptions options, Class<T> clazz, int numThreads) {
+        return iterator(regions, filters, options, clazz, numThreads, ShardedIterator.DEFAULT_SHARD_SIZE);
+    }
+
+    /**
+     * Iterate a list of regions with several threads. Each region is split in shards of about shardSize positions,
+     * and each shard is read from the tabix index with a different reader, leased from the reader pool of this manager
+     * if any. The iterator must be closed to release the threads and readers.
+     *
+     * @param regions       Regions to iterate, the records are returned in the same order
+     * @param filters       Filters to be applied to variants
+     * @param options       Other possible options, e.g.: limit
+     * @param clazz         Class of the returned records
+     * @param numThreads    Number of threads
+     * @param shardSize     Size of each shard
+     * @param <T>           Class of the returned records
+     * @return An iterator over the records of all the regions
+     */
+    public <T> ShardedIterator<VCFFileReader, T> iterator(List<Region> regions, VariantFilters<VariantContext> filters,
+                                                          VariantOptions options, Class<T> clazz, int numThreads,
+                                                          int shardSize) {
+        open();
+
+        int limit = options == null ? -1 : options.getLimit();
+        ShardedIterator.ReaderFactory<VCFFileReader> readerFactory = readerPool == null || indexPath != null
+                ? this::openReader
+                : ShardedIterator.leaseFrom(readerPool, dataPath);
+        return new ShardedIterator<>(regions, shardSize, readerFactory,
+                (reader, region, shard, shardLimit) -> readShard(reader, region, shard, filters, clazz),
+                numThreads, limit);
+    }
+
+    private <T> VcfIterator<T> readShard(VCFFileReader reader, Region region, Region shard,
+                                         VariantFilters<VariantContext> filters, Class<T> clazz) {
+        VariantFilters<VariantContext> shardFilters = new VariantContextFilters()
+                .addFilter(variantContext -> ShardedIterator.isFirstShard(region, shard, variantContext.getStart()));
+        if (filters != null) {
+            shardFilters.addFilter(filters);
+        }
+
+        // Variants are read lazily, the ShardedIterator stops reading once the shard limit is reached
+        CloseableIterator<VariantContext> variantContextIterator =
+                reader.query(shard.getChromosome(), shard.getStart(), shard.getEnd());
+        return getVariantIterator(shardFilters, clazz, variantContextIterator);
+    }
+
     private <T> VcfIterator<T> getVariantIterator(VariantFilters<VariantContext> filters, Class<T> clazz,
                                                   CloseableIterator<VariantContext> variantContextIterator) {
         if (Variant.class == clazz) { // AVRO
@@ -227,19 +327,95 @@ public class VcfManager {
     }
 
     public void close() throws IOException {
-        if (vcfReader != null) {
+        if (lease != null) {
+            if (openIterators > 0 || readFailed) {
+                // the reader may be in the middle of an iteration, do not reuse it
+                lease.invalidate();
+            }
+            lease.close();
+            lease = null;
+            vcfReader = null;
+        } else if (vcfReader != null) {
             vcfReader.close();
         }
     }
 
     private void open() {
         if (vcfReader == null) {
-            if (indexPath != null) {
-                vcfReader = new VCFFileReader(dataPath.toFile(), indexPath.toFile());
+            if (readerPool != null && indexPath == null) {
+                try {
+                    lease = readerPool.lease(dataPath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                vcfReader = lease.get();
             } else {
-                vcfReader = new VCFFileReader(dataPath.toFile());
+                vcfReader = openReader();
+            }
+        }
+    }
+
+    /**
+     * Create an iterator of the reader of the manager, the first records may be read when it is created.
+     */
+    private CloseableIterator<VariantContext> trackedIterator(
+            Supplier<CloseableIterator<VariantContext>> iteratorSupplier) {
+        try {
+            return new TrackedIterator(iteratorSupplier.get());
+        } catch (RuntimeException e) {
+            readFailed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Iterator of the reader of the manager, counting the open iterators and the read failures.
+     */
+    private class TrackedIterator implements CloseableIterator<VariantContext> {
+        private final CloseableIterator<VariantContext> iterator;
+        private boolean closed;
+
+        TrackedIterator(CloseableIterator<VariantContext> iterator) {
+            this.iterator = iterator;
+            openIterators++;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return iterator.hasNext();
+            } catch (RuntimeException e) {
+                readFailed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public VariantContext next() {
+            try {
+                return iterator.next();
+            } catch (RuntimeException e) {
+                readFailed = true;
+                throw e;
             }
         }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                openIterators--;
+                iterator.close();
+            }
+        }
+    }
+
+    private VCFFileReader openReader() {
+        if (indexPath != null) {
+            return new VCFFileReader(dataPath.toFile(), indexPath.toFile());
+        } else {
+            return new VCFFileReader(dataPath.toFile());
+        }
     }
 
 }
@@ -0,0 +1,257 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.algorithm;
+
+import org.opencb.biodata.models.variant.ColumnarSampleEntries;
+import org.opencb.biodata.models.variant.GenotypeCodec;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+import org.opencb.biodata.models.variant.stats.IBDExpectedFrequencies;
+import org.opencb.biodata.models.variant.stats.IdentityByState;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * IdentityByStateClustering for large cohorts.
+ *
+ * Genotypes are packed into bit vectors, one bit per variant, in chunks of {@link #CHUNK_WORDS} 64-bit words.
+ * Each sample has four planes with the number of reference and main alternate alleles in thermometer code:
+ * "at least one reference", "two references", "at least one alternate" and "two alternates". The shared alleles of
+ * a pair are the sum of the ANDs of the planes, so the IBS1 and IBS2 counts of 64 variants are two popcounts.
+ *
+ * The sample pairs are split in square tiles, processed in parallel, so every thread updates a different set of
+ * {@link IdentityByState}. Same results as {@link IdentityByStateClustering#countSharedAlleles(int, int, int)}
+ * for pairs of haploid or diploid genotypes. For pairs of mixed ploidy all the alleles of both genotypes are
+ * compared. Polyploid genotypes are not supported.
+ */
+public class BitPackedIdentityByStateClustering extends IdentityByStateClustering {
+
+    /** Variants per chunk, in 64-bit words. */
+    public static final int CHUNK_WORDS = 16;
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private static final int CHUNK_SIZE = CHUNK_WORDS * Long.SIZE;
+    private static final int PLANES = 4;
+
+    private final int numThreads;
+    private final int tileSize;
+
+    public BitPackedIdentityByStateClustering() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BitPackedIdentityByStateClustering(int numThreads) {
+        this(numThreads, DEFAULT_TILE_SIZE);
+    }
+
+    public BitPackedIdentityByStateClustering(int numThreads, int tileSize) {
+        if (numThreads < 1 || tileSize < 1) {
+            throw new IllegalArgumentException("numThreads (" + numThreads + ") and tileSize (" + tileSize
+                    + ") must be positive");
+        }
+        this.numThreads = numThreads;
+        this.tileSize = tileSize;
+    }
+
+    @Override
+    public List<IdentityByState> countIBS(Iterator<Variant> iterator, List<String> samples,
+                                          IBDExpectedFrequencies expectedFreqs) {
+        List<IdentityByState> counts = initCounts(samples);
+
+        ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+        try {
+            Chunk chunk = new Chunk(samples);
+            while (iterator.hasNext()) {
+                Variant variant = iterator.next();
+                if (expectedFreqs != null) {
+                    expectedFreqs.update(variant);
+                }
+                chunk.add(variant);
+                if (chunk.size == CHUNK_SIZE) {
+                    countIBS(chunk, counts, executor);
+                    chunk.clear();
+                }
+            }
+            if (chunk.size > 0) {
+                countIBS(chunk, counts, executor);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        if (expectedFreqs != null) {
+            expectedFreqs.done();
+        }
+        return counts;
+    }
+
+    private void countIBS(Chunk chunk, List<IdentityByState> counts, ExecutorService executor) {
+        int numSamples = chunk.planes.length;
+        int numTiles = (numSamples + tileSize - 1) / tileSize;
+        if (executor == null) {
+            for (int second = 0; second < numTiles; second++) {
+                for (int first = 0; first <= second; first++) {
+                    countTile(chunk, counts, first * tileSize, second * tileSize);
+                }
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(numTiles * (numTiles + 1) / 2);
+        for (int second = 0; second < numTiles; second++) {
+            for (int first = 0; first <= second; first++) {
+                int firstStart = first * tileSize;
+                int secondStart = second * tileSize;
+                futures.add(executor.submit(() -> countTile(chunk, counts, firstStart, secondStart)));
+            }
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Count the IBS of the pairs (i, j), i &lt; j, with i in [firstStart, firstStart + tileSize)
+     * and j in [secondStart, secondStart + tileSize).
+     */
+    private void countTile(Chunk chunk, List<IdentityByState> counts, int firstStart, int secondStart) {
+        long[][] planes = chunk.planes;
+        int words = (chunk.size + Long.SIZE - 1) / Long.SIZE * PLANES;
+        int secondEnd = Math.min(secondStart + tileSize, planes.length);
+        for (int j = secondStart; j < secondEnd; j++) {
+            long[] second = planes[j];
+            int firstEnd = Math.min(firstStart + tileSize, j);
+            for (int i = firstStart; i < firstEnd; i++) {
+                long[] first = planes[i];
+                int atLeastOne = 0;
+                int two = 0;
+                for (int w = 0; w < words; w += PLANES) {
+                    long ref = first[w] & second[w];
+                    long homRef = first[w + 1] & second[w + 1];
+                    long alt = first[w + 2] & second[w + 2];
+                    long homAlt = first[w + 3] & second[w + 3];
+                    atLeastOne += Long.bitCount(ref | alt);
+                    two += Long.bitCount(homRef | homAlt | (ref & alt));
+                }
+                int[] ibs = counts.get(getCompoundIndex(i, j)).ibs;
+                ibs[0] += chunk.size - atLeastOne;
+                ibs[1] += atLeastOne - two;
+                ibs[2] += two;
+            }
+        }
+    }
+
+    /**
+     * Genotypes of up to {@link #CHUNK_SIZE} variants. For every sample, the four planes of each word are consecutive.
+     */
+    private static final class Chunk {
+        private final List<String> samples;
+        private final long[][] planes;
+        private int size;
+
+        private LinkedHashMap<String, Integer> samplesPosition;
+        private int[] positions;
+
+        private Chunk(List<String> samples) {
+            this.samples = samples;
+            planes = new long[samples.size()][CHUNK_WORDS * PLANES];
+        }
+
+        private void add(Variant variant) {
+            StudyEntry studyEntry = variant.getStudies().get(0);
+            if (studyEntry.getSamplesPosition() != samplesPosition) {
+                samplesPosition = studyEntry.getSamplesPosition();
+                positions = new int[samples.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    Integer position = samplesPosition.get(samples.get(i));
+                    positions[i] = position == null ? -1 : position;
+                }
+            }
+            List<SampleEntry> sampleEntries = studyEntry.getSamples();
+            Integer gtIdx = studyEntry.getSampleDataKeyPosition("GT");
+            ColumnarSampleEntries columnar = sampleEntries instanceof ColumnarSampleEntries
+                    ? (ColumnarSampleEntries) sampleEntries
+                    : null;
+
+            int word = (size / Long.SIZE) * PLANES;
+            long bit = 1L << (size % Long.SIZE);
+            for (int i = 0; i < positions.length; i++) {
+                int code = getGenotypeCode(sampleEntries, columnar, positions[i], gtIdx);
+                if (code < 0) {
+                    continue;
+                }
+                if (GenotypeCodec.getPloidy(code) > 2) {
+                    throw new IllegalArgumentException("Unsupported genotype " + GenotypeCodec.toString(code)
+                            + " in variant " + variant + ". Only haploid and diploid genotypes are supported");
+                }
+                int refs = GenotypeCodec.countAllele(code, 0);
+                int alts = GenotypeCodec.countAllele(code, 1);
+                long[] samplePlanes = planes[i];
+                if (refs > 0) {
+                    samplePlanes[word] |= bit;
+                    if (refs > 1) {
+                        samplePlanes[word + 1] |= bit;
+                    }
+                }
+                if (alts > 0) {
+                    samplePlanes[word + 2] |= bit;
+                    if (alts > 1) {
+                        samplePlanes[word + 3] |= bit;
+                    }
+                }
+            }
+            size++;
+        }
+
+        private static int getGenotypeCode(List<SampleEntry> sampleEntries, ColumnarSampleEntries columnar,
+                                           int position, Integer gtIdx) {
+            if (position < 0 || gtIdx == null) {
+                return -1;
+            } else if (columnar != null && gtIdx == 0) {
+                return columnar.getGenotypeCode(position);
+            }
+            SampleEntry sampleEntry = sampleEntries.get(position);
+            if (sampleEntry == null || sampleEntry.getData().size() <= gtIdx) {
+                return -1;
+            }
+            String gt = sampleEntry.getData().get(gtIdx);
+            return gt == null ? -1 : GenotypeCodec.encode(gt);
+        }
+
+        private void clear() {
+            for (long[] samplePlanes : planes) {
+                Arrays.fill(samplePlanes, 0);
+            }
+            size = 0;
+        }
+    }
+}
@@ -19,8 +19,16 @@ public class IdentityByDescentClustering {
     }
 
     public IdentityByDescentClustering(IBDExpectedFrequencies ibdExpFreqs) {
+        this(ibdExpFreqs, new IdentityByStateClustering());
+    }
+
+    /**
+     * @param ibdExpFreqs   Expected frequencies for IBS|IBD
+     * @param ibsClustering IBS engine, e.g. {@link BitPackedIdentityByStateClustering} for large cohorts
+     */
+    public IdentityByDescentClustering(IBDExpectedFrequencies ibdExpFreqs, IdentityByStateClustering ibsClustering) {
         this.expectedFrequencies = ibdExpFreqs;
-        this.ibsClustering = new IdentityByStateClustering();
+        this.ibsClustering = ibsClustering;
     }
 
     /**
@@ -20,6 +20,7 @@
 package org.opencb.biodata.tools.variant.algorithm;
 
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.stats.IBDExpectedFrequencies;
@@ -85,7 +86,6 @@ public class IdentityByStateClustering {
             throw new IllegalArgumentException("samples.size() is " + samples.size()
                     + " and it should be between 1 and" + MAX_SAMPLES_ALLOWED);
         }
-        final int studyIndex = 0;
 
         // loops
         List<IdentityByState> counts = new ArrayList<>(getAmountOfPairs(samples.size()));
@@ -100,15 +100,7 @@ public class IdentityByStateClustering {
                 expectedFreqs.update(variant);
             }
 
-            forEachPair(samples, (int i, int j, int compoundIndex) -> {
-                StudyEntry studyEntry = variant.getStudies().get(studyIndex);
-                String gtI = studyEntry.getSampleData(samples.get(i), "GT");
-                String gtJ = studyEntry.getSampleData(samples.get(j), "GT");
-                Genotype genotypeI = new Genotype(gtI);
-                Genotype genotypeJ = new Genotype(gtJ);
-                int whichIBS = countSharedAlleles(genotypeI.getAllelesIdx().length, genotypeI, genotypeJ);
-                counts.get(compoundIndex).ibs[whichIBS]++;
-            });
+            countIBS(variant, samples, counts);
         }
         if (expectedFreqs != null) {
             expectedFreqs.done();
@@ -136,13 +128,15 @@ public class IdentityByStateClustering {
     public void countIBS(Variant variant, List<String> samples, List<IdentityByState> counts) {
         final int studyIndex = 0;
 
+        // Parse every genotype once per variant, not once per pair
+        StudyEntry studyEntry = variant.getStudies().get(studyIndex);
+        int[] gts = new int[samples.size()];
+        for (int i = 0; i < gts.length; i++) {
+            gts[i] = GenotypeCodec.encode(studyEntry.getSampleData(samples.get(i), "GT"));
+        }
+
         forEachPair(samples, (int i, int j, int compoundIndex) -> {
-            StudyEntry studyEntry = variant.getStudies().get(studyIndex);
-            String gtI = studyEntry.getSampleData(samples.get(i), "GT");
-            String gtJ = studyEntry.getSampleData(samples.get(j), "GT");
-            Genotype genotypeI = new Genotype(gtI);
-            Genotype genotypeJ = new Genotype(gtJ);
-            int whichIBS = countSharedAlleles(genotypeI.getAllelesIdx().length, genotypeI, genotypeJ);
+            int whichIBS = countSharedAlleles(GenotypeCodec.getPloidy(gts[i]), gts[i], gts[j]);
             counts.get(compoundIndex).ibs[whichIBS]++;
         });
     }
@@ -183,6 +177,35 @@ public class IdentityByStateClustering {
         return whichIBS;
     }
 
+    /**
+     * Same as {@link #countSharedAlleles(int, Genotype, Genotype)}, with the genotypes as {@link GenotypeCodec} codes.
+     * @param allelesCount ploidy
+     * @param genotypeFirst first individual's genotype code
+     * @param genotypeSecond second individual's genotype code
+     * @return shared alleles count.
+     */
+    public int countSharedAlleles(int allelesCount, int genotypeFirst, int genotypeSecond) {
+        int refFirst = 0;
+        int altFirst = 0;
+        int refSecond = 0;
+        int altSecond = 0;
+        for (int k = 0; k < allelesCount; k++) {
+            int alleleFirst = GenotypeCodec.getAllele(genotypeFirst, k);
+            if (alleleFirst == 0) {
+                refFirst++;
+            } else if (alleleFirst == 1) {
+                altFirst++;
+            }
+            int alleleSecond = GenotypeCodec.getAllele(genotypeSecond, k);
+            if (alleleSecond == 0) {
+                refSecond++;
+            } else if (alleleSecond == 1) {
+                altSecond++;
+            }
+        }
+        return Math.min(refFirst, refSecond) + Math.min(altFirst, altSecond);
+    }
+
     /**
      * n choose 2
      * @param samplesCount amount of individuals
@@ -22,6 +22,7 @@ package org.opencb.biodata.tools.variant.converters.avro;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFConstants;
+import org.opencb.biodata.models.variant.ColumnarSampleEntries;
 import org.opencb.biodata.models.variant.Genotype;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantBuilder;
@@ -48,6 +49,7 @@ public class VariantContextToVariantConverter implements Converter<VariantContex
     private final String studyId;
     private final String fileId;
     private LinkedHashMap<String, Integer> samplesPosition;
+    private boolean columnarSamples;
 
     protected Logger logger = LoggerFactory.getLogger(this.getClass().toString());
 
@@ -68,7 +70,18 @@ public class VariantContextToVariantConverter implements Converter<VariantContex
 
     }
 
-    private static LinkedHashMap<String, Integer> createSamplesPositionMap(List<String> samples) {
+    /**
+     * Store the samples data of the converted variants by columns, using a {@link ColumnarSampleEntries}.
+     *
+     * @param columnarSamples Use columnar samples data
+     * @return this
+     */
+    public VariantContextToVariantConverter setColumnarSamples(boolean columnarSamples) {
+        this.columnarSamples = columnarSamples;
+        return this;
+    }
+
+    static LinkedHashMap<String, Integer> createSamplesPositionMap(List<String> samples) {
         if (samples == null) {
             return null;
         }
@@ -210,12 +223,22 @@ public class VariantContextToVariantConverter implements Converter<VariantContex
             logger.warn("Using alphabetical order for samples position!");
             samplesPosition = createSamplesPositionMap(variantContext.getSampleNamesOrderedByName());
         }
-        List<SampleEntry> samples = new ArrayList<>(samplesPosition.size());
+        List<SampleEntry> samples;
+        ColumnarSampleEntries columnarSampleEntries;
+        if (columnarSamples) {
+            columnarSampleEntries = new ColumnarSampleEntries(formatFields, samplesPosition.size());
+            samples = columnarSampleEntries;
+        } else {
+            columnarSampleEntries = null;
+            samples = new ArrayList<>(samplesPosition.size());
+        }
         for (String sampleName : samplesPosition.keySet()) {
             htsjdk.variant.variantcontext.Genotype genotype = variantContext.getGenotype(sampleName);
-            List<String> sampleData = new ArrayList<>(formatFields.size());
+            List<String> sampleData = columnarSamples ? null : new ArrayList<>(formatFields.size());
+            int samplePosition = columnarSamples ? columnarSampleEntries.addSample() : -1;
 
-            for (String formatField : formatFields) {
+            for (int formatIdx = 0; formatIdx < formatFields.size(); formatIdx++) {
+                String formatField = formatFields.get(formatIdx);
                 final String value;
                 switch (formatField) {
                     case VCFConstants.GENOTYPE_KEY:
@@ -242,9 +265,15 @@ public class VariantContextToVariantConverter implements Converter<VariantContex
                         }
                         break;
                 }
-                sampleData.add(value);
+                if (columnarSamples) {
+                    columnarSampleEntries.setData(samplePosition, formatIdx, value);
+                } else {
+                    sampleData.add(value);
+                }
+            }
+            if (!columnarSamples) {
+                samples.add(new SampleEntry(null, null, sampleData));
             }
-            samples.add(new SampleEntry(null, null, sampleData));
         }
         builder.setSamplesPosition(samplesPosition);
         builder.setSamples(samples);
@@ -0,0 +1,838 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.converters.avro;
+
+import htsjdk.tribble.util.ParsingUtils;
+import htsjdk.variant.vcf.*;
+import org.opencb.biodata.models.variant.ColumnarSampleEntries;
+import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantBuilder;
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+import org.opencb.biodata.models.variant.avro.VariantType;
+
+import java.util.*;
+
+/**
+ * Converts VCF lines into {@link Variant}s without building an htsjdk VariantContext.
+ *
+ * The line is split in place, and the repeated strings (chromosomes, INFO keys, FORMAT definitions, genotypes and
+ * short sample values) are taken from small caches looked up by the region of the line, so most of the fields do not
+ * create any new String.
+ *
+ * The variants are the same as the ones produced by the FullVcfCodec and the {@link VariantContextToVariantConverter},
+ * including their quirks, like the order of the sample data keys, or the value "-1" for missing GQ and DP.
+ * Lines that can not be converted exactly the same way (e.g. breakends, FT values, percent encoded values in VCF 4.3,
+ * or malformed lines) are not converted, and {@link #convert(String)} returns null. These lines should be read
+ * with htsjdk.
+ *
+ * @see org.opencb.biodata.formats.variant.vcf4.FullVcfCodec
+ */
+public class VcfLineToVariantConverter {
+
+    private static final int NUM_STANDARD_FIELDS = 8;
+    /** Values longer than this are not cached. */
+    private static final int MAX_CACHED_LENGTH = 16;
+    private static final int MAX_CACHE_SIZE = 1 << 14;
+    /** Marker of unsupported values. Compared by reference. */
+    private static final String INVALID = new String("INVALID");
+    /** Genotype likelihoods key, VCFConstants.GENOTYPE_LIKELIHOODS_KEY is deprecated. */
+    private static final String GL_KEY = "GL";
+
+    private static final int GT = 0;
+    private static final int GQ = 1;
+    private static final int DP = 2;
+    private static final int INT_LIST = 3;
+    private static final int OTHER = 4;
+
+    private final String studyId;
+    private final String fileId;
+    private final VCFHeader header;
+    private final VCFHeaderVersion version;
+    private final boolean percentEncoded;
+    private final int numSamples;
+    private final int numColumns;
+    private final LinkedHashMap<String, Integer> samplesPosition;
+    private boolean columnarSamples;
+
+    private final StringCache<String> strings = new StringCache<>();
+    private final StringCache<FormatKeys> formats = new StringCache<>();
+    private final StringCache<GenotypeValue> genotypes = new StringCache<>();
+    private final StringCache<String> filters = new StringCache<>();
+
+    // Reused buffers
+    private final int[] columnEnds;
+    private int[] valueEnds = new int[16];
+
+    /**
+     * @param studyId   Study id
+     * @param fileId    File id
+     * @param header    VCF header, with the samples in the order of the columns
+     * @param version   VCF version
+     */
+    public VcfLineToVariantConverter(String studyId, String fileId, VCFHeader header, VCFHeaderVersion version) {
+        this.studyId = studyId;
+        this.fileId = fileId;
+        this.header = header;
+        this.version = version;
+        this.percentEncoded = version != null && version.isAtLeastAsRecentAs(VCFHeaderVersion.VCF4_3);
+        List<String> samples = header.getGenotypeSamples();
+        this.numSamples = samples.size();
+        this.numColumns = numSamples == 0 ? NUM_STANDARD_FIELDS : NUM_STANDARD_FIELDS + 1 + numSamples;
+        this.samplesPosition = VariantContextToVariantConverter.createSamplesPositionMap(samples);
+        this.columnEnds = new int[numColumns];
+    }
+
+    /**
+     * Store the samples data of the converted variants by columns, using a {@link ColumnarSampleEntries}.
+     *
+     * @param columnarSamples Use columnar samples data
+     * @return this
+     */
+    public VcfLineToVariantConverter setColumnarSamples(boolean columnarSamples) {
+        this.columnarSamples = columnarSamples;
+        return this;
+    }
+
+    /**
+     * Convert a VCF data line.
+     *
+     * @param line  VCF line, without the line break
+     * @return the variant, or null if the line has to be read with htsjdk
+     */
+    public Variant convert(String line) {
+        if (!splitColumns(line) || percentEncoded && line.indexOf('%') >= 0) {
+            return null;
+        }
+        try {
+            VariantBuilder builder = getBuilder(line);
+            return builder == null ? null : builder.build(new Variant());
+        } catch (NumberFormatException e) {
+            // Let htsjdk report the error
+            return null;
+        }
+    }
+
+    private VariantBuilder getBuilder(String line) {
+        int pos = parsePosition(line, columnStart(1), columnEnds[1]);
+        if (pos < 0) {
+            return null;
+        }
+
+        // REF and ALT
+        String reference = parseAllele(line, columnStart(3), columnEnds[3], true);
+        if (reference == null) {
+            return null;
+        }
+        List<String> alternates = parseAlternates(line, columnStart(4), columnEnds[4]);
+        if (alternates == null) {
+            return null;
+        }
+        int numAlleles = alternates.size() + 1;
+
+        VariantBuilder builder = Variant.newBuilder()
+                .setChromosome(cachedString(line, 0, columnEnds[0]))
+                .setStart(pos)
+                .setStudyId(studyId)
+                .setFileId(fileId)
+                .setReference(reference);
+        if (alternates.isEmpty()) {
+            builder.setAlternate("");
+        } else {
+            builder.setAlternates(alternates);
+        }
+
+        // ID
+        List<String> ids = parseIds(line, columnStart(2), columnEnds[2]);
+        if (ids == null) {
+            return null;
+        }
+        builder.setNames(ids);
+
+        if (numAlleles == 1) {
+            builder.setType(VariantType.NO_VARIATION);
+        }
+
+        // INFO. htsjdk uses the END key, if any, to compute the end of the variant
+        String end = parseInfo(line, columnStart(7), columnEnds[7], builder);
+        if (end == INVALID) {
+            return null;
+        } else if (end == null) {
+            builder.setEnd(pos + reference.length() - 1);
+        } else {
+            builder.setEnd(Integer.parseInt(end));
+        }
+
+        // QUAL
+        if (!parseQuality(line, columnStart(5), columnEnds[5], builder)) {
+            return null;
+        }
+
+        // FILTER
+        String filter = parseFilter(line, columnStart(6), columnEnds[6]);
+        if (filter == null) {
+            return null;
+        }
+        builder.setFilter(filter);
+
+        // FORMAT and samples
+        if (!parseSamples(line, numAlleles, builder)) {
+            return null;
+        }
+        return builder;
+    }
+
+    private boolean splitColumns(String line) {
+        int column = 0;
+        int idx = line.indexOf('\t');
+        while (idx >= 0) {
+            if (column == numColumns - 1) {
+                return false;
+            }
+            columnEnds[column++] = idx;
+            idx = line.indexOf('\t', idx + 1);
+        }
+        columnEnds[column++] = line.length();
+        return column == numColumns;
+    }
+
+    private int columnStart(int column) {
+        return column == 0 ? 0 : columnEnds[column - 1] + 1;
+    }
+
+    private static int parsePosition(String line, int start, int end) {
+        if (start == end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Plain alleles are made of ACGTN, and are upper cased. Symbolic alleles like &lt;DEL&gt; are kept as they are.
+     * Breakends and any other allele are not supported.
+     */
+    private String parseAllele(String line, int start, int end, boolean reference) {
+        int length = end - start;
+        if (length == 0) {
+            return null;
+        }
+        char first = line.charAt(start);
+        if (!reference && length == 1 && first == '*') {
+            return "*";
+        }
+        if (!reference && length > 1 && first == '<') {
+            if (line.charAt(end - 1) != '>') {
+                return null;
+            }
+            for (int i = start; i < end; i++) {
+                char c = line.charAt(i);
+                if (c == '[' || c == ']') {
+                    return null;
+                }
+            }
+            return cachedString(line, start, end);
+        }
+        boolean upperCase = true;
+        for (int i = start; i < end; i++) {
+            switch (line.charAt(i)) {
+                case 'A':
+                case 'C':
+                case 'G':
+                case 'T':
+                case 'N':
+                    break;
+                case 'a':
+                case 'c':
+                case 'g':
+                case 't':
+                case 'n':
+                    upperCase = false;
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return upperCase ? cachedString(line, start, end) : line.substring(start, end).toUpperCase();
+    }
+
+    /**
+     * @return the alternates, without missing alleles, or null if not supported
+     */
+    private List<String> parseAlternates(String line, int start, int end) {
+        List<String> alternates = new ArrayList<>(2);
+        int alleleStart = start;
+        while (alleleStart <= end) {
+            int alleleEnd = line.indexOf(',', alleleStart);
+            if (alleleEnd < 0 || alleleEnd > end) {
+                alleleEnd = end;
+            }
+            if (alleleEnd - alleleStart != 1 || line.charAt(alleleStart) != '.') {
+                String alternate = parseAllele(line, alleleStart, alleleEnd, false);
+                if (alternate == null || alternates.contains(alternate)) {
+                    return null;
+                }
+                alternates.add(alternate);
+            }
+            alleleStart = alleleEnd + 1;
+        }
+        return alternates;
+    }
+
+    private static List<String> parseIds(String line, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+        if (end - start == 1 && line.charAt(start) == '.') {
+            return new ArrayList<>(0);
+        }
+        String[] idsArray = line.substring(start, end).split(VCFConstants.ID_FIELD_SEPARATOR);
+        List<String> ids = new ArrayList<>(idsArray.length);
+        for (String id : idsArray) {
+            if (!id.equals(VCFConstants.MISSING_VALUE_v4)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Add the INFO fields to the builder, with the values given by htsjdk: flags are "true", and empty values ".".
+     *
+     * @return the value of the END key, null if missing, or {@link #INVALID} if not supported
+     */
+    private String parseInfo(String line, int start, int end, VariantBuilder builder) {
+        if (start == end) {
+            return INVALID;
+        }
+        if (end - start == 1 && line.charAt(start) == '.') {
+            return null;
+        }
+        String endValue = null;
+        int fieldStart = start;
+        while (fieldStart <= end) {
+            int fieldEnd = line.indexOf(';', fieldStart);
+            if (fieldEnd < 0 || fieldEnd > end) {
+                fieldEnd = end;
+            }
+            int equals = fieldStart;
+            while (equals < fieldEnd && line.charAt(equals) != '=') {
+                if (line.charAt(equals) == ' ') {
+                    return INVALID;
+                }
+                equals++;
+            }
+            String key = cachedString(line, fieldStart, equals);
+            String value;
+            if (equals == fieldEnd) {
+                VCFInfoHeaderLine headerLine = header.getInfoHeaderLine(key);
+                if (headerLine != null && headerLine.getType() != VCFHeaderLineType.Flag) {
+                    value = VCFConstants.MISSING_VALUE_v4;
+                } else {
+                    value = "true";
+                }
+            } else {
+                for (int i = equals + 1; i < fieldEnd; i++) {
+                    if (line.charAt(i) == ' ') {
+                        return INVALID;
+                    }
+                }
+                if (equals + 1 == fieldEnd) {
+                    value = VCFConstants.MISSING_VALUE_v4;
+                } else {
+                    value = cachedString(line, equals + 1, fieldEnd);
+                    if (value.equals("0")) {
+                        VCFInfoHeaderLine headerLine = header.getInfoHeaderLine(key);
+                        if (headerLine != null && headerLine.getType() == VCFHeaderLineType.Flag) {
+                            // False flag
+                            value = null;
+                        }
+                    }
+                }
+            }
+            if (value != null) {
+                builder.addFileData(key, value);
+                if (key.equals(VCFConstants.END_KEY)) {
+                    endValue = value;
+                }
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return endValue;
+    }
+
+    private static boolean parseQuality(String line, int start, int end, VariantBuilder builder) {
+        if (end - start == 1 && line.charAt(start) == '.') {
+            return true;
+        }
+        double qual = VCFUtils.parseVcfDouble(line.substring(start, end));
+        if (Double.isNaN(qual) || Double.isInfinite(qual)) {
+            return false;
+        } else if (qual < 0) {
+            // Missing quality in VCF 3
+            return Math.abs(qual - VCFConstants.MISSING_QUALITY_v3_DOUBLE) < VCFConstants.VCF_ENCODING_EPSILON;
+        }
+        // Same rounding as htsjdk, that stores the log10 of the error probability
+        double log10PError = qual / -10.0;
+        builder.setQuality(log10PError * -10.0 + 0.0);
+        return true;
+    }
+
+    private String parseFilter(String line, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+        String filter = filters.get(line, start, end);
+        if (filter == null) {
+            String filterString = line.substring(start, end);
+            if (filterString.equals(VCFConstants.PASSES_FILTERS_v3)) {
+                return null;
+            } else if (filterString.equals(VCFConstants.UNFILTERED)
+                    || filterString.equals(VCFConstants.PASSES_FILTERS_v4)
+                    || filterString.indexOf(';') < 0) {
+                filter = filterString;
+            } else {
+                TreeSet<String> filterSet = new TreeSet<>(Arrays.asList(filterString.split(VCFConstants.FILTER_CODE_SEPARATOR)));
+                filter = filterSet.isEmpty()
+                        ? VCFConstants.PASSES_FILTERS_v4
+                        : String.join(VCFConstants.FILTER_CODE_SEPARATOR, filterSet);
+            }
+            filters.put(filterString, filter);
+        }
+        return filter;
+    }
+
+    private boolean parseSamples(String line, int numAlleles, VariantBuilder builder) {
+        if (numSamples == 0) {
+            List<String> sampleDataKeys = new ArrayList<>(10);
+            builder.setSampleDataKeys(sampleDataKeys);
+            builder.setSamplesPosition(samplesPosition);
+            builder.setSamples(columnarSamples
+                    ? new ColumnarSampleEntries(sampleDataKeys, 0)
+                    : new ArrayList<>(0));
+            return true;
+        }
+        int formatStart = columnStart(NUM_STANDARD_FIELDS);
+        int formatEnd = columnEnds[NUM_STANDARD_FIELDS];
+        FormatKeys format = formats.get(line, formatStart, formatEnd);
+        if (format == null) {
+            format = new FormatKeys(line.substring(formatStart, formatEnd), version);
+            formats.put(format.format, format);
+        }
+        if (!format.supported) {
+            return false;
+        }
+
+        List<String> sampleDataKeys = new ArrayList<>(format.sampleDataKeys);
+        builder.setSampleDataKeys(sampleDataKeys);
+
+        List<SampleEntry> samples;
+        ColumnarSampleEntries columnarSampleEntries;
+        if (columnarSamples) {
+            columnarSampleEntries = new ColumnarSampleEntries(sampleDataKeys, numSamples);
+            samples = columnarSampleEntries;
+        } else {
+            columnarSampleEntries = null;
+            samples = new ArrayList<>(numSamples);
+        }
+
+        int numKeys = format.keys.length;
+        if (valueEnds.length < numKeys) {
+            valueEnds = new int[numKeys];
+        }
+        for (int sample = 0; sample < numSamples; sample++) {
+            int sampleStart = columnStart(NUM_STANDARD_FIELDS + 1 + sample);
+            int sampleEnd = columnEnds[NUM_STANDARD_FIELDS + 1 + sample];
+            int numValues = splitValues(line, sampleStart, sampleEnd, numKeys);
+            if (numValues < 0) {
+                return false;
+            }
+
+            List<String> sampleData = columnarSamples ? null : new ArrayList<>(numKeys);
+            int samplePosition = columnarSamples ? columnarSampleEntries.addSample() : -1;
+            for (int i = 0; i < numKeys; i++) {
+                int keyIdx = format.order[i];
+                int valueStart = keyIdx == 0 ? sampleStart : valueEnds[keyIdx - 1] + 1;
+                int valueEnd = valueEnds[keyIdx];
+                boolean missing = keyIdx >= numValues
+                        || valueEnd - valueStart == 1 && line.charAt(valueStart) == '.';
+                final String value;
+                switch (format.types[keyIdx]) {
+                    case GT:
+                        value = parseGenotype(line, valueStart, valueEnd, numAlleles);
+                        break;
+                    case GQ:
+                        value = missing || line.startsWith(VCFConstants.MISSING_GENOTYPE_QUALITY_v3, valueStart)
+                                && valueEnd - valueStart == 2
+                                ? "-1"
+                                : parseGenotypeQuality(line, valueStart, valueEnd);
+                        break;
+                    case DP:
+                        value = missing ? "-1" : parseInt(line, valueStart, valueEnd);
+                        break;
+                    case INT_LIST:
+                        value = missing ? "" : parseIntList(line, valueStart, valueEnd);
+                        break;
+                    case OTHER:
+                    default:
+                        value = missing ? VCFConstants.MISSING_VALUE_v4 : cachedString(line, valueStart, valueEnd);
+                        break;
+                }
+                if (value == null) {
+                    return false;
+                }
+                if (columnarSamples) {
+                    columnarSampleEntries.setData(samplePosition, i, value);
+                } else {
+                    sampleData.add(value);
+                }
+            }
+            if (!columnarSamples) {
+                samples.add(new SampleEntry(null, null, sampleData));
+            }
+        }
+        builder.setSamplesPosition(samplesPosition);
+        builder.setSamples(samples);
+        return true;
+    }
+
+    /**
+     * Find the end of each value of the sample.
+     *
+     * @return number of values, or -1 if there are more values than keys
+     */
+    private int splitValues(String line, int start, int end, int numKeys) {
+        int numValues = 0;
+        int idx = line.indexOf(':', start);
+        while (idx >= 0 && idx < end) {
+            if (numValues == numKeys - 1) {
+                return -1;
+            }
+            valueEnds[numValues++] = idx;
+            idx = line.indexOf(':', idx + 1);
+        }
+        valueEnds[numValues++] = end;
+        // Missing values
+        for (int i = numValues; i < numKeys; i++) {
+            valueEnds[i] = end;
+        }
+        return numValues;
+    }
+
+    private String parseGenotype(String line, int start, int end, int numAlleles) {
+        GenotypeValue genotype = genotypes.get(line, start, end);
+        if (genotype == null) {
+            genotype = new GenotypeValue(line.substring(start, end));
+            genotypes.put(genotype.genotype, genotype);
+        }
+        return genotype.maxAllele < numAlleles ? genotype.value : null;
+    }
+
+    private String parseGenotypeQuality(String line, int start, int end) {
+        if (isCanonicalInt(line, start, end)) {
+            return cachedString(line, start, end);
+        }
+        return String.valueOf((int) Math.round(VCFUtils.parseVcfDouble(line.substring(start, end))));
+    }
+
+    private String parseInt(String line, int start, int end) {
+        if (isCanonicalInt(line, start, end)) {
+            return cachedString(line, start, end);
+        }
+        return String.valueOf(Integer.parseInt(line.substring(start, end)));
+    }
+
+    /**
+     * Lists of integers, like AD and PL, are decoded by htsjdk. Invalid lists are empty.
+     */
+    private String parseIntList(String line, int start, int end) {
+        boolean canonical = true;
+        int valueStart = start;
+        while (valueStart <= end) {
+            int valueEnd = line.indexOf(',', valueStart);
+            if (valueEnd < 0 || valueEnd > end) {
+                valueEnd = end;
+            }
+            if (!isCanonicalInt(line, valueStart, valueEnd)) {
+                canonical = false;
+                break;
+            }
+            valueStart = valueEnd + 1;
+        }
+        if (canonical) {
+            return cachedString(line, start, end);
+        }
+        List<String> values = ParsingUtils.split(line.substring(start, end), ',');
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (String value : values) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(Integer.parseInt(value));
+            }
+        } catch (NumberFormatException e) {
+            return "";
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return if the value is an integer written the same way as by {@link Integer#toString(int)}
+     */
+    private static boolean isCanonicalInt(String line, int start, int end) {
+        int length = end - start;
+        if (length == 0 || length > 9) {
+            return false;
+        }
+        int i = start;
+        if (line.charAt(i) == '-') {
+            if (length == 1 || line.charAt(i + 1) == '0') {
+                return false;
+            }
+            i++;
+        } else if (line.charAt(i) == '0' && length > 1) {
+            return false;
+        }
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String cachedString(String line, int start, int end) {
+        if (end - start > MAX_CACHED_LENGTH) {
+            return line.substring(start, end);
+        }
+        String value = strings.get(line, start, end);
+        if (value == null) {
+            value = line.substring(start, end);
+            strings.put(value, value);
+        }
+        return value;
+    }
+
+    /**
+     * Keys of a FORMAT column. The sample data keys are sorted as in {@link VariantContextToVariantConverter}, that
+     * takes the keys from the attributes map of the htsjdk genotype, and moves the GT to the first position.
+     */
+    private static final class FormatKeys {
+        private final String format;
+        private final String[] keys;
+        private final int[] types;
+        private final List<String> sampleDataKeys;
+        private final int[] order;
+        private final boolean supported;
+
+        private FormatKeys(String format, VCFHeaderVersion version) {
+            this.format = format;
+            keys = ParsingUtils.split(format, VCFConstants.GENOTYPE_FIELD_SEPARATOR_CHAR).toArray(new String[0]);
+            types = new int[keys.length];
+
+            // Same map as in the htsjdk GenotypeBuilder
+            Map<String, Integer> attributes = new HashMap<>(keys.length - 1);
+            for (int i = 0; i < keys.length; i++) {
+                attributes.put(keys[i], i);
+            }
+            sampleDataKeys = new ArrayList<>(keys.length);
+            List<Integer> orderList = new ArrayList<>(keys.length);
+            for (Map.Entry<String, Integer> entry : attributes.entrySet()) {
+                if (entry.getKey().equals(VCFConstants.GENOTYPE_KEY)) {
+                    sampleDataKeys.add(0, entry.getKey());
+                    orderList.add(0, entry.getValue());
+                } else {
+                    sampleDataKeys.add(entry.getKey());
+                    orderList.add(entry.getValue());
+                }
+            }
+            order = new int[orderList.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = orderList.get(i);
+            }
+
+            boolean hasGt = false;
+            boolean hasPl = false;
+            boolean hasGl = false;
+            boolean valid = attributes.size() == keys.length;
+            for (int i = 0; i < keys.length; i++) {
+                switch (keys[i]) {
+                    case VCFConstants.GENOTYPE_KEY:
+                        types[i] = GT;
+                        hasGt = true;
+                        // GT must be the first key
+                        valid &= i == 0;
+                        break;
+                    case VCFConstants.GENOTYPE_QUALITY_KEY:
+                        types[i] = GQ;
+                        break;
+                    case VCFConstants.DEPTH_KEY:
+                        types[i] = DP;
+                        break;
+                    case VCFConstants.GENOTYPE_ALLELE_DEPTHS:
+                        types[i] = INT_LIST;
+                        break;
+                    case VCFConstants.GENOTYPE_PL_KEY:
+                        types[i] = INT_LIST;
+                        hasPl = true;
+                        break;
+                    case GL_KEY:
+                        types[i] = OTHER;
+                        hasGl = true;
+                        break;
+                    case VCFConstants.GENOTYPE_FILTER_KEY:
+                        // Filters are parsed and sorted by htsjdk
+                        valid = false;
+                        break;
+                    default:
+                        types[i] = OTHER;
+                        break;
+                }
+            }
+            // htsjdk may fill the PL values with the GL values
+            valid &= !(hasPl && hasGl);
+            valid &= hasGt || version == null || version.isAtLeastAsRecentAs(VCFHeaderVersion.VCF4_1);
+            supported = valid;
+        }
+    }
+
+    /**
+     * Genotype as written by {@link VariantContextToVariantConverter}, with the allele indexes read by htsjdk.
+     */
+    private static final class GenotypeValue {
+        private final String genotype;
+        private final String value;
+        /** Maximum allele index. Integer.MAX_VALUE for invalid genotypes. */
+        private final int maxAllele;
+
+        private GenotypeValue(String genotype) {
+            this.genotype = genotype;
+            StringBuilder sb = new StringBuilder(genotype.length());
+            char separator = genotype.indexOf(VCFConstants.PHASED) >= 0 ? '|' : '/';
+            int max = -1;
+            boolean valid = true;
+            StringTokenizer st = new StringTokenizer(genotype, VCFConstants.PHASING_TOKENS);
+            while (st.hasMoreTokens()) {
+                String allele = st.nextToken();
+                if (sb.length() > 0) {
+                    sb.append(separator);
+                }
+                if (allele.equals(VCFConstants.EMPTY_ALLELE)) {
+                    sb.append(VCFConstants.EMPTY_ALLELE);
+                } else {
+                    int idx;
+                    try {
+                        idx = Integer.parseInt(allele);
+                    } catch (NumberFormatException e) {
+                        valid = false;
+                        break;
+                    }
+                    if (idx < 0) {
+                        valid = false;
+                        break;
+                    }
+                    max = Math.max(max, idx);
+                    sb.append(idx);
+                }
+            }
+            if (!valid || sb.length() == 0) {
+                value = null;
+                maxAllele = Integer.MAX_VALUE;
+            } else {
+                String gt = sb.toString();
+                // sometimes (FreeBayes) a single '.' is written for some samples
+                value = gt.equals(VCFConstants.EMPTY_ALLELE) ? "./." : new Genotype(gt).toString();
+                maxAllele = max;
+            }
+        }
+    }
+
+    /**
+     * Small open addressing hash table, where the keys can be looked up by a region of a bigger string without
+     * creating a substring. Cleared when full.
+     *
+     * @param <V> Values type
+     */
+    private static final class StringCache<V> {
+        private String[] keys = new String[64];
+        private Object[] values = new Object[64];
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        private V get(String line, int start, int end) {
+            int mask = keys.length - 1;
+            int length = end - start;
+            for (int i = hash(line, start, end) & mask; keys[i] != null; i = (i + 1) & mask) {
+                String key = keys[i];
+                if (key.length() == length && line.regionMatches(start, key, 0, length)) {
+                    return (V) values[i];
+                }
+            }
+            return null;
+        }
+
+        private void put(String key, V value) {
+            if (size >= MAX_CACHE_SIZE) {
+                Arrays.fill(keys, null);
+                Arrays.fill(values, null);
+                size = 0;
+            } else if (size * 2 >= keys.length) {
+                String[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new String[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+            size++;
+        }
+
+        private void insert(String key, Object value) {
+            int mask = keys.length - 1;
+            int i = hash(key, 0, key.length()) & mask;
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private static int hash(String line, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + line.charAt(i);
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
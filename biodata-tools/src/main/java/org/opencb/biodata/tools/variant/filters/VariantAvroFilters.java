@@ -26,6 +26,7 @@ import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.FileEntry;
 import org.opencb.biodata.models.variant.avro.SampleEntry;
 import org.opencb.biodata.models.variant.avro.VariantType;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
 import java.util.*;
 import java.util.function.Predicate;
@@ -101,19 +102,20 @@ public class VariantAvroFilters extends VariantFilters<Variant> {
 
     @Override
     public VariantAvroFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<Variant>> predicates = new ArrayList<>(regions.size());
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
+        return addRegionFilter(new RegionIndex(regions), contained);
+    }
+
+    @Override
+    public VariantAvroFilters addRegionFilter(RegionIndex regionIndex, boolean contained) {
+        // Records are usually sorted, so each thread sweeps the regions with its own cursor
+        ThreadLocal<RegionIndex.Cursor> cursors = ThreadLocal.withInitial(regionIndex::cursor);
+        if (contained) {
+            filters.add(variant -> cursors.get().contains(variant.getChromosome(), variant.getStart(),
+                    variant.getEnd()));
+        } else {
+            filters.add(variant -> cursors.get().overlaps(variant.getChromosome(), variant.getStart(),
+                    variant.getEnd()));
         }
-        addFilterList(predicates);
         return this;
     }
 
@@ -22,6 +22,7 @@ package org.opencb.biodata.tools.variant.filters;
 import htsjdk.variant.variantcontext.VariantContext;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
 import java.util.*;
 import java.util.function.Predicate;
@@ -87,19 +88,20 @@ public class VariantContextFilters extends VariantFilters<VariantContext> {
 
     @Override
     public VariantContextFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<VariantContext>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getContig().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getContig().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
+        return addRegionFilter(new RegionIndex(regions), contained);
+    }
+
+    @Override
+    public VariantContextFilters addRegionFilter(RegionIndex regionIndex, boolean contained) {
+        // Records are usually sorted, so each thread sweeps the regions with its own cursor
+        ThreadLocal<RegionIndex.Cursor> cursors = ThreadLocal.withInitial(regionIndex::cursor);
+        if (contained) {
+            filters.add(variant -> cursors.get().contains(variant.getContig(), variant.getStart(),
+                    variant.getEnd()));
+        } else {
+            filters.add(variant -> cursors.get().overlaps(variant.getContig(), variant.getStart(),
+                    variant.getEnd()));
         }
-        addFilterList(predicates);
         return this;
     }
 }
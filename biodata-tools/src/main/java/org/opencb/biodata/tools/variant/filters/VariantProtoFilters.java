@@ -21,12 +21,10 @@ package org.opencb.biodata.tools.variant.filters;
 
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.commons.RegionIndex;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.function.Predicate;
 
 /**
  * Created by joaquin on 11/14/16.
@@ -77,19 +75,20 @@ public class VariantProtoFilters extends VariantFilters<VariantProto.Variant> {
 
     @Override
     public VariantProtoFilters addRegionFilter(List<Region> regions, boolean contained) {
-        List<Predicate<VariantProto.Variant>> predicates = new ArrayList<>();
-        for (Region region: regions) {
-            if (contained) {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() >= region.getStart()
-                        && variant.getEnd() <= region.getEnd());
-            } else {
-                predicates.add(variant -> variant.getChromosome().equals(region.getChromosome())
-                        && variant.getStart() <= region.getEnd()
-                        && variant.getEnd() >= region.getStart());
-            }
+        return addRegionFilter(new RegionIndex(regions), contained);
+    }
+
+    @Override
+    public VariantProtoFilters addRegionFilter(RegionIndex regionIndex, boolean contained) {
+        // Records are usually sorted, so each thread sweeps the regions with its own cursor
+        ThreadLocal<RegionIndex.Cursor> cursors = ThreadLocal.withInitial(regionIndex::cursor);
+        if (contained) {
+            filters.add(variant -> cursors.get().contains(variant.getChromosome(), variant.getStart(),
+                    variant.getEnd()));
+        } else {
+            filters.add(variant -> cursors.get().overlaps(variant.getChromosome(), variant.getStart(),
+                    variant.getEnd()));
         }
-        addFilterList(predicates);
         return this;
     }
 
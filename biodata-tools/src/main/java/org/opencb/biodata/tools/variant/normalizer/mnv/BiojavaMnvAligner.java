@@ -0,0 +1,78 @@
+package org.opencb.biodata.tools.variant.normalizer.mnv;
+
+import org.biojava.nbio.alignment.Alignments;
+import org.biojava.nbio.alignment.SimpleGapPenalty;
+import org.biojava.nbio.alignment.SubstitutionMatrixHelper;
+import org.biojava.nbio.alignment.template.SequencePair;
+import org.biojava.nbio.alignment.template.SubstitutionMatrix;
+import org.biojava.nbio.core.exceptions.CompoundNotFoundException;
+import org.biojava.nbio.core.sequence.DNASequence;
+import org.biojava.nbio.core.sequence.compound.AmbiguityDNACompoundSet;
+import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
+import org.opencb.biodata.tools.variant.exceptions.VariantNormalizerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MNV aligner using the BioJava Needleman-Wunsch global alignment with the NUC.4.4 substitution matrix and affine
+ * gap penalties.
+ */
+public class BiojavaMnvAligner implements MnvAligner {
+
+    public static final int DEFAULT_GAP_OPEN_PENALTY = 5;
+    public static final int DEFAULT_GAP_EXTENSION_PENALTY = 2;
+
+    private final int gapOpenPenalty;
+    private final int gapExtensionPenalty;
+
+    private final Logger logger = LoggerFactory.getLogger(BiojavaMnvAligner.class);
+
+    public BiojavaMnvAligner() {
+        this(DEFAULT_GAP_OPEN_PENALTY, DEFAULT_GAP_EXTENSION_PENALTY);
+    }
+
+    public BiojavaMnvAligner(int gapOpenPenalty, int gapExtensionPenalty) {
+        this.gapOpenPenalty = gapOpenPenalty;
+        this.gapExtensionPenalty = gapExtensionPenalty;
+    }
+
+    @Override
+    public void align(String reference, String alternate, StringBuilder alignedReference,
+                      StringBuilder alignedAlternate) {
+        SequencePair<DNASequence, NucleotideCompound> sequenceAlignment = getPairwiseAlignment(reference, alternate);
+        alignedReference.setLength(0);
+        alignedReference.append(sequenceAlignment.getTarget().getSequenceAsString());
+        alignedAlternate.setLength(0);
+        alignedAlternate.append(sequenceAlignment.getQuery().getSequenceAsString());
+    }
+
+    private SequencePair<DNASequence, NucleotideCompound> getPairwiseAlignment(String seq1, String seq2) {
+        DNASequence target = null;
+        DNASequence query = null;
+        try {
+            target = new DNASequence(seq1, AmbiguityDNACompoundSet.getDNACompoundSet());
+            query = new DNASequence(seq2, AmbiguityDNACompoundSet.getDNACompoundSet());
+        } catch (CompoundNotFoundException e) {
+            String msg = "Error when creating DNASequence objects for " + seq1 + " and " + seq2 + " prior to pairwise "
+                    + "sequence alignment";
+            logger.error(msg, e);
+            throw new VariantNormalizerException(msg, e);
+        }
+        SubstitutionMatrix<NucleotideCompound> substitutionMatrix = SubstitutionMatrixHelper.getNuc4_4();
+        SimpleGapPenalty gapP = new SimpleGapPenalty();
+        gapP.setOpenPenalty((short) gapOpenPenalty);
+        gapP.setExtensionPenalty((short) gapExtensionPenalty);
+        SequencePair<DNASequence, NucleotideCompound> psa = Alignments.getPairwiseAlignment(query, target,
+                Alignments.PairwiseSequenceAlignerType.GLOBAL, gapP, substitutionMatrix);
+
+        return psa;
+    }
+
+    public int getGapOpenPenalty() {
+        return gapOpenPenalty;
+    }
+
+    public int getGapExtensionPenalty() {
+        return gapExtensionPenalty;
+    }
+}
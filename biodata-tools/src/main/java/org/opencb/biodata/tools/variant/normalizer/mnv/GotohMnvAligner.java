@@ -0,0 +1,258 @@
+package org.opencb.biodata.tools.variant.normalizer.mnv;
+
+import java.util.Arrays;
+
+/**
+ * Needleman-Wunsch global aligner with affine gap penalties (Gotoh) specialized for nucleotide alleles.
+ *
+ * Uses the NUC.4.4 substitution matrix and replicates the recurrences and the tie-breaking rules of the BioJava
+ * global aligner used in {@link BiojavaMnvAligner}, so both produce the same alignments. Sequences are scored as byte
+ * arrays with dynamic programming buffers that are reused between calls (one set per thread), so no objects are
+ * created apart from the output.
+ *
+ * Alleles with characters out of the NUC.4.4 alphabet (A, C, G, T, IUPAC ambiguity codes and N, in upper case) are
+ * delegated to the {@link BiojavaMnvAligner}.
+ */
+public class GotohMnvAligner implements MnvAligner {
+
+    // NUC.4.4 matrix, rows and columns in the order of the alphabet
+    private static final String NUC_4_4_ALPHABET = "ATGCSWRYKMBVHDN";
+    private static final int[][] NUC_4_4 = {
+            {5, -4, -4, -4, -4, 1, 1, -4, -4, 1, -4, -1, -1, -1, -2},
+            {-4, 5, -4, -4, -4, 1, -4, 1, 1, -4, -1, -4, -1, -1, -2},
+            {-4, -4, 5, -4, 1, -4, 1, -4, 1, -4, -1, -1, -4, -1, -2},
+            {-4, -4, -4, 5, 1, -4, -4, 1, -4, 1, -1, -1, -1, -4, -2},
+            {-4, -4, 1, 1, -1, -4, -2, -2, -2, -2, -1, -1, -3, -3, -1},
+            {1, 1, -4, -4, -4, -1, -2, -2, -2, -2, -3, -3, -1, -1, -1},
+            {1, -4, 1, -4, -2, -2, -1, -4, -2, -2, -3, -1, -3, -1, -1},
+            {-4, 1, -4, 1, -2, -2, -4, -1, -2, -2, -1, -3, -1, -3, -1},
+            {-4, 1, 1, -4, -2, -2, -2, -2, -1, -4, -1, -3, -3, -1, -1},
+            {1, -4, -4, 1, -2, -2, -2, -2, -4, -1, -3, -1, -1, -3, -1},
+            {-4, -1, -1, -1, -1, -3, -3, -1, -1, -3, -1, -2, -2, -2, -1},
+            {-1, -4, -1, -1, -1, -3, -1, -3, -3, -1, -2, -1, -2, -2, -1},
+            {-1, -1, -4, -1, -3, -1, -3, -1, -3, -1, -2, -2, -1, -2, -1},
+            {-1, -1, -1, -4, -3, -1, -1, -3, -1, -3, -2, -2, -2, -1, -1},
+            {-2, -2, -2, -2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1},
+    };
+    private static final byte[] CODES = new byte[128];
+
+    static {
+        Arrays.fill(CODES, (byte) -1);
+        for (int i = 0; i < NUC_4_4_ALPHABET.length(); i++) {
+            CODES[NUC_4_4_ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    // Traceback pointers. Same meaning as in the BioJava aligner: the alternate (query) is the first dimension
+    private static final byte NONE = -1;
+    private static final byte SUBSTITUTION = 0;
+    private static final byte DELETION = 1;
+    private static final byte INSERTION = 2;
+
+    // Penalties as negative scores
+    private final int gop;
+    private final int gep;
+    private final MnvAligner fallbackAligner;
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    public GotohMnvAligner() {
+        this(BiojavaMnvAligner.DEFAULT_GAP_OPEN_PENALTY, BiojavaMnvAligner.DEFAULT_GAP_EXTENSION_PENALTY);
+    }
+
+    public GotohMnvAligner(int gapOpenPenalty, int gapExtensionPenalty) {
+        if (gapOpenPenalty == 0 || gapExtensionPenalty == 0) {
+            // BioJava would use a different scoring scheme, only affine penalties are implemented
+            throw new IllegalArgumentException("Gap open and gap extension penalties must be non zero, found "
+                    + gapOpenPenalty + " and " + gapExtensionPenalty);
+        }
+        this.gop = -Math.abs(gapOpenPenalty);
+        this.gep = -Math.abs(gapExtensionPenalty);
+        this.fallbackAligner = new BiojavaMnvAligner(gapOpenPenalty, gapExtensionPenalty);
+    }
+
+    @Override
+    public void align(String reference, String alternate, StringBuilder alignedReference,
+                      StringBuilder alignedAlternate) {
+        Buffers b = buffers.get();
+        int m = reference.length();
+        int n = alternate.length();
+        if (m == 0 || n == 0) {
+            fallbackAligner.align(reference, alternate, alignedReference, alignedAlternate);
+            return;
+        }
+        b.target = b.ensure(b.target, m);
+        b.query = b.ensure(b.query, n);
+        if (!encode(reference, b.target) || !encode(alternate, b.query)) {
+            fallbackAligner.align(reference, alternate, alignedReference, alignedAlternate);
+            return;
+        }
+
+        int width = m + 1;
+        b.previous = b.ensure(b.previous, width * 3);
+        b.current = b.ensure(b.current, width * 3);
+        b.traceback = b.ensure(b.traceback, (n + 1) * width * 3);
+        byte[] target = b.target;
+        byte[] query = b.query;
+        byte[] traceback = b.traceback;
+        int[] current = b.current;
+        int[] previous = b.previous;
+
+        int min = Integer.MIN_VALUE - gop - gep;
+
+        // First row, only insertions
+        current[0] = 0;
+        current[1] = gop;
+        current[2] = gop;
+        traceback[0] = NONE;
+        traceback[1] = NONE;
+        traceback[2] = NONE;
+        for (int y = 1; y <= m; y++) {
+            int i = y * 3;
+            current[i] = min;
+            current[i + 1] = min;
+            current[i + 2] = current[i - 1] + gep;
+            traceback[i] = NONE;
+            traceback[i + 1] = NONE;
+            traceback[i + 2] = INSERTION;
+        }
+
+        for (int x = 1; x <= n; x++) {
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+
+            int t = x * width * 3;
+            current[0] = min;
+            current[1] = previous[1] + gep;
+            current[2] = min;
+            traceback[t] = NONE;
+            traceback[t + 1] = DELETION;
+            traceback[t + 2] = NONE;
+
+            int[] substitutionScores = NUC_4_4[query[x - 1]];
+            for (int y = 1; y <= m; y++) {
+                int i = y * 3;
+                int d = i - 3;
+                int sub = substitutionScores[target[y - 1]];
+
+                // Substitution, from the diagonal
+                int diagonal0 = previous[d];
+                int diagonal1 = previous[d + 1];
+                int diagonal2 = previous[d + 2];
+                if (diagonal1 >= diagonal0 && diagonal1 >= diagonal2) {
+                    current[i] = diagonal1 + sub;
+                    traceback[t + i] = DELETION;
+                } else if (diagonal0 >= diagonal2) {
+                    current[i] = diagonal0 + sub;
+                    traceback[t + i] = SUBSTITUTION;
+                } else {
+                    current[i] = diagonal2 + sub;
+                    traceback[t + i] = INSERTION;
+                }
+
+                // Deletion, from the previous row
+                if (previous[i + 1] >= previous[i] + gop) {
+                    current[i + 1] = previous[i + 1] + gep;
+                    traceback[t + i + 1] = DELETION;
+                } else {
+                    current[i + 1] = previous[i] + gop + gep;
+                    traceback[t + i + 1] = SUBSTITUTION;
+                }
+
+                // Insertion, from the previous column
+                if (current[d] + gop >= current[d + 2]) {
+                    current[i + 2] = current[d] + gop + gep;
+                    traceback[t + i + 2] = SUBSTITUTION;
+                } else {
+                    current[i + 2] = current[d + 2] + gep;
+                    traceback[t + i + 2] = INSERTION;
+                }
+            }
+        }
+        b.previous = previous;
+        b.current = current;
+
+        int end = m * 3;
+        byte last;
+        if (current[end + 1] > current[end] && current[end + 1] > current[end + 2]) {
+            last = DELETION;
+        } else if (current[end] > current[end + 2]) {
+            last = SUBSTITUTION;
+        } else {
+            last = INSERTION;
+        }
+
+        // Traceback, the alignment is written backwards and reversed at the end
+        alignedReference.setLength(0);
+        alignedAlternate.setLength(0);
+        int x = n;
+        int y = m;
+        while (x > 0 || y > 0) {
+            int cell = (x * width + y) * 3;
+            switch (last) {
+                case DELETION:
+                    alignedReference.append('-');
+                    alignedAlternate.append(alternate.charAt(x - 1));
+                    last = traceback[cell + 1];
+                    x--;
+                    break;
+                case SUBSTITUTION:
+                    alignedReference.append(reference.charAt(y - 1));
+                    alignedAlternate.append(alternate.charAt(x - 1));
+                    last = traceback[cell];
+                    x--;
+                    y--;
+                    break;
+                case INSERTION:
+                    alignedReference.append(reference.charAt(y - 1));
+                    alignedAlternate.append('-');
+                    last = traceback[cell + 2];
+                    y--;
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected traceback found aligning " + reference + " and "
+                            + alternate);
+            }
+        }
+        alignedReference.reverse();
+        alignedAlternate.reverse();
+    }
+
+    private static boolean encode(String sequence, byte[] codes) {
+        for (int i = 0; i < sequence.length(); i++) {
+            char c = sequence.charAt(i);
+            if (c >= CODES.length || CODES[c] < 0) {
+                return false;
+            }
+            codes[i] = CODES[c];
+        }
+        return true;
+    }
+
+    public int getGapOpenPenalty() {
+        return -gop;
+    }
+
+    public int getGapExtensionPenalty() {
+        return -gep;
+    }
+
+    /**
+     * Dynamic programming buffers of one thread. Grow as needed and are never shrunk.
+     */
+    private static final class Buffers {
+        private byte[] target = new byte[16];
+        private byte[] query = new byte[16];
+        private int[] previous = new int[64];
+        private int[] current = new int[64];
+        private byte[] traceback = new byte[1024];
+
+        private byte[] ensure(byte[] array, int size) {
+            return array.length >= size ? array : new byte[Math.max(size, array.length * 2)];
+        }
+
+        private int[] ensure(int[] array, int size) {
+            return array.length >= size ? array : new int[Math.max(size, array.length * 2)];
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.opencb.biodata.tools.variant.normalizer.mnv;
+
+/**
+ * Global pairwise aligner used by the VariantNormalizer to decompose MNVs into SNVs and indels.
+ *
+ * Implementations must be thread-safe, the same instance is shared by all the threads using a VariantNormalizer.
+ */
+public interface MnvAligner {
+
+    /**
+     * Align the reference and the alternate alleles. Both aligned sequences have the same length, with '-' at the gaps.
+     *
+     * @param reference         Reference allele
+     * @param alternate         Alternate allele
+     * @param alignedReference  Output for the aligned reference. Previous content is removed
+     * @param alignedAlternate  Output for the aligned alternate. Previous content is removed
+     */
+    void align(String reference, String alternate, StringBuilder alignedReference, StringBuilder alignedAlternate);
+
+}
@@ -1,6 +1,8 @@
 package org.opencb.biodata.tools.variant.scores;
 
+import org.opencb.biodata.models.variant.AllelesCode;
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantScore;
@@ -10,6 +12,7 @@ import org.opencb.commons.run.Task;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created on 22/06/18.
@@ -22,13 +25,6 @@ public class HardyWeinbergScoreCalculatorTask implements Task<Variant, Variant>
     private final String studyId;
     private final String cohortName;
 
-    private final static Genotype HOM_REF = new Genotype("0/0");
-    private final static Genotype HET = new Genotype("0/1");
-    private final static Genotype HOM_ALT = new Genotype("1/1");
-    private final static Genotype HOM_REF_PHASED = new Genotype("0|0");
-    private final static Genotype HET_PHASED = new Genotype("0|1");
-    private final static Genotype HOM_ALT_PHASED = new Genotype("1|1");
-
     public HardyWeinbergScoreCalculatorTask(String studyId, String cohortName) {
         this.studyId = studyId;
         this.cohortName = cohortName;
@@ -53,11 +49,24 @@ public class HardyWeinbergScoreCalculatorTask implements Task<Variant, Variant>
             return variant;
         }
 
-        VariantHardyWeinbergStats hw = new VariantHardyWeinbergStats(
-                stats.getGenotypeCount().getOrDefault(HOM_REF, 0) + stats.getGenotypeCount().getOrDefault(HOM_REF_PHASED, 0),
-                stats.getGenotypeCount().getOrDefault(HET, 0) + stats.getGenotypeCount().getOrDefault(HET_PHASED, 0),
-                stats.getGenotypeCount().getOrDefault(HOM_ALT, 0) + stats.getGenotypeCount().getOrDefault(HOM_ALT_PHASED, 0)
-        );
+        // Count of diploid genotypes by number of alternate alleles, phase ignored
+        int[] counts = new int[3];
+        for (Map.Entry<String, Integer> entry : stats.getGenotypeCount().entrySet()) {
+            if (entry.getKey() == null || entry.getKey().equals(Genotype.NA)) {
+                continue;
+            }
+            int code;
+            try {
+                code = GenotypeCodec.encode(entry.getKey());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (GenotypeCodec.getPloidy(code) == 2 && GenotypeCodec.getAllelesCode(code) == AllelesCode.ALLELES_OK
+                    && GenotypeCodec.countAllele(code, 0) + GenotypeCodec.countAllele(code, 1) == 2) {
+                counts[GenotypeCodec.countAllele(code, 1)] += entry.getValue();
+            }
+        }
+        VariantHardyWeinbergStats hw = new VariantHardyWeinbergStats(counts[0], counts[1], counts[2]);
         hw.calculate();
 
         study.addScore(new VariantScore(SCORE_ID, cohortName, null, hw.getChi2(), hw.getpValue()));
@@ -0,0 +1,62 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.stats;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns consecutive indexes to String keys, so the counters of the stats calculators can be stored in primitive
+ * arrays instead of maps. Consecutive lookups of the same key, like the chromosome of sorted variants, skip the map.
+ *
+ * Not thread-safe, every thread uses its own index.
+ */
+class KeyIndex {
+
+    private final Map<String, Integer> index = new HashMap<>();
+    private final List<String> keys = new ArrayList<>();
+    private String lastKey;
+    private int lastIdx = -1;
+
+    int indexOf(String key) {
+        if (key.equals(lastKey)) {
+            return lastIdx;
+        }
+        Integer idx = index.get(key);
+        if (idx == null) {
+            idx = keys.size();
+            index.put(key, idx);
+            keys.add(key);
+        }
+        lastKey = key;
+        lastIdx = idx;
+        return idx;
+    }
+
+    String getKey(int idx) {
+        return keys.get(idx);
+    }
+
+    int size() {
+        return keys.size();
+    }
+}
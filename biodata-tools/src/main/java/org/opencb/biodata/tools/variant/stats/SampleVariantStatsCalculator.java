@@ -8,6 +8,7 @@ import org.opencb.biodata.models.clinical.pedigree.Member;
 import org.opencb.biodata.models.clinical.pedigree.Pedigree;
 import org.opencb.biodata.models.metadata.Sample;
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.*;
@@ -25,7 +26,7 @@ import java.util.stream.Collectors;
 //import javafx.util.Pair;
 
 public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
-    protected List<SampleVariantStats> statsList;
+    protected volatile List<SampleVariantStats> statsList;
 
     protected int[] ti;
     protected int[] tv;
@@ -40,6 +41,10 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
     protected List<String> samples;
     protected LinkedHashMap<String, Integer> samplesPos;
 
+    // Every thread calling update gets its own accumulator, merged into the statsList at post
+    private final List<Accumulator> accumulators = new ArrayList<>();
+    private volatile ThreadLocal<Accumulator> threadAccumulator = ThreadLocal.withInitial(this::newAccumulator);
+
     /**
      * Create a sample stats calculator.
      *
@@ -86,12 +91,20 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
 
     }
 
+    /**
+     * Get the stats of the variants processed so far. The counts are updated with every call to update, while the
+     * heterozygosity rate, ti/tv ratio and quality are computed by {@link #post()}. It must not be called while other
+     * threads are calling update.
+     *
+     * @return the stats of each sample
+     */
     public List<SampleVariantStats> getSampleVariantStats() {
+        mergeAccumulators();
         return statsList;
     }
 
     @Override
-    public synchronized List<Variant> apply(List<Variant> batch) {
+    public List<Variant> apply(List<Variant> batch) {
         for (Variant variant : batch) {
             update(variant);
         }
@@ -101,6 +114,10 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
     @Override
     public void pre() {
         statsList = null;
+        synchronized (accumulators) {
+            accumulators.clear();
+        }
+        threadAccumulator = ThreadLocal.withInitial(this::newAccumulator);
 
         if (pedigrees != null) {
             validChildren = new HashMap<>();
@@ -229,151 +246,329 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
                         IntFunction<String> getQual,
                         IntFunction<String> getFilter,
                         LinkedHashMap<String, Integer> samplesPos, Set<String> cts, Set<String> biotypes, Set<String> clinicalSignificance) {
-        int numSamples = samplesPos.size();
         if (statsList == null) {
-            init(new ArrayList<>(samplesPos.keySet()));
-        }
-
-        boolean transition = VariantStats.isTransition(variant.getReference(), variant.getAlternate());
-        boolean transversion = VariantStats.isTransversion(variant.getReference(), variant.getAlternate());
-
-        for (int samplePos = 0; samplePos < numSamples; samplePos++) {
-            String gt = gts.apply(samplePos);
-            if (gt != null) {
-                String qual = getQual.apply(samplePos);
-                String filter = getFilter.apply(samplePos);
-                String dp = getDp.apply(samplePos);
-                updateSample(variant, transition, transversion, samplePos, gts, gt, dp, qual, filter, biotypes, cts, clinicalSignificance);
+            synchronized (this) {
+                if (statsList == null) {
+                    init(new ArrayList<>(samplesPos.keySet()));
+                }
             }
         }
+        threadAccumulator.get().update(variant, gts, getDp, getQual, getFilter, samplesPos.size(),
+                cts, biotypes, clinicalSignificance);
     }
 
-    private void updateSample(Variant variant, boolean transition, boolean transversion,
-                              int samplePos, IntFunction<String> gts, String gt, String dpStr,
-                              String qual, String filter,
-                              Set<String> biotypes, Set<String> cts, Set<String> clinicalSignificance) {
-        SampleVariantStats stats = statsList.get(samplePos);
-
-//        if (gt.contains(".")) {
-//            stats.setMissingPositions(stats.getMissingPositions() + variant.getLengthReference());
-//        }
-
-        // Compute mendelian error
-        Member child = validChildren.get(stats.getId());
-        if (child != null) {
-            Genotype childGt = new Genotype(gts.apply(samplePos));
-            Genotype fatherGt = getParentGt(gts, child.getFather());
-            Genotype motherGt = getParentGt(gts, child.getMother());
-
-            int errorCode = MendelianError.compute(fatherGt, motherGt, childGt, variant.getChromosome());
-            if (errorCode > 0) {
-                Map<String, Map<String, Integer>> mendelianErrors = stats.getMendelianErrorCount();
-                String errorCodeKey = String.valueOf(errorCode);
-                Map<String, Integer> map = mendelianErrors.computeIfAbsent(variant.getChromosome(), (key) -> new HashMap<>());
-                incCount(map, errorCodeKey);
-            }
+    private Accumulator newAccumulator() {
+        Accumulator accumulator = new Accumulator(samples.size());
+        synchronized (accumulators) {
+            accumulators.add(accumulator);
         }
+        return accumulator;
+    }
 
-        // Only increase these counters if this sample has the mutation (i.e. has the main allele in the genotype)
-        if (Genotype.hasMainAlternate(gt)) {
-            stats.setVariantCount(stats.getVariantCount() + 1);
-            incCount(stats.getGenotypeCount(), gt);
-
-            // Chromosome counter
-            incCount(stats.getChromosomeCount(), variant.getChromosome());
+    /**
+     * Partial stats of the variants processed by one thread. Counters are arrays of ints indexed by key and sample,
+     * with the keys of the variant (chromosome, type, consequence types, ...) resolved once for all the samples.
+     */
+    private class Accumulator {
+        private final int numSamples;
+
+        private final int[] variantCount;
+        private final int[] ti;
+        private final int[] tv;
+        private final int[] qualCount;
+        private final double[] qualSum;
+        private final double[] qualSumSq;
+        // Indel length and depth ranges, as in IndelLength and DepthCount
+        private final int[] indelLengthCount;
+        private final int[] depthCount;
+
+        // Genotypes written as the canonical string of its code are counted by code
+        private final SampleCounts genotypeCount;
+        private final KeyIndex otherGenotypes = new KeyIndex();
+        private final SampleCounts otherGenotypeCount;
+        private final KeyIndex chromosomes = new KeyIndex();
+        private final SampleCounts chromosomeCount;
+        private final KeyIndex types = new KeyIndex();
+        private final SampleCounts typeCount;
+        private final KeyIndex filters = new KeyIndex();
+        private final SampleCounts filterCount;
+        private final KeyIndex biotypes = new KeyIndex();
+        private final SampleCounts biotypeCount;
+        private final KeyIndex consequenceTypes = new KeyIndex();
+        private final SampleCounts consequenceTypeCount;
+        private final KeyIndex clinicalSignificances = new KeyIndex();
+        private final SampleCounts clinicalSignificanceCount;
+        // Mendelian error counts by chromosome, indexed by error code
+        private final Map<String, SampleCounts> mendelianErrorCount = new HashMap<>();
+
+        private String lastFilter;
+        private int[] lastFilterIdx;
+
+        Accumulator(int numSamples) {
+            this.numSamples = numSamples;
+            variantCount = new int[numSamples];
+            ti = new int[numSamples];
+            tv = new int[numSamples];
+            qualCount = new int[numSamples];
+            qualSum = new double[numSamples];
+            qualSumSq = new double[numSamples];
+            indelLengthCount = new int[numSamples * 5];
+            depthCount = new int[numSamples * 6];
+            genotypeCount = new SampleCounts(numSamples);
+            otherGenotypeCount = new SampleCounts(numSamples);
+            chromosomeCount = new SampleCounts(numSamples);
+            typeCount = new SampleCounts(numSamples);
+            filterCount = new SampleCounts(numSamples);
+            biotypeCount = new SampleCounts(numSamples);
+            consequenceTypeCount = new SampleCounts(numSamples);
+            clinicalSignificanceCount = new SampleCounts(numSamples);
+        }
 
-            // Type counter
+        private void update(Variant variant,
+                            IntFunction<String> gts,
+                            IntFunction<String> getDp,
+                            IntFunction<String> getQual,
+                            IntFunction<String> getFilter,
+                            int numSamples, Set<String> cts, Set<String> biotypes, Set<String> clinicalSignificance) {
+            boolean transition = VariantStats.isTransition(variant.getReference(), variant.getAlternate());
+            boolean transversion = VariantStats.isTransversion(variant.getReference(), variant.getAlternate());
+
+            // Keys shared by all the samples
+            String chromosome = variant.getChromosome();
+            int chromosomeIdx = StringUtils.isEmpty(chromosome) ? -1 : chromosomes.indexOf(chromosome);
             VariantType type = variant.getType();
             if (type == VariantType.SNP) {
                 type = VariantType.SNV;
             } else if (type == VariantType.MNP) {
                 type = VariantType.MNV;
             }
-            incCount(stats.getTypeCount(), type.name());
-
-            // Indel length
+            int typeIdx = types.indexOf(type.name());
+            int indelLengthIdx = -1;
             if (variant.getType() == VariantType.INDEL
                     || variant.getType() == VariantType.INSERTION
                     || variant.getType() == VariantType.DELETION) {
-                IndelLength indel = stats.getIndelLengthCount();
-                Integer length = variant.getLength();
-                if (length < 5) {
-                    indel.setLt5(indel.getLt5() + 1);
-                } else if (length < 10) {
-                    indel.setLt10(indel.getLt10() + 1);
-                } else if (length < 15) {
-                    indel.setLt15(indel.getLt15() + 1);
-                } else if (length < 20) {
-                    indel.setLt20(indel.getLt20() + 1);
+                indelLengthIdx = getRangeIdx(variant.getLength());
+            }
+            int[] biotypesIdx = indexOf(this.biotypes, biotypes);
+            int[] ctsIdx = indexOf(consequenceTypes, cts);
+            int[] clinicalSignificanceIdx = indexOf(clinicalSignificances, clinicalSignificance);
+
+            for (int samplePos = 0; samplePos < numSamples; samplePos++) {
+                String gt = gts.apply(samplePos);
+                if (gt == null) {
+                    continue;
+                }
+                int gtCode = GenotypeCodec.encode(gt);
+
+                // Compute mendelian error
+                Member child = validChildren.get(samples.get(samplePos));
+                if (child != null) {
+                    int fatherGt = getParentGt(gts, child.getFather());
+                    int motherGt = getParentGt(gts, child.getMother());
+
+                    int errorCode = MendelianError.compute(fatherGt, motherGt, gtCode, chromosome);
+                    if (errorCode > 0) {
+                        mendelianErrorCount.computeIfAbsent(chromosome, key -> new SampleCounts(this.numSamples))
+                                .increment(errorCode, samplePos);
+                    }
+                }
+
+                // Only increase these counters if this sample has the mutation (i.e. has the main allele in the genotype)
+                if (!GenotypeCodec.hasMainAlternate(gtCode)) {
+                    continue;
+                }
+                variantCount[samplePos]++;
+                if (GenotypeCodec.toString(gtCode).equals(gt)) {
+                    genotypeCount.increment(gtCode, samplePos);
                 } else {
-                    indel.setGte20(indel.getGte20() + 1);
+                    otherGenotypeCount.increment(otherGenotypes.indexOf(gt), samplePos);
+                }
+                if (chromosomeIdx >= 0) {
+                    chromosomeCount.increment(chromosomeIdx, samplePos);
+                }
+                typeCount.increment(typeIdx, samplePos);
+                if (indelLengthIdx >= 0) {
+                    indelLengthCount[samplePos * 5 + indelLengthIdx]++;
                 }
-            }
 
-            if (StringUtils.isNumeric(dpStr)) {
-                int dp = Integer.parseInt(dpStr);
-                DepthCount dpCount = stats.getDepthCount();
-                if (dp < 5) {
-                    dpCount.setLt5(dpCount.getLt5() + 1);
-                } else if (dp < 10) {
-                    dpCount.setLt10(dpCount.getLt10() + 1);
-                } else if (dp < 15) {
-                    dpCount.setLt15(dpCount.getLt15() + 1);
-                } else if (dp < 20) {
-                    dpCount.setLt20(dpCount.getLt20() + 1);
+                String dpStr = getDp.apply(samplePos);
+                if (StringUtils.isNumeric(dpStr)) {
+                    depthCount[samplePos * 6 + 1 + getRangeIdx(Integer.parseInt(dpStr))]++;
                 } else {
-                    dpCount.setGte20(dpCount.getGte20() + 1);
+                    depthCount[samplePos * 6]++;
                 }
-            } else {
-                stats.getDepthCount().setNa(stats.getDepthCount().getNa() + 1);
-            }
 
-            // Accumulate transitions and transversions in order to compute ti/tv ratio later
-            if (transition) {
-                ti[samplePos]++;
-            } else if (transversion) {
-                tv[samplePos]++;
-            }
+                // Accumulate transitions and transversions in order to compute ti/tv ratio later
+                if (transition) {
+                    ti[samplePos]++;
+                } else if (transversion) {
+                    tv[samplePos]++;
+                }
 
-            if (qual != null && !(".").equals(qual)) {
-                float qualValue = Float.parseFloat(qual);
-                qualCount[samplePos]++;
-                qualSum[samplePos] += qualValue;
-                qualSumSq[samplePos] += qualValue * qualValue;
+                String qual = getQual.apply(samplePos);
+                if (qual != null && !(".").equals(qual)) {
+                    float qualValue = Float.parseFloat(qual);
+                    qualCount[samplePos]++;
+                    qualSum[samplePos] += qualValue;
+                    qualSumSq[samplePos] += qualValue * qualValue;
+                }
+                for (int filterIdx : getFiltersIdx(getFilter.apply(samplePos))) {
+                    filterCount.increment(filterIdx, samplePos);
+                }
+
+                for (int biotypeIdx : biotypesIdx) {
+                    biotypeCount.increment(biotypeIdx, samplePos);
+                }
+                for (int ctIdx : ctsIdx) {
+                    consequenceTypeCount.increment(ctIdx, samplePos);
+                }
+                for (int csIdx : clinicalSignificanceIdx) {
+                    clinicalSignificanceCount.increment(csIdx, samplePos);
+                }
             }
+        }
+
+        private int[] getFiltersIdx(String filter) {
             if (filter == null || filter.isEmpty()) {
                 filter = ".";
             }
-            for (String subFilter : filter.split(";")) {
-                stats.getFilterCount().merge(subFilter, 1, Integer::sum);
+            // Usually all the samples share the same filter
+            if (!filter.equals(lastFilter)) {
+                String[] subFilters = filter.split(";");
+                int[] filtersIdx = new int[subFilters.length];
+                for (int i = 0; i < subFilters.length; i++) {
+                    filtersIdx[i] = filters.indexOf(subFilters[i]);
+                }
+                lastFilter = filter;
+                lastFilterIdx = filtersIdx;
             }
+            return lastFilterIdx;
+        }
 
-            // Biotype counter
-            for (String biotype : biotypes) {
-                incCount(stats.getBiotypeCount(), biotype);
+        private SampleVariantStats toSampleVariantStats(int samplePos) {
+            int indel = samplePos * 5;
+            int depth = samplePos * 6;
+            Map<String, Integer> genotypes = toMap(otherGenotypes, otherGenotypeCount, samplePos);
+            for (int code = 0; code < genotypeCount.size(); code++) {
+                int count = genotypeCount.get(code, samplePos);
+                if (count > 0) {
+                    genotypes.put(GenotypeCodec.toString(code), count);
+                }
             }
+            Map<String, Map<String, Integer>> mendelianErrors = new HashMap<>();
+            mendelianErrorCount.forEach((chromosome, counts) -> {
+                for (int errorCode = 0; errorCode < counts.size(); errorCode++) {
+                    int count = counts.get(errorCode, samplePos);
+                    if (count > 0) {
+                        mendelianErrors.computeIfAbsent(chromosome, key -> new HashMap<>())
+                                .put(String.valueOf(errorCode), count);
+                    }
+                }
+            });
+            return new SampleVariantStats(
+                    samples.get(samplePos),
+                    variantCount[samplePos],
+                    toMap(chromosomes, chromosomeCount, samplePos),
+                    toMap(types, typeCount, samplePos),
+                    genotypes,
+                    new IndelLength(indelLengthCount[indel], indelLengthCount[indel + 1], indelLengthCount[indel + 2],
+                            indelLengthCount[indel + 3], indelLengthCount[indel + 4]),
+                    toMap(filters, filterCount, samplePos),
+                    0f,
+                    0f,
+                    0f,
+                    0f,
+                    mendelianErrors,
+                    new DepthCount(depthCount[depth], depthCount[depth + 1], depthCount[depth + 2],
+                            depthCount[depth + 3], depthCount[depth + 4], depthCount[depth + 5]),
+                    toMap(biotypes, biotypeCount, samplePos),
+                    toMap(consequenceTypes, consequenceTypeCount, samplePos),
+                    toMap(clinicalSignificances, clinicalSignificanceCount, samplePos)
+            );
+        }
+    }
 
-            // ConsequenceType counter
-            for (String ct : cts) {
-                incCount(stats.getConsequenceTypeCount(), ct);
+    /**
+     * Counters of a set of keys for every sample, as an array of ints per key.
+     */
+    private static final class SampleCounts {
+        private final int numSamples;
+        private int[][] counts = new int[16][];
+
+        SampleCounts(int numSamples) {
+            this.numSamples = numSamples;
+        }
+
+        void increment(int idx, int samplePos) {
+            if (idx >= counts.length) {
+                counts = Arrays.copyOf(counts, Math.max(idx + 1, counts.length * 2));
             }
-            // ConsequenceType counter
-            for (String cs : clinicalSignificance) {
-                incCount(stats.getClinicalSignificanceCount(), cs);
+            int[] keyCounts = counts[idx];
+            if (keyCounts == null) {
+                keyCounts = new int[numSamples];
+                counts[idx] = keyCounts;
             }
+            keyCounts[samplePos]++;
+        }
+
+        int get(int idx, int samplePos) {
+            return idx < counts.length && counts[idx] != null ? counts[idx][samplePos] : 0;
+        }
 
+        int size() {
+            return counts.length;
         }
     }
 
-    private Genotype getParentGt(IntFunction<String> gts, Member parent) {
+    /**
+     * @param value Indel length or depth
+     * @return Range of the value: lt5, lt10, lt15, lt20 or gte20
+     */
+    private static int getRangeIdx(int value) {
+        if (value < 5) {
+            return 0;
+        } else if (value < 10) {
+            return 1;
+        } else if (value < 15) {
+            return 2;
+        } else if (value < 20) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+    private static int[] indexOf(KeyIndex index, Set<String> keys) {
+        int[] idx = new int[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            if (StringUtils.isNotEmpty(key)) {
+                idx[i++] = index.indexOf(key);
+            }
+        }
+        return i == idx.length ? idx : Arrays.copyOf(idx, i);
+    }
+
+    private static Map<String, Integer> toMap(KeyIndex keys, SampleCounts counts, int samplePos) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            int count = counts.get(i, samplePos);
+            if (count > 0) {
+                map.put(keys.getKey(i), count);
+            }
+        }
+        return map;
+    }
+
+    private int getParentGt(IntFunction<String> gts, Member parent) {
         if (parent == null) {
-            return null;
+            return MendelianError.UNKNOWN_GT;
         } else {
             String gtStr = gts.apply(samplesPos.get(parent.getId()));
             if (gtStr == null) {
-                return null;
+                return MendelianError.UNKNOWN_GT;
             } else {
-                return new Genotype(gtStr);
+                return GenotypeCodec.encode(gtStr);
             }
         }
     }
@@ -448,6 +643,8 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
 
     @Override
     public void post() {
+        mergeAccumulators();
+
         for (int i = 0; i < statsList.size(); i++) {
             SampleVariantStats stats = statsList.get(i);
 
@@ -455,7 +652,8 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
             Map<Genotype, Integer> genotypeCount = stats.getGenotypeCount()
                     .entrySet()
                     .stream()
-                    .collect(Collectors.toMap(e -> new Genotype(e.getKey()), Map.Entry::getValue));
+                    .collect(Collectors.toMap(e -> GenotypeCodec.toGenotype(GenotypeCodec.encode(e.getKey())),
+                            Map.Entry::getValue));
             genotypeCount = VariantStatsCalculator.removePhaseFromGenotypeCount(genotypeCount);
             stats.getGenotypeCount().clear();
             genotypeCount.forEach((key, value) -> stats.getGenotypeCount().put(key.toString(), value));
@@ -466,7 +664,7 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
             int numHet = 0;
 
             for (Map.Entry<String, Integer> entry : stats.getGenotypeCount().entrySet()) {
-                if (Genotype.isHet(entry.getKey())) {
+                if (GenotypeCodec.isHet(GenotypeCodec.encode(entry.getKey()))) {
                     numHet += entry.getValue();
                 }
             }
@@ -491,35 +689,25 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
     }
 
 
-    private void incCount(Map<String, Integer> map, String key) {
-        if (StringUtils.isEmpty(key)) {
-            // Nothing to do
-            return;
-        }
-
-        map.merge(key, 1, Integer::sum);
-    }
-
-    private int getNumAltAlleles(String gt) {
-        switch (gt) {
-            case "0/0":
-                return 0;
-            case "0/1":
-            case "0|1":
-            case "1|0":
-                return 1;
-            case "1/1":
-            case "1|1":
-                return 2;
-        }
-        int num = 0;
-        for (int allelesIdx : new Genotype(gt).getAllelesIdx()) {
-            if (allelesIdx != 1) {
-                // TODO: Should count only main alternates?
-                num++;
+    private void mergeAccumulators() {
+        synchronized (accumulators) {
+            if (accumulators.isEmpty()) {
+                return;
+            }
+            for (Accumulator accumulator : accumulators) {
+                for (int i = 0; i < statsList.size(); i++) {
+                    merge(statsList.get(i), accumulator.toSampleVariantStats(i));
+                    ti[i] += accumulator.ti[i];
+                    tv[i] += accumulator.tv[i];
+                    qualCount[i] += accumulator.qualCount[i];
+                    qualSum[i] += accumulator.qualSum[i];
+                    qualSumSq[i] += accumulator.qualSumSq[i];
+                }
             }
+            accumulators.clear();
+            // Variants from any further call to update go to new accumulators
+            threadAccumulator = ThreadLocal.withInitial(this::newAccumulator);
         }
-        return num;
     }
 
     private List<Pair<String, Integer>> getTop50(Map<String, Integer> map) {
@@ -558,7 +746,7 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
         }
 
         int numSamples = samples.size();
-        statsList = new ArrayList<>(numSamples);
+        List<SampleVariantStats> statsList = new ArrayList<>(numSamples);
 
         ti = new int[numSamples];
         tv = new int[numSamples];
@@ -588,5 +776,6 @@ public class SampleVariantStatsCalculator implements Task<Variant, Variant> {
 
             statsList.add(stats);
         }
+        this.statsList = statsList;
     }
 }
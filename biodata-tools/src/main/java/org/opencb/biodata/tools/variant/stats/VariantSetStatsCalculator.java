@@ -23,6 +23,7 @@ import htsjdk.variant.vcf.VCFConstants;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
@@ -49,7 +50,7 @@ public class VariantSetStatsCalculator implements Task<Variant, Variant> {
     private final String studyId;
     private Set<String> files;
     private Set<String> samples;
-    private List<Integer> samplePositions;
+    private volatile List<Integer> samplePositions;
     private long sampleCount;
     private long filesCount;
     private final Map<String, Long> chrLengthMap;
@@ -63,6 +64,10 @@ public class VariantSetStatsCalculator implements Task<Variant, Variant> {
     protected double qualSum = 0;
     protected double qualSumSq = 0;
 
+    // Every thread calling apply updates its own accumulator, merged into the stats at post
+    private final List<Accumulator> accumulators = new ArrayList<>();
+    private volatile ThreadLocal<Accumulator> threadAccumulator = ThreadLocal.withInitial(this::newAccumulator);
+
     /**
      * Calculate global statistics for the whole study. i.e. cohort ALL
      * @param metadata VariantStudyMetadata
@@ -190,126 +195,233 @@ public class VariantSetStatsCalculator implements Task<Variant, Variant> {
     }
 
     @Override
-    public synchronized List<Variant> apply(List<Variant> batch) {
+    public List<Variant> apply(List<Variant> batch) {
+        Accumulator accumulator = threadAccumulator.get();
         for (Variant variant : batch) {
-            updateFileEntries(variant);
+            accumulator.update(variant);
         }
         return batch;
     }
 
-    private void updateFileEntries(Variant variant) {
-        StudyEntry study = variant.getStudy(studyId);
-        if (study == null) {
-            return;
-        }
-        int numFiles = updateFileEntries(study.getFiles());
-        boolean validVariant = numFiles != 0;
-        if (validVariant) {
-            updateSampleEntries(study);
-            stats.setVariantCount(stats.getVariantCount() + 1);
-            stats.getChromosomeCount().merge(variant.getChromosome(), 1L, Long::sum);
-            stats.getTypeCount().merge(variant.getType().toString(), 1L, Long::sum);
-            if (VariantStats.isTransition(variant.getReference(), variant.getAlternate())) {
-                transitionsCount++;
+    private synchronized List<Integer> getFilteredSamplePositions(LinkedHashMap<String, Integer> samplesFromStudyEntry) {
+        if (samplePositions == null) {
+            List<Integer> samplePositions = new ArrayList<>(this.samples.size());
+            for (String sample : samples) {
+                samplePositions.add(samplesFromStudyEntry.get(sample));
             }
-            if (VariantStats.isTransversion(variant.getReference(), variant.getAlternate())) {
-                transversionsCount++;
+            this.samplePositions = samplePositions;
+        }
+        return samplePositions;
+    }
+
+    @Override
+    public synchronized void post() {
+        synchronized (accumulators) {
+            for (Accumulator accumulator : accumulators) {
+                merge(stats, accumulator.toVariantSetStats());
+                transitionsCount += accumulator.transitionsCount;
+                transversionsCount += accumulator.transversionsCount;
+                qualCount += accumulator.qualCount;
+                qualSum += accumulator.qualSum;
+                qualSumSq += accumulator.qualSumSq;
             }
-            updateAnnotation(variant.getAnnotation());
+            accumulators.clear();
         }
+        // Variants from any further call to apply go to new accumulators
+        threadAccumulator = ThreadLocal.withInitial(this::newAccumulator);
+
+        stats.setSampleCount(sampleCount);
+        stats.setFilesCount(filesCount);
+        float qualityAvg = (float) (qualSum / qualCount);
+        stats.setQualityAvg(qualityAvg);
+        //Var = SumSq / n - mean * mean
+        stats.setQualityStdDev((float) Math.sqrt(qualSumSq / qualCount - qualityAvg * qualityAvg));
+        stats.setTiTvRatio(((float) transitionsCount) / ((float) transversionsCount));
+        stats.getChromosomeCount().forEach((chr, count) -> {
+            Long length = chrLengthMap.get(chr);
+            if (length != null && length > 0) {
+                stats.getChromosomeDensity().put(chr, count / (float) length);
+            }
+        });
     }
 
-    private int updateFileEntries(List<FileEntry> files) {
-        Iterator<FileEntry> fileEntries;
-        if (this.files == null) {
-            fileEntries = files.iterator();
-        } else {
-            fileEntries = files.stream().filter(file -> this.files.contains(file.getFileId())).iterator();
+    private Accumulator newAccumulator() {
+        Accumulator accumulator = new Accumulator();
+        synchronized (accumulators) {
+            accumulators.add(accumulator);
         }
-        int numFiles = 0;
-        while (fileEntries.hasNext()) {
-            FileEntry file = fileEntries.next();
-            Map<String, String> fileData = file.getData();
-            if (fileData.containsKey(StudyEntry.QUAL) && !(".").equals(fileData.get(StudyEntry.QUAL))) {
-                float qual = Float.parseFloat(fileData.get(StudyEntry.QUAL));
-                qualCount++;
-                qualSum += qual;
-                qualSumSq += qual * qual;
+        return accumulator;
+    }
+
+    /**
+     * Partial stats of the variants processed by one thread. Counters are primitive arrays indexed by
+     * chromosome, type, genotype code, etc., converted into a {@link VariantSetStats} at {@link #post()}.
+     */
+    private class Accumulator {
+        private long variantCount = 0;
+        private int transitionsCount = 0;
+        private int transversionsCount = 0;
+        private double qualCount = 0;
+        private double qualSum = 0;
+        private double qualSumSq = 0;
+
+        private final KeyIndex chromosomes = new KeyIndex();
+        private long[] chromosomeCount = new long[32];
+        private final long[] typeCount = new long[VariantType.values().length];
+        private final KeyIndex filters = new KeyIndex();
+        private long[] filterCount = new long[8];
+        private final KeyIndex biotypes = new KeyIndex();
+        private long[] biotypeCount = new long[32];
+        private final KeyIndex consequenceTypes = new KeyIndex();
+        private long[] consequenceTypeCount = new long[64];
+        // Genotypes written as the canonical string of its code are counted by code
+        private long[] genotypeCount = new long[GenotypeCodec.size()];
+        private final Map<String, Long> otherGenotypeCount = new HashMap<>();
+
+        private void update(Variant variant) {
+            StudyEntry study = variant.getStudy(studyId);
+            if (study == null) {
+                return;
             }
-            String filter = fileData.get(StudyEntry.FILTER);
-            if (filter != null && !filter.isEmpty()) {
-                for (String f : filter.split(";")) {
-                    stats.getFilterCount().merge(f, 1L, Long::sum);
+            int numFiles = updateFileEntries(study.getFiles());
+            boolean validVariant = numFiles != 0;
+            if (validVariant) {
+                updateSampleEntries(study);
+                variantCount++;
+                chromosomeCount = increment(chromosomeCount, chromosomes.indexOf(variant.getChromosome()), 1);
+                typeCount[variant.getType().ordinal()]++;
+                if (VariantStats.isTransition(variant.getReference(), variant.getAlternate())) {
+                    transitionsCount++;
+                }
+                if (VariantStats.isTransversion(variant.getReference(), variant.getAlternate())) {
+                    transversionsCount++;
                 }
+                updateAnnotation(variant.getAnnotation());
             }
-            numFiles++;
         }
-        return numFiles;
-    }
 
-    private void updateSampleEntries(StudyEntry studyEntry) {
-        List<SampleEntry> samples = studyEntry.getSamples();
-        Integer gtIdx = studyEntry.getSampleDataKeyPosition(VCFConstants.GENOTYPE_KEY);
-        if (gtIdx == null) {
-            stats.getGenotypeCount().merge(Genotype.NA, sampleCount, Long::sum);
-        } else {
-            Iterator<SampleEntry> sampleEntries;
-            if (this.samples == null) {
-                sampleEntries = samples.iterator();
+        private int updateFileEntries(List<FileEntry> files) {
+            int numFiles = 0;
+            for (FileEntry file : files) {
+                if (VariantSetStatsCalculator.this.files != null
+                        && !VariantSetStatsCalculator.this.files.contains(file.getFileId())) {
+                    continue;
+                }
+                Map<String, String> fileData = file.getData();
+                String qualStr = fileData.get(StudyEntry.QUAL);
+                if (qualStr != null && !(".").equals(qualStr)) {
+                    float qual = Float.parseFloat(qualStr);
+                    qualCount++;
+                    qualSum += qual;
+                    qualSumSq += qual * qual;
+                }
+                String filter = fileData.get(StudyEntry.FILTER);
+                if (filter != null && !filter.isEmpty()) {
+                    for (String f : filter.split(";")) {
+                        filterCount = increment(filterCount, filters.indexOf(f), 1);
+                    }
+                }
+                numFiles++;
+            }
+            return numFiles;
+        }
+
+        private void updateSampleEntries(StudyEntry studyEntry) {
+            List<SampleEntry> samples = studyEntry.getSamples();
+            Integer gtIdx = studyEntry.getSampleDataKeyPosition(VCFConstants.GENOTYPE_KEY);
+            if (gtIdx == null) {
+                otherGenotypeCount.merge(Genotype.NA, sampleCount, Long::sum);
+            } else if (VariantSetStatsCalculator.this.samples == null) {
+                for (SampleEntry sampleEntry : samples) {
+                    updateGenotype(sampleEntry.getData().get(gtIdx));
+                }
             } else {
+                List<Integer> samplePositions = VariantSetStatsCalculator.this.samplePositions;
                 if (samplePositions == null) {
                     samplePositions = getFilteredSamplePositions(studyEntry.getSamplesPosition());
                 }
-                sampleEntries = samplePositions.stream().map(samples::get).iterator();
+                for (Integer samplePosition : samplePositions) {
+                    updateGenotype(samples.get(samplePosition).getData().get(gtIdx));
+                }
             }
+        }
 
-            while (sampleEntries.hasNext()) {
-                SampleEntry sampleEntry = sampleEntries.next();
-                String gt = sampleEntry.getData().get(gtIdx);
-                stats.getGenotypeCount().merge(gt, 1L, Long::sum);
+        private void updateGenotype(String gt) {
+            int code;
+            try {
+                code = gt == null ? -1 : GenotypeCodec.encode(gt);
+            } catch (IllegalArgumentException e) {
+                code = -1;
+            }
+            // Keep the original representation of the genotype
+            if (code < 0 || !GenotypeCodec.toString(code).equals(gt)) {
+                otherGenotypeCount.merge(gt, 1L, Long::sum);
+            } else {
+                genotypeCount = increment(genotypeCount, code, 1);
             }
         }
-    }
 
-    private synchronized List<Integer> getFilteredSamplePositions(LinkedHashMap<String, Integer> samplesFromStudyEntry) {
-        List<Integer> samplePositions = new ArrayList<>(this.samples.size());
-        for (String sample : samples) {
-            samplePositions.add(samplesFromStudyEntry.get(sample));
+        private void updateAnnotation(VariantAnnotation annotation) {
+            if (annotation != null) {
+                for (ConsequenceType consequenceType : annotation.getConsequenceTypes()) {
+                    String biotype = consequenceType.getBiotype();
+                    if (StringUtils.isNotEmpty(biotype)) {
+                        biotypeCount = increment(biotypeCount, biotypes.indexOf(biotype), 1);
+                    }
+                    if (consequenceType.getSequenceOntologyTerms() != null) {
+                        for (SequenceOntologyTerm term : consequenceType.getSequenceOntologyTerms()) {
+                            consequenceTypeCount = increment(consequenceTypeCount,
+                                    consequenceTypes.indexOf(term.getName()), 1);
+                        }
+                    }
+                }
+            }
         }
-        return samplePositions;
-    }
 
-    private void updateAnnotation(VariantAnnotation annotation) {
-        if (annotation != null) {
-            for (ConsequenceType consequenceType : annotation.getConsequenceTypes()) {
-                String biotype = consequenceType.getBiotype();
-                if (StringUtils.isNotEmpty(biotype)) {
-                    stats.getBiotypeCount().merge(biotype, 1L, Long::sum);
+        private VariantSetStats toVariantSetStats() {
+            VariantSetStats stats = new VariantSetStats(
+                    variantCount,
+                    0L,
+                    toMap(filters, filterCount),
+                    new HashMap<>(otherGenotypeCount),
+                    0L,
+                    0f,
+                    0f,
+                    0f,
+                    new HashMap<>(),
+                    toMap(biotypes, biotypeCount),
+                    toMap(consequenceTypes, consequenceTypeCount),
+                    toMap(chromosomes, chromosomeCount),
+                    new HashMap<>()
+            );
+            for (VariantType type : VariantType.values()) {
+                if (typeCount[type.ordinal()] > 0) {
+                    stats.getTypeCount().put(type.toString(), typeCount[type.ordinal()]);
                 }
-                if (consequenceType.getSequenceOntologyTerms() != null) {
-                    for (SequenceOntologyTerm term : consequenceType.getSequenceOntologyTerms()) {
-                        stats.getConsequenceTypeCount().merge(term.getName(), 1L, Long::sum);
-                    }
+            }
+            for (int code = 0; code < genotypeCount.length; code++) {
+                if (genotypeCount[code] > 0) {
+                    stats.getGenotypeCount().put(GenotypeCodec.toString(code), genotypeCount[code]);
                 }
             }
+            return stats;
         }
     }
 
-    @Override
-    public synchronized void post() {
-        stats.setSampleCount(sampleCount);
-        stats.setFilesCount(filesCount);
-        float qualityAvg = (float) (qualSum / qualCount);
-        stats.setQualityAvg(qualityAvg);
-        //Var = SumSq / n - mean * mean
-        stats.setQualityStdDev((float) Math.sqrt(qualSumSq / qualCount - qualityAvg * qualityAvg));
-        stats.setTiTvRatio(((float) transitionsCount) / ((float) transversionsCount));
-        stats.getChromosomeCount().forEach((chr, count) -> {
-            Long length = chrLengthMap.get(chr);
-            if (length != null && length > 0) {
-                stats.getChromosomeDensity().put(chr, count / (float) length);
-            }
-        });
+    private static long[] increment(long[] counts, int idx, long value) {
+        if (idx >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(idx + 1, counts.length * 2));
+        }
+        counts[idx] += value;
+        return counts;
+    }
+
+    private static Map<String, Long> toMap(KeyIndex keys, long[] counts) {
+        Map<String, Long> map = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            map.put(keys.getKey(i), counts[i]);
+        }
+        return map;
     }
 
     public VariantSetStats getStats() {
@@ -331,6 +443,7 @@ public class VariantSetStatsCalculator implements Task<Variant, Variant> {
         mergeCounts(thisStats.getBiotypeCount(), otherStats.getBiotypeCount());
         mergeCounts(thisStats.getConsequenceTypeCount(), otherStats.getConsequenceTypeCount());
         mergeCounts(thisStats.getChromosomeCount(), otherStats.getChromosomeCount());
+        mergeCounts(thisStats.getGenotypeCount(), otherStats.getGenotypeCount());
     }
 
     private static void mergeCounts(Map<String, Long> map, Map<String, Long> otherMap) {
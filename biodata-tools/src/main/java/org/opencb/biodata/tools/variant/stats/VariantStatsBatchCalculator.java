@@ -0,0 +1,415 @@
+/*
+ * <!--
+ *   ~ Copyright 2015-2017 OpenCB
+ *   ~
+ *   ~ Licensed under the Apache License, Version 2.0 (the "License");
+ *   ~ you may not use this file except in compliance with the License.
+ *   ~ You may obtain a copy of the License at
+ *   ~
+ *   ~     http://www.apache.org/licenses/LICENSE-2.0
+ *   ~
+ *   ~ Unless required by applicable law or agreed to in writing, software
+ *   ~ distributed under the License is distributed on an "AS IS" BASIS,
+ *   ~ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   ~ See the License for the specific language governing permissions and
+ *   ~ limitations under the License.
+ *   -->
+ *
+ */
+
+package org.opencb.biodata.tools.variant.stats;
+
+import org.opencb.biodata.models.variant.AllelesCode;
+import org.opencb.biodata.models.variant.GenotypeCodec;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+import org.opencb.biodata.models.variant.stats.VariantHardyWeinbergStats;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+
+import java.util.*;
+
+/**
+ * Computes the stats of a cohort for a block of variants at once: genotype and allele counts, allele frequencies, MAF,
+ * missingness and the Hardy-Weinberg equilibrium tests (chi-square and exact).
+ *
+ * The genotypes of the cohort are counted by {@link GenotypeCodec} code, and the counts are reduced with tables
+ * indexed by code, so no genotype maps are created. Results are stored by column in primitive arrays, one element per
+ * variant. {@link VariantStats} are only created on request, with {@link Batch#toVariantStats(int)}.
+ *
+ * The calculator reuses its buffers between blocks, so it is not thread safe.
+ */
+public class VariantStatsBatchCalculator {
+
+    // classes of the genotypes for the Hardy-Weinberg tests, phase ignored
+    private static final byte OTHER = 0;
+    private static final byte HOM_REF = 1;
+    private static final byte HET = 2;
+    private static final byte HOM_ALT = 3;
+    private static final byte MISSING = 4;
+
+    private final List<String> sampleNames;
+    private boolean exactTest = true;
+
+    // position of each sample of the cohort, resolved for the last samples position map
+    private Map<String, Integer> samplesPosition;
+    private int[] samplePositions;
+
+    // counts of the genotype codes of the current variant, and the codes found
+    private int[] codeCounts = new int[0];
+    private int[] codes = new int[16];
+
+    // class and alleles of each genotype code
+    private byte[] genotypeClasses = new byte[0];
+    private byte[] refAlleles = new byte[0];
+    private byte[] altAlleles = new byte[0];
+    private byte[] alleles = new byte[0];
+    private byte[] missingAlleles = new byte[0];
+
+    // buffer of the exact test
+    private double[] probabilities = new double[16];
+
+    /**
+     * @param sampleNames   Samples of the cohort. Samples missing in a study are ignored
+     */
+    public VariantStatsBatchCalculator(Collection<String> sampleNames) {
+        this.sampleNames = new ArrayList<>(sampleNames);
+    }
+
+    /**
+     * Compute the Hardy-Weinberg exact test. Enabled by default.
+     *
+     * @param exactTest Compute the exact test
+     * @return          This calculator
+     */
+    public VariantStatsBatchCalculator setExactTest(boolean exactTest) {
+        this.exactTest = exactTest;
+        return this;
+    }
+
+    /**
+     * Compute the stats of the cohort in the first study of each variant.
+     *
+     * @param variants  Block of variants
+     * @return          Stats of each variant, in the order of the variants
+     */
+    public Batch calculate(List<Variant> variants) {
+        return calculate(variants, null);
+    }
+
+    /**
+     * Compute the stats of the cohort in a study of each variant. Variants without the study have no samples.
+     *
+     * @param variants  Block of variants
+     * @param studyId   Study, or null for the first study of each variant
+     * @return          Stats of each variant, in the order of the variants
+     */
+    public Batch calculate(List<Variant> variants, String studyId) {
+        Batch batch = new Batch(variants, studyId, sampleNames);
+        for (int i = 0; i < batch.size; i++) {
+            StudyEntry study = getStudy(variants.get(i), studyId);
+            if (study != null) {
+                count(study, batch, i);
+            }
+        }
+        reduce(batch);
+        return batch;
+    }
+
+    private void count(StudyEntry study, Batch batch, int i) {
+        Integer gtIdx = study.getSampleDataKeyPosition("GT");
+        if (gtIdx == null) {
+            // samples without genotype are not counted
+            return;
+        }
+        if (study.getSamplesPosition() != samplesPosition) {
+            resolveSamples(study.getSamplesPosition());
+        }
+        List<SampleEntry> samples = study.getSamples();
+        int numCodes = 0;
+        for (int position : samplePositions) {
+            int code = GenotypeCodec.encode(samples.get(position).getData().get(gtIdx));
+            if (code >= codeCounts.length) {
+                ensureCodes(code);
+            }
+            if (codeCounts[code]++ == 0) {
+                if (numCodes == codes.length) {
+                    codes = Arrays.copyOf(codes, numCodes * 2);
+                }
+                codes[numCodes++] = code;
+            }
+        }
+
+        for (int c = 0; c < numCodes; c++) {
+            int code = codes[c];
+            int n = codeCounts[code];
+            codeCounts[code] = 0;
+            switch (genotypeClasses[code]) {
+                case HOM_REF:
+                    batch.homRefCount[i] += n;
+                    break;
+                case HET:
+                    batch.hetCount[i] += n;
+                    break;
+                case HOM_ALT:
+                    batch.homAltCount[i] += n;
+                    break;
+                case MISSING:
+                    batch.missingGenotypeCount[i] += n;
+                    break;
+                default:
+                    batch.otherGenotypeCount[i] += n;
+                    break;
+            }
+            batch.refAlleleCount[i] += refAlleles[code] * n;
+            batch.altAlleleCount[i] += altAlleles[code] * n;
+            batch.alleleCount[i] += alleles[code] * n;
+            batch.missingAlleleCount[i] += missingAlleles[code] * n;
+        }
+    }
+
+    private void reduce(Batch batch) {
+        int size = batch.size;
+        for (int i = 0; i < size; i++) {
+            batch.sampleCount[i] = batch.homRefCount[i] + batch.hetCount[i] + batch.homAltCount[i]
+                    + batch.otherGenotypeCount[i];
+        }
+        for (int i = 0; i < size; i++) {
+            float total = batch.alleleCount[i];
+            batch.refAlleleFreq[i] = total > 0 ? batch.refAlleleCount[i] / total : -1;
+            batch.altAlleleFreq[i] = total > 0 ? batch.altAlleleCount[i] / total : -1;
+        }
+        for (int i = 0; i < size; i++) {
+            batch.maf[i] = Math.min(batch.refAlleleFreq[i], batch.altAlleleFreq[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            float total = batch.sampleCount[i] + batch.missingGenotypeCount[i];
+            batch.missingness[i] = total > 0 ? batch.missingGenotypeCount[i] / total : 0;
+        }
+        for (int i = 0; i < size; i++) {
+            batch.hweChi2[i] = VariantHardyWeinbergStats.chi2(batch.homRefCount[i], batch.hetCount[i],
+                    batch.homAltCount[i]);
+            batch.hweChi2PValue[i] = VariantHardyWeinbergStats.chi2PValue(batch.hweChi2[i]);
+        }
+        if (exactTest) {
+            for (int i = 0; i < size; i++) {
+                int rare = 2 * Math.min(batch.homRefCount[i], batch.homAltCount[i]) + batch.hetCount[i];
+                if (probabilities.length <= rare) {
+                    probabilities = new double[Math.max(rare + 1, probabilities.length * 2)];
+                }
+                batch.hweExactPValue[i] = VariantHardyWeinbergStats.exactPValue(batch.homRefCount[i],
+                        batch.hetCount[i], batch.homAltCount[i], probabilities);
+            }
+        } else {
+            Arrays.fill(batch.hweExactPValue, Double.NaN);
+        }
+    }
+
+    private void resolveSamples(Map<String, Integer> samplesPosition) {
+        int[] positions = new int[sampleNames.size()];
+        int numSamples = 0;
+        for (String sampleName : sampleNames) {
+            Integer position = samplesPosition.get(sampleName);
+            if (position != null) {
+                positions[numSamples++] = position;
+            }
+        }
+        this.samplePositions = Arrays.copyOf(positions, numSamples);
+        this.samplesPosition = samplesPosition;
+    }
+
+    private void ensureCodes(int code) {
+        int size = Math.max(code + 1, GenotypeCodec.size());
+        int from = genotypeClasses.length;
+        codeCounts = Arrays.copyOf(codeCounts, size);
+        genotypeClasses = Arrays.copyOf(genotypeClasses, size);
+        refAlleles = Arrays.copyOf(refAlleles, size);
+        altAlleles = Arrays.copyOf(altAlleles, size);
+        alleles = Arrays.copyOf(alleles, size);
+        missingAlleles = Arrays.copyOf(missingAlleles, size);
+        for (int c = from; c < size; c++) {
+            int[] allelesIdx = GenotypeCodec.getAllelesIdx(c);
+            for (int allele : allelesIdx) {
+                if (allele < 0) {
+                    missingAlleles[c]++;
+                } else {
+                    if (allele == 0) {
+                        refAlleles[c]++;
+                    } else if (allele == 1) {
+                        altAlleles[c]++;
+                    }
+                    alleles[c]++;
+                }
+            }
+            if (GenotypeCodec.getAllelesCode(c) == AllelesCode.ALLELES_MISSING) {
+                genotypeClasses[c] = MISSING;
+            } else if (allelesIdx.length == 2 && refAlleles[c] + altAlleles[c] == 2) {
+                genotypeClasses[c] = (byte) (HOM_REF + altAlleles[c]);
+            } else {
+                genotypeClasses[c] = OTHER;
+            }
+        }
+    }
+
+    private static StudyEntry getStudy(Variant variant, String studyId) {
+        if (studyId != null) {
+            return variant.getStudy(studyId);
+        }
+        List<StudyEntry> studies = variant.getStudies();
+        return studies == null || studies.isEmpty() ? null : studies.get(0);
+    }
+
+    /**
+     * Stats of the cohort for a block of variants, by column. Element i of each column belongs to variant i.
+     *
+     * Allele frequencies and MAF are -1 if the variant has no called alleles. Missingness is the fraction of missing
+     * genotypes among the samples with genotype. Genotypes are grouped ignoring the phase; other genotypes are the
+     * non missing genotypes not classified as homozygous reference, heterozygous or homozygous alternate, e.g. haploid,
+     * multiallelic or partially missing genotypes.
+     */
+    public static class Batch {
+        private final List<Variant> variants;
+        private final String studyId;
+        private final List<String> sampleNames;
+        private final int size;
+
+        private final int[] homRefCount;
+        private final int[] hetCount;
+        private final int[] homAltCount;
+        private final int[] otherGenotypeCount;
+        private final int[] missingGenotypeCount;
+        private final int[] sampleCount;
+
+        private final int[] refAlleleCount;
+        private final int[] altAlleleCount;
+        private final int[] alleleCount;
+        private final int[] missingAlleleCount;
+
+        private final float[] refAlleleFreq;
+        private final float[] altAlleleFreq;
+        private final float[] maf;
+        private final float[] missingness;
+
+        private final double[] hweChi2;
+        private final double[] hweChi2PValue;
+        private final double[] hweExactPValue;
+
+        Batch(List<Variant> variants, String studyId, List<String> sampleNames) {
+            this.variants = variants;
+            this.studyId = studyId;
+            this.sampleNames = sampleNames;
+            this.size = variants.size();
+            this.homRefCount = new int[size];
+            this.hetCount = new int[size];
+            this.homAltCount = new int[size];
+            this.otherGenotypeCount = new int[size];
+            this.missingGenotypeCount = new int[size];
+            this.sampleCount = new int[size];
+            this.refAlleleCount = new int[size];
+            this.altAlleleCount = new int[size];
+            this.alleleCount = new int[size];
+            this.missingAlleleCount = new int[size];
+            this.refAlleleFreq = new float[size];
+            this.altAlleleFreq = new float[size];
+            this.maf = new float[size];
+            this.missingness = new float[size];
+            this.hweChi2 = new double[size];
+            this.hweChi2PValue = new double[size];
+            this.hweExactPValue = new double[size];
+        }
+
+        /**
+         * Create the full stats of a variant, with {@link VariantStatsCalculator}.
+         *
+         * @param i Index of the variant
+         * @return  Stats of the cohort, or null if the variant does not have the study
+         */
+        public VariantStats toVariantStats(int i) {
+            Variant variant = variants.get(i);
+            StudyEntry study = getStudy(variant, studyId);
+            return study == null ? null : VariantStatsCalculator.calculate(variant, study, sampleNames);
+        }
+
+        public List<Variant> getVariants() {
+            return variants;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int[] getHomRefCount() {
+            return homRefCount;
+        }
+
+        public int[] getHetCount() {
+            return hetCount;
+        }
+
+        public int[] getHomAltCount() {
+            return homAltCount;
+        }
+
+        public int[] getOtherGenotypeCount() {
+            return otherGenotypeCount;
+        }
+
+        public int[] getMissingGenotypeCount() {
+            return missingGenotypeCount;
+        }
+
+        /**
+         * @return  Number of samples with a non missing genotype, as {@link VariantStats#getSampleCount()}
+         */
+        public int[] getSampleCount() {
+            return sampleCount;
+        }
+
+        public int[] getRefAlleleCount() {
+            return refAlleleCount;
+        }
+
+        public int[] getAltAlleleCount() {
+            return altAlleleCount;
+        }
+
+        public int[] getAlleleCount() {
+            return alleleCount;
+        }
+
+        public int[] getMissingAlleleCount() {
+            return missingAlleleCount;
+        }
+
+        public float[] getRefAlleleFreq() {
+            return refAlleleFreq;
+        }
+
+        public float[] getAltAlleleFreq() {
+            return altAlleleFreq;
+        }
+
+        public float[] getMaf() {
+            return maf;
+        }
+
+        public float[] getMissingness() {
+            return missingness;
+        }
+
+        public double[] getHweChi2() {
+            return hweChi2;
+        }
+
+        public double[] getHweChi2PValue() {
+            return hweChi2PValue;
+        }
+
+        /**
+         * @return  P-values of the exact test, NaN if it was disabled
+         */
+        public double[] getHweExactPValue() {
+            return hweExactPValue;
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.pedigree.Pedigree;
 import org.opencb.biodata.models.variant.AllelesCode;
 import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.GenotypeCodec;
 import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.FileEntry;
@@ -49,24 +50,36 @@ public class VariantStatsCalculator {
         Integer gtIdx = study.getSampleDataKeyPosition("GT");
         LinkedHashMap<String, Integer> samplesPosition = study.getSamplesPosition();
 
-        Map<Genotype, Integer> gtCount = new HashMap<>();
-        Map<String, Genotype> gts = new TreeMap<>(String::compareTo);
+        // Count genotype codes, indexed by code + 1. Position 0 counts the samples without genotype
+        int[] codeCount = new int[GenotypeCodec.size() + 1];
         for (String sampleName : sampleNames) {
             Integer sampleIdx = samplesPosition.get(sampleName);
             if (sampleIdx == null) {
                 continue;
             }
-            Genotype genotype;
+            int idx;
             if (gtIdx != null) {
-                String g = study.getSamples().get(sampleIdx).getData().get(gtIdx);
-                genotype = gts.computeIfAbsent(g, key -> new Genotype(g));
+                idx = GenotypeCodec.encode(study.getSamples().get(sampleIdx).getData().get(gtIdx)) + 1;
+                if (idx >= codeCount.length) {
+                    // New genotype interned after creating the array
+                    codeCount = Arrays.copyOf(codeCount, Math.max(idx + 1, codeCount.length * 2));
+                }
             } else {
-                genotype = null;
+                idx = 0;
             }
-            gtCount.merge(genotype, 1, Integer::sum);
-
+            codeCount[idx]++;
         }  // Finish all samples loop
 
+        Map<Genotype, Integer> gtCount = new HashMap<>();
+        if (codeCount[0] > 0) {
+            gtCount.put(null, codeCount[0]);
+        }
+        for (int idx = 1; idx < codeCount.length; idx++) {
+            if (codeCount[idx] > 0) {
+                gtCount.put(GenotypeCodec.toGenotype(idx - 1), codeCount[idx]);
+            }
+        }
+
         calculate(gtCount, variantStats, variant.getReference(), variant.getAlternate());
 
         int numFilterFiles = 0;
@@ -319,7 +332,7 @@ public class VariantStatsCalculator {
             int totalGenotypesCount = 0;
             for (Map.Entry<String, Integer> entry : variantStats.getGenotypeCount().entrySet()) {
                 String gtStr = entry.getKey();
-                if (!gtStr.equals(Genotype.NA) && !new Genotype(gtStr).getCode().equals(AllelesCode.ALLELES_MISSING)) {
+                if (!gtStr.equals(Genotype.NA) && GenotypeCodec.getAllelesCode(GenotypeCodec.encode(gtStr)) != AllelesCode.ALLELES_MISSING) {
                     totalGenotypesCount += entry.getValue();
                 }
             }
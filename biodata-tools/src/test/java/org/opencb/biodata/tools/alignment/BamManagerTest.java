@@ -1,12 +1,19 @@
 package org.opencb.biodata.tools.alignment;
 
 import htsjdk.samtools.*;
-import org.junit.Assume;
+import org.broad.igv.bbfile.BigWigIterator;
+import org.broad.igv.bbfile.WigItem;
+import org.broad.igv.bbfile.ZoomDataRecord;
+import org.broad.igv.bbfile.ZoomLevelIterator;
 import org.junit.Before;
 import org.junit.Test;
 import org.opencb.biodata.models.alignment.RegionCoverage;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.tools.alignment.exceptions.AlignmentCoverageException;
+import org.opencb.biodata.tools.alignment.filters.SamRecordFilters;
+import org.opencb.biodata.tools.alignment.iterators.BamIterator;
+import org.opencb.biodata.tools.commons.ReaderPool;
+import org.opencb.biodata.tools.commons.ShardedIterator;
 import org.opencb.biodata.tools.feature.BigWigManager;
 
 import java.io.File;
@@ -17,12 +24,11 @@ import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by pfurio on 26/10/16.
@@ -34,19 +40,11 @@ public class BamManagerTest {
 
     @Before
     public void init() throws URISyntaxException, IOException {
-        Assume.assumeTrue(bamCoverageExists());
-
         inputPath = Paths.get(getClass().getResource("/HG00096.chrom20.small.bam").toURI());
         bamPath = Paths.get("/tmp/" + inputPath.toFile().getName());
         bwPath = Paths.get("/tmp/" + inputPath.toFile().getName() + ".bw");
     }
 
-    public boolean bamCoverageExists() throws IOException {
-        String cmd = "which bamCoverage";
-        java.util.Scanner s = new java.util.Scanner(Runtime.getRuntime().exec(cmd).getInputStream()).useDelimiter("\\A");
-        return s.hasNext();
-    }
-
     @Test
     public void testIndex() throws IOException {
         try {
@@ -74,6 +72,61 @@ public class BamManagerTest {
         bamManager.calculateBigWigCoverage(bwPath, 50);
     }
 
+    @Test
+    public void testBigWigCoverageValues() throws Exception {
+        Path bigWigPath = Paths.get("/tmp/" + inputPath.toFile().getName() + ".values.bw");
+        BamManager bamManager = new BamManager(inputPath);
+        bamManager.calculateBigWigCoverage(bigWigPath, 1, null, new AlignmentOptions(), 2);
+
+        Region region = new Region("20", 60000, 70000);
+        RegionCoverage coverage = bamManager.coverage(new Region("20", 60000, 70000), null, new AlignmentOptions());
+        double[] values = new double[region.size()];
+        BigWigIterator bigWigIterator = new BigWigManager(bigWigPath).iterator(region);
+        while (bigWigIterator.hasNext()) {
+            WigItem wigItem = bigWigIterator.next();
+            // WigItem coordinates are 0-based, end excluded
+            for (int pos = Math.max(wigItem.getStartBase() + 1, region.getStart()); pos <= Math.min(wigItem.getEndBase(),
+                    region.getEnd()); pos++) {
+                values[pos - region.getStart()] = wigItem.getWigValue();
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("Position " + (region.getStart() + i), coverage.getValues()[i], values[i], 0.0001);
+        }
+
+        // Zoom levels
+        BigWigManager bigWigManager = new BigWigManager(bigWigPath);
+        assertEquals(10, bigWigManager.getZoomWindowSizes().get(0).intValue());
+        ZoomLevelIterator zoomLevelIterator = bigWigManager.iterator(new Region("20", 60001, 70000), 1);
+        while (zoomLevelIterator.hasNext()) {
+            ZoomDataRecord zoomDataRecord = zoomLevelIterator.next();
+            double sum = 0;
+            for (int pos = zoomDataRecord.getChromStart() + 1; pos <= zoomDataRecord.getChromEnd(); pos++) {
+                sum += coverage.getValues()[pos - region.getStart()];
+            }
+            assertEquals(sum, zoomDataRecord.getSumData(), 0.001);
+        }
+
+        // Mean coverage by windows
+        Path windowBigWigPath = Paths.get("/tmp/" + inputPath.toFile().getName() + ".window.bw");
+        bamManager.calculateBigWigCoverage(windowBigWigPath, 100, null, new AlignmentOptions(), 2);
+        bigWigIterator = new BigWigManager(windowBigWigPath).iterator(new Region("20", 60001, 70000));
+        while (bigWigIterator.hasNext()) {
+            WigItem wigItem = bigWigIterator.next();
+            // Windows are aligned to the chromosome start, one item can merge several windows with the same mean
+            for (int windowStart = wigItem.getStartBase() + 1; windowStart <= wigItem.getEndBase(); windowStart += 100) {
+                if (windowStart < 60001 || windowStart + 99 > 70000) {
+                    continue;
+                }
+                double mean = 0;
+                for (int pos = windowStart; pos < windowStart + 100; pos++) {
+                    mean += coverage.getValues()[pos - region.getStart()];
+                }
+                assertEquals(mean / 100, wigItem.getWigValue(), 0.001);
+            }
+        }
+    }
+
     @Test
     public void testQuery() throws Exception {
         BamManager bamManager = new BamManager(inputPath);
@@ -90,6 +143,140 @@ public class BamManagerTest {
         assertEquals(3, query.size());
     }
 
+    @Test
+    public void testShardedQuery() throws Exception {
+        BamManager bamManager = new BamManager(inputPath);
+        Region region = new Region("20", 60050, 62500);
+        for (boolean contained : Arrays.asList(false, true)) {
+            AlignmentOptions options = new AlignmentOptions().setContained(contained);
+            List<String> expected = new ArrayList<>();
+            try (BamIterator<SAMRecord> iterator = bamManager.iterator(region, options)) {
+                iterator.forEachRemaining(record -> expected.add(record.getSAMString()));
+            }
+
+            List<String> sharded = new ArrayList<>();
+            try (ShardedIterator<SamReader, SAMRecord> iterator =
+                         bamManager.iterator(Collections.singletonList(region), null, options, SAMRecord.class, 4, 100)) {
+                iterator.forEachRemaining(record -> sharded.add(record.getSAMString()));
+            }
+            assertTrue(expected.size() > 50);
+            assertEquals(expected, sharded);
+        }
+
+        List<SAMRecord> limited = bamManager.query(Arrays.asList(new Region("20", 60000, 65000), region), null,
+                new AlignmentOptions().setLimit(10), SAMRecord.class, 2);
+        assertEquals(bamManager.query(new Region("20", 60000, 65000), new AlignmentOptions().setLimit(10)).toString(),
+                limited.toString());
+    }
+
+    @Test
+    public void testReaderPool() throws Exception {
+        Region region = new Region("20", 60000, 65000);
+        List<SAMRecord> expected;
+        try (BamManager bamManager = new BamManager(inputPath)) {
+            expected = bamManager.query(region);
+        }
+
+        try (ReaderPool<SamReader> pool = BamManager.newReaderPool(null)) {
+            for (int i = 0; i < 3; i++) {
+                try (BamManager bamManager = new BamManager(inputPath, null, pool)) {
+                    assertEquals(expected.toString(), bamManager.query(region).toString());
+                }
+            }
+            ReaderPool.Metrics metrics = pool.getMetrics();
+            assertEquals(3, metrics.getLeases());
+            assertEquals(1, metrics.getOpened());
+            assertEquals(1, metrics.getIdle());
+        }
+    }
+
+    @Test
+    public void testShardedQueryReaderPool() throws Exception {
+        Region region = new Region("20", 60050, 62500);
+        try (ReaderPool<SamReader> pool = BamManager.newReaderPool(null);
+             BamManager bamManager = new BamManager(inputPath, null, pool)) {
+            String expected = bamManager.query(region).toString();
+            long opened = 0;
+            for (int i = 0; i < 2; i++) {
+                List<SAMRecord> sharded = new ArrayList<>();
+                try (ShardedIterator<SamReader, SAMRecord> iterator = bamManager.iterator(Collections.singletonList(region),
+                        null, null, SAMRecord.class, 2, 100)) {
+                    iterator.forEachRemaining(sharded::add);
+                }
+                assertEquals(expected, sharded.toString());
+
+                ReaderPool.Metrics metrics = pool.getMetrics();
+                // Only the reader of the manager is still leased
+                assertEquals(1, metrics.getActive());
+                assertTrue(metrics.getOpened() <= 3);
+                if (i == 0) {
+                    opened = metrics.getOpened();
+                } else {
+                    // The second query reuses the readers of the first one
+                    assertEquals(opened, metrics.getOpened());
+                    assertTrue(metrics.getReused() > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReaderPoolInvalidation() throws Exception {
+        Region region = new Region("20", 60000, 65000);
+        try (ReaderPool<SamReader> pool = BamManager.newReaderPool(null)) {
+            // The iterator is not closed, the reader is closed instead of returned to the pool
+            try (BamManager bamManager = new BamManager(inputPath, null, pool)) {
+                assertTrue(bamManager.iterator(region).hasNext());
+            }
+            assertEquals(0, pool.getMetrics().getIdle());
+            assertEquals(1, pool.getMetrics().getClosed());
+
+            // The query closes its iterator on errors, so the reader is returned and can be used again
+            int[] records = new int[1];
+            try (BamManager bamManager = new BamManager(inputPath, null, pool)) {
+                bamManager.query(region, new SamRecordFilters().addFilter(record -> {
+                    if (++records[0] > 10) {
+                        throw new IllegalStateException("Filter error");
+                    }
+                    return true;
+                }), null);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("Filter error", e.getMessage());
+            }
+            assertEquals(1, pool.getMetrics().getIdle());
+            try (BamManager bamManager = new BamManager(inputPath, null, pool)) {
+                assertEquals(new BamManager(inputPath).query(region).size(), bamManager.query(region).size());
+            }
+            assertEquals(1, pool.getMetrics().getReused());
+
+            // Reading a corrupted file fails, the reader is not returned to the pool even if the iterator is closed
+            Path directory = Files.createTempDirectory("bam");
+            Path corrupted = directory.resolve("corrupted.bam");
+            byte[] bytes = Files.readAllBytes(inputPath);
+            Arrays.fill(bytes, bytes.length / 2, bytes.length / 2 + 1000, (byte) 0x55);
+            Files.write(corrupted, bytes);
+            Files.copy(Paths.get(inputPath + ".bai"), Paths.get(corrupted + ".bai"));
+            try (BamManager bamManager = new BamManager(corrupted, null, pool);
+                 BamIterator<SAMRecord> iterator = bamManager.iterator(new Region("20", 1, 70000000))) {
+                iterator.forEachRemaining(record -> { });
+                fail();
+            } catch (RuntimeException e) {
+                // expected
+            }
+            assertEquals(1, pool.getMetrics().getIdle());
+            assertEquals(0, pool.getMetrics().getActive());
+            assertEquals(pool.getMetrics().getOpened() - 1, pool.getMetrics().getClosed());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReaderPoolOtherReference() throws Exception {
+        try (ReaderPool<SamReader> pool = BamManager.newReaderPool(Paths.get("reference.fa"))) {
+            new BamManager(inputPath, Paths.get("other.fa"), pool);
+        }
+    }
+
     @Test
     public void testQueryBigWigCoverage() throws Exception {
         if (!bwPath.toFile().exists()) {
@@ -0,0 +1,183 @@
+package org.opencb.biodata.tools.alignment.coverage;
+
+import htsjdk.samtools.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.alignment.LowCoverageRegionStats;
+import org.opencb.biodata.models.alignment.RegionCoverage;
+import org.opencb.biodata.models.alignment.RegionCoverageStats;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.alignment.AlignmentOptions;
+import org.opencb.biodata.tools.alignment.BamManager;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class StreamingCoverageCalculatorTest {
+
+    private Path inputPath;
+
+    @Before
+    public void setUp() throws Exception {
+        inputPath = Paths.get(getClass().getResource("/HG00096.chrom20.small.bam").toURI());
+    }
+
+    @Test
+    public void testCompareWithRegionCoverage() throws Exception {
+        for (int minBaseQuality : new int[]{0, 30}) {
+            Region region = new Region("20", 59000, 66000);
+            double[] expected = regionCoverage(region, minBaseQuality).getValues();
+
+            double[] values = new double[region.size()];
+            StreamingCoverageCalculator calculator = new StreamingCoverageCalculator(minBaseQuality)
+                    .addListener((chromosome, start, end, depth) ->
+                            Arrays.fill(values, start - region.getStart(), end - region.getStart() + 1, depth));
+            calculate(region, calculator);
+            assertArrayEquals(expected, values, 0);
+        }
+    }
+
+    @Test
+    public void testListeners() throws Exception {
+        Region region = new Region("20", 59000, 66000);
+        double[] expected = regionCoverage(region, 0).getValues();
+
+        List<double[]> windows = new ArrayList<>();
+        LowCoverageRegionCalculator lowCoverage = new LowCoverageRegionCalculator(5, 10);
+        List<Region> targets = Arrays.asList(new Region("20", 62000, 62500), new Region("20", 58000, 59500),
+                new Region("20", 62400, 62410), new Region("20", 80000, 81000), new Region("1", 62000, 62500));
+        TargetCoverageStatsCalculator targetStats = new TargetCoverageStatsCalculator(targets);
+        StreamingCoverageCalculator calculator = new StreamingCoverageCalculator()
+                .addListener(new WindowCoverageAggregator(1000, (chromosome, start, end, values) -> {
+                    windows.add(new double[]{start, end, values[0], values[1], values[2], values[3]});
+                }, CoverageAggregate.mean(), CoverageAggregate.min(), CoverageAggregate.max(),
+                        CoverageAggregate.fractionAtLeast(3)))
+                .addListener(lowCoverage)
+                .addListener(targetStats);
+        calculate(region, calculator);
+
+        // windows
+        assertEquals(8, windows.size());
+        assertEquals(66000, windows.get(7)[1], 0);
+        for (double[] window : windows) {
+            double[] values = Arrays.copyOfRange(expected, (int) window[0] - region.getStart(),
+                    (int) window[1] - region.getStart() + 1);
+            assertEquals(Arrays.stream(values).average().getAsDouble(), window[2], 0.000001);
+            assertEquals(Arrays.stream(values).min().getAsDouble(), window[3], 0);
+            assertEquals(Arrays.stream(values).max().getAsDouble(), window[4], 0);
+            assertEquals(Arrays.stream(values).filter(value -> value >= 3).count() / (double) values.length,
+                    window[5], 0.000001);
+        }
+
+        // low coverage regions
+        List<LowCoverageRegionStats> expectedLowCoverage = new ArrayList<>();
+        for (int i = 0; i < expected.length; ) {
+            int j = i;
+            while (j < expected.length && expected[j] < 5) {
+                j++;
+            }
+            if (j - i >= 10) {
+                double[] values = Arrays.copyOfRange(expected, i, j);
+                expectedLowCoverage.add(new LowCoverageRegionStats("20", region.getStart() + i,
+                        region.getStart() + j - 1, Arrays.stream(values).average().getAsDouble(),
+                        Arrays.stream(values).min().getAsDouble()));
+            }
+            i = j + 1;
+        }
+        assertFalse(expectedLowCoverage.isEmpty());
+        assertEquals(expectedLowCoverage.toString(), lowCoverage.getLowCoverageRegions().toString());
+
+        // targets, clipped to the region
+        for (int i = 0; i < 3; i++) {
+            Region target = targets.get(i);
+            double[] values = Arrays.copyOfRange(expected, Math.max(target.getStart(), region.getStart())
+                    - region.getStart(), target.getEnd() - region.getStart() + 1);
+            RegionCoverageStats stats = targetStats.getStats().get(i);
+            assertEquals(Arrays.stream(values).min().getAsDouble(), stats.getMin(), 0);
+            assertEquals(Arrays.stream(values).max().getAsDouble(), stats.getMax(), 0);
+            assertEquals(Arrays.stream(values).average().getAsDouble(), stats.getAvg(), 0.000001);
+        }
+        assertNull(targetStats.getStats().get(3));
+        assertNull(targetStats.getStats().get(4));
+    }
+
+    @Test
+    public void testSplicedAlignments() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("1", 200000));
+        List<SAMRecord> records = new ArrayList<>();
+        // the long intron makes the ring buffer grow
+        records.add(record(header, 10, "20M100000N20M"));
+        records.add(record(header, 15, "5S10M5D10M"));
+        records.add(record(header, 25, "10M"));
+        records.add(record(header, 100020, "10M"));
+
+        Region region = new Region("1", 12, 100100);
+        RegionCoverage expected = new RegionCoverage(region);
+        SamRecordRegionCoverageCalculator expectedCalculator = new SamRecordRegionCoverageCalculator();
+        records.forEach(record -> expectedCalculator.update(record, expected));
+
+        double[] values = new double[region.size()];
+        new StreamingCoverageCalculator()
+                .addListener((chromosome, start, end, depth) ->
+                        Arrays.fill(values, start - region.getStart(), end - region.getStart() + 1, depth))
+                .calculate(region, records.iterator());
+        assertArrayEquals(expected.getValues(), values, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsortedAlignments() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("1", 1000));
+        new StreamingCoverageCalculator().calculate(new Region("1", 1, 1000),
+                Arrays.asList(record(header, 100, "10M"), record(header, 50, "10M")).iterator());
+    }
+
+    @Test
+    public void testWholeChromosome() throws Exception {
+        try (BamManager bamManager = new BamManager(inputPath)) {
+            int length = bamManager.getHeader().getSequence("20").getSequenceLength();
+            assertTrue(length > BamManager.MAX_REGION_COVERAGE);
+
+            RegionCoverage coverage = bamManager.coverage(new Region("20"), null, new AlignmentOptions(), 100000);
+            assertEquals(1, coverage.getStart());
+            assertEquals(length, coverage.getEnd());
+            assertEquals((length + 99999) / 100000, coverage.getValues().length);
+
+            // the window of the small region
+            double[] expected = regionCoverage(new Region("20", 1, 100000), 0).getValues();
+            assertEquals(Arrays.stream(expected).average().getAsDouble(), coverage.getValues()[0], 0.000001);
+        }
+    }
+
+    private RegionCoverage regionCoverage(Region region, int minBaseQuality) throws Exception {
+        RegionCoverage regionCoverage = new RegionCoverage(region);
+        SamRecordRegionCoverageCalculator calculator = new SamRecordRegionCoverageCalculator(minBaseQuality);
+        try (SamReader reader = SamReaderFactory.makeDefault().open(inputPath.toFile());
+             SAMRecordIterator iterator = reader.query(region.getChromosome(), region.getStart(), region.getEnd(),
+                     false)) {
+            iterator.forEachRemaining(record -> calculator.update(record, regionCoverage));
+        }
+        return regionCoverage;
+    }
+
+    private void calculate(Region region, StreamingCoverageCalculator calculator) throws Exception {
+        try (SamReader reader = SamReaderFactory.makeDefault().open(inputPath.toFile());
+             SAMRecordIterator iterator = reader.query(region.getChromosome(), region.getStart(), region.getEnd(),
+                     false)) {
+            calculator.calculate(region, iterator);
+        }
+    }
+
+    private static SAMRecord record(SAMFileHeader header, int start, String cigar) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("read" + start);
+        record.setReferenceName("1");
+        record.setAlignmentStart(start);
+        record.setCigarString(cigar);
+        return record;
+    }
+}
@@ -0,0 +1,146 @@
+package org.opencb.biodata.tools.alignment.coverage;
+
+import htsjdk.samtools.SAMRecordIterator;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.alignment.*;
+import org.opencb.biodata.models.core.Exon;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.tools.alignment.AlignmentOptions;
+import org.opencb.biodata.tools.alignment.BamManager;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TranscriptCoverageStatsCalculatorTest {
+
+    private Path inputPath;
+
+    @Before
+    public void setUp() throws Exception {
+        inputPath = Paths.get(getClass().getResource("/HG00096.chrom20.small.bam").toURI());
+    }
+
+    @Test
+    public void testTranscriptStats() throws Exception {
+        Region region = new Region("20", 59000, 70000);
+        double[] values = regionCoverage(region);
+
+        // T2 shares an exon with T1, exons of T3 are far enough to be read in different blocks
+        List<Transcript> transcripts = Arrays.asList(
+                transcript("T1", "20", 60000, 60200, 60500, 60800, 62000, 62400),
+                transcript("T2", "20", 60500, 60800, 61000, 61100),
+                transcript("T3", "20", 59500, 59600, 65000, 65100, 69000, 69900),
+                transcript("T4", "20", 62100, 62150));
+        List<TranscriptCoverageStats> stats = new TranscriptCoverageStatsCalculator(inputPath)
+                .setLowCoverageThreshold(5)
+                .setMaxGap(500)
+                .calculate(transcripts, 2);
+        assertEquals(transcripts.size(), stats.size());
+
+        for (int t = 0; t < transcripts.size(); t++) {
+            Transcript transcript = transcripts.get(t);
+            TranscriptCoverageStats transcriptStats = stats.get(t);
+            assertEquals(transcript.getId(), transcriptStats.getId());
+            assertEquals(5, transcriptStats.getLowCoverageThreshold());
+
+            List<Double> exonicValues = new ArrayList<>();
+            List<LowCoverageRegionStats> lowCoverageRegions = new ArrayList<>();
+            for (int e = 0; e < transcript.getExons().size(); e++) {
+                Exon exon = transcript.getExons().get(e);
+                double[] exonValues = Arrays.copyOfRange(values, exon.getStart() - region.getStart(),
+                        exon.getEnd() - region.getStart() + 1);
+                ExonCoverageStats exonStats = transcriptStats.getExonStats().get(e);
+                assertEquals(exon.getStart(), exonStats.getStart());
+                assertEquals(Arrays.stream(exonValues).average().getAsDouble(), exonStats.getDepthAvg(), 0.000001);
+                assertEquals(Arrays.stream(exonValues).min().getAsDouble(), exonStats.getDepthMin(), 0);
+                assertEquals(Arrays.stream(exonValues).max().getAsDouble(), exonStats.getDepthMax(), 0);
+                Arrays.stream(exonValues).forEach(exonicValues::add);
+                lowCoverageRegions.addAll(lowCoverageRegions(exonValues, exon.getStart(), 5));
+            }
+
+            assertEquals(exonicValues.size(), transcriptStats.getLength());
+            for (int i = 0; i < TranscriptCoverageStatsCalculator.DEPTH_THRESHOLDS.length; i++) {
+                int threshold = TranscriptCoverageStatsCalculator.DEPTH_THRESHOLDS[i];
+                assertEquals(100.0 * exonicValues.stream().filter(value -> value >= threshold).count()
+                        / exonicValues.size(), transcriptStats.getDepths()[i], 0.000001);
+            }
+            assertEquals(lowCoverageRegions.toString(), transcriptStats.getLowCoverageRegionStats().toString());
+        }
+        assertTrue(stats.get(0).getDepths()[0] > 0);
+    }
+
+    @Test
+    public void testGeneStats() throws Exception {
+        Gene gene1 = new Gene().setName("GENE1").setTranscripts(Arrays.asList(
+                transcript("T1", "20", 60000, 60200), transcript("T2", "20", 60100, 60300)));
+        Gene gene2 = new Gene().setName("GENE2").setTranscripts(Collections.singletonList(
+                transcript("T3", "chrUnknown", 1000, 2000)));
+
+        try (BamManager bamManager = new BamManager(inputPath)) {
+            List<GeneCoverageStats> stats = bamManager.geneCoverageStats(Arrays.asList(gene1, gene2), null,
+                    new AlignmentOptions(), 20, 2);
+            assertEquals(2, stats.size());
+            assertEquals("GENE1", stats.get(0).getGeneName());
+            assertEquals(Arrays.asList("T1", "T2"), Arrays.asList(stats.get(0).getStats().get(0).getId(),
+                    stats.get(0).getStats().get(1).getId()));
+            assertEquals(inputPath.getFileName().toString(), stats.get(0).getFile());
+
+            // no reads in unknown chromosomes
+            TranscriptCoverageStats unknown = stats.get(1).getStats().get(0);
+            assertEquals(1001, unknown.getLength());
+            assertEquals(0, unknown.getDepths()[0], 0);
+            assertEquals(1, unknown.getLowCoverageRegionStats().size());
+            assertEquals(1000, unknown.getLowCoverageRegionStats().get(0).getStart());
+            assertEquals(2000, unknown.getLowCoverageRegionStats().get(0).getEnd());
+        }
+    }
+
+    private static List<LowCoverageRegionStats> lowCoverageRegions(double[] values, int start, int threshold) {
+        List<LowCoverageRegionStats> regions = new ArrayList<>();
+        for (int i = 0; i < values.length; ) {
+            int j = i;
+            while (j < values.length && values[j] < threshold) {
+                j++;
+            }
+            if (j > i) {
+                double[] lowValues = Arrays.copyOfRange(values, i, j);
+                regions.add(new LowCoverageRegionStats("20", start + i, start + j - 1,
+                        Arrays.stream(lowValues).average().getAsDouble(), Arrays.stream(lowValues).min().getAsDouble()));
+            }
+            i = j + 1;
+        }
+        return regions;
+    }
+
+    private static Transcript transcript(String id, String chromosome, int... exonBounds) {
+        List<Exon> exons = new ArrayList<>();
+        for (int i = 0; i < exonBounds.length; i += 2) {
+            exons.add(new Exon().setId(id + "_" + (i / 2 + 1)).setChromosome(chromosome).setStart(exonBounds[i])
+                    .setEnd(exonBounds[i + 1]));
+        }
+        return new Transcript().setId(id).setChromosome(chromosome).setStart(exonBounds[0])
+                .setEnd(exonBounds[exonBounds.length - 1]).setExons(exons);
+    }
+
+    private double[] regionCoverage(Region region) throws Exception {
+        RegionCoverage regionCoverage = new RegionCoverage(region);
+        SamRecordRegionCoverageCalculator calculator = new SamRecordRegionCoverageCalculator();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(inputPath.toFile());
+             SAMRecordIterator iterator = reader.query(region.getChromosome(), region.getStart(), region.getEnd(),
+                     false)) {
+            iterator.forEachRemaining(record -> calculator.update(record, regionCoverage));
+        }
+        return regionCoverage.getValues();
+    }
+}
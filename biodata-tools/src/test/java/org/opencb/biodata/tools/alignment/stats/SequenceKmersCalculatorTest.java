@@ -0,0 +1,101 @@
+package org.opencb.biodata.tools.alignment.stats;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SequenceKmersCalculatorTest {
+
+    @Test
+    public void testCompute() {
+        Random random = new Random(1);
+        SequenceKmersCalculator calculator = new SequenceKmersCalculator();
+        for (int k : new int[]{1, 3, 8, 31}) {
+            for (int i = 0; i < 20; i++) {
+                String sequence = randomSequence(random, random.nextInt(300));
+                assertEquals("k = " + k, naiveCount(sequence, k), new HashMap<>(calculator.compute(sequence, k).kmersMap));
+            }
+        }
+    }
+
+    @Test
+    public void testUpdate() {
+        Random random = new Random(2);
+        SequenceKmersCalculator calculator = new SequenceKmersCalculator();
+        SequenceKmers total = new SequenceKmers(5);
+        SequenceKmers merged = new SequenceKmers(5);
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            String sequence = randomSequence(random, 150);
+            calculator.update(sequence, total);
+            calculator.update(calculator.compute(sequence, 5), merged);
+            naiveCount(sequence, 5).forEach((kmer, count) -> expected.merge(kmer, count, Integer::sum));
+        }
+        assertEquals(expected, new HashMap<>(total.kmersMap));
+        assertEquals(expected, new HashMap<>(merged.kmersMap));
+    }
+
+    @Test
+    public void testKmersMap() throws Exception {
+        SequenceKmers kmers = new SequenceKmersCalculator().compute("ACGTNacgta", 3);
+        assertEquals(Integer.valueOf(2), kmers.kmersMap.get("ACG"));
+        assertEquals(Integer.valueOf(2), kmers.kmersMap.get("acg"));
+        assertNull(kmers.kmersMap.get("GTN"));
+        assertNull(kmers.kmersMap.get("AC"));
+        assertEquals(Arrays.asList("ACG", "CGT", "GTA"), new ArrayList<>(kmers.kmersMap.keySet()));
+
+        kmers.kmersMap.put("TTT", 7);
+        assertEquals(Integer.valueOf(2), kmers.kmersMap.remove("CGT"));
+        assertEquals(3, kmers.kmersMap.size());
+        assertEquals("{\"kvalue\":3,\"kmersMap\":{\"ACG\":2,\"GTA\":1,\"TTT\":7}}",
+                new ObjectMapper().writer().writeValueAsString(kmers));
+    }
+
+    @Test
+    public void testTableGrowthAndRemove() {
+        KmerTable table = new KmerTable(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            long kmer = random.nextInt(50000);
+            table.add(kmer, 1);
+            expected.merge(kmer, 1, Integer::sum);
+        }
+        for (long kmer = 0; kmer < 50000; kmer += 3) {
+            table.put(kmer, 0);
+            expected.remove(kmer);
+        }
+        assertEquals(expected.size(), table.size());
+        Map<Long, Integer> actual = new HashMap<>();
+        table.forEach(actual::put);
+        assertEquals(expected, actual);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxK() {
+        new SequenceKmersCalculator().compute("ACGT", KmerTable.MAX_K + 1);
+    }
+
+    private static Map<String, Integer> naiveCount(String sequence, int k) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i + k <= sequence.length(); i++) {
+            String kmer = sequence.substring(i, i + k).toUpperCase();
+            if (kmer.matches("[ACGT]+")) {
+                counts.merge(kmer, 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    private static String randomSequence(Random random, int length) {
+        String bases = "ACGTACGTACGTacgtN";
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(bases.charAt(random.nextInt(bases.length())));
+        }
+        return sb.toString();
+    }
+}
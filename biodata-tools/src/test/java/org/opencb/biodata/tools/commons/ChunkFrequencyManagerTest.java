@@ -1,17 +1,32 @@
 package org.opencb.biodata.tools.commons;
 
 import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.tools.alignment.BamUtils;
 import org.opencb.biodata.tools.feature.WigUtils;
 
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by jtarraga on 02/12/16.
  */
 public class ChunkFrequencyManagerTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     Path bamPath;
     Path coverageWigPath;
     Path indexPath;
@@ -26,6 +41,119 @@ public class ChunkFrequencyManagerTest {
         indexPath = Paths.get("/tmp/" + bamPath.toFile().getName() + WigUtils.WIG_DB);
     }
 
+    @Test
+    public void insertAndQuery() throws IOException {
+        Path dbPath = temporaryFolder.getRoot().toPath().resolve("coverage.idx");
+        Path file1 = Paths.get("file1.bam");
+        Path file2 = Paths.get("file2.bam");
+
+        Random random = new Random(1);
+        int[] values1 = new int[5000];
+        for (int i = 0; i < values1.length; i++) {
+            values1[i] = random.nextInt(300);
+        }
+        int[] values2 = new int[70];
+        Arrays.fill(values2, 7);
+
+        ChunkFrequencyManager manager = new ChunkFrequencyManager(dbPath, 100);
+        manager.insert(file1, "1", values1, values1.length);
+        manager.insert(file2, "1", values2, values2.length);
+        manager.insert(file1, "2", Arrays.asList(1, 2, 3));
+        checkQueries(manager, file1, values1);
+        checkQueries(manager, file2, values2);
+
+        // Reopen the index, the chunk size is read from the file
+        manager = new ChunkFrequencyManager(dbPath);
+        assertEquals(100, manager.getChunkSize());
+        checkQueries(manager, file1, values1);
+        checkQueries(manager, file2, values2);
+        assertArrayEquals(new short[]{2, 3}, manager.query(new Region("2", 101, 300), file1, 100).getValues());
+        assertArrayEquals(new short[]{6}, manager.query(new Region("2", 1, 300), file1, 300, manager.addition())
+                .getValues());
+
+        // Replace values
+        manager.insert(file1, "2", Arrays.asList(4, 5, 6));
+        assertArrayEquals(new short[]{15}, manager.query(new Region("2", 1, 300), file1, 300, manager.addition())
+                .getValues());
+        assertArrayEquals(new short[]{15}, new ChunkFrequencyManager(dbPath)
+                .query(new Region("2", 1, 300), file1, 300, manager.addition()).getValues());
+
+        // The replaced block is removed when compacting
+        long size = Files.size(dbPath);
+        assertTrue(manager.getStaleSize() > 0);
+        assertEquals(manager.getStaleSize(), new ChunkFrequencyManager(dbPath).getStaleSize());
+        manager.compact();
+        assertEquals(0, manager.getStaleSize());
+        assertTrue(Files.size(dbPath) < size);
+        assertArrayEquals(new short[]{15}, manager.query(new Region("2", 1, 300), file1, 300, manager.addition())
+                .getValues());
+        manager = new ChunkFrequencyManager(dbPath);
+        assertEquals(0, manager.getStaleSize());
+        checkQueries(manager, file1, values1);
+        checkQueries(manager, file2, values2);
+        assertArrayEquals(new short[]{15}, manager.query(new Region("2", 1, 300), file1, 300, manager.addition())
+                .getValues());
+
+        // Unknown chromosome
+        assertArrayEquals(new short[2], manager.query(new Region("3", 1, 200), file1, 100).getValues());
+    }
+
+    private void checkQueries(ChunkFrequencyManager manager, Path file, int[] values) {
+        int chunkSize = manager.getChunkSize();
+        int[][] regions = {{1, 100}, {1, chunkSize * values.length}, {150, 250}, {1234, 98765}, {12001, 12800},
+                {chunkSize * values.length - 500, chunkSize * values.length + 1000}};
+        for (int[] region : regions) {
+            for (int windowSize : new int[]{1, 100, 300, 800, 6400, 51200, 1000000}) {
+                ChunkFrequencyManager.ChunkFrequency result = manager.query(new Region("1", region[0], region[1]),
+                        file, windowSize);
+                int chunksPerWindow = Math.max(windowSize / chunkSize, 1);
+                assertEquals(chunksPerWindow * chunkSize, result.getWindowSize());
+
+                int firstChunk = (region[0] - 1) / chunkSize;
+                int lastChunk = (region[1] - 1) / chunkSize;
+                short[] expected = new short[(lastChunk - firstChunk) / chunksPerWindow + 1];
+                for (int i = 0; i < expected.length; i++) {
+                    int start = firstChunk + i * chunksPerWindow;
+                    int end = Math.min(start + chunksPerWindow, lastChunk + 1);
+                    int sum = 0;
+                    for (int chunk = start; chunk < end; chunk++) {
+                        sum += chunk < values.length ? Math.min(values[chunk], 255) : 0;
+                    }
+                    expected[i] = (short) Math.min(Math.round(1.0f * sum / (end - start)), 255);
+                }
+                assertArrayEquals(region[0] + "-" + region[1] + " " + windowSize, expected, result.getValues());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void openInvalidIndex() throws IOException {
+        Path dbPath = temporaryFolder.newFile("invalid.db").toPath();
+        Files.write(dbPath, "SQLite format 3".getBytes());
+        new ChunkFrequencyManager(dbPath);
+    }
+
+    @Test
+    public void indexWig() throws Exception {
+        Path wigPath = temporaryFolder.getRoot().toPath().resolve("coverage.wig");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(wigPath))) {
+            // 1000 positions with value 10, from 501 to 1500
+            writer.println("fixedStep chrom=chr1 start=501 step=10 span=10");
+            for (int i = 0; i < 100; i++) {
+                writer.println(10);
+            }
+            writer.println("fixedStep chrom=chr2 start=1 step=2000 span=500");
+            writer.println(4);
+            writer.println(8);
+        }
+
+        Path dbPath = WigUtils.index(wigPath);
+        ChunkFrequencyManager manager = new ChunkFrequencyManager(dbPath);
+        assertArrayEquals(new short[]{5, 5, 0}, manager.query(new Region("chr1", 1, 3000), wigPath, 1000)
+                .getValues());
+        assertArrayEquals(new short[]{2, 0, 4}, manager.query(new Region("chr2", 1, 3000), wigPath, 1000)
+                .getValues());
+    }
 
     //@Test
     public void createCoverageFromWigFile() {
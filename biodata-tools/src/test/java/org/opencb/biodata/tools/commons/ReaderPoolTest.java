@@ -0,0 +1,137 @@
+package org.opencb.biodata.tools.commons;
+
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ReaderPoolTest {
+
+    private static class Reader implements Closeable {
+        private final Path path;
+        private final AtomicBoolean leased = new AtomicBoolean();
+        private boolean closed;
+
+        private Reader(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        public void close() {
+            assertFalse(closed);
+            closed = true;
+        }
+    }
+
+    @Test
+    public void testLease() throws Exception {
+        ReaderPool<Reader> pool = new ReaderPool<>(Reader::new, 1, TimeUnit.HOURS.toMillis(1));
+        Path path = Paths.get("file.bam");
+
+        Reader reader;
+        try (ReaderPool.Lease<Reader> lease = pool.lease(path)) {
+            reader = lease.get();
+            assertEquals(path.toAbsolutePath(), reader.path);
+            assertEquals(1, pool.getMetrics().getActive());
+        }
+        assertFalse(reader.closed);
+
+        // Reuse the idle reader
+        ReaderPool.Lease<Reader> lease1 = pool.lease(Paths.get("./file.bam"));
+        assertSame(reader, lease1.get());
+        // No idle readers
+        ReaderPool.Lease<Reader> lease2 = pool.lease(path);
+        Reader reader2 = lease2.get();
+        assertNotSame(reader, reader2);
+        // Another file, not reusable
+        ReaderPool.Lease<Reader> lease3 = pool.lease(Paths.get("other.bam"));
+        Reader reader3 = lease3.get();
+        lease3.invalidate();
+
+        lease1.close();
+        // Exceeds the maximum number of idle readers
+        lease2.close();
+        assertTrue(reader2.closed);
+        lease3.close();
+        assertTrue(reader3.closed);
+        // Closing twice does nothing
+        lease3.close();
+
+        ReaderPool.Metrics metrics = pool.getMetrics();
+        assertEquals(4, metrics.getLeases());
+        assertEquals(1, metrics.getReused());
+        assertEquals(3, metrics.getOpened());
+        assertEquals(2, metrics.getClosed());
+        assertEquals(0, metrics.getActive());
+        assertEquals(1, metrics.getIdle());
+        assertEquals(1, metrics.getFiles());
+
+        pool.close();
+        assertTrue(reader.closed);
+        assertEquals(0, pool.getMetrics().getIdle());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleasedLease() throws Exception {
+        ReaderPool<Reader> pool = new ReaderPool<>(Reader::new);
+        ReaderPool.Lease<Reader> lease = pool.lease(Paths.get("file.bam"));
+        lease.close();
+        lease.get();
+    }
+
+    @Test
+    public void testEvictIdle() throws Exception {
+        ReaderPool<Reader> pool = new ReaderPool<>(Reader::new, 4, 0);
+        ReaderPool.Lease<Reader> lease = pool.lease(Paths.get("file.bam"));
+        Reader reader = lease.get();
+        lease.close();
+
+        // Idle readers are evicted on the next access
+        assertTrue(reader.closed);
+        assertEquals(1, pool.getMetrics().getEvicted());
+        assertEquals(0, pool.evictIdle());
+        assertEquals(0, pool.getMetrics().getFiles());
+    }
+
+    @Test
+    public void testConcurrentLeases() throws Exception {
+        ReaderPool<Reader> pool = new ReaderPool<>(Reader::new, 4, TimeUnit.HOURS.toMillis(1));
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Path path = Paths.get("file" + (i % 3) + ".bam");
+            futures.add(executorService.submit(() -> {
+                try (ReaderPool.Lease<Reader> lease = pool.lease(path)) {
+                    Reader reader = lease.get();
+                    // Each reader is leased to a single thread
+                    assertTrue(reader.leased.compareAndSet(false, true));
+                    assertFalse(reader.closed);
+                    assertEquals(path.toAbsolutePath(), reader.path);
+                    reader.leased.set(false);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        ReaderPool.Metrics metrics = pool.getMetrics();
+        assertEquals(1000, metrics.getLeases());
+        assertEquals(1000, metrics.getReused() + metrics.getOpened());
+        assertEquals(metrics.getOpened() - metrics.getClosed(), metrics.getIdle());
+        assertTrue(metrics.getIdle() <= 3 * 4);
+        pool.close();
+    }
+}
@@ -0,0 +1,107 @@
+package org.opencb.biodata.tools.commons;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class RegionIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testQueries() {
+        Random random = new Random(1);
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(100000) + 1;
+            // mostly small regions, with a few large ones
+            int length = random.nextInt(10) == 0 ? random.nextInt(20000) : random.nextInt(200);
+            regions.add(new Region(random.nextBoolean() ? "1" : "2", start, start + length));
+        }
+        RegionIndex regionIndex = new RegionIndex(regions);
+        assertEquals(2000, regionIndex.size());
+
+        for (int i = 0; i < 2000; i++) {
+            String chromosome = random.nextInt(10) == 0 ? "3" : random.nextBoolean() ? "1" : "2";
+            int start = random.nextInt(110000) + 1;
+            int end = start + random.nextInt(500);
+
+            List<Region> expected = regions.stream()
+                    .filter(region -> region.overlaps(chromosome, start, end))
+                    .sorted(Comparator.comparingInt(Region::getStart).thenComparingInt(Region::getEnd))
+                    .collect(Collectors.toList());
+            assertEquals(expected, regionIndex.query(chromosome, start, end));
+            assertEquals(!expected.isEmpty(), regionIndex.overlaps(chromosome, start, end));
+            assertEquals(expected.stream().anyMatch(region -> region.getStart() <= start && region.getEnd() >= end),
+                    regionIndex.contains(chromosome, start, end));
+        }
+    }
+
+    @Test
+    public void testCursor() {
+        Random random = new Random(2);
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(50000) + 1;
+            regions.add(new Region(random.nextBoolean() ? "1" : "2", start, start + random.nextInt(1000)));
+        }
+        RegionIndex regionIndex = new RegionIndex(regions);
+
+        // sorted records, as in a sorted BAM file, followed by a few unsorted ones
+        List<Region> records = new ArrayList<>();
+        for (String chromosome : Arrays.asList("1", "2", "3")) {
+            for (int start = 1; start < 52000; start += random.nextInt(100)) {
+                records.add(new Region(chromosome, start, start + random.nextInt(300)));
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(52000) + 1;
+            records.add(new Region(random.nextBoolean() ? "1" : "2", start, start + random.nextInt(300)));
+        }
+
+        RegionIndex.Cursor cursor = regionIndex.cursor();
+        for (Region record : records) {
+            String chromosome = record.getChromosome();
+            assertEquals(record.toString(), regionIndex.overlaps(chromosome, record.getStart(), record.getEnd()),
+                    cursor.overlaps(chromosome, record.getStart(), record.getEnd()));
+            assertEquals(record.toString(), regionIndex.contains(chromosome, record.getStart(), record.getEnd()),
+                    cursor.contains(chromosome, record.getStart(), record.getEnd()));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        RegionIndex regionIndex = new RegionIndex(Collections.emptyList());
+        assertFalse(regionIndex.overlaps("1", 1, 100));
+        assertFalse(regionIndex.contains("1", 1, 100));
+        assertTrue(regionIndex.query("1", 1, 100).isEmpty());
+        assertFalse(regionIndex.cursor().overlaps("1", 1, 100));
+    }
+
+    @Test
+    public void testFromBed() throws Exception {
+        Path bedPath = temporaryFolder.newFile("targets.bed").toPath();
+        Files.write(bedPath, Arrays.asList(
+                "# targets",
+                "chr1\t99\t200",
+                "chr1\t499\t600",
+                "chr2\t0\t10"));
+
+        RegionIndex regionIndex = RegionIndex.fromBed(bedPath);
+        assertEquals(3, regionIndex.size());
+        assertEquals(new HashSet<>(Arrays.asList("chr1", "chr2")), regionIndex.getChromosomes());
+        assertEquals(Collections.singletonList(new Region("chr1", 100, 200)), regionIndex.query("chr1", 50, 100));
+        assertFalse(regionIndex.overlaps("chr1", 201, 499));
+        assertTrue(regionIndex.contains("chr1", 500, 600));
+        assertTrue(regionIndex.overlaps("chr2", 10, 20));
+    }
+}
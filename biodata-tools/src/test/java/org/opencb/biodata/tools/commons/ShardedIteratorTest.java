@@ -0,0 +1,125 @@
+package org.opencb.biodata.tools.commons;
+
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ShardedIteratorTest {
+
+    @Test
+    public void testSplit() {
+        List<Region> shards = ShardedIterator.split(new Region("1", 100, 40000), 20000);
+        assertEquals(Arrays.asList(new Region("1", 100, 16384), new Region("1", 16385, 32768),
+                new Region("1", 32769, 40000)), shards);
+
+        shards = ShardedIterator.split(new Region("1", 16384, 16385), ShardedIterator.SHARD_ALIGNMENT);
+        assertEquals(Arrays.asList(new Region("1", 16384, 16384), new Region("1", 16385, 16385)), shards);
+
+        shards = ShardedIterator.split(new Region("1", 150, 320), 100);
+        assertEquals(Arrays.asList(new Region("1", 150, 200), new Region("1", 201, 300), new Region("1", 301, 320)),
+                shards);
+    }
+
+    @Test
+    public void testIsFirstShard() {
+        Region region = new Region("1", 100, 40000);
+        Region first = new Region("1", 100, 16384);
+        Region second = new Region("1", 16385, 32768);
+        // Starts before the region
+        assertTrue(ShardedIterator.isFirstShard(region, first, 50));
+        assertFalse(ShardedIterator.isFirstShard(region, second, 50));
+        assertFalse(ShardedIterator.isFirstShard(region, first, 16385));
+        assertTrue(ShardedIterator.isFirstShard(region, second, 16385));
+    }
+
+    @Test
+    public void testIterator() {
+        AtomicInteger openReaders = new AtomicInteger();
+        AtomicInteger closedReaders = new AtomicInteger();
+        List<Region> regions = Arrays.asList(new Region("1", 1, 1000000), new Region("2", 500, 100000));
+        List<Integer> positions = new ArrayList<>();
+        try (ShardedIterator<Closeable, Integer> iterator = new ShardedIterator<>(regions, ShardedIterator.SHARD_ALIGNMENT,
+                () -> {
+                    openReaders.incrementAndGet();
+                    return closedReaders::incrementAndGet;
+                },
+                (reader, region, shard, limit) -> Arrays.asList(shard.getStart(), shard.getEnd()).iterator(), 4, -1)) {
+            iterator.forEachRemaining(positions::add);
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (Region region : regions) {
+            for (Region shard : ShardedIterator.split(region, ShardedIterator.SHARD_ALIGNMENT)) {
+                expected.add(shard.getStart());
+                expected.add(shard.getEnd());
+            }
+        }
+        assertEquals(expected, positions);
+        assertTrue(openReaders.get() <= 4);
+        assertEquals(openReaders.get(), closedReaders.get());
+    }
+
+    @Test
+    public void testBoundedBuffer() {
+        AtomicInteger produced = new AtomicInteger();
+        int numThreads = 4;
+        try (ShardedIterator<Closeable, Integer> iterator = new ShardedIterator<>(
+                Collections.singletonList(new Region("1", 1, 1000000)), ShardedIterator.SHARD_ALIGNMENT, () -> () -> { },
+                (reader, region, shard, limit) -> records(100000, produced), numThreads, -1)) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, iterator.next().intValue());
+            }
+            Thread.sleep(200);
+            // Each pending shard holds at most BUFFER_SIZE records, plus the one being added
+            assertTrue(produced.get() <= numThreads * 2 * (ShardedIterator.BUFFER_SIZE + 1) + 10);
+        } catch (InterruptedException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        AtomicInteger produced = new AtomicInteger();
+        List<Integer> limits = Collections.synchronizedList(new ArrayList<>());
+        int numThreads = 4;
+        List<Integer> values = new ArrayList<>();
+        try (ShardedIterator<Closeable, Integer> iterator = new ShardedIterator<>(
+                Collections.singletonList(new Region("1", 1, 1000000)), ShardedIterator.SHARD_ALIGNMENT, () -> () -> { },
+                (reader, region, shard, limit) -> {
+                    limits.add(limit);
+                    return records(100000, produced);
+                }, numThreads, 10)) {
+            iterator.forEachRemaining(values::add);
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), values);
+        assertTrue(limits.stream().allMatch(limit -> limit == 10));
+        assertTrue(produced.get() <= numThreads * 2 * 10);
+    }
+
+    private static Iterator<Integer> records(int size, AtomicInteger produced) {
+        return new Iterator<Integer>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() {
+                return i < size;
+            }
+
+            @Override
+            public Integer next() {
+                produced.incrementAndGet();
+                return i++;
+            }
+        };
+    }
+}
@@ -7,8 +7,9 @@ import org.opencb.biodata.tools.commons.ChunkFrequencyManager;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 /**
  * Created by imedina on 25/11/16.
@@ -55,6 +56,79 @@ public class BigWigManagerTest {
 //        assertEquals(region.getEnd() - region.getStart() + 1, coverage.length);
     }
 
+    @Test
+    public void queryBuffer() throws Exception {
+        Path bwPath = Paths.get(getClass().getResource("/wigVarStepExampleSmallChr21.bw").toURI());
+        BigWigManager bigWigManager = new BigWigManager(bwPath);
+        Region region = new Region("chr21", 9400000, 9600000);
+
+        // Expected values from the items of the file, 0-based and half-open
+        double[] expected = new double[region.getEnd() - region.getStart() + 1];
+        BigWigIterator iterator = bigWigManager.iterator(region);
+        int numItems = 0;
+        while (iterator.hasNext()) {
+            WigItem item = iterator.next();
+            for (int i = Math.max(item.getStartBase(), region.getStart() - 1);
+                 i < Math.min(item.getEndBase(), region.getEnd()); i++) {
+                expected[i - region.getStart() + 1] = item.getWigValue();
+            }
+            numItems++;
+        }
+        assertTrue(numItems > 0);
+
+        double[] values = new double[expected.length + 10];
+        Arrays.fill(values, -1);
+        bigWigManager.query(region, values);
+        assertArrayEquals(expected, Arrays.copyOf(values, expected.length), 0);
+        // Cached
+        assertArrayEquals(expected, bigWigManager.query(region), 0);
+        bigWigManager.setMaxCachedItems(1).clearCache();
+        assertArrayEquals(expected, bigWigManager.query(region), 0);
+
+        // Subregions
+        Region subregion = new Region("chr21", 9411190, 9411200);
+        assertArrayEquals(Arrays.copyOfRange(expected, 11190, 11201), bigWigManager.query(subregion), 0);
+
+        // Windows smaller than the first zoom level are computed from the data
+        int windowSize = 7;
+        assertEquals(0, bigWigManager.getZoomLevel(windowSize));
+        double[] means = bigWigManager.groupBy(region, windowSize);
+        assertEquals((expected.length + windowSize - 1) / windowSize, means.length);
+        for (int i = 0; i < means.length; i++) {
+            double sum = 0;
+            for (int j = i * windowSize; j < Math.min(expected.length, (i + 1) * windowSize); j++) {
+                sum += expected[j];
+            }
+            assertEquals(sum / windowSize, means[i], 1e-6);
+        }
+    }
+
+    @Test
+    public void groupByZoom() throws Exception {
+        Path bwPath = Paths.get(getClass().getResource("/wigVarStepExampleSmallChr21.bw").toURI());
+        BigWigManager bigWigManager = new BigWigManager(bwPath);
+        Region region = new Region("chr21", 9400001, 9600000);
+
+        int windowSize = 10000;
+        int zoomLevel = bigWigManager.getZoomLevel(windowSize);
+        assertTrue(zoomLevel > 0);
+        assertTrue(bigWigManager.getZoomWindowSizes().get(zoomLevel - 1) <= windowSize);
+
+        // The mean of the zoom records matches the mean of the data
+        double[] values = bigWigManager.query(region);
+        double[] means = new double[25];
+        assertEquals(20, bigWigManager.groupBy(region, windowSize, means));
+        double total = 0;
+        double zoomTotal = 0;
+        for (int i = 0; i < 20; i++) {
+            for (int j = i * windowSize; j < (i + 1) * windowSize; j++) {
+                total += values[j];
+            }
+            zoomTotal += means[i] * windowSize;
+        }
+        assertEquals(total, zoomTotal, total * 0.05);
+    }
+
     @Test
     public void zoom() throws Exception {
 //        Path bwPath = Paths.get("~/data150/coverage.bw");
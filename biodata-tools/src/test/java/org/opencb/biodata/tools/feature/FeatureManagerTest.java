@@ -0,0 +1,116 @@
+package org.opencb.biodata.tools.feature;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.formats.feature.bed.Bed;
+import org.opencb.biodata.formats.feature.gff.Gff;
+import org.opencb.biodata.formats.feature.gtf.Gtf;
+import org.opencb.biodata.models.core.Region;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FeatureManagerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBedQueries() throws Exception {
+        Random random = new Random(1);
+        List<String> lines = new ArrayList<>();
+        List<Region> regions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            String chromosome = random.nextBoolean() ? "chr1" : "chr2";
+            int start = random.nextInt(1000000);
+            int end = start + 1 + random.nextInt(random.nextInt(20) == 0 ? 100000 : 500);
+            lines.add(chromosome + "\t" + start + "\t" + end);
+            regions.add(new Region(chromosome, start + 1, end));
+        }
+        Path bedPath = temporaryFolder.newFile("features.bed").toPath();
+        Files.write(bedPath, lines);
+
+        try (BedManager bedManager = new BedManager(bedPath)) {
+            assertFalse(bedManager.isIndexed());
+            Path indexedPath = bedManager.index();
+            assertEquals(bedPath.resolveSibling("features.bed.gz"), indexedPath);
+            assertTrue(Files.exists(indexedPath.resolveSibling("features.bed.gz.tbi")));
+            assertEquals(new HashSet<>(Arrays.asList("chr1", "chr2")), bedManager.getChromosomes());
+
+            for (int i = 0; i < 200; i++) {
+                String chromosome = random.nextBoolean() ? "chr1" : "chr2";
+                int start = random.nextInt(1100000) + 1;
+                int end = start + random.nextInt(2000);
+
+                List<Bed> features = bedManager.query(chromosome, start, end);
+                assertEquals(regions.stream().filter(region -> region.overlaps(chromosome, start, end)).count(),
+                        features.size());
+                for (Bed bed : features) {
+                    assertEquals(chromosome, bed.getChromosome());
+                    assertTrue(bed.getStart() + 1 <= end && bed.getEnd() >= start);
+                }
+
+                Bed nearest = bedManager.nearest(chromosome, start);
+                long minDistance = regions.stream()
+                        .filter(region -> region.getChromosome().equals(chromosome))
+                        .mapToLong(region -> Math.max(0, Math.max(region.getStart() - start, start - region.getEnd())))
+                        .min().getAsLong();
+                assertEquals(minDistance,
+                        Math.max(0, Math.max(nearest.getStart() + 1 - start, start - nearest.getEnd())));
+            }
+
+            Bed bed = bedManager.query("chr1", 1, 1000000).get(0);
+            Region region = new Region("chr1", bed.getStart() + 1, bed.getEnd());
+            assertTrue(bedManager.queryWindow(new Region("chr1", region.getStart() - 10, region.getStart() - 10), 10)
+                    .stream().anyMatch(feature -> feature.toString().equals(bed.toString())));
+            assertTrue(bedManager.query("chr3", 1, 1000).isEmpty());
+            assertNull(bedManager.nearest("chr3", 1000));
+        }
+
+        // The indexed file is not indexed again
+        try (BedManager bedManager = new BedManager(bedPath.resolveSibling("features.bed.gz"))) {
+            assertTrue(bedManager.isIndexed());
+            assertEquals(bedManager.getPath(), bedManager.index());
+        }
+    }
+
+    @Test
+    public void testGff() throws Exception {
+        Path gffPath = temporaryFolder.newFile("features.gff").toPath();
+        Files.write(gffPath, Arrays.asList(
+                "# comment",
+                "1\tsrc\tgene\t3000\t4000\t.\t+\t.\tgene1",
+                "1\tsrc\tgene\t1000\t2000\t.\t-\t.\tgene2",
+                "2\tsrc\tgene\t1000\t2000\t.\t+\t.\tgene3"));
+
+        try (GffManager gffManager = new GffManager(gffPath)) {
+            gffManager.index();
+            List<Gff> features = gffManager.query("1", 1500, 3000);
+            assertEquals(Arrays.asList("gene2", "gene1"),
+                    features.stream().map(Gff::getGroup).collect(Collectors.toList()));
+            assertTrue(gffManager.query("1", 2001, 2999).isEmpty());
+            assertEquals("gene1", gffManager.nearest("1", 2600).getGroup());
+        }
+    }
+
+    @Test
+    public void testGtf() throws Exception {
+        Path gtfPath = temporaryFolder.newFile("features.gtf").toPath();
+        Files.write(gtfPath, Arrays.asList(
+                "1\tsrc\texon\t1000\t2000\t.\t+\t.\tgene_id \"G1\"; transcript_id \"T1\";",
+                "1\tsrc\texon\t500\t800\t.\t+\t.\tgene_id \"G2\"; transcript_id \"T2\";"));
+
+        try (GtfManager gtfManager = new GtfManager(gtfPath)) {
+            gtfManager.index();
+            List<Gtf> features = gtfManager.query(new Region("1", 1, 1000));
+            assertEquals(2, features.size());
+            assertEquals("G2", features.get(0).getAttributes().get("gene_id"));
+            assertEquals("T1", features.get(1).getAttributes().get("transcript_id"));
+        }
+    }
+}
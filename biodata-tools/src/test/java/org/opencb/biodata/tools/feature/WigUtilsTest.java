@@ -0,0 +1,53 @@
+package org.opencb.biodata.tools.feature;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.tools.commons.ChunkFrequencyManager;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WigUtilsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testIndexSeveralSections() throws Exception {
+        Path wigPath = temporaryFolder.getRoot().toPath().resolve("coverage.wig");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(wigPath))) {
+            // chr1: 1-1000 with value 6, a gap, and 3001-3500 with value 20
+            writer.println("fixedStep chrom=chr1 start=1 step=100 span=100");
+            for (int i = 0; i < 10; i++) {
+                writer.println(6);
+            }
+            writer.println("fixedStep chrom=chr1 start=3001 step=500 span=500");
+            writer.println(20);
+            // chr2: two sections in the same chunk
+            writer.println("fixedStep chrom=chr2 start=1 step=1 span=200");
+            writer.println(5);
+            writer.println("fixedStep chrom=chr2 start=801 step=1 span=200");
+            writer.println(10);
+        }
+
+        Path dbPath = WigUtils.index(wigPath);
+        ChunkFrequencyManager manager = new ChunkFrequencyManager(dbPath);
+        assertArrayEquals(new short[]{6, 0, 0, 10}, manager.query(new Region("chr1", 1, 4000), wigPath, 1000)
+                .getValues());
+        assertArrayEquals(new short[]{3, 0}, manager.query(new Region("chr2", 1, 2000), wigPath, 1000)
+                .getValues());
+
+        // Indexing again does not grow the index
+        long size = Files.size(dbPath);
+        WigUtils.index(wigPath);
+        assertEquals(size, Files.size(dbPath));
+        assertArrayEquals(new short[]{6, 0, 0, 10}, new ChunkFrequencyManager(dbPath)
+                .query(new Region("chr1", 1, 4000), wigPath, 1000).getValues());
+    }
+}
@@ -0,0 +1,128 @@
+package org.opencb.biodata.tools.pedigree;
+
+import org.junit.Test;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantTestUtils;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.opencb.biodata.tools.pedigree.CompoundHeterozygousCalculator.Trio;
+
+public class CompoundHeterozygousCalculatorTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/1", "./.", "0|1", "1|0"};
+
+    @Test
+    public void testSameAsModeOfInheritance() {
+        // father, mother and four children, two of them with a missing parent
+        List<Trio> trios = Arrays.asList(new Trio(2, 1, 0), new Trio(3, 1, 0), new Trio(4, 1, -1), new Trio(5, -1, 0));
+        Random random = new Random(1);
+        List<Variant> variants = new ArrayList<>();
+        List<Transcript> transcripts = new ArrayList<>();
+        for (String chromosome : Arrays.asList("1", "2")) {
+            int position = 1;
+            for (int i = 0; i < 2000; i++) {
+                position += 1 + random.nextInt(100);
+                String[] samplesData = new String[12];
+                for (int sample = 0; sample < 6; sample++) {
+                    samplesData[sample * 2] = "S" + sample;
+                    samplesData[sample * 2 + 1] = GENOTYPES[random.nextInt(GENOTYPES.length)];
+                }
+                // transcripts with known ends every 5000 bases, and longer ones with unknown ends
+                int bucket = position / 5000;
+                if (transcripts.stream().noneMatch(t -> t.getId().equals(chromosome + "_T" + bucket))) {
+                    transcripts.add(new Transcript().setId(chromosome + "_T" + bucket).setEnd((bucket + 1) * 5000 - 1));
+                }
+                variants.add(annotate(VariantTestUtils.generateVariant(chromosome + ":" + position + ":A:C", samplesData),
+                        chromosome + "_T" + bucket, chromosome + "_L" + position / 20000));
+            }
+        }
+
+        List<Map<String, Set<String>>> results = new ArrayList<>();
+        for (int i = 0; i < trios.size(); i++) {
+            results.add(new HashMap<>());
+        }
+        int[] maxBuffered = new int[1];
+        CompoundHeterozygousCalculator calculator = new CompoundHeterozygousCalculator(trios,
+                (trio, transcriptId, maternalVariants, paternalVariants) -> {
+                    assertFalse(results.get(trio).containsKey(transcriptId));
+                    Set<String> ids = new HashSet<>();
+                    maternalVariants.forEach(variant -> ids.add(variant.toString()));
+                    paternalVariants.forEach(variant -> ids.add(variant.toString()));
+                    results.get(trio).put(transcriptId, ids);
+                })
+                .addTranscripts(transcripts)
+                .setMaxTranscriptLength(20000);
+        for (Variant variant : variants) {
+            calculator.add(variant);
+            maxBuffered[0] = Math.max(maxBuffered[0], calculator.getNumBufferedTranscripts());
+        }
+        calculator.finish();
+        assertTrue(maxBuffered[0] <= 4);
+
+        for (int i = 0; i < trios.size(); i++) {
+            Trio trio = trios.get(i);
+            Map<String, List<Variant>> expected = ModeOfInheritance.compoundHeterozygous(variants.iterator(),
+                    trio.getProband(), trio.getMother(), trio.getFather());
+            assertFalse(expected.isEmpty());
+            assertEquals(expected.keySet(), results.get(i).keySet());
+            for (Map.Entry<String, List<Variant>> entry : expected.entrySet()) {
+                assertEquals(entry.getValue().stream().map(Variant::toString).collect(Collectors.toSet()),
+                        results.get(i).get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalFlush() {
+        List<String> flushed = new ArrayList<>();
+        CompoundHeterozygousCalculator calculator = new CompoundHeterozygousCalculator(
+                Collections.singletonList(new Trio(2, 1, 0)),
+                (trio, transcriptId, maternalVariants, paternalVariants) -> {
+                    assertEquals(Collections.singletonList("1:100:A:C"),
+                            maternalVariants.stream().map(Variant::toString).collect(Collectors.toList()));
+                    assertEquals(Collections.singletonList("1:200:A:C"),
+                            paternalVariants.stream().map(Variant::toString).collect(Collectors.toList()));
+                    flushed.add(transcriptId);
+                })
+                .addTranscripts(Collections.singletonList(new Transcript().setId("T1").setEnd(1000)));
+
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:100:A:C", "F", "0/0", "M", "0/1", "P", "0/1"), "T1"));
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:200:A:C", "F", "0/1", "M", "0/0", "P", "1|0"), "T1"));
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:1000:A:C", "F", "0/0", "M", "0/0", "P", "0/0")));
+        assertTrue(flushed.isEmpty());
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:1001:A:C", "F", "0/0", "M", "0/0", "P", "0/0")));
+        assertEquals(Collections.singletonList("T1"), flushed);
+        assertEquals(0, calculator.getNumBufferedTranscripts());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsorted() {
+        CompoundHeterozygousCalculator calculator = new CompoundHeterozygousCalculator(
+                Collections.singletonList(new Trio(2, 1, 0)), (trio, transcriptId, maternal, paternal) -> {});
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:200:A:C", "F", "0/0", "M", "0/1", "P", "0/1")));
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:100:A:C", "F", "0/0", "M", "0/1", "P", "0/1")));
+    }
+
+    private static Variant annotate(Variant variant, String... transcriptIds) {
+        List<ConsequenceType> consequenceTypes = new ArrayList<>();
+        for (String transcriptId : transcriptIds) {
+            ConsequenceType consequenceType = new ConsequenceType();
+            consequenceType.setEnsemblTranscriptId(transcriptId);
+            consequenceType.setBiotype("protein_coding");
+            consequenceType.setSequenceOntologyTerms(Collections.singletonList(
+                    new SequenceOntologyTerm("SO:0001583", "missense_variant")));
+            consequenceTypes.add(consequenceType);
+        }
+        VariantAnnotation annotation = new VariantAnnotation();
+        annotation.setConsequenceTypes(consequenceTypes);
+        variant.setAnnotation(annotation);
+        return variant;
+    }
+}
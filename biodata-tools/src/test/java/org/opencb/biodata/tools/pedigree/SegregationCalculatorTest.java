@@ -0,0 +1,249 @@
+package org.opencb.biodata.tools.pedigree;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.clinical.ClinicalProperty;
+import org.opencb.biodata.models.clinical.ClinicalProperty.Penetrance;
+import org.opencb.biodata.models.clinical.Disorder;
+import org.opencb.biodata.models.clinical.pedigree.Member;
+import org.opencb.biodata.models.clinical.pedigree.Pedigree;
+import org.opencb.biodata.models.core.SexOntologyTermAnnotation;
+import org.opencb.biodata.models.pedigree.IndividualProperty;
+import org.opencb.biodata.models.variant.Genotype;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantTestUtils;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.opencb.biodata.models.clinical.ClinicalProperty.ModeOfInheritance.*;
+
+public class SegregationCalculatorTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/1", "./.", "0|1", "0", "1"};
+
+    private Disorder disorder;
+    private Pedigree family1;
+    private Pedigree family2;
+    private Map<String, Integer> samplePositions;
+
+    @Before
+    public void before() {
+        disorder = new Disorder().setId("disease1").setName("disease1");
+
+        Member father1 = member("father1", IndividualProperty.Sex.MALE, false);
+        Member mother1 = member("mother1", IndividualProperty.Sex.FEMALE, false);
+        Member son1 = member("son1", IndividualProperty.Sex.MALE, true).setFather(father1).setMother(mother1);
+        Member daughter1 = member("daughter1", IndividualProperty.Sex.FEMALE, false).setFather(father1).setMother(mother1);
+        family1 = new Pedigree().setName("family1").setMembers(Arrays.asList(father1, mother1, son1, daughter1))
+                .setProband(son1);
+
+        Member father2 = member("father2", IndividualProperty.Sex.MALE, true);
+        Member mother2 = member("mother2", IndividualProperty.Sex.FEMALE, false);
+        Member child2 = member("child2", IndividualProperty.Sex.FEMALE, true).setFather(father2).setMother(mother2);
+        family2 = new Pedigree().setName("family2").setMembers(Arrays.asList(father2, mother2, child2))
+                .setProband(child2);
+
+        samplePositions = new HashMap<>();
+        for (String member : Arrays.asList("father1", "mother1", "son1", "daughter1", "father2", "mother2", "child2")) {
+            samplePositions.put(member, samplePositions.size());
+        }
+    }
+
+    @Test
+    public void testSameAsModeOfInheritance() {
+        Set<ClinicalProperty.ModeOfInheritance> models = EnumSet.of(AUTOSOMAL_DOMINANT, AUTOSOMAL_RECESSIVE,
+                X_LINKED_RECESSIVE, MITOCHONDRIAL, DE_NOVO, MENDELIAN_ERROR);
+        Map<String, Map<String, SegregationCalculator.FamilySegregation>> results = new HashMap<>();
+        SegregationCalculator calculator = new SegregationCalculator(samplePositions, models,
+                (variant, familyResults) -> {
+                    for (SegregationCalculator.FamilySegregation result : familyResults) {
+                        results.computeIfAbsent(variant.toString(), k -> new HashMap<>())
+                                .put(result.getFamilyId(), result);
+                    }
+                })
+                .addFamily(family1, disorder)
+                .addFamily(family2, disorder);
+
+        Random random = new Random(1);
+        List<Variant> variants = new ArrayList<>();
+        for (String chromosome : Arrays.asList("1", "X", "MT")) {
+            for (int i = 0; i < 3000; i++) {
+                String[] samplesData = new String[samplePositions.size() * 2];
+                for (Map.Entry<String, Integer> entry : samplePositions.entrySet()) {
+                    samplesData[entry.getValue() * 2] = entry.getKey();
+                    samplesData[entry.getValue() * 2 + 1] = GENOTYPES[random.nextInt(GENOTYPES.length)];
+                }
+                variants.add(VariantTestUtils.generateVariant(chromosome + ":" + (i + 1) + ":A:C", samplesData));
+            }
+        }
+        calculator.calculate(variants.iterator());
+
+        Map<ClinicalProperty.ModeOfInheritance, Map<String, Map<String, List<String>>>> genotypes = new HashMap<>();
+        for (Pedigree family : Arrays.asList(family1, family2)) {
+            genotypes.computeIfAbsent(AUTOSOMAL_DOMINANT, k -> new HashMap<>())
+                    .put(family.getName(), ModeOfInheritance.dominant(family, disorder, Penetrance.COMPLETE));
+            genotypes.computeIfAbsent(AUTOSOMAL_RECESSIVE, k -> new HashMap<>())
+                    .put(family.getName(), ModeOfInheritance.recessive(family, disorder, Penetrance.COMPLETE));
+            genotypes.computeIfAbsent(X_LINKED_RECESSIVE, k -> new HashMap<>())
+                    .put(family.getName(), ModeOfInheritance.xLinked(family, disorder, false, Penetrance.COMPLETE));
+            genotypes.computeIfAbsent(MITOCHONDRIAL, k -> new HashMap<>())
+                    .put(family.getName(), ModeOfInheritance.mitochondrial(family, disorder, Penetrance.COMPLETE));
+        }
+
+        int numResults = 0;
+        for (Variant variant : variants) {
+            for (Pedigree family : Arrays.asList(family1, family2)) {
+                List<ClinicalProperty.ModeOfInheritance> expectedModels = new ArrayList<>();
+                Map<String, Integer> expectedErrors = new HashMap<>();
+                for (ClinicalProperty.ModeOfInheritance model : models) {
+                    Map<String, List<String>> familyGenotypes = genotypes.containsKey(model)
+                            ? genotypes.get(model).get(family.getName()) : null;
+                    if (familyGenotypes != null && matches(variant, model, familyGenotypes)) {
+                        expectedModels.add(model);
+                    }
+                }
+                for (Member member : family.getMembers()) {
+                    if (member.getFather() != null) {
+                        int code = MendelianError.compute(genotype(variant, member.getFather().getId()),
+                                genotype(variant, member.getMother().getId()), genotype(variant, member.getId()),
+                                variant.getChromosome());
+                        if (code > 0) {
+                            expectedErrors.put(member.getId(), code);
+                            if (member == family.getProband() && MendelianError.isDeNovo(code)) {
+                                expectedModels.add(DE_NOVO);
+                            }
+                        }
+                    }
+                }
+                if (!expectedErrors.isEmpty()) {
+                    expectedModels.add(MENDELIAN_ERROR);
+                }
+
+                SegregationCalculator.FamilySegregation result = results.getOrDefault(variant.toString(),
+                        Collections.emptyMap()).get(family.getName());
+                if (expectedModels.isEmpty()) {
+                    assertNull(result);
+                } else {
+                    numResults++;
+                    assertEquals(new HashSet<>(expectedModels), new HashSet<>(result.getModesOfInheritance()));
+                    assertEquals(expectedErrors, result.getMendelianErrors());
+                }
+            }
+        }
+        assertTrue(numResults > 1000);
+        assertTrue(results.values().stream().flatMap(map -> map.values().stream())
+                .anyMatch(result -> result.getModesOfInheritance().contains(AUTOSOMAL_RECESSIVE)));
+    }
+
+    @Test
+    public void testCompoundHeterozygous() {
+        List<String> found = new ArrayList<>();
+        SegregationCalculator calculator = new SegregationCalculator(samplePositions,
+                EnumSet.of(COMPOUND_HETEROZYGOUS), new SegregationCalculator.Listener() {
+                    @Override
+                    public void segregation(Variant variant, List<SegregationCalculator.FamilySegregation> results) {
+                        fail();
+                    }
+
+                    @Override
+                    public void compoundHeterozygous(String familyId, String transcriptId, List<Variant> maternalVariants,
+                                                     List<Variant> paternalVariants) {
+                        found.add(familyId + ":" + transcriptId + ":" + maternalVariants + ":" + paternalVariants);
+                    }
+                })
+                .addFamily(family1, disorder)
+                .addFamily(family2, disorder);
+
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:100:A:C", "father1", "0/0", "mother1", "0/1",
+                "son1", "0/1", "daughter1", "0/0", "father2", "0/0", "mother2", "0/1", "child2", "0/0")));
+        calculator.add(annotate(VariantTestUtils.generateVariant("1:200:A:C", "father1", "0/1", "mother1", "0/0",
+                "son1", "0/1", "daughter1", "0/0", "father2", "0/1", "mother2", "0/0", "child2", "0/1")));
+        calculator.finish();
+        assertEquals(Collections.singletonList("family1:T1:[1:100:A:C]:[1:200:A:C]"), found);
+    }
+
+    @Test
+    public void testYLinkedWithUnaffectedFemales() {
+        Member father = member("father3", IndividualProperty.Sex.MALE, true);
+        Member mother = member("mother3", IndividualProperty.Sex.FEMALE, false);
+        Member son = member("son3", IndividualProperty.Sex.MALE, true).setFather(father).setMother(mother);
+        Member daughter = member("daughter3", IndividualProperty.Sex.FEMALE, false).setFather(father).setMother(mother);
+        Pedigree family3 = new Pedigree().setName("family3").setMembers(Arrays.asList(father, mother, son, daughter))
+                .setProband(son);
+        Map<String, Integer> positions = new HashMap<>();
+        for (String member : Arrays.asList("father3", "mother3", "son3", "daughter3")) {
+            positions.put(member, positions.size());
+        }
+
+        Map<String, List<ClinicalProperty.ModeOfInheritance>> results = new HashMap<>();
+        SegregationCalculator calculator = new SegregationCalculator(positions, EnumSet.of(Y_LINKED),
+                (variant, familyResults) -> {
+                    for (SegregationCalculator.FamilySegregation result : familyResults) {
+                        results.put(variant.toString(), result.getModesOfInheritance());
+                    }
+                })
+                .addFamily(family3, disorder);
+
+        calculator.add(VariantTestUtils.generateVariant("Y:100:A:C", "father3", "1", "mother3", "0/0",
+                "son3", "1", "daughter3", "./."));
+        calculator.add(VariantTestUtils.generateVariant("Y:200:A:C", "father3", "0", "mother3", "0/0",
+                "son3", "1", "daughter3", "./."));
+        calculator.finish();
+
+        assertEquals(Collections.singletonList(Y_LINKED), results.get("Y:100:A:C"));
+        assertNull(results.get("Y:200:A:C"));
+    }
+
+    private boolean matches(Variant variant, ClinicalProperty.ModeOfInheritance model,
+                            Map<String, List<String>> familyGenotypes) {
+        String chromosome = variant.getChromosome();
+        boolean onChromosome;
+        switch (model) {
+            case X_LINKED_RECESSIVE:
+                onChromosome = chromosome.equals("X");
+                break;
+            case MITOCHONDRIAL:
+                onChromosome = chromosome.equals("MT");
+                break;
+            default:
+                onChromosome = !chromosome.equals("X") && !chromosome.equals("MT");
+        }
+        if (!onChromosome || ModeOfInheritance.isEmptyMapOfGenotypes(familyGenotypes)) {
+            return false;
+        }
+        boolean carrier = false;
+        for (Map.Entry<String, List<String>> entry : familyGenotypes.entrySet()) {
+            String gt = variant.getStudies().get(0).getSampleData(entry.getKey(), "GT");
+            if (!entry.getValue().contains(gt)) {
+                return false;
+            }
+            carrier |= Genotype.hasMainAlternate(gt);
+        }
+        return carrier;
+    }
+
+    private Genotype genotype(Variant variant, String member) {
+        return new Genotype(variant.getStudies().get(0).getSampleData(member, "GT"));
+    }
+
+    private Member member(String id, IndividualProperty.Sex sex, boolean affected) {
+        return new Member().setId(id).setSex(new SexOntologyTermAnnotation().setId(sex.name()))
+                .setDisorders(affected ? Collections.singletonList(disorder) : Collections.emptyList());
+    }
+
+    private Variant annotate(Variant variant) {
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setEnsemblTranscriptId("T1");
+        consequenceType.setBiotype("protein_coding");
+        consequenceType.setSequenceOntologyTerms(Collections.singletonList(
+                new SequenceOntologyTerm("SO:0001583", "missense_variant")));
+        VariantAnnotation annotation = new VariantAnnotation();
+        annotation.setConsequenceTypes(Collections.singletonList(consequenceType));
+        variant.setAnnotation(annotation);
+        return variant;
+    }
+}
@@ -0,0 +1,143 @@
+package org.opencb.biodata.tools.sequence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.formats.sequence.fastqc.FastQcMetrics;
+import org.opencb.biodata.formats.sequence.fastqc.PerBaseSeqContent;
+import org.opencb.biodata.formats.sequence.fastqc.PerBaseSeqQuality;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class FastqQcCalculatorTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testCalculate() throws Exception {
+        Random random = new Random(1);
+        List<String> sequences = new ArrayList<>();
+        List<String> qualities = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            int length = 50 + random.nextInt(51);
+            StringBuilder sequence = new StringBuilder();
+            StringBuilder quality = new StringBuilder();
+            for (int j = 0; j < length; j++) {
+                sequence.append("ACGTN".charAt(random.nextInt(100) == 0 ? 4 : random.nextInt(4)));
+                quality.append((char) (33 + 20 + random.nextInt(21)));
+            }
+            sequences.add(sequence.toString());
+            qualities.add(quality.toString());
+        }
+        Path fastqPath = write(temporaryFolder.newFile("reads.fastq").toPath(), sequences, qualities, false);
+        Path gzPath = write(temporaryFolder.newFile("reads.fastq.gz").toPath(), sequences, qualities, true);
+
+        FastQcMetrics metrics = new FastqQcCalculator(1).setChunkSize(100).calculate(fastqPath);
+        assertEquals("5000", metrics.getBasicStats().get("Total Sequences"));
+        assertEquals("Sanger / Illumina 1.9", metrics.getBasicStats().get("Encoding"));
+        assertEquals(sequences.stream().mapToInt(String::length).min().getAsInt() + "-"
+                        + sequences.stream().mapToInt(String::length).max().getAsInt(),
+                metrics.getBasicStats().get("Sequence length"));
+        assertEquals("PASS", metrics.getSummary().getBasicStatistics());
+        assertEquals("WARN", metrics.getSummary().getSeqLengthDistribution());
+        assertNull(metrics.getSummary().getKmerContent());
+
+        // per base values, compared with naive counts
+        int maxLength = sequences.stream().mapToInt(String::length).max().getAsInt();
+        assertEquals(maxLength, metrics.getPerBaseSeqQuality().getValues().size());
+        for (int position : new int[]{0, 49, 75, maxLength - 1}) {
+            List<Integer> values = new ArrayList<>();
+            int a = 0, acgt = 0, n = 0;
+            for (int i = 0; i < sequences.size(); i++) {
+                if (sequences.get(i).length() > position) {
+                    values.add(qualities.get(i).charAt(position) - 33);
+                    char base = sequences.get(i).charAt(position);
+                    if (base == 'N') {
+                        n++;
+                    } else {
+                        acgt++;
+                        if (base == 'A') {
+                            a++;
+                        }
+                    }
+                }
+            }
+            values.sort(Integer::compare);
+            PerBaseSeqQuality.Value quality = metrics.getPerBaseSeqQuality().getValues().get(position);
+            assertEquals(String.valueOf(position + 1), quality.getBase());
+            assertEquals(values.stream().mapToInt(Integer::intValue).average().getAsDouble(), quality.getMean(), 1e-9);
+            assertEquals(values.get((values.size() + 1) / 2 - 1), quality.getMedian(), 0);
+            assertEquals(values.get((int) Math.ceil(values.size() * 0.1) - 1), quality.getPercentile10th(), 0);
+
+            PerBaseSeqContent.Value content = metrics.getPerBaseSeqContent().getValues().get(position);
+            assertEquals(100.0 * a / acgt, content.getA(), 1e-9);
+            assertEquals(100.0, content.getA() + content.getC() + content.getG() + content.getT(), 1e-9);
+            assertEquals(100.0 * n / (n + acgt), metrics.getPerBaseNContent().getValues().get(String.valueOf(position + 1)),
+                    1e-9);
+        }
+
+        double gcReads = 0;
+        for (double value : metrics.getPerSeqGcContent().getValues()) {
+            gcReads += value;
+        }
+        assertEquals(5000, gcReads, 0);
+        assertEquals(5000, metrics.getSeqLengthDistribution().getValues().values().stream()
+                .mapToDouble(Double::doubleValue).sum(), 0);
+
+        // the results do not depend on the number of threads nor on the compression
+        FastQcMetrics parallelMetrics = new FastqQcCalculator(4).setChunkSize(100).calculate(gzPath);
+        assertEquals(metrics.getPerBaseSeqQuality().toString(), parallelMetrics.getPerBaseSeqQuality().toString());
+        assertEquals(metrics.getPerBaseSeqContent().toString(), parallelMetrics.getPerBaseSeqContent().toString());
+        assertEquals(metrics.getPerSeqQualityScore().toString(), parallelMetrics.getPerSeqQualityScore().toString());
+        assertEquals(metrics.getPerSeqGcContent().toString(), parallelMetrics.getPerSeqGcContent().toString());
+        assertEquals(metrics.getSummary().toString(), parallelMetrics.getSummary().toString());
+    }
+
+    @Test
+    public void testMultiLineRecords() throws Exception {
+        Path fastqPath = temporaryFolder.newFile("multiline.fastq").toPath();
+        Files.write(fastqPath, ("@read1 description\nACGT\nAC\n+\nIIII\nII\n"
+                + "@read2\nGGGG\n+read2\n5555\n").getBytes());
+
+        FastQcMetrics metrics = new FastqQcCalculator(2).calculate(fastqPath);
+        assertEquals("2", metrics.getBasicStats().get("Total Sequences"));
+        assertEquals("4-6", metrics.getBasicStats().get("Sequence length"));
+        assertEquals(30, metrics.getPerBaseSeqQuality().getValues().get(0).getMean(), 1e-9);
+        assertEquals(40, metrics.getPerBaseSeqQuality().getValues().get(5).getMean(), 1e-9);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws Exception {
+        Path fastqPath = temporaryFolder.newFile("malformed.fastq").toPath();
+        Files.write(fastqPath, "@read1\nACGT\n+\nIII\n".getBytes());
+        new FastqQcCalculator(2).calculate(fastqPath);
+    }
+
+    private static Path write(Path path, List<String> sequences, List<String> qualities, boolean gzip)
+            throws IOException {
+        OutputStream outputStream = Files.newOutputStream(path);
+        if (gzip) {
+            outputStream = new GZIPOutputStream(outputStream);
+        }
+        try (PrintStream printStream = new PrintStream(outputStream)) {
+            for (int i = 0; i < sequences.size(); i++) {
+                printStream.println("@read" + i);
+                printStream.println(sequences.get(i));
+                printStream.println("+");
+                printStream.println(qualities.get(i));
+            }
+        }
+        return path;
+    }
+}
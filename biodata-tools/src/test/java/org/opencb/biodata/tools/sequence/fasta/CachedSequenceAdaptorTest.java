@@ -0,0 +1,120 @@
+package org.opencb.biodata.tools.sequence.fasta;
+
+import htsjdk.samtools.SAMException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.biodata.tools.sequence.CachedSequenceAdaptor;
+import org.opencb.biodata.tools.sequence.FastaIndex;
+import org.opencb.biodata.tools.sequence.SequenceAdaptor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachedSequenceAdaptorTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Map<String, String> genome;
+    private SequenceAdaptor sequenceAdaptor;
+    private int queries;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        genome = new HashMap<>();
+        genome.put("1", RandomStringUtils.random(1050, 0, 0, true, false, "ACGTN".toCharArray(), random));
+        genome.put("2", RandomStringUtils.random(99, 0, 0, true, false, "ACGTN".toCharArray(), random));
+        queries = 0;
+        // Same errors as htsjdk indexed fasta files
+        sequenceAdaptor = (contig, start, end) -> {
+            queries++;
+            String sequence = genome.get(contig);
+            if (sequence == null) {
+                throw new SAMException("Unable to find entry for contig: " + contig);
+            }
+            if (end > sequence.length()) {
+                throw new SAMException("Query asks for data past end of contig");
+            }
+            return sequence.substring(start - 1, end);
+        };
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        CachedSequenceAdaptor cache = new CachedSequenceAdaptor(sequenceAdaptor, 100, 3);
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            String contig = random.nextBoolean() ? "1" : "2";
+            int length = genome.get(contig).length();
+            int start = 1 + random.nextInt(length);
+            int end = Math.min(length, start + random.nextInt(250));
+            assertEquals(sequenceAdaptor.query(contig, start, end), cache.query(contig, start, end));
+            assertEquals(sequenceAdaptor.query(contig, start, end), cache.querySequence(contig, start, end).toString());
+            assertTrue(cache.getNumBlocks() <= 3);
+        }
+    }
+
+    @Test
+    public void testSortedQueries() throws Exception {
+        CachedSequenceAdaptor cache = new CachedSequenceAdaptor(sequenceAdaptor, 100, 2);
+        for (int start = 1; start + 20 <= 1050; start += 5) {
+            assertEquals(genome.get("1").substring(start - 1, start + 20), cache.query("1", start, start + 20));
+        }
+        // Each one of the 11 blocks of the contig is loaded once
+        assertEquals(11, cache.getMisses());
+        assertEquals(2, cache.getNumBlocks());
+        assertTrue(cache.getHits() > cache.getMisses());
+
+        // Reading again the last block does not query the underlying adaptor
+        queries = 0;
+        assertEquals(genome.get("1").substring(1000), cache.query("1", 1001, 1050));
+        assertEquals(0, queries);
+    }
+
+    @Test
+    public void testQueryBlockCompressed() throws Exception {
+        Path rootDir = Paths.get("target/test-data", "junit-" + RandomStringUtils.randomAlphabetic(5));
+        Files.createDirectories(rootDir);
+        Path fastaFile = rootDir.resolve("homo_sapiens_grch38_small.fa.gz");
+        Path source = Paths.get(getClass().getResource("/homo_sapiens_grch38_small.fa.gz").toURI());
+        FileUtils.copyFile(source.toFile(), fastaFile.toFile());
+
+        FastaIndex fastaIndex = new FastaIndex(fastaFile);
+        CachedSequenceAdaptor cache = new CachedSequenceAdaptor(fastaIndex, 1000, 4);
+        for (int start = 10001; start < 20000; start += 97) {
+            assertEquals(fastaIndex.query("10", start, start + 150), cache.query("10", start, start + 150));
+        }
+        // Blocks from 10001 to 21000
+        assertEquals(11, cache.getMisses());
+        fastaIndex.close();
+    }
+
+    @Test
+    public void testQueryContigNotPresent() throws Exception {
+        CachedSequenceAdaptor cache = new CachedSequenceAdaptor(sequenceAdaptor, 100, 3);
+        thrown.expect(SAMException.class);
+        thrown.expectMessage("Unable to find entry for contig: 3");
+        cache.query("3", 1, 10);
+    }
+
+    @Test
+    public void testQueryEndOutOfRightBound() throws Exception {
+        CachedSequenceAdaptor cache = new CachedSequenceAdaptor(sequenceAdaptor, 100, 3);
+        assertEquals(genome.get("1").substring(1040), cache.query("1", 1041, 1050));
+        thrown.expect(SAMException.class);
+        thrown.expectMessage("Query asks for data past end of contig");
+        cache.query("1", 1041, 1051);
+    }
+}
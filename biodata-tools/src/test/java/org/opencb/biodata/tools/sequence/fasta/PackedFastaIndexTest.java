@@ -0,0 +1,128 @@
+package org.opencb.biodata.tools.sequence.fasta;
+
+import htsjdk.samtools.SAMException;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.RandomStringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.opencb.biodata.tools.sequence.FastaIndex;
+import org.opencb.biodata.tools.sequence.PackedFastaIndex;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PackedFastaIndexTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    @Test
+    public void testQueryBlockCompressed() throws Exception {
+        Path rootDir = Paths.get("target/test-data", "junit-" + RandomStringUtils.randomAlphabetic(5));
+        Files.createDirectories(rootDir);
+        Path fastaFile = rootDir.resolve("homo_sapiens_grch38_small.fa.gz");
+        Path source = Paths.get(getClass().getResource("/homo_sapiens_grch38_small.fa.gz").toURI());
+        FileUtils.copyFile(source.toFile(), fastaFile.toFile());
+
+        FastaIndex fastaIndex = new FastaIndex(fastaFile);
+        try (PackedFastaIndex packedFastaIndex = PackedFastaIndex.open(fastaFile)) {
+            assertEquals("CTAACCCTAAC", packedFastaIndex.query("10", 10001, 10011));
+            assertEquals(194, packedFastaIndex.getSequenceDictionary().size());
+            compare(fastaIndex, packedFastaIndex);
+        }
+        fastaIndex.close();
+    }
+
+    @Test
+    public void testQueryAmbiguousAndSoftMaskedBases() throws Exception {
+        Path rootDir = Paths.get("target/test-data", "junit-" + RandomStringUtils.randomAlphabetic(5));
+        Files.createDirectories(rootDir);
+        Path fastaFile = rootDir.resolve("ambiguous.fa");
+
+        Random random = new Random(1);
+        String alphabet = "ACGTacgtNNNNnRYKMSWBDHVryk";
+        StringBuilder fasta = new StringBuilder();
+        for (int contig = 1; contig <= 3; contig++) {
+            fasta.append(">").append(contig).append(" description\n");
+            int length = 1000 + random.nextInt(5000);
+            for (int i = 0; i < length; i++) {
+                // Runs of the same base to test run-length side tables
+                char base = alphabet.charAt(random.nextInt(alphabet.length()));
+                int runLength = 1 + random.nextInt(20);
+                for (int j = 0; j < runLength && i < length; j++, i++) {
+                    fasta.append(base);
+                    if ((i + 1) % 60 == 0) {
+                        fasta.append('\n');
+                    }
+                }
+                i--;
+            }
+            fasta.append('\n');
+        }
+        Files.write(fastaFile, fasta.toString().getBytes(StandardCharsets.US_ASCII));
+
+        FastaIndex fastaIndex = new FastaIndex(fastaFile);
+        try (PackedFastaIndex packedFastaIndex = PackedFastaIndex.open(fastaFile)) {
+            compare(fastaIndex, packedFastaIndex);
+        }
+        fastaIndex.close();
+    }
+
+    @Test
+    public void testQueryContigNotPresent() throws Exception {
+        Path fastaFile = Paths.get(getClass().getResource("/tricky.fasta").toURI());
+        Path packedFile = Paths.get("target/test-data", "tricky-" + RandomStringUtils.randomAlphabetic(5) + ".fasta.packed");
+        PackedFastaIndex.index(fastaFile, packedFile);
+        try (PackedFastaIndex packedFastaIndex = new PackedFastaIndex(packedFile)) {
+            assertEquals("NNNNCTCC", packedFastaIndex.query("3", 1, 8));
+            thrown.expect(SAMException.class);
+            thrown.expectMessage("Unable to find entry for contig: 1234");
+            packedFastaIndex.query("1234", 1, 10);
+        }
+    }
+
+    @Test
+    public void testQueryEndOutOfRightBound() throws Exception {
+        Path fastaFile = Paths.get(getClass().getResource("/tricky.fasta").toURI());
+        Path packedFile = Paths.get("target/test-data", "tricky-" + RandomStringUtils.randomAlphabetic(5) + ".fasta.packed");
+        PackedFastaIndex.index(fastaFile, packedFile);
+        try (PackedFastaIndex packedFastaIndex = new PackedFastaIndex(packedFile)) {
+            thrown.expect(SAMException.class);
+            thrown.expectMessage("Query asks for data past end of contig");
+            packedFastaIndex.query("1", 10, 700000);
+        }
+    }
+
+    private void compare(FastaIndex fastaIndex, PackedFastaIndex packedFastaIndex) {
+        Random random = new Random(0);
+        for (SAMSequenceRecord sequenceRecord : packedFastaIndex.getSequenceDictionary().getSequences()) {
+            String contig = sequenceRecord.getSequenceName();
+            int length = sequenceRecord.getSequenceLength();
+            assertEquals(fastaIndex.query(contig, 1, length), packedFastaIndex.query(contig, 1, length));
+            for (int i = 0; i < 50; i++) {
+                int start = 1 + random.nextInt(length);
+                int end = Math.min(length, start + random.nextInt(300));
+                String expected = fastaIndex.query(contig, start, end);
+                assertEquals(expected, packedFastaIndex.query(contig, start, end));
+                assertEquals(expected, packedFastaIndex.querySequence(contig, start, end).toString());
+
+                byte[] buffer = new byte[end - start + 3];
+                packedFastaIndex.query(contig, start, end, buffer, 2);
+                assertEquals(expected, new String(buffer, 2, end - start + 1, StandardCharsets.US_ASCII));
+
+                CharSequence charSequence = packedFastaIndex.querySequence(contig, start, end);
+                for (int j = 0; j < expected.length(); j++) {
+                    assertEquals(expected.charAt(j), charSequence.charAt(j));
+                    assertEquals(expected.charAt(j), (char) packedFastaIndex.getBase(contig, start + j));
+                }
+            }
+        }
+    }
+}
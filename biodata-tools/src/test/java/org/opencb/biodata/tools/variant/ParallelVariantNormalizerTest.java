@@ -0,0 +1,140 @@
+package org.opencb.biodata.tools.variant;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.avro.SampleEntry;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+
+import java.io.InputStream;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelVariantNormalizerTest {
+
+    private final Supplier<VariantNormalizer> normalizerFactory = () -> new VariantNormalizer()
+            .setDecomposeMNVs(true)
+            .setGenerateReferenceBlocks(true);
+
+    @Test
+    public void testNormalizeVcf() throws Exception {
+        List<Variant> expected = readVcf(new VariantVcfHtsjdkReader(openVcf(), getMetadata(), normalizerFactory.get()));
+
+        ParallelVariantNormalizer parallelNormalizer = new ParallelVariantNormalizer(normalizerFactory, 4)
+                .setMinChunkSize(10);
+        List<Variant> variants = readVcf(new VariantVcfHtsjdkReader(openVcf(), getMetadata())
+                .setParallelNormalizer(parallelNormalizer));
+
+        assertEquals(toJson(expected), toJson(variants));
+    }
+
+    @Test
+    public void testNormalizeMnvsAndMultiallelic() throws Exception {
+        ParallelVariantNormalizer parallelNormalizer = new ParallelVariantNormalizer(normalizerFactory, 3)
+                .setMinChunkSize(1);
+        try {
+            for (int batchSize : Arrays.asList(1, 2, 7, 100, 1000)) {
+                List<Variant> expected = normalizerFactory.get().apply(randomVariants(batchSize));
+                List<Variant> variants = parallelNormalizer.apply(randomVariants(batchSize));
+                assertEquals(toJson(expected), toJson(variants));
+            }
+        } finally {
+            parallelNormalizer.post();
+        }
+    }
+
+    @Test
+    public void testErrorHandler() throws Exception {
+        List<Variant> batch = randomVariants(300);
+        // Variants with two studies can not be normalized
+        Set<String> invalidVariants = new LinkedHashSet<>();
+        for (int i = 5; i < batch.size(); i += 50) {
+            Variant variant = batch.get(i);
+            variant.addStudyEntry(new StudyEntry("2", Collections.emptyList(), Collections.emptyList()));
+            invalidVariants.add(variant.toString());
+        }
+
+        List<String> failedVariants = new ArrayList<>();
+        ParallelVariantNormalizer parallelNormalizer = new ParallelVariantNormalizer(normalizerFactory, 4)
+                .setErrorHandler((variant, e) -> failedVariants.add(variant.toString()));
+        try {
+            List<Variant> variants = parallelNormalizer.apply(batch);
+            assertEquals(new ArrayList<>(invalidVariants), failedVariants);
+            for (Variant variant : variants) {
+                assertEquals(1, variant.getStudies().size());
+            }
+        } finally {
+            parallelNormalizer.post();
+        }
+    }
+
+    private List<Variant> randomVariants(int size) {
+        Random random = new Random(size);
+        List<Variant> variants = new ArrayList<>(size);
+        int position = 1000;
+        for (int i = 0; i < size; i++) {
+            position += 1 + random.nextInt(20);
+            String reference = randomAllele(random, 1 + random.nextInt(4));
+            List<String> alternates = new ArrayList<>();
+            int numAlternates = 1 + random.nextInt(3);
+            while (alternates.size() < numAlternates) {
+                String alternate = randomAllele(random, 1 + random.nextInt(4));
+                if (!alternate.equals(reference) && !alternates.contains(alternate)) {
+                    alternates.add(alternate);
+                }
+            }
+            List<SampleEntry> samples = new ArrayList<>();
+            for (int s = 0; s < 3; s++) {
+                String gt = random.nextInt(alternates.size() + 1) + "|" + random.nextInt(alternates.size() + 1);
+                samples.add(new SampleEntry(null, null, Collections.singletonList(gt)));
+            }
+            variants.add(Variant.newBuilder("1", position, position + reference.length() - 1, reference,
+                    String.join(",", alternates))
+                    .setStudyId("1")
+                    .setSampleDataKeys("GT")
+                    .setSamples(samples)
+                    .setFileId("1")
+                    .build());
+        }
+        return variants;
+    }
+
+    private static String randomAllele(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return sb.toString();
+    }
+
+    private InputStream openVcf() throws Exception {
+        return new GZIPInputStream(getClass().getResourceAsStream("/CEU-1409-01_5000.vcf.gz"));
+    }
+
+    private VariantStudyMetadata getMetadata() {
+        return new VariantFileMetadata("CEU-1409-01_5000.vcf.gz", "1").toVariantStudyMetadata("s1");
+    }
+
+    private List<Variant> readVcf(VariantVcfHtsjdkReader reader) {
+        reader.open();
+        reader.pre();
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> batch;
+        do {
+            batch = reader.read(250);
+            variants.addAll(batch);
+        } while (!batch.isEmpty());
+        reader.post();
+        reader.close();
+        return variants;
+    }
+
+    private static List<String> toJson(List<Variant> variants) {
+        return variants.stream().map(Variant::toJson).collect(Collectors.toList());
+    }
+}
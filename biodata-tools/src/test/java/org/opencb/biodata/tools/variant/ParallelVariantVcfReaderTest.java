@@ -0,0 +1,138 @@
+package org.opencb.biodata.tools.variant;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ParallelVariantVcfReaderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readTest() throws Exception {
+        for (String file : Arrays.asList("CEU-1409-01_5000.vcf.gz", "ibs.vcf", "brca2-variants.vcf", "bnd.vcf")) {
+            byte[] vcf = readResource(file);
+            List<Variant> expected = readHtsjdk(vcf, file);
+
+            Path bgzf = writeBgzf(vcf, file, 0);
+            // Small blocks, so most of the lines are split between blocks
+            Path smallBlocks = writeBgzf(vcf, file, Math.max(100, vcf.length / 1000));
+            for (int numThreads : Arrays.asList(1, 4)) {
+                checkRead(expected, read(bgzf, file, numThreads, ParallelVariantVcfReader.DEFAULT_PART_SIZE, 100));
+                checkRead(expected, read(bgzf, file, numThreads, 1, 7));
+                checkRead(expected, read(smallBlocks, file, numThreads, 1, 100));
+                checkRead(expected, read(smallBlocks, file, numThreads, 1000, 1));
+            }
+        }
+    }
+
+    @Test
+    public void readWithoutFinalLineBreakTest() throws Exception {
+        byte[] vcf = readResource("ibs.vcf");
+        String content = new String(vcf).trim();
+        vcf = content.getBytes();
+        List<Variant> expected = readHtsjdk(vcf, "ibs.vcf");
+
+        checkRead(expected, read(writeBgzf(vcf, "ibs.vcf", 50), "ibs.vcf", 2, 1, 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readGzipTest() throws Exception {
+        File file = temporaryFolder.newFile("CEU-1409-01_5000.vcf.gz");
+        try (InputStream inputStream = getClass().getResourceAsStream("/CEU-1409-01_5000.vcf.gz")) {
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        read(file.toPath(), file.getName(), 2, ParallelVariantVcfReader.DEFAULT_PART_SIZE, 100);
+    }
+
+    private void checkRead(List<Variant> expected, List<Variant> variants) {
+        assertEquals(expected.size(), variants.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), variants.get(i));
+        }
+    }
+
+    private byte[] readResource(String file) throws Exception {
+        InputStream inputStream = getClass().getResourceAsStream("/" + file);
+        if (file.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        try (InputStream is = inputStream) {
+            return IOUtils.toByteArray(is);
+        }
+    }
+
+    /**
+     * Write a BGZF file. If blockSize is positive, the blocks are flushed every blockSize bytes.
+     */
+    private Path writeBgzf(byte[] vcf, String file, int blockSize) throws Exception {
+        File output = temporaryFolder.newFile(file.replace(".gz", "") + "." + blockSize + ".gz");
+        try (OutputStream outputStream = new BlockCompressedOutputStream(output)) {
+            if (blockSize > 0) {
+                for (int i = 0; i < vcf.length; i += blockSize) {
+                    outputStream.write(vcf, i, Math.min(blockSize, vcf.length - i));
+                    outputStream.flush();
+                }
+            } else {
+                outputStream.write(vcf);
+            }
+        }
+        return output.toPath();
+    }
+
+    private List<Variant> readHtsjdk(byte[] vcf, String file) {
+        VariantStudyMetadata metadata = new VariantFileMetadata(file, "2").toVariantStudyMetadata("sid");
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(new ByteArrayInputStream(vcf), metadata);
+        reader.open();
+        reader.pre();
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> read;
+        do {
+            read = reader.read(100);
+            variants.addAll(read);
+        } while (!read.isEmpty());
+        reader.post();
+        reader.close();
+        return variants;
+    }
+
+    private List<Variant> read(Path path, String file, int numThreads, int partSize, int batchSize) {
+        VariantStudyMetadata metadata = new VariantFileMetadata(file, "2").toVariantStudyMetadata("sid");
+        ParallelVariantVcfReader reader = new ParallelVariantVcfReader(path, metadata, numThreads)
+                .setPartSize(partSize);
+        List<Variant> variants = new ArrayList<>();
+        try {
+            reader.open();
+            reader.pre();
+            List<Variant> read;
+            do {
+                read = reader.read(batchSize);
+                variants.addAll(read);
+            } while (!read.isEmpty());
+            reader.post();
+        } finally {
+            reader.close();
+        }
+        return variants;
+    }
+}
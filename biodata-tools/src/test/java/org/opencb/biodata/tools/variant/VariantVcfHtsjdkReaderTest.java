@@ -1,6 +1,8 @@
 package org.opencb.biodata.tools.variant;
 
 import org.junit.Test;
+import org.opencb.biodata.models.variant.ColumnarSampleEntries;
+import org.opencb.biodata.models.variant.StudyEntry;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantFileMetadata;
 import org.opencb.biodata.models.variant.avro.SampleEntry;
@@ -11,9 +13,11 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created on 16/05/16
@@ -206,6 +210,70 @@ public class VariantVcfHtsjdkReaderTest {
         reader.close();
     }
 
+    @Test
+    public void readColumnarSamplesTest() throws Exception {
+        List<Variant> expected = readCeuVcf(false);
+        List<Variant> variants = readCeuVcf(true);
+
+        assertEquals(expected.size(), variants.size());
+        for (int i = 0; i < expected.size(); i++) {
+            StudyEntry expectedStudy = expected.get(i).getStudies().get(0);
+            StudyEntry study = variants.get(i).getStudies().get(0);
+            assertTrue(study.getSamples() instanceof ColumnarSampleEntries);
+            assertEquals(expected.get(i).toJson(), variants.get(i).toJson());
+            assertEquals(expected.get(i), variants.get(i));
+            for (String sample : expectedStudy.getOrderedSamplesName()) {
+                for (String key : expectedStudy.getSampleDataKeys()) {
+                    assertEquals(expectedStudy.getSampleData(sample, key), study.getSampleData(sample, key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readFastParserTest() throws Exception {
+        for (String file : Arrays.asList("CEU-1409-01_5000.vcf.gz", "ibs.vcf", "test.vcf", "brca2-variants.vcf",
+                "phase.vcf", "phasemissing.vcf", "sample1_sample2.vcf", "sampleMappingName.vcf", "bnd.vcf")) {
+            for (boolean columnarSamples : Arrays.asList(false, true)) {
+                List<Variant> expected = readVcf(file, columnarSamples, false);
+                List<Variant> variants = readVcf(file, columnarSamples, true);
+
+                assertEquals(file, expected.size(), variants.size());
+                for (int i = 0; i < expected.size(); i++) {
+                    assertEquals(file, expected.get(i).toJson(), variants.get(i).toJson());
+                    assertEquals(file, expected.get(i), variants.get(i));
+                }
+            }
+        }
+    }
+
+    private List<Variant> readCeuVcf(boolean columnarSamples) throws Exception {
+        return readVcf("CEU-1409-01_5000.vcf.gz", columnarSamples, false);
+    }
+
+    private List<Variant> readVcf(String file, boolean columnarSamples, boolean fastParser) throws Exception {
+        InputStream inputStream = getClass().getResourceAsStream("/" + file);
+        if (file.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+        VariantStudyMetadata metadata = new VariantFileMetadata(file, "2")
+                .toVariantStudyMetadata("sid");
+        VariantVcfHtsjdkReader reader = new VariantVcfHtsjdkReader(inputStream, metadata)
+                .setColumnarSamples(columnarSamples)
+                .setFastParser(fastParser);
+        reader.open();
+        reader.pre();
+        List<Variant> variants = new ArrayList<>();
+        List<Variant> read;
+        do {
+            read = reader.read(100);
+            variants.addAll(read);
+        } while (!read.isEmpty());
+        reader.post();
+        reader.close();
+        return variants;
+    }
+
     /**
      * Illumina produces variant calls, which are invalid for htsjdk. Make sure these are logged.
      */
@@ -1,22 +1,28 @@
 package org.opencb.biodata.tools.variant;
 
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.protobuf.VariantProto;
+import org.opencb.biodata.tools.commons.ReaderPool;
+import org.opencb.biodata.tools.commons.ShardedIterator;
 import org.opencb.biodata.tools.variant.filters.VariantContextFilters;
 import org.opencb.biodata.tools.variant.filters.VariantFilters;
 import org.opencb.biodata.tools.variant.iterators.VcfIterator;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.List;
-import java.util.Locale;
+import java.util.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by jtarraga on 29/11/16.
@@ -24,6 +30,9 @@ import static org.junit.Assert.assertEquals;
 public class VcfManagerTest {
     String filename = "/ibs.vcf";
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @BeforeClass
     public static void setUp(){
         Locale.setDefault(new Locale("en", "EN"));
@@ -120,4 +129,73 @@ public class VcfManagerTest {
 
         assertEquals(2, list.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shardedRegionQuery() throws Exception {
+        Path path = temporaryFolder.newFolder().toPath().resolve("CEU-1409-01_5000.vcf.gz");
+        Files.copy(getClass().getResourceAsStream("/CEU-1409-01_5000.vcf.gz"), path);
+        VcfManager vcfManager = new VcfManager(path);
+        index(vcfManager);
+        Region region = new Region("1", 1, 10000000);
+
+        List<String> expected = new ArrayList<>();
+        VcfIterator<Variant> iterator = vcfManager.iterator(region, null, Variant.class);
+        iterator.forEachRemaining(variant -> expected.add(variant.toString()));
+        iterator.close();
+
+        List<String> sharded = new ArrayList<>();
+        try (ShardedIterator<VCFFileReader, Variant> shardedIterator = vcfManager.iterator(
+                Collections.singletonList(region), null, null, Variant.class, 4, 10000)) {
+            shardedIterator.forEachRemaining(variant -> sharded.add(variant.toString()));
+        }
+        assertTrue(expected.size() > 1000);
+        assertEquals(expected, sharded);
+
+        VariantOptions options = new VariantOptions();
+        options.setLimit(10);
+        List<VariantContext> list = vcfManager.query(Arrays.asList(region, region), null, options, VariantContext.class, 2);
+        assertEquals(10, list.size());
+    }
+
+    @Test
+    public void shardedRegionQueryReaderPool() throws Exception {
+        Path path = temporaryFolder.newFolder().toPath().resolve("CEU-1409-01_5000.vcf.gz");
+        Files.copy(getClass().getResourceAsStream("/CEU-1409-01_5000.vcf.gz"), path);
+        // The pool only opens readers with the default index, next to the indexed data file
+        Path indexPath = index(new VcfManager(path));
+        Path dataPath = indexPath.resolveSibling(indexPath.getFileName().toString().replace(".tbi", ""));
+        Region region = new Region("1", 1, 10000000);
+
+        try (ReaderPool<VCFFileReader> pool = VcfManager.newReaderPool()) {
+            VcfManager vcfManager = new VcfManager(dataPath, pool);
+            List<String> expected = new ArrayList<>();
+            try (VcfIterator<Variant> iterator = vcfManager.iterator(region, null, Variant.class)) {
+                iterator.forEachRemaining(variant -> expected.add(variant.toString()));
+            }
+
+            long opened = 0;
+            for (int i = 0; i < 2; i++) {
+                List<String> sharded = new ArrayList<>();
+                try (ShardedIterator<VCFFileReader, Variant> shardedIterator = vcfManager.iterator(
+                        Collections.singletonList(region), null, null, Variant.class, 2, 100000)) {
+                    shardedIterator.forEachRemaining(variant -> sharded.add(variant.toString()));
+                }
+                assertEquals(expected, sharded);
+
+                ReaderPool.Metrics metrics = pool.getMetrics();
+                // Only the reader of the manager is still leased
+                assertEquals(1, metrics.getActive());
+                assertTrue(metrics.getOpened() <= 3);
+                if (i == 0) {
+                    opened = metrics.getOpened();
+                } else {
+                    // The second query reuses the readers of the first one
+                    assertEquals(opened, metrics.getOpened());
+                    assertTrue(metrics.getReused() > 0);
+                }
+            }
+            vcfManager.close();
+            assertEquals(0, pool.getMetrics().getActive());
+        }
+    }
+}
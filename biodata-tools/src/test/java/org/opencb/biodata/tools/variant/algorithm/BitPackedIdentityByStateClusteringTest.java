@@ -0,0 +1,87 @@
+package org.opencb.biodata.tools.variant.algorithm;
+
+import org.junit.Test;
+import org.opencb.biodata.formats.variant.vcf4.io.VariantVcfReader;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantBuilder;
+import org.opencb.biodata.models.variant.VariantFileMetadata;
+import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
+import org.opencb.biodata.models.variant.stats.IBDExpectedFrequencies;
+import org.opencb.biodata.models.variant.stats.IdentityByDescent;
+import org.opencb.biodata.models.variant.stats.IdentityByState;
+
+import java.util.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BitPackedIdentityByStateClusteringTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0/1", "1/0", "1/1", "0|1", "./.", "0/.", "1/.", "1/2", "2/2", "0/2"};
+
+    @Test
+    public void testCountIBS() throws Exception {
+        String fileName = "ibs.vcf";
+        VariantFileMetadata fileMetadata = new VariantFileMetadata(fileName, "fid");
+        VariantStudyMetadata metadata = fileMetadata.toVariantStudyMetadata("sid");
+
+        VariantVcfReader variantReader = new VariantVcfReader(metadata, BitPackedIdentityByStateClusteringTest.class.getClassLoader().getResource(fileName).getPath());
+        variantReader.open();
+        variantReader.pre();
+        List<Variant> variants = variantReader.read(50);
+        variantReader.post();
+        variantReader.close();
+
+        List<String> samples = new ArrayList<>(variants.get(0).getStudy(metadata.getId()).getSamplesName());
+        List<IdentityByState> expected = new IdentityByStateClustering().countIBS(variants, samples);
+
+        assertIBS(expected, new BitPackedIdentityByStateClustering(1).countIBS(variants, samples));
+        assertIBS(expected, new BitPackedIdentityByStateClustering(4, 3).countIBS(variants, samples));
+
+        List<IdentityByDescent> expectedIbd = new IdentityByDescentClustering().countIBD(variants, samples);
+        List<IdentityByDescent> ibd = new IdentityByDescentClustering(new IBDExpectedFrequencies(),
+                new BitPackedIdentityByStateClustering(2, 4)).countIBD(variants, samples);
+        assertEquals(expectedIbd.size(), ibd.size());
+        for (int i = 0; i < ibd.size(); i++) {
+            assertArrayEquals(expectedIbd.get(i).getIbs(), ibd.get(i).getIbs());
+            assertEquals(expectedIbd.get(i).getPihat(), ibd.get(i).getPihat(), 0.000001);
+        }
+    }
+
+    @Test
+    public void testCountIBSRandomGenotypes() throws Exception {
+        Random random = new Random(1);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 70; i++) {
+            samples.add("S" + i);
+        }
+        // More than one chunk, with a partial last chunk
+        List<Variant> variants = new ArrayList<>();
+        for (int v = 0; v < BitPackedIdentityByStateClustering.CHUNK_WORDS * 64 + 100; v++) {
+            VariantBuilder builder = Variant.newBuilder("1", v + 1, v + 1, "A", "C")
+                    .setStudyId("s")
+                    .setSampleDataKeys("GT")
+                    .setSampleNames(samples);
+            for (String sample : samples) {
+                builder.addSample(sample, GENOTYPES[random.nextInt(GENOTYPES.length)]);
+            }
+            Variant variant = builder.build();
+            if (v % 2 == 0) {
+                variant.getStudies().get(0).compactSamples();
+            }
+            variants.add(variant);
+        }
+
+        List<IdentityByState> expected = new IdentityByStateClustering().countIBS(variants, samples);
+        assertIBS(expected, new BitPackedIdentityByStateClustering(1, 16).countIBS(variants, samples));
+        assertIBS(expected, new BitPackedIdentityByStateClustering(4, 16).countIBS(variants, samples));
+        assertIBS(expected, new BitPackedIdentityByStateClustering(3, 100).countIBS(variants, samples));
+    }
+
+    private void assertIBS(List<IdentityByState> expected, List<IdentityByState> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals("pair " + i, expected.get(i).ibs, actual.get(i).ibs);
+        }
+    }
+}
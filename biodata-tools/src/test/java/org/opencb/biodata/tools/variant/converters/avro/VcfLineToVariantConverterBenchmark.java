@@ -0,0 +1,78 @@
+package org.opencb.biodata.tools.variant.converters.avro;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.vcf.VCFHeader;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * JMH benchmark comparing the conversion of the lines of a VCF with htsjdk and with the
+ * {@link VcfLineToVariantConverter}. Run with the main method from the test classpath, e.g.:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=org.opencb.biodata.tools.variant.converters.avro.VcfLineToVariantConverterBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VcfLineToVariantConverterBenchmark {
+
+    private static final String VCF = "/CEU-1409-01_5000.vcf.gz";
+    private static final int NUM_LINES = 1000;
+
+    private List<String> lines;
+    private FullVcfCodec codec;
+    private VariantContextToVariantConverter htsjdkConverter;
+    private VcfLineToVariantConverter lineConverter;
+
+    @Setup
+    public void setup() throws IOException {
+        codec = new FullVcfCodec();
+        LineIterator lineIterator = codec.makeSourceFromStream(
+                new GZIPInputStream(VcfLineToVariantConverterBenchmark.class.getResourceAsStream(VCF)));
+        VCFHeader header = (VCFHeader) codec.readActualHeader(lineIterator);
+        lines = new ArrayList<>(NUM_LINES);
+        while (lineIterator.hasNext() && lines.size() < NUM_LINES) {
+            lines.add(lineIterator.next());
+        }
+        htsjdkConverter = new VariantContextToVariantConverter("s", "f", header.getGenotypeSamples());
+        lineConverter = new VcfLineToVariantConverter("s", "f", header, codec.getVCFHeaderVersion());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LINES)
+    public void htsjdk(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(htsjdkConverter.convert(codec.decode(line)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_LINES)
+    public void line(Blackhole blackhole) {
+        for (String line : lines) {
+            blackhole.consume(lineConverter.convert(line));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VcfLineToVariantConverterBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
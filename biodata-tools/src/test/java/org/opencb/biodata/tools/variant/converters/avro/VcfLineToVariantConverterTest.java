@@ -0,0 +1,109 @@
+package org.opencb.biodata.tools.variant.converters.avro;
+
+import htsjdk.tribble.readers.LineIterator;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VcfLineToVariantConverterTest {
+
+    private static final String HEADER = "##fileformat=VCFv4.2\n"
+            + "##INFO=<ID=DB,Number=0,Type=Flag,Description=\"dbSNP membership\">\n"
+            + "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n"
+            + "##INFO=<ID=NS,Number=1,Type=Integer,Description=\"Number of samples\">\n"
+            + "##INFO=<ID=END,Number=1,Type=Integer,Description=\"End position\">\n"
+            + "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n"
+            + "##FORMAT=<ID=GQ,Number=1,Type=Integer,Description=\"Genotype quality\">\n"
+            + "##FORMAT=<ID=DP,Number=1,Type=Integer,Description=\"Read depth\">\n"
+            + "##FORMAT=<ID=AD,Number=R,Type=Integer,Description=\"Allelic depths\">\n"
+            + "##FORMAT=<ID=PL,Number=G,Type=Integer,Description=\"Phred-scaled likelihoods\">\n"
+            + "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\ts0\ts1\ts2\n";
+
+    private FullVcfCodec codec;
+    private VCFHeader header;
+    private List<String> lines;
+
+    @Before
+    public void setUp() throws Exception {
+        String vcf = HEADER
+                + "1\t100\trs1;.\ta\tc,t\t29.3\tq10;LowQual;q10\tAC=1,2;DB;NS;XX=;DB=0\tGT:GQ:DP:AD:PL:XY\t0/1:35.6:.:3,+4:0,01,2:a\t1|2:.:7\t./.\n"
+                + "1\t200\t.\tA\t.\t.\tPASS\t.\tGT:DP\t.\t0\t0/0:12\n"
+                + "1\t300\t.\tA\t<DEL>\t50\t.\tEND=400;SVTYPE=DEL\tGT:HQ\t1/1:.\t0/.:1,2\t.|1\n"
+                + "1\t400\trs4\tT\tA,*\t1e3\tPASS\tAC=3\tGT\t0/2/1\t1\t2\n"
+                + "2\t500\t.\tACGT\tA\t-1\t.\tNS=3\tGT:AD:DP:GQ\t0/1:1,2:10:5\t0/0\t1/1:.:.:.\n"
+                + "2\t600\t.\tG\tA\t10\tPASS\t.\tGT:GQ:AD:PL\t0/1:-1:10,x:\t0/0:99\t1/1:.:3,4:.\n"
+                + "2\t700\t.\tG\tA\t0\tPASS\tDB\tGT:DP:DP\t0/1:1:2\t0/0:1:2\t1/1:1:2\n"
+                + "2\t800\t.\tG\tA\t10\tPASS\t.\tGT:FT\t0/1:PASS\t0/0:q10\t./.\n"
+                + "2\t900\tbnd1\tG\tG]17:198982]\t10\tPASS\t.\tGT\t0/1\t0/1\t0/1\n";
+        codec = new FullVcfCodec();
+        LineIterator lineIterator = codec.makeSourceFromStream(new ByteArrayInputStream(vcf.getBytes()));
+        header = (VCFHeader) codec.readActualHeader(lineIterator);
+        lines = new ArrayList<>();
+        while (lineIterator.hasNext()) {
+            lines.add(lineIterator.next());
+        }
+    }
+
+    @Test
+    public void testConvert() {
+        checkConvert(false);
+    }
+
+    @Test
+    public void testConvertColumnarSamples() {
+        checkConvert(true);
+    }
+
+    private void checkConvert(boolean columnarSamples) {
+        VariantContextToVariantConverter expectedConverter =
+                new VariantContextToVariantConverter("s", "f", header.getGenotypeSamples())
+                        .setColumnarSamples(columnarSamples);
+        VcfLineToVariantConverter converter =
+                new VcfLineToVariantConverter("s", "f", header, codec.getVCFHeaderVersion())
+                        .setColumnarSamples(columnarSamples);
+
+        int converted = 0;
+        for (String line : lines) {
+            Variant variant = converter.convert(line);
+            if (line.contains("FT") || line.contains("]") || line.contains("DP:DP")) {
+                // Not supported
+                assertNull(line, variant);
+            } else {
+                assertNotNull(line, variant);
+                Variant expected = expectedConverter.convert(codec.decode(line));
+                assertEquals(line, expected.toJson(), variant.toJson());
+                assertEquals(line, expected, variant);
+                assertEquals(line, expected.getStudies().get(0).getSampleDataKeys(),
+                        variant.getStudies().get(0).getSampleDataKeys());
+                converted++;
+            }
+        }
+        assertEquals(6, converted);
+    }
+
+    @Test
+    public void testInvalidLines() {
+        VcfLineToVariantConverter converter =
+                new VcfLineToVariantConverter("s", "f", header, codec.getVCFHeaderVersion());
+        // Missing samples
+        assertNull(converter.convert("1\t100\t.\tA\tC\t10\tPASS\t.\tGT\t0/1\t0/1"));
+        // Unknown allele
+        assertNull(converter.convert("1\t100\t.\tA\tC\t10\tPASS\t.\tGT\t0/1\t0/2\t0/1"));
+        // Invalid position
+        assertNull(converter.convert("1\tX\t.\tA\tC\t10\tPASS\t.\tGT\t0/1\t0/1\t0/1"));
+        // Invalid reference
+        assertNull(converter.convert("1\t100\t.\tR\tC\t10\tPASS\t.\tGT\t0/1\t0/1\t0/1"));
+        // Whitespace in INFO
+        assertNull(converter.convert("1\t100\t.\tA\tC\t10\tPASS\tNS=a b\tGT\t0/1\t0/1\t0/1"));
+        // Invalid END
+        assertNull(converter.convert("1\t100\t.\tA\tC\t10\tPASS\tEND=.\tGT\t0/1\t0/1\t0/1"));
+    }
+}
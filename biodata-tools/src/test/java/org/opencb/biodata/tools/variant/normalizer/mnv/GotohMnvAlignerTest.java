@@ -0,0 +1,119 @@
+package org.opencb.biodata.tools.variant.normalizer.mnv;
+
+import org.junit.Test;
+import org.opencb.biodata.tools.variant.VariantNormalizer;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class GotohMnvAlignerTest {
+
+    private final MnvAligner biojavaAligner = new BiojavaMnvAligner();
+    private final MnvAligner gotohAligner = new GotohMnvAligner();
+
+    @Test
+    public void testAlign() {
+        checkAlignment("ACGT", "ACGT");
+        checkAlignment("ACGT", "AGT");
+        checkAlignment("AGT", "ACGT");
+        checkAlignment("TTCAGTGAC", "TTCACTGAC");
+        checkAlignment("ATACGTACTG", "ATGTACTG");
+        checkAlignment("A", "GTTTTTTC");
+        checkAlignment("GTTTTTTC", "A");
+    }
+
+    @Test
+    public void testAlignRandomAlleles() {
+        Random random = new Random(1);
+        for (int i = 0; i < 20000; i++) {
+            String reference = randomAllele(random, "ACGT", 1 + random.nextInt(20));
+            String alternate = random.nextBoolean()
+                    ? mutate(random, reference)
+                    : randomAllele(random, "ACGT", 1 + random.nextInt(20));
+            checkAlignment(reference, alternate);
+        }
+    }
+
+    @Test
+    public void testAlignAmbiguousBases() {
+        Random random = new Random(2);
+        for (int i = 0; i < 5000; i++) {
+            checkAlignment(randomAllele(random, "ACGTNRYKMSWBDHV", 1 + random.nextInt(12)),
+                    randomAllele(random, "ACGTNRYKMSWBDHV", 1 + random.nextInt(12)));
+        }
+    }
+
+    @Test
+    public void testAlignLowerCaseFallback() {
+        checkAlignment("acgtt", "acTt");
+    }
+
+    @Test
+    public void testDecompose() {
+        Random random = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            String reference = randomAllele(random, "ACGT", 2 + random.nextInt(20));
+            String alternate = mutate(random, reference);
+            VariantNormalizer.VariantKeyFields keyFields = new VariantNormalizer.VariantKeyFields(1000,
+                    1000 + reference.length() - 1, reference, alternate);
+
+            StringBuilder alignedReference = new StringBuilder();
+            StringBuilder alignedAlternate = new StringBuilder();
+            biojavaAligner.align(reference, alternate, alignedReference, alignedAlternate);
+            String expected = VariantNormalizer.decomposeAlignmentSingleVariants(alignedReference.toString(),
+                    alignedAlternate.toString(), 1000, keyFields).toString();
+
+            gotohAligner.align(reference, alternate, alignedReference, alignedAlternate);
+            assertEquals(expected, VariantNormalizer.decomposeAlignmentSingleVariants(alignedReference,
+                    alignedAlternate, 1000, keyFields).toString());
+        }
+    }
+
+    private void checkAlignment(String reference, String alternate) {
+        StringBuilder expectedReference = new StringBuilder();
+        StringBuilder expectedAlternate = new StringBuilder();
+        biojavaAligner.align(reference, alternate, expectedReference, expectedAlternate);
+
+        StringBuilder alignedReference = new StringBuilder("previous content");
+        StringBuilder alignedAlternate = new StringBuilder("previous content");
+        gotohAligner.align(reference, alternate, alignedReference, alignedAlternate);
+
+        String message = reference + "/" + alternate;
+        assertEquals(message, expectedReference.toString(), alignedReference.toString());
+        assertEquals(message, expectedAlternate.toString(), alignedAlternate.toString());
+    }
+
+    static String randomAllele(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    static String mutate(Random random, String allele) {
+        StringBuilder sb = new StringBuilder(allele);
+        int mutations = 1 + random.nextInt(3);
+        for (int i = 0; i < mutations; i++) {
+            int position = random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.setCharAt(position, "ACGT".charAt(random.nextInt(4)));
+                    break;
+                case 1:
+                    sb.insert(position, randomAllele(random, "ACGT", 1 + random.nextInt(3)));
+                    break;
+                default:
+                    if (sb.length() > 1) {
+                        sb.delete(position, Math.min(sb.length() - 1, position + 1 + random.nextInt(3)) + 1);
+                    }
+                    break;
+            }
+            if (sb.length() == 0) {
+                sb.append('A');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package org.opencb.biodata.tools.variant.normalizer.mnv;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the MNV aligners. Run with the main method from the test classpath, e.g.:
+ *
+ *   mvn test-compile exec:java -Dexec.classpathScope=test
+ *       -Dexec.mainClass=org.opencb.biodata.tools.variant.normalizer.mnv.MnvAlignerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MnvAlignerBenchmark {
+
+    private static final int NUM_VARIANTS = 1000;
+
+    @Param({"5", "20", "100"})
+    public int alleleLength;
+
+    private String[] references;
+    private String[] alternates;
+    private MnvAligner biojavaAligner;
+    private MnvAligner gotohAligner;
+    private StringBuilder alignedReference;
+    private StringBuilder alignedAlternate;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        references = new String[NUM_VARIANTS];
+        alternates = new String[NUM_VARIANTS];
+        for (int i = 0; i < NUM_VARIANTS; i++) {
+            references[i] = GotohMnvAlignerTest.randomAllele(random, "ACGT", alleleLength);
+            alternates[i] = GotohMnvAlignerTest.mutate(random, references[i]);
+        }
+        biojavaAligner = new BiojavaMnvAligner();
+        gotohAligner = new GotohMnvAligner();
+        alignedReference = new StringBuilder();
+        alignedAlternate = new StringBuilder();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VARIANTS)
+    public void biojava(Blackhole blackhole) {
+        align(biojavaAligner, blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_VARIANTS)
+    public void gotoh(Blackhole blackhole) {
+        align(gotohAligner, blackhole);
+    }
+
+    private void align(MnvAligner aligner, Blackhole blackhole) {
+        for (int i = 0; i < NUM_VARIANTS; i++) {
+            aligner.align(references[i], alternates[i], alignedReference, alignedAlternate);
+            blackhole.consume(alignedReference.length());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MnvAlignerBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -42,7 +42,9 @@ public class HardyWeinbergScoreCalculatorTaskTest {
         assertNotNull(score);
         assertEquals(HardyWeinbergScoreCalculatorTask.SCORE_ID, score.getId());
 
-        // TODO: check that values are correct
+        // Expected counts 48, 24 and 3
+        assertEquals(2.0833, score.getScore(), 0.0001);
+        assertEquals(0.1489, score.getPValue(), 0.0001);
 
     }
 }
\ No newline at end of file
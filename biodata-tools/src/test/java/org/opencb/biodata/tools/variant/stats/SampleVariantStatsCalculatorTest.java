@@ -22,6 +22,9 @@ import org.opencb.biodata.tools.variant.algorithm.IdentityByStateClusteringTest;
 import org.opencb.biodata.tools.variant.metadata.VariantMetadataManager;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SampleVariantStatsCalculatorTest {
 
@@ -106,6 +109,55 @@ public class SampleVariantStatsCalculatorTest {
         checkStats(sampleStats);
     }
 
+    @Test
+    public void testParallel() throws Exception {
+        List<Variant> manyVariants = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            manyVariants.addAll(variants);
+        }
+        List<SampleVariantStats> expected = new SampleVariantStatsCalculator(pedigree, samples).compute(manyVariants);
+
+        SampleVariantStatsCalculator calculator = new SampleVariantStatsCalculator(pedigree, samples);
+        calculator.pre();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Variant>>> futures = new ArrayList<>();
+            for (int i = 0; i < manyVariants.size(); i += 10) {
+                List<Variant> batch = manyVariants.subList(i, Math.min(i + 10, manyVariants.size()));
+                futures.add(executor.submit(() -> calculator.apply(batch)));
+            }
+            for (Future<List<Variant>> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        calculator.post();
+
+        Assert.assertEquals(expected, calculator.getSampleVariantStats());
+        checkStats(calculator.getSampleVariantStats());
+    }
+
+    @Test
+    public void testStatsBeforePost() {
+        List<SampleVariantStats> expected = new SampleVariantStatsCalculator(pedigree, samples).compute(variants);
+
+        SampleVariantStatsCalculator calculator = new SampleVariantStatsCalculator(pedigree, samples);
+        calculator.pre();
+        calculator.update(variants.get(0));
+        calculator.update(variants.get(1));
+        Assert.assertEquals(2, calculator.getSampleVariantStats().get(0).getVariantCount().intValue());
+        Assert.assertEquals(0, calculator.getSampleVariantStats().get(5).getVariantCount().intValue());
+
+        calculator.update(variants.get(2));
+        calculator.update(variants.get(3));
+        Assert.assertEquals(4, calculator.getSampleVariantStats().get(0).getVariantCount().intValue());
+        Assert.assertEquals(2, calculator.getSampleVariantStats().get(5).getVariantCount().intValue());
+
+        calculator.post();
+        Assert.assertEquals(expected, calculator.getSampleVariantStats());
+    }
+
     private void checkStats(List<SampleVariantStats> sampleStats) {
         Assert.assertTrue(sampleStats.get(0).getMendelianErrorCount().isEmpty());
         Assert.assertTrue(sampleStats.get(1).getMendelianErrorCount().isEmpty());
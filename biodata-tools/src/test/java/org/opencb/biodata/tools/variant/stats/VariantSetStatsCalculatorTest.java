@@ -17,6 +17,9 @@ import org.opencb.biodata.models.variant.metadata.VariantStudyMetadata;
 import org.opencb.commons.run.ParallelTaskRunner;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.IntStream;
 
 import static org.junit.Assert.assertEquals;
@@ -31,6 +34,7 @@ public class VariantSetStatsCalculatorTest {
 
     protected static final String STUDY_ID = "Study";
     private VariantReader reader;
+    private List<Variant> variantList;
     private VariantStudyMetadata studyMetadata;
 
     private int samplesPerFile = 5;
@@ -58,6 +62,7 @@ public class VariantSetStatsCalculatorTest {
         variants.add(variant("chr1:2000:A:G", file("F1", "NoPass", 100F), file("F2", "PASS", 100F)));
         variants.add(variant("chr1:3000:C:T", file("F1", "PASS", 90F), file("F2", "PASS", 100F)));
         variants.add(variant("chr1:4000:G:A", file("F1", "PASS", 100F), file("F2", "PASS", 100F)));
+        variantList = variants;
 
         reader = new VariantReader() {
             private Iterator<Variant> iterator = variants.iterator();
@@ -166,6 +171,34 @@ public class VariantSetStatsCalculatorTest {
 
     }
 
+    @Test
+    public void testParallelStats() throws Exception {
+        VariantSetStatsCalculator expectedTask = new VariantSetStatsCalculator(studyMetadata);
+        expectedTask.pre();
+        expectedTask.apply(variantList);
+        expectedTask.post();
+
+        VariantSetStatsCalculator statsTask = new VariantSetStatsCalculator(studyMetadata);
+        statsTask.pre();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Variant>>> futures = new ArrayList<>();
+            for (Variant variant : variantList) {
+                futures.add(executor.submit(() -> statsTask.apply(Collections.singletonList(variant))));
+            }
+            for (Future<List<Variant>> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        statsTask.post();
+
+        assertEquals(expectedTask.getStats(), statsTask.getStats());
+        assertEquals(variants, statsTask.getStats().getVariantCount().intValue());
+        assertEquals(files * samplesPerFile * variants / 2, statsTask.getStats().getGenotypeCount().get("1/1").intValue());
+    }
+
     protected VariantSetStats calculateStats(VariantSetStatsCalculator statsTask) throws java.util.concurrent.ExecutionException {
         Config config = Config.builder().setNumTasks(1).build();
 
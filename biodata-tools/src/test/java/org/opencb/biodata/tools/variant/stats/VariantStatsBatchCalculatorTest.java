@@ -0,0 +1,69 @@
+package org.opencb.biodata.tools.variant.stats;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.VariantBuilder;
+import org.opencb.biodata.models.variant.stats.VariantHardyWeinbergStats;
+import org.opencb.biodata.models.variant.stats.VariantStats;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class VariantStatsBatchCalculatorTest {
+
+    private static final String[] GENOTYPES = {"0/0", "0|0", "0/1", "1|0", "1/1", "./.", "0/.", "1/2", "0", "1", "."};
+
+    @Test
+    public void testCompareWithVariantStatsCalculator() {
+        Random random = new Random(1);
+        List<String> samples = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            samples.add("S" + i);
+        }
+        List<Variant> variants = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            VariantBuilder builder = new VariantBuilder("1:" + (100 + i) + ":A:C")
+                    .setStudyId("s1")
+                    .setSampleDataKeys("GT")
+                    .setSampleNames(samples);
+            for (String sample : samples) {
+                // mostly diploid biallelic genotypes
+                String gt = GENOTYPES[random.nextInt(10) < 8 ? random.nextInt(5) : random.nextInt(GENOTYPES.length)];
+                builder.addSample(sample, gt);
+            }
+            variants.add(builder.build());
+        }
+        List<String> cohort = samples.subList(10, 40);
+
+        VariantStatsBatchCalculator.Batch batch = new VariantStatsBatchCalculator(cohort).calculate(variants);
+        assertEquals(variants.size(), batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            VariantStats expected = VariantStatsCalculator.calculate(variants.get(i), variants.get(i).getStudies().get(0),
+                    cohort);
+            assertEquals(expected.getRefAlleleCount().intValue(), batch.getRefAlleleCount()[i]);
+            assertEquals(expected.getAltAlleleCount().intValue(), batch.getAltAlleleCount()[i]);
+            assertEquals(expected.getAlleleCount().intValue(), batch.getAlleleCount()[i]);
+            assertEquals(expected.getMissingAlleleCount().intValue(), batch.getMissingAlleleCount()[i]);
+            assertEquals(expected.getMissingGenotypeCount().intValue(), batch.getMissingGenotypeCount()[i]);
+            assertEquals(expected.getSampleCount().intValue(), batch.getSampleCount()[i]);
+            assertEquals(expected.getRefAlleleFreq(), batch.getRefAlleleFreq()[i], 0.00001);
+            assertEquals(expected.getAltAlleleFreq(), batch.getAltAlleleFreq()[i], 0.00001);
+            assertEquals(expected.getMaf(), batch.getMaf()[i], 0.00001);
+            assertEquals(expected.getGenotypeCount().getOrDefault("0/0", 0).intValue(), batch.getHomRefCount()[i]);
+            assertEquals(expected.getGenotypeCount().getOrDefault("0/1", 0).intValue(), batch.getHetCount()[i]);
+            assertEquals(expected.getGenotypeCount().getOrDefault("1/1", 0).intValue(), batch.getHomAltCount()[i]);
+            assertEquals(expected.getMissingGenotypeCount()
+                    / (float) (expected.getSampleCount() + expected.getMissingGenotypeCount()),
+                    batch.getMissingness()[i], 0.00001);
+            assertTrue(batch.getHweExactPValue()[i] >= 0 && batch.getHweExactPValue()[i] <= 1);
+            assertTrue(batch.getHweChi2PValue()[i] >= 0 && batch.getHweChi2PValue()[i] <= 1);
+            int[] counts = {batch.getHomRefCount()[i], batch.getHetCount()[i], batch.getHomAltCount()[i]};
+            assertEquals(VariantHardyWeinbergStats.chi2(counts[0], counts[1], counts[2]), batch.getHweChi2()[i], 0);
+            assertEquals(VariantHardyWeinbergStats.exactPValue(counts[0], counts[1], counts[2]),
+                    batch.getHweExactPValue()[i], 0);
+
+            assertEquals(expected.getMaf(), batch.toVariantStats(i).getMaf(), 0);
+        }
+    }
+}